@@ -0,0 +1,459 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.benchmarks;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import com.kingsrook.qbits.userrolepermissions.LatencyInjector;
+import com.kingsrook.qbits.userrolepermissions.PerformanceTestInstance;
+import com.kingsrook.qbits.userrolepermissions.RbacDatasetGenerator;
+import com.kingsrook.qbits.userrolepermissions.UserRolePermissionsQBitConfig;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionHandle;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionSet;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/*******************************************************************************
+ ** Benchmarks for PermissionManager's read path - getEffectivePermissionsForUser
+ ** (and a contains check on its result), hasPermission (by name, and by
+ ** pre-resolved PermissionHandle), getEffectivePermissionsForRoles, and
+ ** getRoleIdsForUser - against the Memory backend and H2, over a skewed,
+ ** synthetic dataset (from RbacDatasetGenerator) sized by the user, role &
+ ** permission count params.
+ **
+ ** Each read is benchmarked:
+ ** - hot:  for a user (or role set) among the first hotUserCount, all cached.
+ ** - cold: after flushing all cached entries, so every read loads.
+ ** - mixed:  for any user, where mixedHitRatio of reads find their entry
+ **   cached, and the rest have it flushed first.
+ **
+ ** With latencyMillis over 0, each backend operation on the permission
+ ** tables takes that much longer (see LatencyInjector) - as over a slow
+ ** database.
+ **
+ ** Run through the jmh maven profile (see the pom), which reports throughput
+ ** and sampled latency (from the modes here), and allocation rate (from the gc
+ ** profiler) - which, for the hot hasPermission benchmarks, and the reads
+ ** that find nothing (emptyPermissionSet), should be ~0 bytes per operation.
+ *******************************************************************************/
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermissionReadBenchmark
+{
+
+   /*******************************************************************************
+    ** The instance and dataset - set up once per trial.
+    *******************************************************************************/
+   @State(Scope.Benchmark)
+   public static class BenchmarkState
+   {
+      @Param({ PerformanceTestInstance.MEMORY, PerformanceTestInstance.H2 })
+      public String backend;
+
+      @Param({ "10000" })
+      public int userCount;
+
+      @Param({ "200" })
+      public int roleCount;
+
+      @Param({ "2000" })
+      public int permissionCount;
+
+      @Param({ "3" })
+      public int rolesPerUser;
+
+      @Param({ "200" })
+      public int maxPermissionsPerRole;
+
+      @Param({ "1.0" })
+      public double skew;
+
+      @Param({ "1000" })
+      public int hotUserCount;
+
+      @Param({ "0.9" })
+      public double mixedHitRatio;
+
+      @Param({ "0" })
+      public int latencyMillis;
+
+      private QInstance                    qInstance;
+      private RbacDatasetGenerator.Dataset dataset;
+      private List<Integer>                hotUserIds;
+      private List<Set<Integer>>           hotRoleSets;
+      private String[]                     permissionNames;
+      private PermissionHandle[]           permissionHandles;
+
+
+
+      /*******************************************************************************
+       ** Build the instance, insert the dataset, and warm the hot entries.
+       *******************************************************************************/
+      @Setup(Level.Trial)
+      public void setup() throws Exception
+      {
+         qInstance = PerformanceTestInstance.define(backend, new UserRolePermissionsQBitConfig(), latencyMillis > 0);
+         dataset = new RbacDatasetGenerator()
+            .withUserCount(userCount)
+            .withRoleCount(roleCount)
+            .withPermissionCount(permissionCount)
+            .withRolesPerUser(rolesPerUser)
+            .withMaxPermissionsPerRole(maxPermissionsPerRole)
+            .withSkew(skew)
+            .insert();
+         LatencyInjector.getInstance().withLatency(Duration.ofMillis(latencyMillis));
+
+         hotUserIds = new ArrayList<>();
+         hotRoleSets = new ArrayList<>();
+         for(int i = 0; i < Math.min(hotUserCount, userCount); i++)
+         {
+            hotUserIds.add(dataset.getUserId(i));
+            hotRoleSets.add(dataset.getRoleIds(i));
+         }
+
+         /////////////////////////////////////////////////////////////////////
+         // names & handles up front - so picking one doesn't allocate, and //
+         // the gc profiler only sees what the reads themselves allocate.   //
+         /////////////////////////////////////////////////////////////////////
+         permissionNames = new String[permissionCount];
+         permissionHandles = new PermissionHandle[permissionCount];
+         for(int i = 0; i < permissionCount; i++)
+         {
+            permissionNames[i] = RbacDatasetGenerator.Dataset.getPermissionName(i);
+            permissionHandles[i] = PermissionManager.getInstance().resolvePermission(permissionNames[i]);
+         }
+
+         PermissionManager.getInstance().flushAllCache();
+         warm();
+      }
+
+
+
+      /*******************************************************************************
+       ** Load the hot users' & role sets' entries (again, after a cold
+       ** benchmark's flushes).
+       *******************************************************************************/
+      @Setup(Level.Iteration)
+      public void warm() throws QException
+      {
+         QContext.init(qInstance, new QSession());
+         PermissionManager permissionManager = PermissionManager.getInstance();
+         for(int i = 0; i < hotUserIds.size(); i++)
+         {
+            permissionManager.getEffectivePermissionsForUser(hotUserIds.get(i));
+            permissionManager.getRoleIdsForUser(hotUserIds.get(i));
+            permissionManager.getEffectivePermissionsForRoles(hotRoleSets.get(i));
+         }
+      }
+
+
+
+      /*******************************************************************************
+       **
+       *******************************************************************************/
+      @TearDown(Level.Trial)
+      public void tearDown()
+      {
+         LatencyInjector.getInstance().reset();
+         PermissionManager.getInstance().flushAllCache();
+         QContext.clear();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Per-thread context (QContext is thread-local) and random source.
+    *******************************************************************************/
+   @State(Scope.Thread)
+   public static class Reader
+   {
+      private final SplittableRandom random = new SplittableRandom(47);
+
+
+
+      /*******************************************************************************
+       **
+       *******************************************************************************/
+      @Setup(Level.Trial)
+      public void setup(BenchmarkState state)
+      {
+         QContext.init(state.qInstance, new QSession());
+      }
+
+
+
+      /*******************************************************************************
+       ** Pick a hot user's index.
+       *******************************************************************************/
+      int hotIndex(BenchmarkState state)
+      {
+         return (random.nextInt(state.hotUserIds.size()));
+      }
+
+
+
+      /*******************************************************************************
+       ** Pick any user's index.
+       *******************************************************************************/
+      int anyIndex(BenchmarkState state)
+      {
+         return (random.nextInt(state.dataset.getUserCount()));
+      }
+
+
+
+      /*******************************************************************************
+       ** Pick a permission name to check.
+       *******************************************************************************/
+      String permissionName(BenchmarkState state)
+      {
+         return (state.permissionNames[random.nextInt(state.permissionNames.length)]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Pick a (pre-resolved) permission to check.
+       *******************************************************************************/
+      PermissionHandle permissionHandle(BenchmarkState state)
+      {
+         return (state.permissionHandles[random.nextInt(state.permissionHandles.length)]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Pick a user for a mixed read - flushing its entries, unless the read
+       ** should be a hit.
+       *******************************************************************************/
+      Integer mixedUserId(BenchmarkState state)
+      {
+         Integer userId = state.dataset.getUserId(anyIndex(state));
+         if(random.nextDouble() >= state.mixedHitRatio)
+         {
+            PermissionManager.getInstance().flushCacheForUpdatedUserIds(List.of(userId));
+         }
+         return (userId);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<String> hotEffectivePermissionsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().getEffectivePermissionsForUser(state.hotUserIds.get(reader.hotIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean hotContains(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionSet permissionSet = PermissionManager.getInstance().getEffectivePermissionSetForUser(state.hotUserIds.get(reader.hotIndex(state)));
+      return (permissionSet.contains(reader.permissionName(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean hotHasPermission(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().hasPermission(state.hotUserIds.get(reader.hotIndex(state)), reader.permissionName(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean hotHasPermissionHandle(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().hasPermission(state.hotUserIds.get(reader.hotIndex(state)), reader.permissionHandle(state)));
+   }
+
+
+
+   /*******************************************************************************
+    ** reads that find nothing (no user, or no roles) - which return the
+    ** dictionary's shared empty set.
+    *******************************************************************************/
+   @Benchmark
+   public int emptyPermissionSet(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionManager permissionManager = PermissionManager.getInstance();
+      return (permissionManager.getEffectivePermissionSetForUser(null).size() + permissionManager.getEffectivePermissionSetForRoles(Set.of()).size());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<String> hotEffectivePermissionsForRoles(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().getEffectivePermissionsForRoles(state.hotRoleSets.get(reader.hotIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<Integer> hotRoleIdsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().getRoleIdsForUser(state.hotUserIds.get(reader.hotIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<String> coldEffectivePermissionsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionManager.getInstance().flushAllCache();
+      return (PermissionManager.getInstance().getEffectivePermissionsForUser(state.dataset.getUserId(reader.anyIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean coldContains(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionManager.getInstance().flushAllCache();
+      PermissionSet permissionSet = PermissionManager.getInstance().getEffectivePermissionSetForUser(state.dataset.getUserId(reader.anyIndex(state)));
+      return (permissionSet.contains(reader.permissionName(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<String> coldEffectivePermissionsForRoles(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionManager.getInstance().flushAllCache();
+      return (PermissionManager.getInstance().getEffectivePermissionsForRoles(state.dataset.getRoleIds(reader.anyIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<Integer> coldRoleIdsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionManager.getInstance().flushAllCache();
+      return (PermissionManager.getInstance().getRoleIdsForUser(state.dataset.getUserId(reader.anyIndex(state))));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<String> mixedEffectivePermissionsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().getEffectivePermissionsForUser(reader.mixedUserId(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean mixedContains(BenchmarkState state, Reader reader) throws QException
+   {
+      PermissionSet permissionSet = PermissionManager.getInstance().getEffectivePermissionSetForUser(reader.mixedUserId(state));
+      return (permissionSet.contains(reader.permissionName(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public boolean mixedHasPermissionHandle(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().hasPermission(reader.mixedUserId(state), reader.permissionHandle(state)));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Benchmark
+   public Set<Integer> mixedRoleIdsForUser(BenchmarkState state, Reader reader) throws QException
+   {
+      return (PermissionManager.getInstance().getRoleIdsForUser(reader.mixedUserId(state)));
+   }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.time.Duration;
+import java.util.List;
+
+
+/*******************************************************************************
+ ** Configuration for one of the caches owned by the PermissionManager.
+ **
+ ** Leaving both maxEntries and maxWeight null gives an unbounded cache (the
+ ** original behavior).  Setting either one turns on the size-bounded,
+ ** frequency-aware eviction policy of PermissionCache.
+ **
+ ** To avoid a latency cliff when entries expire, refreshAheadFraction and
+ ** staleWhileRevalidate have entries re-loaded in the background (while the
+ ** current value is still served), and expiryJitter spreads out the expiry
+ ** of entries that were loaded at the same time (e.g., when warmed at deploy).
+ *******************************************************************************/
+public class PermissionCacheConfig
+{
+   private Duration timeout = Duration.ofMinutes(5);
+   private Integer  maxEntries;
+   private Long     maxWeight;
+   private Duration sweepInterval;
+   private Double   refreshAheadFraction;
+   private Duration staleWhileRevalidate;
+   private Duration expiryJitter;
+
+
+
+   /*******************************************************************************
+    ** Default constructor
+    *******************************************************************************/
+   public PermissionCacheConfig()
+   {
+   }
+
+
+
+   /***************************************************************************
+    ** add any errors in this config to the input list - prefixing them with
+    ** the given cache name.
+    ***************************************************************************/
+   public void validate(String cacheName, List<String> errors)
+   {
+      if(timeout == null || timeout.isNegative() || timeout.isZero())
+      {
+         errors.add(cacheName + " timeout must be a positive duration");
+      }
+
+      if(maxEntries != null && maxEntries < 1)
+      {
+         errors.add(cacheName + " maxEntries must be greater than 0");
+      }
+
+      if(maxWeight != null && maxWeight < 1)
+      {
+         errors.add(cacheName + " maxWeight must be greater than 0");
+      }
+
+      if(sweepInterval != null && (sweepInterval.isNegative() || sweepInterval.isZero()))
+      {
+         errors.add(cacheName + " sweepInterval must be a positive duration");
+      }
+
+      if(refreshAheadFraction != null && (refreshAheadFraction <= 0 || refreshAheadFraction >= 1))
+      {
+         errors.add(cacheName + " refreshAheadFraction must be between 0 and 1 (exclusive)");
+      }
+
+      if(staleWhileRevalidate != null && staleWhileRevalidate.isNegative())
+      {
+         errors.add(cacheName + " staleWhileRevalidate must not be negative");
+      }
+
+      if(expiryJitter != null && expiryJitter.isNegative())
+      {
+         errors.add(cacheName + " expiryJitter must not be negative");
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for timeout
+    *******************************************************************************/
+   public Duration getTimeout()
+   {
+      return (this.timeout);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for timeout
+    *******************************************************************************/
+   public void setTimeout(Duration timeout)
+   {
+      this.timeout = timeout;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for timeout
+    *******************************************************************************/
+   public PermissionCacheConfig withTimeout(Duration timeout)
+   {
+      this.timeout = timeout;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for maxEntries
+    *******************************************************************************/
+   public Integer getMaxEntries()
+   {
+      return (this.maxEntries);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for maxEntries
+    *******************************************************************************/
+   public void setMaxEntries(Integer maxEntries)
+   {
+      this.maxEntries = maxEntries;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for maxEntries
+    *******************************************************************************/
+   public PermissionCacheConfig withMaxEntries(Integer maxEntries)
+   {
+      this.maxEntries = maxEntries;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for maxWeight
+    *******************************************************************************/
+   public Long getMaxWeight()
+   {
+      return (this.maxWeight);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for maxWeight
+    *******************************************************************************/
+   public void setMaxWeight(Long maxWeight)
+   {
+      this.maxWeight = maxWeight;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for maxWeight - an approximate number of bytes that the
+    ** entries in the cache may use.
+    *******************************************************************************/
+   public PermissionCacheConfig withMaxWeight(Long maxWeight)
+   {
+      this.maxWeight = maxWeight;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for sweepInterval
+    *******************************************************************************/
+   public Duration getSweepInterval()
+   {
+      return (this.sweepInterval);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for sweepInterval
+    *******************************************************************************/
+   public void setSweepInterval(Duration sweepInterval)
+   {
+      this.sweepInterval = sweepInterval;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for sweepInterval - how often a background thread should
+    ** remove expired entries.  null means expired entries are only removed
+    ** when they are next read (or evicted).
+    *******************************************************************************/
+   public PermissionCacheConfig withSweepInterval(Duration sweepInterval)
+   {
+      this.sweepInterval = sweepInterval;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for refreshAheadFraction
+    *******************************************************************************/
+   public Double getRefreshAheadFraction()
+   {
+      return (this.refreshAheadFraction);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for refreshAheadFraction
+    *******************************************************************************/
+   public void setRefreshAheadFraction(Double refreshAheadFraction)
+   {
+      this.refreshAheadFraction = refreshAheadFraction;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for refreshAheadFraction - if an entry is read after this
+    ** fraction of its lifetime has passed (e.g., 0.8), it is re-loaded in the
+    ** background, while the current value is returned.  null means no
+    ** refresh-ahead.
+    *******************************************************************************/
+   public PermissionCacheConfig withRefreshAheadFraction(Double refreshAheadFraction)
+   {
+      this.refreshAheadFraction = refreshAheadFraction;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for staleWhileRevalidate
+    *******************************************************************************/
+   public Duration getStaleWhileRevalidate()
+   {
+      return (this.staleWhileRevalidate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for staleWhileRevalidate
+    *******************************************************************************/
+   public void setStaleWhileRevalidate(Duration staleWhileRevalidate)
+   {
+      this.staleWhileRevalidate = staleWhileRevalidate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for staleWhileRevalidate - for how long after an entry
+    ** expires it may still be returned, while it is re-loaded in the
+    ** background.  null means expired entries are always re-loaded by the
+    ** caller.
+    *******************************************************************************/
+   public PermissionCacheConfig withStaleWhileRevalidate(Duration staleWhileRevalidate)
+   {
+      this.staleWhileRevalidate = staleWhileRevalidate;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for expiryJitter
+    *******************************************************************************/
+   public Duration getExpiryJitter()
+   {
+      return (this.expiryJitter);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for expiryJitter
+    *******************************************************************************/
+   public void setExpiryJitter(Duration expiryJitter)
+   {
+      this.expiryJitter = expiryJitter;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for expiryJitter - a random amount, up to this duration, is
+    ** added to each entry's timeout.  null means no jitter.
+    *******************************************************************************/
+   public PermissionCacheConfig withExpiryJitter(Duration expiryJitter)
+   {
+      this.expiryJitter = expiryJitter;
+      return (this);
+   }
+
+}
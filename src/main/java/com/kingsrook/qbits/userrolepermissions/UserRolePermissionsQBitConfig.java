@@ -22,12 +22,19 @@
 package com.kingsrook.qbits.userrolepermissions;
 
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionInvalidationBusInterface;
 import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
 import com.kingsrook.qqq.backend.core.model.metadata.producers.MetaDataCustomizerInterface;
 import com.kingsrook.qqq.backend.core.model.metadata.qbits.ProvidedOrSuppliedTableConfig;
 import com.kingsrook.qqq.backend.core.model.metadata.qbits.QBitConfig;
 import com.kingsrook.qqq.backend.core.model.metadata.tables.QTableMetaData;
+import com.kingsrook.qqq.backend.core.utils.StringUtils;
 
 
 /*******************************************************************************
@@ -39,6 +46,28 @@ public class UserRolePermissionsQBitConfig implements QBitConfig
    private ProvidedOrSuppliedTableConfig               userTableConfig;
    private MetaDataCustomizerInterface<QTableMetaData> tableMetaDataCustomizer;
 
+   private PermissionCacheConfig userPermissionsCacheConfig = new PermissionCacheConfig();
+   private PermissionCacheConfig rolePermissionsCacheConfig = new PermissionCacheConfig();
+   private PermissionCacheConfig userRoleIdsCacheConfig     = new PermissionCacheConfig();
+   private Set<Integer>          pinnedUserIds              = new HashSet<>();
+
+   private boolean useAuthorizationSnapshot = false;
+   private boolean publishJmxMetrics        = false;
+
+   private Duration slowLoadThreshold = Duration.ofMillis(500);
+
+   private PermissionInvalidationBusInterface invalidationBus;
+   private String                             nodeId                 = UUID.randomUUID().toString();
+   private Duration                           transactionSettleDelay = Duration.ofSeconds(10);
+
+   private boolean  useChangeLog          = false;
+   private Duration changeLogPollInterval = Duration.ofSeconds(5);
+
+   private boolean useMaterializedUserPermissions = false;
+
+   private Path     authorizationSnapshotFile;
+   private Duration authorizationSnapshotFileWriteInterval = Duration.ofMinutes(5);
+
 
 
    /***************************************************************************
@@ -48,6 +77,43 @@ public class UserRolePermissionsQBitConfig implements QBitConfig
    public void validate(QInstance qInstance, List<String> errors)
    {
       assertCondition(userTableConfig != null, "userTableConfig must be provided", errors);
+
+      if(assertCondition(userPermissionsCacheConfig != null, "userPermissionsCacheConfig must be provided", errors))
+      {
+         userPermissionsCacheConfig.validate("userPermissionsCacheConfig", errors);
+      }
+
+      if(assertCondition(rolePermissionsCacheConfig != null, "rolePermissionsCacheConfig must be provided", errors))
+      {
+         rolePermissionsCacheConfig.validate("rolePermissionsCacheConfig", errors);
+      }
+
+      if(assertCondition(userRoleIdsCacheConfig != null, "userRoleIdsCacheConfig must be provided", errors))
+      {
+         userRoleIdsCacheConfig.validate("userRoleIdsCacheConfig", errors);
+      }
+
+      assertCondition(slowLoadThreshold == null || !slowLoadThreshold.isNegative(), "slowLoadThreshold must not be negative", errors);
+
+      if(invalidationBus != null)
+      {
+         assertCondition(StringUtils.hasContent(nodeId), "nodeId must be provided when an invalidationBus is", errors);
+      }
+
+      assertCondition(transactionSettleDelay == null || (!transactionSettleDelay.isNegative() && !transactionSettleDelay.isZero()), "transactionSettleDelay must be positive (or null, to only settle when commits are reported)", errors);
+
+      if(useChangeLog)
+      {
+         assertCondition(StringUtils.hasContent(nodeId), "nodeId must be provided when useChangeLog is true", errors);
+         assertCondition(changeLogPollInterval == null || (!changeLogPollInterval.isNegative() && !changeLogPollInterval.isZero()), "changeLogPollInterval must be positive (or null, to only poll on demand)", errors);
+      }
+
+      if(authorizationSnapshotFile != null)
+      {
+         assertCondition(useAuthorizationSnapshot, "useAuthorizationSnapshot must be true when an authorizationSnapshotFile is provided", errors);
+         assertCondition(useChangeLog, "useChangeLog must be true when an authorizationSnapshotFile is provided", errors);
+         assertCondition(authorizationSnapshotFileWriteInterval == null || (!authorizationSnapshotFileWriteInterval.isNegative() && !authorizationSnapshotFileWriteInterval.isZero()), "authorizationSnapshotFileWriteInterval must be positive (or null, to only write at shutdown)", errors);
+      }
    }
 
 
@@ -112,4 +178,507 @@ public class UserRolePermissionsQBitConfig implements QBitConfig
    }
 
 
+
+   /*******************************************************************************
+    ** Getter for userPermissionsCacheConfig
+    *******************************************************************************/
+   public PermissionCacheConfig getUserPermissionsCacheConfig()
+   {
+      return (this.userPermissionsCacheConfig);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userPermissionsCacheConfig
+    *******************************************************************************/
+   public void setUserPermissionsCacheConfig(PermissionCacheConfig userPermissionsCacheConfig)
+   {
+      this.userPermissionsCacheConfig = userPermissionsCacheConfig;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userPermissionsCacheConfig
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withUserPermissionsCacheConfig(PermissionCacheConfig userPermissionsCacheConfig)
+   {
+      this.userPermissionsCacheConfig = userPermissionsCacheConfig;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for rolePermissionsCacheConfig
+    *******************************************************************************/
+   public PermissionCacheConfig getRolePermissionsCacheConfig()
+   {
+      return (this.rolePermissionsCacheConfig);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for rolePermissionsCacheConfig
+    *******************************************************************************/
+   public void setRolePermissionsCacheConfig(PermissionCacheConfig rolePermissionsCacheConfig)
+   {
+      this.rolePermissionsCacheConfig = rolePermissionsCacheConfig;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for rolePermissionsCacheConfig
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withRolePermissionsCacheConfig(PermissionCacheConfig rolePermissionsCacheConfig)
+   {
+      this.rolePermissionsCacheConfig = rolePermissionsCacheConfig;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userRoleIdsCacheConfig
+    *******************************************************************************/
+   public PermissionCacheConfig getUserRoleIdsCacheConfig()
+   {
+      return (this.userRoleIdsCacheConfig);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userRoleIdsCacheConfig
+    *******************************************************************************/
+   public void setUserRoleIdsCacheConfig(PermissionCacheConfig userRoleIdsCacheConfig)
+   {
+      this.userRoleIdsCacheConfig = userRoleIdsCacheConfig;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userRoleIdsCacheConfig
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withUserRoleIdsCacheConfig(PermissionCacheConfig userRoleIdsCacheConfig)
+   {
+      this.userRoleIdsCacheConfig = userRoleIdsCacheConfig;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for pinnedUserIds
+    *******************************************************************************/
+   public Set<Integer> getPinnedUserIds()
+   {
+      return (this.pinnedUserIds);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for pinnedUserIds
+    *******************************************************************************/
+   public void setPinnedUserIds(Set<Integer> pinnedUserIds)
+   {
+      this.pinnedUserIds = pinnedUserIds;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for pinnedUserIds - ids of users (e.g.,
+    ** service accounts) whose cache entries should never be evicted for size.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withPinnedUserIds(Set<Integer> pinnedUserIds)
+   {
+      this.pinnedUserIds = pinnedUserIds;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for useAuthorizationSnapshot
+    *******************************************************************************/
+   public boolean getUseAuthorizationSnapshot()
+   {
+      return (this.useAuthorizationSnapshot);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for useAuthorizationSnapshot
+    *******************************************************************************/
+   public void setUseAuthorizationSnapshot(boolean useAuthorizationSnapshot)
+   {
+      this.useAuthorizationSnapshot = useAuthorizationSnapshot;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for useAuthorizationSnapshot - if true, the PermissionManager
+    ** loads the whole authorization graph into an in-memory AuthorizationSnapshot,
+    ** and answers all lookups from it (instead of from its per-key caches).
+    ** Suited to deployments where the int tables comfortably fit in memory.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withUseAuthorizationSnapshot(boolean useAuthorizationSnapshot)
+   {
+      this.useAuthorizationSnapshot = useAuthorizationSnapshot;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for invalidationBus
+    *******************************************************************************/
+   public PermissionInvalidationBusInterface getInvalidationBus()
+   {
+      return (this.invalidationBus);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for invalidationBus
+    *******************************************************************************/
+   public void setInvalidationBus(PermissionInvalidationBusInterface invalidationBus)
+   {
+      this.invalidationBus = invalidationBus;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for invalidationBus - if set, writes to the int tables on
+    ** this node are published to it, and messages from other nodes flush the
+    ** entries they name from this node's caches.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withInvalidationBus(PermissionInvalidationBusInterface invalidationBus)
+   {
+      this.invalidationBus = invalidationBus;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for nodeId
+    *******************************************************************************/
+   public String getNodeId()
+   {
+      return (this.nodeId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for nodeId
+    *******************************************************************************/
+   public void setNodeId(String nodeId)
+   {
+      this.nodeId = nodeId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for nodeId - identifies this node's messages on the
+    ** invalidationBus (so it can ignore its own).  Defaults to a random UUID.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withNodeId(String nodeId)
+   {
+      this.nodeId = nodeId;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for transactionSettleDelay
+    *******************************************************************************/
+   public Duration getTransactionSettleDelay()
+   {
+      return (this.transactionSettleDelay);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for transactionSettleDelay
+    *******************************************************************************/
+   public void setTransactionSettleDelay(Duration transactionSettleDelay)
+   {
+      this.transactionSettleDelay = transactionSettleDelay;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for transactionSettleDelay - how often, after a write in
+    ** a caller's transaction, PermissionManager checks whether it's over, until
+    ** its commit (or rollback) is reported.  With useChangeLog, the write's
+    ** entry tells when it committed (and it's then written through, once).
+    ** Without it, the entries the write touched are flushed again (here, and
+    ** on the other nodes) each time, until the transaction is garbage
+    ** collected.  Null means only reported commits settle them.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withTransactionSettleDelay(Duration transactionSettleDelay)
+   {
+      this.transactionSettleDelay = transactionSettleDelay;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for useChangeLog
+    *******************************************************************************/
+   public boolean getUseChangeLog()
+   {
+      return (this.useChangeLog);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for useChangeLog
+    *******************************************************************************/
+   public void setUseChangeLog(boolean useChangeLog)
+   {
+      this.useChangeLog = useChangeLog;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for useChangeLog - if true, writes to the int tables also
+    ** write PermissionChangeLog entries (in their transaction), and each node
+    ** polls that table (every changeLogPollInterval) to flush the entries
+    ** other nodes' writes changed.  Needs the permissionChangeLog and
+    ** permissionVersion tables in the database - and makes writers to the int
+    ** tables take turns on the version row, until their transactions end.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withUseChangeLog(boolean useChangeLog)
+   {
+      this.useChangeLog = useChangeLog;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for changeLogPollInterval
+    *******************************************************************************/
+   public Duration getChangeLogPollInterval()
+   {
+      return (this.changeLogPollInterval);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for changeLogPollInterval
+    *******************************************************************************/
+   public void setChangeLogPollInterval(Duration changeLogPollInterval)
+   {
+      this.changeLogPollInterval = changeLogPollInterval;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for changeLogPollInterval - how often the change log is
+    ** polled, when useChangeLog is on.  Null means no background polling
+    ** (PermissionManager.pollChangeLog can be called instead).
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withChangeLogPollInterval(Duration changeLogPollInterval)
+   {
+      this.changeLogPollInterval = changeLogPollInterval;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for useMaterializedUserPermissions
+    *******************************************************************************/
+   public boolean getUseMaterializedUserPermissions()
+   {
+      return (this.useMaterializedUserPermissions);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for useMaterializedUserPermissions
+    *******************************************************************************/
+   public void setUseMaterializedUserPermissions(boolean useMaterializedUserPermissions)
+   {
+      this.useMaterializedUserPermissions = useMaterializedUserPermissions;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for useMaterializedUserPermissions - if true, the int-table
+    ** customizers keep the userEffectivePermission table up to date (in their
+    ** transactions), and user permission loads read it, instead of composing
+    ** roles & direct grants.  Needs that table (and its lock table) in the
+    ** database.  PermissionManager.start populates it if it isn't complete
+    ** (e.g., when first turned on) - loads compose the int tables until then.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withUseMaterializedUserPermissions(boolean useMaterializedUserPermissions)
+   {
+      this.useMaterializedUserPermissions = useMaterializedUserPermissions;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for authorizationSnapshotFile
+    *******************************************************************************/
+   public Path getAuthorizationSnapshotFile()
+   {
+      return (this.authorizationSnapshotFile);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for authorizationSnapshotFile
+    *******************************************************************************/
+   public void setAuthorizationSnapshotFile(Path authorizationSnapshotFile)
+   {
+      this.authorizationSnapshotFile = authorizationSnapshotFile;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for authorizationSnapshotFile - a file to keep a binary copy
+    ** of the authorization snapshot in:  read at startup (if it's current), so
+    ** the node starts warm, and rewritten every write interval & at shutdown.
+    ** Requires useAuthorizationSnapshot and useChangeLog (whose version row
+    ** tells whether the file is current).
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withAuthorizationSnapshotFile(Path authorizationSnapshotFile)
+   {
+      this.authorizationSnapshotFile = authorizationSnapshotFile;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for authorizationSnapshotFileWriteInterval
+    *******************************************************************************/
+   public Duration getAuthorizationSnapshotFileWriteInterval()
+   {
+      return (this.authorizationSnapshotFileWriteInterval);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for authorizationSnapshotFileWriteInterval
+    *******************************************************************************/
+   public void setAuthorizationSnapshotFileWriteInterval(Duration authorizationSnapshotFileWriteInterval)
+   {
+      this.authorizationSnapshotFileWriteInterval = authorizationSnapshotFileWriteInterval;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for authorizationSnapshotFileWriteInterval - how often the
+    ** authorizationSnapshotFile is rewritten.  Null means it's only written at
+    ** shutdown (or when PermissionManager.writeAuthorizationSnapshotFile is
+    ** called).
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withAuthorizationSnapshotFileWriteInterval(Duration authorizationSnapshotFileWriteInterval)
+   {
+      this.authorizationSnapshotFileWriteInterval = authorizationSnapshotFileWriteInterval;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for publishJmxMetrics
+    *******************************************************************************/
+   public boolean getPublishJmxMetrics()
+   {
+      return (this.publishJmxMetrics);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for publishJmxMetrics
+    *******************************************************************************/
+   public void setPublishJmxMetrics(boolean publishJmxMetrics)
+   {
+      this.publishJmxMetrics = publishJmxMetrics;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for publishJmxMetrics - if true, each permission cache's
+    ** size & counters are published as a JMX MXBean
+    ** (com.kingsrook.qbits.userrolepermissions:type=PermissionCache,name=...).
+    ** Off by default, so nothing is registered with the platform MBean server
+    ** unless an application asks for it.  The metrics are available from
+    ** PermissionManager.getMetricsRegistry either way.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withPublishJmxMetrics(boolean publishJmxMetrics)
+   {
+      this.publishJmxMetrics = publishJmxMetrics;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for slowLoadThreshold
+    *******************************************************************************/
+   public Duration getSlowLoadThreshold()
+   {
+      return (this.slowLoadThreshold);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for slowLoadThreshold
+    *******************************************************************************/
+   public void setSlowLoadThreshold(Duration slowLoadThreshold)
+   {
+      this.slowLoadThreshold = slowLoadThreshold;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for slowLoadThreshold - PermissionManager loads that take
+    ** longer than this are logged as warnings (with their row & role counts).
+    ** Null means none are.
+    *******************************************************************************/
+   public UserRolePermissionsQBitConfig withSlowLoadThreshold(Duration slowLoadThreshold)
+   {
+      this.slowLoadThreshold = slowLoadThreshold;
+      return (this);
+   }
+
 }
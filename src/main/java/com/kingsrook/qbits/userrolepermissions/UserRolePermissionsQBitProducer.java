@@ -24,7 +24,11 @@ package com.kingsrook.qbits.userrolepermissions;
 
 import java.util.Iterator;
 import java.util.List;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionVersion;
 import com.kingsrook.qbits.userrolepermissions.model.User;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermissionLock;
 import com.kingsrook.qqq.backend.core.exceptions.QException;
 import com.kingsrook.qqq.backend.core.model.metadata.MetaDataProducerHelper;
 import com.kingsrook.qqq.backend.core.model.metadata.MetaDataProducerInterface;
@@ -65,22 +69,50 @@ public class UserRolePermissionsQBitProducer implements QBitProducer
       ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
       if(userRolePermissionsQBitConfig.getUserTableConfig() != null && !userRolePermissionsQBitConfig.getUserTableConfig().getDoProvideTable())
       {
-         Iterator<MetaDataProducerInterface<?>> iterator = producers.iterator();
-         while(iterator.hasNext())
+         removeEntityProducers(producers, User.class);
+      }
+
+      ////////////////////////////////////////////////////////////////////
+      // likewise, only provide the tables for optional features that   //
+      // are turned on - so apps that don't use them don't need to have //
+      // (or create) those tables in their backend.                     //
+      ////////////////////////////////////////////////////////////////////
+      if(!userRolePermissionsQBitConfig.getUseChangeLog())
+      {
+         removeEntityProducers(producers, PermissionChangeLog.class);
+         removeEntityProducers(producers, PermissionVersion.class);
+      }
+
+      if(!userRolePermissionsQBitConfig.getUseMaterializedUserPermissions())
+      {
+         removeEntityProducers(producers, UserEffectivePermission.class);
+         removeEntityProducers(producers, UserEffectivePermissionLock.class);
+      }
+
+      finishProducing(qInstance, qBitMetaData, userRolePermissionsQBitConfig, producers);
+   }
+
+
+
+   /***************************************************************************
+    ** remove the meta-data producers that came from an entity class (its table
+    ** and possible value source).
+    ***************************************************************************/
+   private static void removeEntityProducers(List<MetaDataProducerInterface<?>> producers, Class<?> entityClass)
+   {
+      Iterator<MetaDataProducerInterface<?>> iterator = producers.iterator();
+      while(iterator.hasNext())
+      {
+         MetaDataProducerInterface<?> producer = iterator.next();
+         if(entityClass.equals(producer.getSourceClass()))
          {
-            MetaDataProducerInterface<?> producer = iterator.next();
-            if(producer.getSourceClass().equals(User.class))
+            if(producer.getClass().equals(RecordEntityToTableGenericMetaDataProducer.class)
+               || producer.getClass().equals(PossibleValueSourceOfTableGenericMetaDataProducer.class))
             {
-               if(producer.getClass().equals(RecordEntityToTableGenericMetaDataProducer.class)
-                  || producer.getClass().equals(PossibleValueSourceOfTableGenericMetaDataProducer.class))
-               {
-                  iterator.remove();
-               }
+               iterator.remove();
             }
          }
       }
-
-      finishProducing(qInstance, qBitMetaData, userRolePermissionsQBitConfig, producers);
    }
 
 
@@ -0,0 +1,192 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.customizers;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import com.kingsrook.qbits.userrolepermissions.utils.LatencyHistogram;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionDelta;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionHookEvent;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
+import com.kingsrook.qqq.backend.core.actions.QBackendTransaction;
+import com.kingsrook.qqq.backend.core.actions.customizers.TableCustomizerInterface;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterCriteria;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
+
+
+/*******************************************************************************
+ ** Base for the int tables' customizers - keeps the PermissionManager's caches
+ ** in sync with writes to a table, by applying the exact changes
+ ** (PermissionDelta), rather than flushing.  Each hook's work is timed (in
+ ** a latency histogram per table & hook, and a PermissionHookEvent).  Also a
+ ** pre-update customizer, to fetch updates' old records when QQQ doesn't.
+ *******************************************************************************/
+public abstract class AbstractPermissionIntCustomizer implements TableCustomizerInterface
+{
+   private static final int PAGE_SIZE = 1000;
+
+   /////////////////////////////////////////////////////////////////////
+   // old records fetched by preUpdate, for postUpdate (a customizer  //
+   // instance may not see both hooks).  weak keys, so an update that //
+   // fails between the hooks doesn't leak its entry.                 //
+   /////////////////////////////////////////////////////////////////////
+   private static final Map<UpdateInput, List<QRecord>> FETCHED_OLD_RECORDS = Collections.synchronizedMap(new WeakHashMap<>());
+
+   private final String tableName;
+
+   /////////////////////////////////////////////////////////////////
+   // latency of each hook's cache work (delta & apply), per hook //
+   /////////////////////////////////////////////////////////////////
+   private final LatencyHistogram postInsertLatency;
+   private final LatencyHistogram postUpdateLatency;
+   private final LatencyHistogram postDeleteLatency;
+
+
+
+   /*******************************************************************************
+    ** Constructor - for one of the int tables.
+    *******************************************************************************/
+   protected AbstractPermissionIntCustomizer(String tableName)
+   {
+      this.tableName = tableName;
+      this.postInsertLatency = getHookLatencyHistogram("postInsert");
+      this.postUpdateLatency = getHookLatencyHistogram("postUpdate");
+      this.postDeleteLatency = getHookLatencyHistogram("postDelete");
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public List<QRecord> postInsert(InsertInput insertInput, List<QRecord> records) throws QException
+   {
+      applyDelta("postInsert", postInsertLatency, records, () -> PermissionDelta.forInsertedRecords(tableName, records), insertInput.getTransaction());
+      return (records);
+   }
+
+
+
+   /***************************************************************************
+    ** if QQQ isn't giving this update its old records, fetch them (in the
+    ** update's transaction) for postUpdate - without them, its delta can't
+    ** say what was removed, and would have to flush everything.
+    ***************************************************************************/
+   @Override
+   public List<QRecord> preUpdate(UpdateInput updateInput, List<QRecord> records, boolean isPreview, Optional<List<QRecord>> oldRecordList) throws QException
+   {
+      if(isPreview || (oldRecordList != null && oldRecordList.isPresent()))
+      {
+         return (records);
+      }
+
+      List<Integer> ids = CollectionUtils.nonNullList(records).stream().map(record -> record.getValueInteger("id")).filter(Objects::nonNull).distinct().toList();
+      if(ids.isEmpty())
+      {
+         return (records);
+      }
+
+      List<QRecord> fetchedOldRecords = new ArrayList<>();
+      for(List<Integer> idPage : CollectionUtils.getPages(ids, PAGE_SIZE))
+      {
+         fetchedOldRecords.addAll(new QueryAction().execute(new QueryInput(tableName)
+            .withFilter(new QQueryFilter(new QFilterCriteria("id", QCriteriaOperator.IN, idPage)))
+            .withTransaction(updateInput.getTransaction())).getRecords());
+      }
+      FETCHED_OLD_RECORDS.put(updateInput, fetchedOldRecords);
+      return (records);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public List<QRecord> postUpdate(UpdateInput updateInput, List<QRecord> records, Optional<List<QRecord>> oldRecordList) throws QException
+   {
+      List<QRecord>           fetchedOldRecords = FETCHED_OLD_RECORDS.remove(updateInput);
+      Optional<List<QRecord>> oldRecords        = (oldRecordList != null && oldRecordList.isPresent()) ? oldRecordList : Optional.ofNullable(fetchedOldRecords);
+      applyDelta("postUpdate", postUpdateLatency, records, () -> PermissionDelta.forUpdatedRecords(tableName, records, oldRecords), updateInput.getTransaction());
+      return (records);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public List<QRecord> postDelete(DeleteInput deleteInput, List<QRecord> records) throws QException
+   {
+      applyDelta("postDelete", postDeleteLatency, records, () -> PermissionDelta.forDeletedRecords(tableName, records), deleteInput.getTransaction());
+      return (records);
+   }
+
+
+
+   /***************************************************************************
+    ** build a hook's delta, and apply it (in the write's transaction) - timing
+    ** both, even if they fail.
+    ***************************************************************************/
+   private void applyDelta(String hook, LatencyHistogram latencyHistogram, List<QRecord> records, Supplier<PermissionDelta> deltaSupplier, QBackendTransaction transaction) throws QException
+   {
+      PermissionHookEvent event = PermissionHookEvent.start(tableName, hook, CollectionUtils.nonNullList(records).size());
+      try
+      {
+         PermissionManager.getInstance().applyDelta(deltaSupplier.get(), transaction);
+      }
+      finally
+      {
+         latencyHistogram.record(event.finish());
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** the histogram for one of this table's hooks, in the PermissionManager's
+    ** metrics registry.
+    ***************************************************************************/
+   private LatencyHistogram getHookLatencyHistogram(String hook)
+   {
+      return (PermissionManager.getInstance().getMetricsRegistry().getLatencyHistogram("customizer." + tableName + "." + hook));
+   }
+
+}
@@ -22,67 +22,22 @@
 package com.kingsrook.qbits.userrolepermissions.customizers;
 
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
-import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
-import com.kingsrook.qqq.backend.core.actions.customizers.TableCustomizerInterface;
-import com.kingsrook.qqq.backend.core.exceptions.QException;
-import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
-import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
-import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
-import com.kingsrook.qqq.backend.core.model.data.QRecord;
-import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
 
 
 /*******************************************************************************
- **
+ ** Keeps the PermissionManager's caches in sync with writes to this table -
+ ** by applying the exact changes (PermissionDelta), rather than flushing.
  *******************************************************************************/
-public class UserRoleIntCustomizer implements TableCustomizerInterface
+public class UserRoleIntCustomizer extends AbstractPermissionIntCustomizer
 {
 
-   /***************************************************************************
-    **
-    ***************************************************************************/
-   @Override
-   public List<QRecord> postInsert(InsertInput insertInput, List<QRecord> records) throws QException
+   /*******************************************************************************
+    ** Constructor
+    *******************************************************************************/
+   public UserRoleIntCustomizer()
    {
-      Set<Integer> userIds = CollectionUtils.nonNullList(records).stream().map(r -> r.getValueInteger("userId")).collect(Collectors.toSet());
-      PermissionManager.getInstance().flushCacheForUpdatedUserIds(userIds);
-      return (records);
-   }
-
-
-
-   /***************************************************************************
-    **
-    ***************************************************************************/
-   @Override
-   public List<QRecord> postUpdate(UpdateInput updateInput, List<QRecord> records, Optional<List<QRecord>> oldRecordList) throws QException
-   {
-      Set<Integer> userIds = CollectionUtils.nonNullList(records).stream().map(r -> r.getValueInteger("userId")).collect(Collectors.toSet());
-      if(oldRecordList.isPresent())
-      {
-         userIds = new HashSet<>(userIds);
-         userIds.addAll(oldRecordList.get().stream().map(r -> r.getValueInteger("userId")).collect(Collectors.toSet()));
-      }
-      PermissionManager.getInstance().flushCacheForUpdatedUserIds(userIds);
-      return (records);
-   }
-
-
-
-   /***************************************************************************
-    **
-    ***************************************************************************/
-   @Override
-   public List<QRecord> postDelete(DeleteInput deleteInput, List<QRecord> records) throws QException
-   {
-      Set<Integer> userIds = CollectionUtils.nonNullList(records).stream().map(r -> r.getValueInteger("userId")).collect(Collectors.toSet());
-      PermissionManager.getInstance().flushCacheForUpdatedUserIds(userIds);
-      return (records);
+      super(UserRoleInt.TABLE_NAME);
    }
 
 }
@@ -0,0 +1,307 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.model;
+
+
+import java.time.Instant;
+import java.util.List;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.data.QField;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.data.QRecordEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.metadata.fields.ValueTooLongBehavior;
+import com.kingsrook.qqq.backend.core.model.metadata.layout.QIcon;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.MetaDataCustomizerInterface;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.annotations.QMetaDataProducingEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QFieldSection;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QTableMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.Tier;
+
+
+/*******************************************************************************
+ ** QRecord Entity for PermissionChangeLog table - one row per cache-affecting
+ ** write to the int tables (when useChangeLog is on in the qbit config):  the
+ ** user and role ids whose cached permissions the write changed, as comma-
+ ** separated lists (or flushAll, for everything).  Written in the same
+ ** transaction as the write, and read by each node's PermissionChangeLogPoller.
+ *******************************************************************************/
+@QMetaDataProducingEntity(
+   produceTableMetaData = true,
+   tableMetaDataCustomizer = PermissionChangeLog.MetaDataCustomizer.class
+)
+public class PermissionChangeLog extends QRecordEntity
+{
+   public static final String TABLE_NAME = "permissionChangeLog";
+
+   public static final int MAX_IDS_LENGTH = 4000;
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   public static class MetaDataCustomizer implements MetaDataCustomizerInterface<QTableMetaData>
+   {
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public QTableMetaData customizeMetaData(QInstance qInstance, QTableMetaData table) throws QException
+      {
+         return table
+            .withIcon(new QIcon().withName("history"))
+            .withRecordLabelFormat("%s")
+            .withRecordLabelFields("id")
+            .withSection(new QFieldSection("identity", new QIcon().withName("badge"), Tier.T1, List.of("id", "sourceNodeId", "flushAll")))
+            .withSection(new QFieldSection("changes", new QIcon().withName("sync"), Tier.T2, List.of("userIds", "roleIds")))
+            .withSection(new QFieldSection("dates", new QIcon().withName("calendar_month"), Tier.T3, List.of("createDate")));
+      }
+   }
+
+
+
+   @QField(isEditable = false, isPrimaryKey = true)
+   private Integer id;
+
+   @QField(isEditable = false)
+   private Instant createDate;
+
+   @QField(maxLength = 100, valueTooLongBehavior = ValueTooLongBehavior.TRUNCATE)
+   private String sourceNodeId;
+
+   @QField()
+   private Boolean flushAll;
+
+   @QField(maxLength = MAX_IDS_LENGTH, valueTooLongBehavior = ValueTooLongBehavior.ERROR)
+   private String userIds;
+
+   @QField(maxLength = MAX_IDS_LENGTH, valueTooLongBehavior = ValueTooLongBehavior.ERROR)
+   private String roleIds;
+
+
+
+   /*******************************************************************************
+    ** Default constructor
+    *******************************************************************************/
+   public PermissionChangeLog()
+   {
+   }
+
+
+
+   /*******************************************************************************
+    ** Constructor that takes a QRecord
+    *******************************************************************************/
+   public PermissionChangeLog(QRecord record)
+   {
+      populateFromQRecord(record);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for id
+    *******************************************************************************/
+   public Integer getId()
+   {
+      return (this.id);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for id
+    *******************************************************************************/
+   public void setId(Integer id)
+   {
+      this.id = id;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for id
+    *******************************************************************************/
+   public PermissionChangeLog withId(Integer id)
+   {
+      this.id = id;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for createDate
+    *******************************************************************************/
+   public Instant getCreateDate()
+   {
+      return (this.createDate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for createDate
+    *******************************************************************************/
+   public void setCreateDate(Instant createDate)
+   {
+      this.createDate = createDate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for createDate
+    *******************************************************************************/
+   public PermissionChangeLog withCreateDate(Instant createDate)
+   {
+      this.createDate = createDate;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for sourceNodeId
+    *******************************************************************************/
+   public String getSourceNodeId()
+   {
+      return (this.sourceNodeId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for sourceNodeId
+    *******************************************************************************/
+   public void setSourceNodeId(String sourceNodeId)
+   {
+      this.sourceNodeId = sourceNodeId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for sourceNodeId
+    *******************************************************************************/
+   public PermissionChangeLog withSourceNodeId(String sourceNodeId)
+   {
+      this.sourceNodeId = sourceNodeId;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for flushAll
+    *******************************************************************************/
+   public Boolean getFlushAll()
+   {
+      return (this.flushAll);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for flushAll
+    *******************************************************************************/
+   public void setFlushAll(Boolean flushAll)
+   {
+      this.flushAll = flushAll;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for flushAll
+    *******************************************************************************/
+   public PermissionChangeLog withFlushAll(Boolean flushAll)
+   {
+      this.flushAll = flushAll;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userIds
+    *******************************************************************************/
+   public String getUserIds()
+   {
+      return (this.userIds);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userIds
+    *******************************************************************************/
+   public void setUserIds(String userIds)
+   {
+      this.userIds = userIds;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userIds
+    *******************************************************************************/
+   public PermissionChangeLog withUserIds(String userIds)
+   {
+      this.userIds = userIds;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for roleIds
+    *******************************************************************************/
+   public String getRoleIds()
+   {
+      return (this.roleIds);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for roleIds
+    *******************************************************************************/
+   public void setRoleIds(String roleIds)
+   {
+      this.roleIds = roleIds;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for roleIds
+    *******************************************************************************/
+   public PermissionChangeLog withRoleIds(String roleIds)
+   {
+      this.roleIds = roleIds;
+      return (this);
+   }
+
+}
@@ -78,6 +78,7 @@ public class RolePermissionInt extends QRecordEntity
             .withExposedJoin(new ExposedJoin().withJoinTable(Permission.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(Permission.TABLE_NAME, RolePermissionInt.TABLE_NAME))))
             .withExposedJoin(new ExposedJoin().withJoinTable(Role.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(Role.TABLE_NAME, RolePermissionInt.TABLE_NAME))))
             .withCustomizer(TableCustomizers.POST_INSERT_RECORD, new QCodeReference(RolePermissionIntCustomizer.class))
+            .withCustomizer(TableCustomizers.PRE_UPDATE_RECORD, new QCodeReference(RolePermissionIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_UPDATE_RECORD, new QCodeReference(RolePermissionIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_DELETE_RECORD, new QCodeReference(RolePermissionIntCustomizer.class));
       }
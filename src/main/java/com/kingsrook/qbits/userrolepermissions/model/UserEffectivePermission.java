@@ -0,0 +1,273 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.model;
+
+
+import java.time.Instant;
+import java.util.List;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.data.QField;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.data.QRecordEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.metadata.layout.QIcon;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.MetaDataCustomizerInterface;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.annotations.QMetaDataProducingEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QFieldSection;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QTableMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.Tier;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.UniqueKey;
+
+
+/*******************************************************************************
+ ** QRecord Entity for UserEffectivePermission table - a materialized copy of
+ ** every user's effective permissions:  one row per user, permission, and
+ ** where it came from (sourceRoleId - or null, for a direct grant).
+ **
+ ** Only maintained when useMaterializedUserPermissions is on in the qbit
+ ** config - by the int-table customizers (see UserEffectivePermissionMaintainer),
+ ** in the same transaction as their writes.  Not meant to be edited directly.
+ *******************************************************************************/
+@QMetaDataProducingEntity(
+   produceTableMetaData = true,
+   tableMetaDataCustomizer = UserEffectivePermission.MetaDataCustomizer.class
+)
+public class UserEffectivePermission extends QRecordEntity
+{
+   public static final String TABLE_NAME = "userEffectivePermission";
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   public static class MetaDataCustomizer implements MetaDataCustomizerInterface<QTableMetaData>
+   {
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public QTableMetaData customizeMetaData(QInstance qInstance, QTableMetaData table) throws QException
+      {
+         return table
+            .withIcon(new QIcon().withName("verified_user"))
+            .withRecordLabelFormat("%s - %s")
+            .withRecordLabelFields("permissionId", "userId")
+            .withUniqueKey(new UniqueKey("userId", "permissionId", "sourceRoleId"))
+            .withSection(new QFieldSection("identity", new QIcon().withName("badge"), Tier.T1, List.of("id", "userId", "permissionId", "sourceRoleId")))
+            .withSection(new QFieldSection("dates", new QIcon().withName("calendar_month"), Tier.T3, List.of("createDate")));
+      }
+   }
+
+
+
+   @QField(isEditable = false, isPrimaryKey = true)
+   private Integer id;
+
+   @QField(isEditable = false)
+   private Instant createDate;
+
+   @QField(isEditable = false, isRequired = true, possibleValueSourceName = User.TABLE_NAME)
+   private Integer userId;
+
+   @QField(isEditable = false, isRequired = true, possibleValueSourceName = Permission.TABLE_NAME)
+   private Integer permissionId;
+
+   @QField(isEditable = false, possibleValueSourceName = Role.TABLE_NAME)
+   private Integer sourceRoleId;
+
+
+
+   /*******************************************************************************
+    ** Default constructor
+    *******************************************************************************/
+   public UserEffectivePermission()
+   {
+   }
+
+
+
+   /*******************************************************************************
+    ** Constructor that takes a QRecord
+    *******************************************************************************/
+   public UserEffectivePermission(QRecord record)
+   {
+      populateFromQRecord(record);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for id
+    *******************************************************************************/
+   public Integer getId()
+   {
+      return (this.id);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for id
+    *******************************************************************************/
+   public void setId(Integer id)
+   {
+      this.id = id;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for id
+    *******************************************************************************/
+   public UserEffectivePermission withId(Integer id)
+   {
+      this.id = id;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for createDate
+    *******************************************************************************/
+   public Instant getCreateDate()
+   {
+      return (this.createDate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for createDate
+    *******************************************************************************/
+   public void setCreateDate(Instant createDate)
+   {
+      this.createDate = createDate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for createDate
+    *******************************************************************************/
+   public UserEffectivePermission withCreateDate(Instant createDate)
+   {
+      this.createDate = createDate;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userId
+    *******************************************************************************/
+   public Integer getUserId()
+   {
+      return (this.userId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userId
+    *******************************************************************************/
+   public void setUserId(Integer userId)
+   {
+      this.userId = userId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userId
+    *******************************************************************************/
+   public UserEffectivePermission withUserId(Integer userId)
+   {
+      this.userId = userId;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for permissionId
+    *******************************************************************************/
+   public Integer getPermissionId()
+   {
+      return (this.permissionId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for permissionId
+    *******************************************************************************/
+   public void setPermissionId(Integer permissionId)
+   {
+      this.permissionId = permissionId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for permissionId
+    *******************************************************************************/
+   public UserEffectivePermission withPermissionId(Integer permissionId)
+   {
+      this.permissionId = permissionId;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for sourceRoleId
+    *******************************************************************************/
+   public Integer getSourceRoleId()
+   {
+      return (this.sourceRoleId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for sourceRoleId
+    *******************************************************************************/
+   public void setSourceRoleId(Integer sourceRoleId)
+   {
+      this.sourceRoleId = sourceRoleId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for sourceRoleId
+    *******************************************************************************/
+   public UserEffectivePermission withSourceRoleId(Integer sourceRoleId)
+   {
+      this.sourceRoleId = sourceRoleId;
+      return (this);
+   }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.model;
+
+
+import java.time.Instant;
+import java.util.List;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.data.QField;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.data.QRecordEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.metadata.layout.QIcon;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.MetaDataCustomizerInterface;
+import com.kingsrook.qqq.backend.core.model.metadata.producers.annotations.QMetaDataProducingEntity;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QFieldSection;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.QTableMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.Tier;
+import com.kingsrook.qqq.backend.core.model.metadata.tables.UniqueKey;
+
+
+/*******************************************************************************
+ ** QRecord Entity for UserEffectivePermissionLock table - one row per lock
+ ** that writers to the UserEffectivePermission table take turns on (e.g.,
+ ** one per role - see UserEffectivePermissionMaintainer).  A writer locks a
+ ** row by updating its lockDate in its transaction, so the backend's row
+ ** lock is held until that transaction ends.  Rows are inserted the first
+ ** time their key is locked.  The row for the whole table also records (in
+ ** completeDate) when the table was last fully built - null until then, or
+ ** after a write that couldn't be applied exactly.  Only provided when
+ ** useMaterializedUserPermissions is on in the qbit config.  Not meant to be
+ ** edited directly.
+ *******************************************************************************/
+@QMetaDataProducingEntity(
+   produceTableMetaData = true,
+   tableMetaDataCustomizer = UserEffectivePermissionLock.MetaDataCustomizer.class
+)
+public class UserEffectivePermissionLock extends QRecordEntity
+{
+   public static final String TABLE_NAME = "userEffectivePermissionLock";
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   public static class MetaDataCustomizer implements MetaDataCustomizerInterface<QTableMetaData>
+   {
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public QTableMetaData customizeMetaData(QInstance qInstance, QTableMetaData table) throws QException
+      {
+         return table
+            .withIcon(new QIcon().withName("lock"))
+            .withRecordLabelFormat("%s")
+            .withRecordLabelFields("lockKey")
+            .withUniqueKey(new UniqueKey("lockKey"))
+            .withSection(new QFieldSection("identity", new QIcon().withName("badge"), Tier.T1, List.of("id", "lockKey")))
+            .withSection(new QFieldSection("dates", new QIcon().withName("calendar_month"), Tier.T3, List.of("lockDate", "completeDate")));
+      }
+   }
+
+
+
+   @QField(isEditable = false, isPrimaryKey = true)
+   private Integer id;
+
+   @QField(isEditable = false, isRequired = true, maxLength = 100)
+   private String lockKey;
+
+   @QField(isEditable = false)
+   private Instant lockDate;
+
+   @QField(isEditable = false)
+   private Instant completeDate;
+
+
+
+   /*******************************************************************************
+    ** Default constructor
+    *******************************************************************************/
+   public UserEffectivePermissionLock()
+   {
+   }
+
+
+
+   /*******************************************************************************
+    ** Constructor that takes a QRecord
+    *******************************************************************************/
+   public UserEffectivePermissionLock(QRecord record)
+   {
+      populateFromQRecord(record);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for id
+    *******************************************************************************/
+   public Integer getId()
+   {
+      return (this.id);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for id
+    *******************************************************************************/
+   public void setId(Integer id)
+   {
+      this.id = id;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for id
+    *******************************************************************************/
+   public UserEffectivePermissionLock withId(Integer id)
+   {
+      this.id = id;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for lockKey
+    *******************************************************************************/
+   public String getLockKey()
+   {
+      return (this.lockKey);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for lockKey
+    *******************************************************************************/
+   public void setLockKey(String lockKey)
+   {
+      this.lockKey = lockKey;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for lockKey
+    *******************************************************************************/
+   public UserEffectivePermissionLock withLockKey(String lockKey)
+   {
+      this.lockKey = lockKey;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for lockDate
+    *******************************************************************************/
+   public Instant getLockDate()
+   {
+      return (this.lockDate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for lockDate
+    *******************************************************************************/
+   public void setLockDate(Instant lockDate)
+   {
+      this.lockDate = lockDate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for lockDate
+    *******************************************************************************/
+   public UserEffectivePermissionLock withLockDate(Instant lockDate)
+   {
+      this.lockDate = lockDate;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for completeDate
+    *******************************************************************************/
+   public Instant getCompleteDate()
+   {
+      return (this.completeDate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for completeDate
+    *******************************************************************************/
+   public void setCompleteDate(Instant completeDate)
+   {
+      this.completeDate = completeDate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for completeDate
+    *******************************************************************************/
+   public UserEffectivePermissionLock withCompleteDate(Instant completeDate)
+   {
+      this.completeDate = completeDate;
+      return (this);
+   }
+
+}
@@ -78,6 +78,7 @@ public class UserPermissionInt extends QRecordEntity
             .withExposedJoin(new ExposedJoin().withJoinTable(Permission.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(Permission.TABLE_NAME, UserPermissionInt.TABLE_NAME))))
             .withExposedJoin(new ExposedJoin().withJoinTable(User.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(User.TABLE_NAME, UserPermissionInt.TABLE_NAME))))
             .withCustomizer(TableCustomizers.POST_INSERT_RECORD, new QCodeReference(UserPermissionIntCustomizer.class))
+            .withCustomizer(TableCustomizers.PRE_UPDATE_RECORD, new QCodeReference(UserPermissionIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_UPDATE_RECORD, new QCodeReference(UserPermissionIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_DELETE_RECORD, new QCodeReference(UserPermissionIntCustomizer.class));
       }
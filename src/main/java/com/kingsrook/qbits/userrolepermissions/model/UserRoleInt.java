@@ -78,6 +78,7 @@ public class UserRoleInt extends QRecordEntity
             .withExposedJoin(new ExposedJoin().withJoinTable(User.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(User.TABLE_NAME, UserRoleInt.TABLE_NAME))))
             .withExposedJoin(new ExposedJoin().withJoinTable(Role.TABLE_NAME).withJoinPath(List.of(QJoinMetaData.makeInferredJoinName(Role.TABLE_NAME, UserRoleInt.TABLE_NAME))))
             .withCustomizer(TableCustomizers.POST_INSERT_RECORD, new QCodeReference(UserRoleIntCustomizer.class))
+            .withCustomizer(TableCustomizers.PRE_UPDATE_RECORD, new QCodeReference(UserRoleIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_UPDATE_RECORD, new QCodeReference(UserRoleIntCustomizer.class))
             .withCustomizer(TableCustomizers.POST_DELETE_RECORD, new QCodeReference(UserRoleIntCustomizer.class));
       }
@@ -0,0 +1,1263 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.kingsrook.qbits.userrolepermissions.model.Permission;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterCriteria;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterOrderBy;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.utils.lambdas.UnsafeConsumer;
+
+
+/*******************************************************************************
+ ** Immutable, in-memory copy of the whole authorization graph (users' roles,
+ ** roles' permissions, and users' direct permissions), for deployments where
+ ** it's cheaper to hold everything in memory than to query lazily.
+ **
+ ** Data is stored column-wise, in sorted int arrays (binary-searched by user
+ ** or role id), rather than as QRecords or boxed collections.  The user
+ ** arrays are held as IntBuffers - over int arrays for a snapshot that was
+ ** built or loaded, or straight over a memory-mapped file's pages for one
+ ** read by AuthorizationSnapshotFile (so they're never copied onto the heap,
+ ** and JVMs on a host share them through the OS page cache).  Each user's
+ ** effective permissions are pre-computed - and de-duplicated, so users with
+ ** the same roles share one PermissionSet.
+ **
+ ** Since instances are never modified, readers need no locks:  a new version
+ ** is built and then swapped in (by the PermissionManager) as one reference,
+ ** so a reader sees either all of a change, or none of it.
+ **
+ ** Changes don't need a whole new set of arrays:  withChanges makes a new
+ ** version that shares this one's user arrays, plus a small map of the
+ ** changed users' rows (see getUserOverrideCount), which lookups check
+ ** first.  A change to a role's permissions copies the (small) role arrays,
+ ** and re-computes the effective permissions of just that role's holders -
+ ** found through the user-role rows transposed (by role), so without a scan
+ ** of every user.
+ *******************************************************************************/
+public final class AuthorizationSnapshot
+{
+   private static final int[] NO_INTS   = new int[0];
+   private static final int   PAGE_SIZE = 10_000;
+
+   private final PermissionDictionary dictionary;
+   private final long                 version;
+
+   ///////////////////////////////////////////////////////////////////////
+   // users - sorted ids, with roles & direct permission indexes in CSR //
+   // (compressed sparse row) form:  user i's role ids are              //
+   // userRoleIds[userRoleOffsets[i] .. userRoleOffsets[i + 1]).  Only  //
+   // ever read with absolute gets, so readers can share the buffers.   //
+   ///////////////////////////////////////////////////////////////////////
+   private final IntBuffer       userIds;
+   private final IntBuffer       userRoleOffsets;
+   private final IntBuffer       userRoleIds;
+   private final IntBuffer       userDirectOffsets;
+   private final IntBuffer       userDirectIndexes;
+   private final PermissionSet[] userEffectivePermissions;
+
+   //////////////////////////////////////////////////////////////////////
+   // the user-role rows transposed (CSR by role):  the users holding  //
+   // roleHolderRoleIds[r] are at these indexes (into the user arrays) //
+   // roleHolderUserIndexes[roleHolderOffsets[r] .. [r + 1])           //
+   //////////////////////////////////////////////////////////////////////
+   private final IntBuffer roleHolderRoleIds;
+   private final IntBuffer roleHolderOffsets;
+   private final IntBuffer roleHolderUserIndexes;
+
+   ///////////////////////////////////////////////////////
+   // roles - sorted ids, with parallel permission sets //
+   ///////////////////////////////////////////////////////
+   private final int[]           roleIds;
+   private final PermissionSet[] rolePermissions;
+
+   ////////////////////////////////////////////////////////////////////
+   // users changed since the arrays were built - these rows replace //
+   // theirs in the arrays (if they have any there)                  //
+   ////////////////////////////////////////////////////////////////////
+   private final Map<Integer, UserOverride> userOverrides;
+   private final int                        userCount;
+
+
+
+   /*******************************************************************************
+    ** Constructor - use the Builder.
+    *******************************************************************************/
+   private AuthorizationSnapshot(Builder builder, long version)
+   {
+      this.dictionary = builder.dictionary;
+      this.version = version;
+
+      long[] rolePermissionPairs = builder.rolePermissionPairs.toSortedDistinctArray();
+      long[] userRolePairs       = builder.userRolePairs.toSortedDistinctArray();
+      long[] userPermissionPairs = builder.userPermissionPairs.toSortedDistinctArray();
+
+      ///////////////////////////////////////////////////////////////////
+      // roles - pairs are sorted by role id, so each role's are a run //
+      ///////////////////////////////////////////////////////////////////
+      this.roleIds = getDistinctFirsts(rolePermissionPairs);
+      this.rolePermissions = new PermissionSet[roleIds.length];
+      int pairPos = 0;
+      for(int i = 0; i < roleIds.length; i++)
+      {
+         PermissionSet.Builder setBuilder = PermissionSet.builder(dictionary);
+         for(; pairPos < rolePermissionPairs.length && getFirst(rolePermissionPairs[pairPos]) == roleIds[i]; pairPos++)
+         {
+            setBuilder.add(getSecond(rolePermissionPairs[pairPos]));
+         }
+         rolePermissions[i] = setBuilder.build();
+      }
+
+      ////////////////////////////////////////////////////////////////////
+      // users - likewise, each user's roles & direct indexes are a run //
+      // (already sorted, and de-duplicated) in their pairs             //
+      ////////////////////////////////////////////////////////////////////
+      int[]  userIdArray           = mergeDistinct(getDistinctFirsts(userRolePairs), getDistinctFirsts(userPermissionPairs));
+      int[]  userRoleOffsetArray   = new int[userIdArray.length + 1];
+      int[]  userDirectOffsetArray = new int[userIdArray.length + 1];
+      int[]  userRoleIdArray       = new int[userRolePairs.length];
+      int[]  userDirectIndexArray  = new int[userPermissionPairs.length];
+      long[] roleUserIndexPairs    = new long[userRolePairs.length];
+
+      int rolePos   = 0;
+      int directPos = 0;
+      for(int i = 0; i < userIdArray.length; i++)
+      {
+         userRoleOffsetArray[i] = rolePos;
+         for(; rolePos < userRolePairs.length && getFirst(userRolePairs[rolePos]) == userIdArray[i]; rolePos++)
+         {
+            userRoleIdArray[rolePos] = getSecond(userRolePairs[rolePos]);
+            roleUserIndexPairs[rolePos] = pair(userRoleIdArray[rolePos], i);
+         }
+
+         userDirectOffsetArray[i] = directPos;
+         for(; directPos < userPermissionPairs.length && getFirst(userPermissionPairs[directPos]) == userIdArray[i]; directPos++)
+         {
+            userDirectIndexArray[directPos] = getSecond(userPermissionPairs[directPos]);
+         }
+      }
+      userRoleOffsetArray[userIdArray.length] = rolePos;
+      userDirectOffsetArray[userIdArray.length] = directPos;
+
+      this.userIds = IntBuffer.wrap(userIdArray);
+      this.userRoleOffsets = IntBuffer.wrap(userRoleOffsetArray);
+      this.userRoleIds = IntBuffer.wrap(userRoleIdArray);
+      this.userDirectOffsets = IntBuffer.wrap(userDirectOffsetArray);
+      this.userDirectIndexes = IntBuffer.wrap(userDirectIndexArray);
+
+      ///////////////////////////////////////////////////////////////
+      // role holders - the (role id, user index) pairs, sorted by //
+      // role, so each role's holders are a run                    //
+      ///////////////////////////////////////////////////////////////
+      Arrays.sort(roleUserIndexPairs);
+      int[] roleHolderRoleIdArray    = getDistinctFirsts(roleUserIndexPairs);
+      int[] roleHolderOffsetArray    = new int[roleHolderRoleIdArray.length + 1];
+      int[] roleHolderUserIndexArray = new int[roleUserIndexPairs.length];
+      int   holderPos                = 0;
+      for(int r = 0; r < roleHolderRoleIdArray.length; r++)
+      {
+         roleHolderOffsetArray[r] = holderPos;
+         for(; holderPos < roleUserIndexPairs.length && getFirst(roleUserIndexPairs[holderPos]) == roleHolderRoleIdArray[r]; holderPos++)
+         {
+            roleHolderUserIndexArray[holderPos] = getSecond(roleUserIndexPairs[holderPos]);
+         }
+      }
+      roleHolderOffsetArray[roleHolderRoleIdArray.length] = holderPos;
+
+      this.roleHolderRoleIds = IntBuffer.wrap(roleHolderRoleIdArray);
+      this.roleHolderOffsets = IntBuffer.wrap(roleHolderOffsetArray);
+      this.roleHolderUserIndexes = IntBuffer.wrap(roleHolderUserIndexArray);
+
+      this.userEffectivePermissions = computeUserEffectivePermissions();
+      this.userOverrides = Map.of();
+      this.userCount = userIdArray.length;
+   }
+
+
+
+   /*******************************************************************************
+    ** Constructor from the snapshot's arrays (e.g., as read by
+    ** AuthorizationSnapshotFile) - which it takes ownership of, and never
+    ** writes to (so they may be read-only views of a mapped file).  Ids must
+    ** be sorted, and the user & role holder buffers in the same CSR forms as
+    ** the fields, each starting at index 0 and ending at its limit.
+    *******************************************************************************/
+   AuthorizationSnapshot(PermissionDictionary dictionary, long version, int[] roleIds, PermissionSet[] rolePermissions, IntBuffer userIds, IntBuffer userRoleOffsets, IntBuffer userRoleIds, IntBuffer userDirectOffsets, IntBuffer userDirectIndexes, IntBuffer roleHolderRoleIds, IntBuffer roleHolderOffsets, IntBuffer roleHolderUserIndexes)
+   {
+      this.dictionary = dictionary;
+      this.version = version;
+      this.roleIds = roleIds;
+      this.rolePermissions = rolePermissions;
+      this.userIds = userIds;
+      this.userRoleOffsets = userRoleOffsets;
+      this.userRoleIds = userRoleIds;
+      this.userDirectOffsets = userDirectOffsets;
+      this.userDirectIndexes = userDirectIndexes;
+      this.roleHolderRoleIds = roleHolderRoleIds;
+      this.roleHolderOffsets = roleHolderOffsets;
+      this.roleHolderUserIndexes = roleHolderUserIndexes;
+      this.userEffectivePermissions = computeUserEffectivePermissions();
+      this.userOverrides = Map.of();
+      this.userCount = userIds.limit();
+   }
+
+
+
+   /*******************************************************************************
+    ** Constructor for a new version of a snapshot, sharing its user arrays,
+    ** with the given roles, users' effective permissions, and user overrides.
+    *******************************************************************************/
+   private AuthorizationSnapshot(AuthorizationSnapshot base, int[] roleIds, PermissionSet[] rolePermissions, PermissionSet[] userEffectivePermissions, Map<Integer, UserOverride> userOverrides, long version)
+   {
+      this.dictionary = base.dictionary;
+      this.version = version;
+      this.roleIds = roleIds;
+      this.rolePermissions = rolePermissions;
+      this.userIds = base.userIds;
+      this.userRoleOffsets = base.userRoleOffsets;
+      this.userRoleIds = base.userRoleIds;
+      this.userDirectOffsets = base.userDirectOffsets;
+      this.userDirectIndexes = base.userDirectIndexes;
+      this.roleHolderRoleIds = base.roleHolderRoleIds;
+      this.roleHolderOffsets = base.roleHolderOffsets;
+      this.roleHolderUserIndexes = base.roleHolderUserIndexes;
+      this.userEffectivePermissions = userEffectivePermissions;
+      this.userOverrides = userOverrides;
+
+      ////////////////////////////////////////////////////////////////////
+      // only users with any roles or permissions count - so overridden //
+      // users may have been added to, or removed from, the count       //
+      ////////////////////////////////////////////////////////////////////
+      int count = userIds.limit();
+      for(Map.Entry<Integer, UserOverride> entry : userOverrides.entrySet())
+      {
+         boolean inArrays = binarySearch(userIds, entry.getKey()) >= 0;
+         boolean hasRows  = !entry.getValue().isEmpty();
+         if(inArrays != hasRows)
+         {
+            count += hasRows ? 1 : -1;
+         }
+      }
+      this.userCount = count;
+   }
+
+
+
+   /***************************************************************************
+    ** compute each user's effective permissions from the role & direct arrays
+    ** - sharing one PermissionSet between users whose sets are equal.
+    ***************************************************************************/
+   private PermissionSet[] computeUserEffectivePermissions()
+   {
+      PermissionSet[]                   rs           = new PermissionSet[userIds.limit()];
+      Map<PermissionSet, PermissionSet> distinctSets = new HashMap<>();
+      for(int i = 0; i < rs.length; i++)
+      {
+         PermissionSet.Builder setBuilder = PermissionSet.builder(dictionary);
+         for(int j = userRoleOffsets.get(i); j < userRoleOffsets.get(i + 1); j++)
+         {
+            setBuilder.addAll(getPermissionSetForRole(userRoleIds.get(j)));
+         }
+         for(int j = userDirectOffsets.get(i); j < userDirectOffsets.get(i + 1); j++)
+         {
+            setBuilder.add(userDirectIndexes.get(j));
+         }
+
+         PermissionSet effective = setBuilder.build();
+         rs[i] = distinctSets.computeIfAbsent(effective, k -> k);
+      }
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Load a snapshot of all the int tables (paging through each by id, so that
+    ** only a page of QRecords is in memory at a time).
+    *******************************************************************************/
+   public static AuthorizationSnapshot load(PermissionDictionary dictionary, long version) throws QException
+   {
+      Builder builder = new Builder(dictionary);
+
+      forEachRecord(Permission.TABLE_NAME, r -> dictionary.register(r.getValueInteger("id"), r.getValueString("name")));
+      forEachRecord(RolePermissionInt.TABLE_NAME, r -> builder.addRolePermission(r.getValueInteger("roleId"), dictionary.indexOfId(r.getValueInteger("permissionId"))));
+      forEachRecord(UserRoleInt.TABLE_NAME, r -> builder.addUserRole(r.getValueInteger("userId"), r.getValueInteger("roleId")));
+      forEachRecord(UserPermissionInt.TABLE_NAME, r -> builder.addUserPermission(r.getValueInteger("userId"), dictionary.indexOfId(r.getValueInteger("permissionId"))));
+
+      return (builder.build(version));
+   }
+
+
+
+   /***************************************************************************
+    ** run a consumer over all records in a table, a page at a time.
+    ***************************************************************************/
+   private static void forEachRecord(String tableName, UnsafeConsumer<QRecord, QException> consumer) throws QException
+   {
+      Integer lastId = null;
+      while(true)
+      {
+         QQueryFilter filter = new QQueryFilter()
+            .withOrderBy(new QFilterOrderBy("id"))
+            .withLimit(PAGE_SIZE);
+         if(lastId != null)
+         {
+            filter.withCriteria(new QFilterCriteria("id", QCriteriaOperator.GREATER_THAN, lastId));
+         }
+
+         List<QRecord> records = QueryAction.execute(tableName, filter);
+         for(QRecord record : records)
+         {
+            consumer.accept(record);
+            lastId = record.getValueInteger("id");
+         }
+
+         if(records.size() < PAGE_SIZE)
+         {
+            return;
+         }
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a user's effective permissions (empty if the user is unknown).
+    *******************************************************************************/
+   public PermissionSet getEffectivePermissionSetForUser(int userId)
+   {
+      if(!userOverrides.isEmpty())
+      {
+         UserOverride override = userOverrides.get(userId);
+         if(override != null)
+         {
+            return (override.effectivePermissions);
+         }
+      }
+
+      int i = binarySearch(userIds, userId);
+      return (i < 0 ? PermissionSet.empty(dictionary) : userEffectivePermissions[i]);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the permissions for a role (empty if the role has none).
+    *******************************************************************************/
+   public PermissionSet getPermissionSetForRole(int roleId)
+   {
+      return (getPermissionSetForRole(roleIds, rolePermissions, roleId));
+   }
+
+
+
+   /***************************************************************************
+    ** look up a role's permissions in a pair of role arrays.
+    ***************************************************************************/
+   private PermissionSet getPermissionSetForRole(int[] roleIds, PermissionSet[] rolePermissions, int roleId)
+   {
+      int i = Arrays.binarySearch(roleIds, roleId);
+      return (i < 0 ? PermissionSet.empty(dictionary) : rolePermissions[i]);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the union of the permissions for a set of roles.
+    *******************************************************************************/
+   public PermissionSet getEffectivePermissionSetForRoles(Collection<Integer> roleIds)
+   {
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(Integer roleId : roleIds)
+      {
+         if(roleId != null)
+         {
+            builder.addAll(getPermissionSetForRole(roleId));
+         }
+      }
+      return (builder.build());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a user's role ids.
+    *******************************************************************************/
+   public Set<Integer> getRoleIdsForUser(int userId)
+   {
+      Set<Integer> rs = new HashSet<>();
+      if(!userOverrides.isEmpty())
+      {
+         UserOverride override = userOverrides.get(userId);
+         if(override != null)
+         {
+            Arrays.stream(override.roleIds).forEach(rs::add);
+            return (rs);
+         }
+      }
+
+      int i = binarySearch(userIds, userId);
+      if(i >= 0)
+      {
+         for(int j = userRoleOffsets.get(i); j < userRoleOffsets.get(i + 1); j++)
+         {
+            rs.add(userRoleIds.get(j));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** get a user's direct permission indexes.
+    ***************************************************************************/
+   private Set<Integer> getDirectIndexesForUser(int userId)
+   {
+      Set<Integer> rs = new HashSet<>();
+      if(!userOverrides.isEmpty())
+      {
+         UserOverride override = userOverrides.get(userId);
+         if(override != null)
+         {
+            Arrays.stream(override.directIndexes).forEach(rs::add);
+            return (rs);
+         }
+      }
+
+      int i = binarySearch(userIds, userId);
+      if(i >= 0)
+      {
+         for(int j = userDirectOffsets.get(i); j < userDirectOffsets.get(i + 1); j++)
+         {
+            rs.add(userDirectIndexes.get(j));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a new version of this snapshot, with a delta's changes applied
+    ** (removals first).  Only the changed users, and the holders of changed
+    ** roles, are copied - the new version shares this one's user arrays.  The
+    ** delta's ids to flush are not applied (the delta doesn't say what their
+    ** rows are now - see withReloadedRows).
+    *******************************************************************************/
+   public AuthorizationSnapshot withChanges(PermissionDelta delta, long version)
+   {
+      ///////////
+      // roles //
+      ///////////
+      Set<Integer> changedRoleIds = new HashSet<>(delta.getAddedPermissionIdsByRoleId().keySet());
+      changedRoleIds.addAll(delta.getRemovedPermissionIdsByRoleId().keySet());
+
+      Map<Integer, PermissionSet> permissionsByRoleId = new HashMap<>();
+      for(Integer roleId : changedRoleIds)
+      {
+         PermissionSet.Builder builder = PermissionSet.builder(dictionary).addAll(getPermissionSetForRole(roleId));
+         for(Integer permissionId : delta.getRemovedPermissionIdsByRoleId().getOrDefault(roleId, Set.of()))
+         {
+            builder.remove(dictionary.indexOfId(permissionId));
+         }
+         for(Integer permissionId : delta.getAddedPermissionIdsByRoleId().getOrDefault(roleId, Set.of()))
+         {
+            int index = dictionary.indexOfId(permissionId);
+            if(index >= 0)
+            {
+               builder.add(index);
+            }
+         }
+         permissionsByRoleId.put(roleId, builder.build());
+      }
+
+      ///////////
+      // users //
+      ///////////
+      Set<Integer> changedUserIds = new HashSet<>(delta.getAddedRoleIdsByUserId().keySet());
+      changedUserIds.addAll(delta.getRemovedRoleIdsByUserId().keySet());
+      changedUserIds.addAll(delta.getAddedPermissionIdsByUserId().keySet());
+      changedUserIds.addAll(delta.getRemovedPermissionIdsByUserId().keySet());
+
+      Map<Integer, Set<Integer>> roleIdsByUserId       = new HashMap<>();
+      Map<Integer, Set<Integer>> directIndexesByUserId = new HashMap<>();
+      for(Integer userId : changedUserIds)
+      {
+         Set<Integer> roleIds = getRoleIdsForUser(userId);
+         roleIds.removeAll(delta.getRemovedRoleIdsByUserId().getOrDefault(userId, Set.of()));
+         roleIds.addAll(delta.getAddedRoleIdsByUserId().getOrDefault(userId, Set.of()));
+         roleIdsByUserId.put(userId, roleIds);
+
+         Set<Integer> directIndexes = getDirectIndexesForUser(userId);
+         for(Integer permissionId : delta.getRemovedPermissionIdsByUserId().getOrDefault(userId, Set.of()))
+         {
+            directIndexes.remove(dictionary.indexOfId(permissionId));
+         }
+         for(Integer permissionId : delta.getAddedPermissionIdsByUserId().getOrDefault(userId, Set.of()))
+         {
+            int index = dictionary.indexOfId(permissionId);
+            if(index >= 0)
+            {
+               directIndexes.add(index);
+            }
+         }
+         directIndexesByUserId.put(userId, directIndexes);
+      }
+
+      return (withReplacedRows(roleIdsByUserId, directIndexesByUserId, permissionsByRoleId, version));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a new version of this snapshot, with some users' and roles' rows
+    ** replaced by ones re-read from the database:  role ids and direct
+    ** permission ids by user id (a user in either map has both replaced -
+    ** with none, if they're missing from the other), and permission ids by
+    ** role id.  Permission ids must already be in the dictionary.
+    *******************************************************************************/
+   AuthorizationSnapshot withReloadedRows(Map<Integer, Set<Integer>> roleIdsByUserId, Map<Integer, Set<Integer>> permissionIdsByUserId, Map<Integer, Set<Integer>> permissionIdsByRoleId, long version)
+   {
+      Map<Integer, PermissionSet> permissionsByRoleId = new HashMap<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : permissionIdsByRoleId.entrySet())
+      {
+         PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+         for(Integer permissionId : entry.getValue())
+         {
+            int index = dictionary.indexOfId(permissionId);
+            if(index >= 0)
+            {
+               builder.add(index);
+            }
+         }
+         permissionsByRoleId.put(entry.getKey(), builder.build());
+      }
+
+      Map<Integer, Set<Integer>> directIndexesByUserId = new HashMap<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : permissionIdsByUserId.entrySet())
+      {
+         Set<Integer> directIndexes = new HashSet<>();
+         for(Integer permissionId : entry.getValue())
+         {
+            int index = dictionary.indexOfId(permissionId);
+            if(index >= 0)
+            {
+               directIndexes.add(index);
+            }
+         }
+         directIndexesByUserId.put(entry.getKey(), directIndexes);
+      }
+
+      return (withReplacedRows(roleIdsByUserId, directIndexesByUserId, permissionsByRoleId, version));
+   }
+
+
+
+   /***************************************************************************
+    ** make a new version of this snapshot, with some users' rows (role ids &
+    ** direct permission indexes - a user in either map has both replaced)
+    ** and roles' permissions replaced.  Users go into the overrides; roles,
+    ** into new role arrays - and, as a role reaches all of its holders, their
+    ** effective permissions are re-computed (in a copy of the array of them).
+    ***************************************************************************/
+   private AuthorizationSnapshot withReplacedRows(Map<Integer, Set<Integer>> roleIdsByUserId, Map<Integer, Set<Integer>> directIndexesByUserId, Map<Integer, PermissionSet> permissionsByRoleId, long version)
+   {
+      ////////////////////////////////////////////////////////////////////
+      // merge the changed roles into new role arrays - leaving out any //
+      // left with no permissions (as a load would)                     //
+      ////////////////////////////////////////////////////////////////////
+      int[]           changedRoleIds     = toIntArray(permissionsByRoleId.keySet());
+      int[]           newRoleIds         = roleIds;
+      PermissionSet[] newRolePermissions = rolePermissions;
+      if(changedRoleIds.length > 0)
+      {
+         newRoleIds = new int[roleIds.length + changedRoleIds.length];
+         newRolePermissions = new PermissionSet[newRoleIds.length];
+
+         int oldPos     = 0;
+         int changedPos = 0;
+         int newPos     = 0;
+         while(oldPos < roleIds.length || changedPos < changedRoleIds.length)
+         {
+            int           roleId;
+            PermissionSet permissionSet;
+            if(changedPos == changedRoleIds.length || (oldPos < roleIds.length && roleIds[oldPos] < changedRoleIds[changedPos]))
+            {
+               roleId = roleIds[oldPos];
+               permissionSet = rolePermissions[oldPos++];
+            }
+            else
+            {
+               if(oldPos < roleIds.length && roleIds[oldPos] == changedRoleIds[changedPos])
+               {
+                  oldPos++;
+               }
+               roleId = changedRoleIds[changedPos++];
+               permissionSet = permissionsByRoleId.get(roleId);
+            }
+
+            if(!permissionSet.isEmpty())
+            {
+               newRoleIds[newPos] = roleId;
+               newRolePermissions[newPos++] = permissionSet;
+            }
+         }
+
+         newRoleIds = Arrays.copyOf(newRoleIds, newPos);
+         newRolePermissions = Arrays.copyOf(newRolePermissions, newPos);
+      }
+
+      ////////////////////////////////////////////////////////////////////
+      // re-compute the effective permissions of the users in the       //
+      // arrays who hold a changed role - looked up by role, in the     //
+      // holder index.  a user holding more than one changed role only  //
+      // needs it once:  once their entry in the copy differs from this //
+      // snapshot's, it has been re-computed                            //
+      ////////////////////////////////////////////////////////////////////
+      PermissionSet[]                   newUserEffectivePermissions = userEffectivePermissions;
+      Map<PermissionSet, PermissionSet> distinctSets                = new HashMap<>();
+      for(int roleId : changedRoleIds)
+      {
+         int r = binarySearch(roleHolderRoleIds, roleId);
+         if(r < 0)
+         {
+            continue;
+         }
+
+         for(int j = roleHolderOffsets.get(r); j < roleHolderOffsets.get(r + 1); j++)
+         {
+            int i = roleHolderUserIndexes.get(j);
+            if(newUserEffectivePermissions == userEffectivePermissions)
+            {
+               newUserEffectivePermissions = userEffectivePermissions.clone();
+            }
+            else if(newUserEffectivePermissions[i] != userEffectivePermissions[i])
+            {
+               continue;
+            }
+
+            int[]         roleIdArray      = copyRange(userRoleIds, userRoleOffsets.get(i), userRoleOffsets.get(i + 1));
+            int[]         directIndexArray = copyRange(userDirectIndexes, userDirectOffsets.get(i), userDirectOffsets.get(i + 1));
+            PermissionSet effective        = computeEffectivePermissions(roleIdArray, directIndexArray, newRoleIds, newRolePermissions);
+            newUserEffectivePermissions[i] = distinctSets.computeIfAbsent(effective, k -> k);
+         }
+      }
+
+      //////////////////////////////////////////////////////////////
+      // overridden users who hold a changed role, then the users //
+      // whose rows changed                                       //
+      //////////////////////////////////////////////////////////////
+      Map<Integer, UserOverride> newUserOverrides = new HashMap<>(userOverrides);
+      for(Map.Entry<Integer, UserOverride> entry : userOverrides.entrySet())
+      {
+         UserOverride override = entry.getValue();
+         if(holdsAny(override.roleIds, changedRoleIds))
+         {
+            newUserOverrides.put(entry.getKey(), new UserOverride(override.roleIds, override.directIndexes, computeEffectivePermissions(override.roleIds, override.directIndexes, newRoleIds, newRolePermissions)));
+         }
+      }
+
+      Set<Integer> changedUserIds = new HashSet<>(roleIdsByUserId.keySet());
+      changedUserIds.addAll(directIndexesByUserId.keySet());
+      for(Integer userId : changedUserIds)
+      {
+         int[] roleIdArray      = toIntArray(roleIdsByUserId.getOrDefault(userId, Set.of()));
+         int[] directIndexArray = toIntArray(directIndexesByUserId.getOrDefault(userId, Set.of()));
+         newUserOverrides.put(userId, new UserOverride(roleIdArray, directIndexArray, computeEffectivePermissions(roleIdArray, directIndexArray, newRoleIds, newRolePermissions)));
+      }
+
+      return (new AuthorizationSnapshot(this, newRoleIds, newRolePermissions, newUserEffectivePermissions, Collections.unmodifiableMap(newUserOverrides), version));
+   }
+
+
+
+   /***************************************************************************
+    ** compute a user's effective permissions from their (role & direct) rows,
+    ** and a pair of role arrays.
+    ***************************************************************************/
+   private PermissionSet computeEffectivePermissions(int[] roleIdArray, int[] directIndexArray, int[] roleIds, PermissionSet[] rolePermissions)
+   {
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(int roleId : roleIdArray)
+      {
+         builder.addAll(getPermissionSetForRole(roleIds, rolePermissions, roleId));
+      }
+      for(int index : directIndexArray)
+      {
+         builder.add(index);
+      }
+      return (builder.build());
+   }
+
+
+
+   /***************************************************************************
+    ** check if any of a user's role ids is in a sorted array of role ids.
+    ***************************************************************************/
+   private static boolean holdsAny(int[] roleIdArray, int[] sortedRoleIds)
+   {
+      if(sortedRoleIds.length == 0)
+      {
+         return (false);
+      }
+
+      for(int roleId : roleIdArray)
+      {
+         if(Arrays.binarySearch(sortedRoleIds, roleId) >= 0)
+         {
+            return (true);
+         }
+      }
+      return (false);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get this snapshot with its user overrides folded into its arrays (e.g.,
+    ** to write it to a file) - or this snapshot itself, if it has none.
+    *******************************************************************************/
+   public AuthorizationSnapshot compact()
+   {
+      return (userOverrides.isEmpty() ? this : toBuilder().build(version));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of users whose rows are held apart from the snapshot's
+    ** arrays, because they changed since the arrays were built.
+    *******************************************************************************/
+   public int getUserOverrideCount()
+   {
+      return (userOverrides.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a builder populated with this snapshot's data - e.g., to apply
+    ** changes to, then build a new version.
+    *******************************************************************************/
+   public Builder toBuilder()
+   {
+      Builder builder = new Builder(dictionary);
+      for(int i = 0; i < roleIds.length; i++)
+      {
+         int roleId = roleIds[i];
+         rolePermissions[i].forEachIndex(index -> builder.addRolePermission(roleId, index));
+      }
+
+      for(int i = 0; i < userIds.limit(); i++)
+      {
+         int userId = userIds.get(i);
+         if(userOverrides.containsKey(userId))
+         {
+            continue;
+         }
+
+         for(int j = userRoleOffsets.get(i); j < userRoleOffsets.get(i + 1); j++)
+         {
+            builder.addUserRole(userId, userRoleIds.get(j));
+         }
+         for(int j = userDirectOffsets.get(i); j < userDirectOffsets.get(i + 1); j++)
+         {
+            builder.addUserPermission(userId, userDirectIndexes.get(j));
+         }
+      }
+
+      for(Map.Entry<Integer, UserOverride> entry : userOverrides.entrySet())
+      {
+         Integer userId = entry.getKey();
+         Arrays.stream(entry.getValue().roleIds).forEach(roleId -> builder.addUserRole(userId, roleId));
+         Arrays.stream(entry.getValue().directIndexes).forEach(index -> builder.addUserPermission(userId, index));
+      }
+      return (builder);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for version
+    *******************************************************************************/
+   public long getVersion()
+   {
+      return (this.version);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of users with any roles or permissions.
+    *******************************************************************************/
+   public int getUserCount()
+   {
+      return (userCount);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of roles with any permissions.
+    *******************************************************************************/
+   public int getRoleCount()
+   {
+      return (roleIds.length);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for dictionary
+    *******************************************************************************/
+   public PermissionDictionary getDictionary()
+   {
+      return (this.dictionary);
+   }
+
+
+
+   /***************************************************************************
+    ** the arrays & buffers behind the snapshot - not copied, so must not be
+    ** modified, or read with relative gets (for AuthorizationSnapshotFile).
+    ***************************************************************************/
+   int[] getRoleIds()
+   {
+      return (roleIds);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   PermissionSet[] getRolePermissions()
+   {
+      return (rolePermissions);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getUserIds()
+   {
+      return (userIds);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getUserRoleOffsets()
+   {
+      return (userRoleOffsets);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getUserRoleIds()
+   {
+      return (userRoleIds);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getUserDirectOffsets()
+   {
+      return (userDirectOffsets);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getUserDirectIndexes()
+   {
+      return (userDirectIndexes);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getRoleHolderRoleIds()
+   {
+      return (roleHolderRoleIds);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getRoleHolderOffsets()
+   {
+      return (roleHolderOffsets);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   IntBuffer getRoleHolderUserIndexes()
+   {
+      return (roleHolderUserIndexes);
+   }
+
+
+
+   /***************************************************************************
+    ** binary search a sorted buffer (by absolute gets, from index 0 to its
+    ** limit) - returning like Arrays.binarySearch.
+    ***************************************************************************/
+   private static int binarySearch(IntBuffer buffer, int key)
+   {
+      int low  = 0;
+      int high = buffer.limit() - 1;
+      while(low <= high)
+      {
+         int mid   = (low + high) >>> 1;
+         int value = buffer.get(mid);
+         if(value < key)
+         {
+            low = mid + 1;
+         }
+         else if(value > key)
+         {
+            high = mid - 1;
+         }
+         else
+         {
+            return (mid);
+         }
+      }
+      return (-(low + 1));
+   }
+
+
+
+   /***************************************************************************
+    ** copy buffer[from .. to) into a new array.
+    ***************************************************************************/
+   private static int[] copyRange(IntBuffer buffer, int from, int to)
+   {
+      int[] rs = new int[to - from];
+      buffer.get(from, rs);
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static int[] toIntArray(Collection<Integer> values)
+   {
+      if(values.isEmpty())
+      {
+         return (NO_INTS);
+      }
+
+      int[] rs = new int[values.size()];
+      int   i  = 0;
+      for(Integer value : values)
+      {
+         rs[i++] = value;
+      }
+      Arrays.sort(rs);
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** pack a pair of ints into a long - which sorts like the pairs do (by the
+    ** first, then the second - both signed).
+    ***************************************************************************/
+   private static long pair(int first, int second)
+   {
+      return (((long) first << 32) | ((second ^ Integer.MIN_VALUE) & 0xFFFF_FFFFL));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static int getFirst(long pair)
+   {
+      return ((int) (pair >> 32));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static int getSecond(long pair)
+   {
+      return ((int) pair ^ Integer.MIN_VALUE);
+   }
+
+
+
+   /***************************************************************************
+    ** the distinct first ints of a sorted array of pairs (so, also sorted).
+    ***************************************************************************/
+   private static int[] getDistinctFirsts(long[] pairs)
+   {
+      int[] rs    = new int[pairs.length];
+      int   count = 0;
+      for(long pair : pairs)
+      {
+         int first = getFirst(pair);
+         if(count == 0 || rs[count - 1] != first)
+         {
+            rs[count++] = first;
+         }
+      }
+      return (count == 0 ? NO_INTS : Arrays.copyOf(rs, count));
+   }
+
+
+
+   /***************************************************************************
+    ** merge two sorted arrays of distinct ints into one.
+    ***************************************************************************/
+   private static int[] mergeDistinct(int[] a, int[] b)
+   {
+      int[] rs    = new int[a.length + b.length];
+      int   aPos  = 0;
+      int   bPos  = 0;
+      int   count = 0;
+      while(aPos < a.length || bPos < b.length)
+      {
+         if(bPos == b.length || (aPos < a.length && a[aPos] < b[bPos]))
+         {
+            rs[count++] = a[aPos++];
+         }
+         else
+         {
+            if(aPos < a.length && a[aPos] == b[bPos])
+            {
+               aPos++;
+            }
+            rs[count++] = b[bPos++];
+         }
+      }
+      return (count == rs.length ? rs : Arrays.copyOf(rs, count));
+   }
+
+
+
+   /***************************************************************************
+    ** a changed user's row - their (sorted) role ids & direct permission
+    ** indexes, and effective permissions.
+    ***************************************************************************/
+   private static class UserOverride
+   {
+      private final int[]         roleIds;
+      private final int[]         directIndexes;
+      private final PermissionSet effectivePermissions;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      UserOverride(int[] roleIds, int[] directIndexes, PermissionSet effectivePermissions)
+      {
+         this.roleIds = roleIds;
+         this.directIndexes = directIndexes;
+         this.effectivePermissions = effectivePermissions;
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      boolean isEmpty()
+      {
+         return (roleIds.length == 0 && directIndexes.length == 0);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Mutable builder for snapshots.  Collects pairs (packed into longs, in
+    ** growable arrays - not boxed), which build sorts & de-duplicates, so they
+    ** can be added in any order.
+    *******************************************************************************/
+   public static class Builder
+   {
+      private final PermissionDictionary dictionary;
+
+      private final PairList userRolePairs       = new PairList();
+      private final PairList rolePermissionPairs = new PairList();
+      private final PairList userPermissionPairs = new PairList();
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      public Builder(PermissionDictionary dictionary)
+      {
+         this.dictionary = dictionary;
+      }
+
+
+
+      /*******************************************************************************
+       ** Add a user-role pair.
+       *******************************************************************************/
+      public Builder addUserRole(Integer userId, Integer roleId)
+      {
+         if(userId != null && roleId != null)
+         {
+            userRolePairs.add(pair(userId, roleId));
+         }
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Add a role-permission pair (by permission dictionary index - negative
+       ** indexes, from unknown permission ids, are ignored).
+       *******************************************************************************/
+      public Builder addRolePermission(Integer roleId, int permissionIndex)
+      {
+         if(roleId != null && permissionIndex >= 0)
+         {
+            rolePermissionPairs.add(pair(roleId, permissionIndex));
+         }
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Add a user-permission pair (by permission dictionary index - negative
+       ** indexes, from unknown permission ids, are ignored).
+       *******************************************************************************/
+      public Builder addUserPermission(Integer userId, int permissionIndex)
+      {
+         if(userId != null && permissionIndex >= 0)
+         {
+            userPermissionPairs.add(pair(userId, permissionIndex));
+         }
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Build an immutable snapshot.
+       *******************************************************************************/
+      public AuthorizationSnapshot build(long version)
+      {
+         return (new AuthorizationSnapshot(this, version));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a growable array of packed pairs.
+    ***************************************************************************/
+   private static class PairList
+   {
+      private long[] pairs = new long[16];
+      private int    size  = 0;
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      void add(long pair)
+      {
+         if(size == pairs.length)
+         {
+            pairs = Arrays.copyOf(pairs, size * 2);
+         }
+         pairs[size++] = pair;
+      }
+
+
+
+      /***************************************************************************
+       ** the pairs, sorted, without duplicates.
+       ***************************************************************************/
+      long[] toSortedDistinctArray()
+      {
+         long[] rs = Arrays.copyOf(pairs, size);
+         Arrays.sort(rs);
+
+         int count = 0;
+         for(long pair : rs)
+         {
+            if(count == 0 || rs[count - 1] != pair)
+            {
+               rs[count++] = pair;
+            }
+         }
+         return (count == rs.length ? rs : Arrays.copyOf(rs, count));
+      }
+   }
+
+}
@@ -0,0 +1,448 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+
+
+/*******************************************************************************
+ ** Reads & writes AuthorizationSnapshots as a compact, versioned binary file -
+ ** so a node can start warm (and several JVMs on a host can share one copy,
+ ** through the OS page cache) instead of loading everything from the database.
+ **
+ ** Layout (big-endian):  a fixed 64-byte header - magic, format version, the
+ ** database permission version the data was loaded at, creation time, body
+ ** length, a CRC32 of the body, and the array lengths - then the body:  the
+ ** roles' bitmap words, then the role & user arrays (in the snapshot's CSR
+ ** form), then the role holder arrays (the user-role rows, by role), then
+ ** the permission dictionary (id & UTF-8 name per index).
+ **
+ ** Files are read through a read-only MappedByteBuffer, and the snapshot's
+ ** user & role holder arrays are IntBuffer views of it - not copied onto
+ ** the heap (no parsing, per-element objects, or queries).  What is copied
+ ** is small:  the roles' bitmaps, the dictionary, and (only when the file's
+ ** dictionary indexes don't match the running dictionary's, so they must be
+ ** remapped) the users' direct permission indexes.  A mapping is limited
+ ** to 2 GB, so larger snapshots can't be written.  Writes are streamed
+ ** (buffered) to a temp file in the same directory, that is then atomically
+ ** moved into place - so readers never map a partial file, and a reader's
+ ** mapping of the file it replaced stays valid.
+ *******************************************************************************/
+public class AuthorizationSnapshotFile
+{
+   public static final int MAGIC          = 0x55525053; // "URPS"
+   public static final int FORMAT_VERSION = 2;
+
+   static final int HEADER_LENGTH = 64;
+
+   private static final long MAX_FILE_LENGTH = Integer.MAX_VALUE;
+
+
+
+   /*******************************************************************************
+    ** Write a snapshot to a file (replacing any existing one).
+    **
+    ** @param databaseVersion the database permission version the snapshot's
+    **                        data was loaded at (or -1, if unknown - such a
+    **                        file is never considered current).
+    *******************************************************************************/
+   public static void write(Path file, AuthorizationSnapshot snapshot, long databaseVersion) throws QException
+   {
+      //////////////////////////////////////////////////////////////////
+      // the file only holds arrays - so fold any patched users' rows //
+      // into them first                                              //
+      //////////////////////////////////////////////////////////////////
+      snapshot = snapshot.compact();
+
+      int[]           roleIds         = snapshot.getRoleIds();
+      PermissionSet[] rolePermissions = snapshot.getRolePermissions();
+
+      ///////////////////////////////////////////////////////////////
+      // the roles' bitmaps, concatenated, with offsets (in words) //
+      ///////////////////////////////////////////////////////////////
+      long[][] roleWords       = new long[roleIds.length][];
+      int[]    roleWordOffsets = new int[roleIds.length + 1];
+      for(int i = 0; i < roleIds.length; i++)
+      {
+         roleWords[i] = rolePermissions[i].toWords();
+         roleWordOffsets[i + 1] = roleWordOffsets[i] + roleWords[i].length;
+      }
+
+      PermissionDictionary dictionary  = snapshot.getDictionary();
+      int[]                idsByIndex  = dictionary.getIdsByIndex();
+      byte[][]             nameBytes   = new byte[idsByIndex.length][];
+      int                  nameLengths = 0;
+      for(int i = 0; i < idsByIndex.length; i++)
+      {
+         nameBytes[i] = dictionary.getName(i).getBytes(StandardCharsets.UTF_8);
+         nameLengths += nameBytes[i].length;
+      }
+
+      IntBuffer userIds           = snapshot.getUserIds();
+      IntBuffer roleHolderRoleIds = snapshot.getRoleHolderRoleIds();
+      long bodyLength = 8L * roleWordOffsets[roleIds.length]
+         + 4L * (roleIds.length + roleWordOffsets.length)
+         + 4L * (userIds.limit() + snapshot.getUserRoleOffsets().limit() + snapshot.getUserRoleIds().limit() + snapshot.getUserDirectOffsets().limit() + snapshot.getUserDirectIndexes().limit())
+         + 4L * (roleHolderRoleIds.limit() + snapshot.getRoleHolderOffsets().limit() + snapshot.getRoleHolderUserIndexes().limit())
+         + 8L * idsByIndex.length + nameLengths;
+      if(HEADER_LENGTH + bodyLength > MAX_FILE_LENGTH)
+      {
+         throw (new QException("Authorization snapshot is too large to write to a (mappable) file (" + (HEADER_LENGTH + bodyLength) + " bytes): " + file));
+      }
+
+      Path tempFile = null;
+      try
+      {
+         Path directory = file.toAbsolutePath().getParent();
+         tempFile = Files.createTempFile(directory, file.getFileName().toString() + ".", ".tmp");
+
+         try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+         {
+            ////////////////////////////////////////////////////////////////////
+            // stream the body (after room for the header), taking its CRC as //
+            // it goes - then write the header, now that the CRC is known     //
+            ////////////////////////////////////////////////////////////////////
+            channel.position(HEADER_LENGTH);
+            CRC32            crc  = new CRC32();
+            DataOutputStream body = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), crc), 64 * 1024));
+            for(long[] words : roleWords)
+            {
+               for(long word : words)
+               {
+                  body.writeLong(word);
+               }
+            }
+            writeInts(body, IntBuffer.wrap(roleIds));
+            writeInts(body, IntBuffer.wrap(roleWordOffsets));
+            writeInts(body, userIds);
+            writeInts(body, snapshot.getUserRoleOffsets());
+            writeInts(body, snapshot.getUserRoleIds());
+            writeInts(body, snapshot.getUserDirectOffsets());
+            writeInts(body, snapshot.getUserDirectIndexes());
+            writeInts(body, roleHolderRoleIds);
+            writeInts(body, snapshot.getRoleHolderOffsets());
+            writeInts(body, snapshot.getRoleHolderUserIndexes());
+            for(int i = 0; i < idsByIndex.length; i++)
+            {
+               body.writeInt(idsByIndex[i]);
+               body.writeInt(nameBytes[i].length);
+               body.write(nameBytes[i]);
+            }
+            body.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putLong(databaseVersion);
+            header.putLong(System.currentTimeMillis());
+            header.putLong(bodyLength);
+            header.putInt((int) crc.getValue());
+            header.putInt(idsByIndex.length);
+            header.putInt(roleIds.length);
+            header.putInt(roleWordOffsets[roleIds.length]);
+            header.putInt(userIds.limit());
+            header.putInt(snapshot.getUserRoleIds().limit());
+            header.putInt(snapshot.getUserDirectIndexes().limit());
+            header.putInt(roleHolderRoleIds.limit());
+            header.rewind();
+
+            long position = 0;
+            while(header.hasRemaining())
+            {
+               position += channel.write(header, position);
+            }
+            channel.force(true);
+         }
+
+         Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch(IOException e)
+      {
+         deleteQuietly(tempFile);
+         throw (new QException("Error writing authorization snapshot file: " + file, e));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** delete a file (e.g., a temp file left by a failed write), if there is
+    ** one - ignoring errors.
+    ***************************************************************************/
+   private static void deleteQuietly(Path file)
+   {
+      if(file == null)
+      {
+         return;
+      }
+
+      try
+      {
+         Files.deleteIfExists(file);
+      }
+      catch(IOException e)
+      {
+         ///////////////////////////////////////////////////
+         // nothing more to do - the write already failed //
+         ///////////////////////////////////////////////////
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Read just the database permission version from a file's header - so a
+    ** caller can check if the file is current before reading the rest.  Returns
+    ** null if there's no file, or it isn't a (readable) snapshot file.
+    *******************************************************************************/
+   public static Long readDatabaseVersion(Path file) throws QException
+   {
+      if(!Files.exists(file))
+      {
+         return (null);
+      }
+
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+         int read = 0;
+         while(header.hasRemaining() && read >= 0)
+         {
+            read = channel.read(header);
+         }
+         header.flip();
+
+         if(header.remaining() < HEADER_LENGTH || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION)
+         {
+            return (null);
+         }
+         return (header.getLong(8));
+      }
+      catch(IOException e)
+      {
+         throw (new QException("Error reading authorization snapshot file: " + file, e));
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Read a snapshot from a file - registering its permissions in the given
+    ** dictionary.  Throws if the file isn't a valid snapshot file (wrong magic
+    ** or format version, wrong length, or a CRC mismatch).
+    *******************************************************************************/
+   public static AuthorizationSnapshot read(Path file, PermissionDictionary dictionary, long snapshotVersion) throws QException
+   {
+      try
+      {
+         MappedByteBuffer buffer;
+         try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+         {
+            if(channel.size() > MAX_FILE_LENGTH)
+            {
+               throw (new QException("Authorization snapshot file is too large to map (" + channel.size() + " bytes): " + file));
+            }
+
+            ///////////////////////////////////////////////////////////
+            // the mapping stays valid after the channel is closed - //
+            // for as long as the buffer (or a view of it) is in use //
+            ///////////////////////////////////////////////////////////
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         }
+
+         if(buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC)
+         {
+            throw (new QException("Not an authorization snapshot file: " + file));
+         }
+         if(buffer.getInt(4) != FORMAT_VERSION)
+         {
+            throw (new QException("Unsupported authorization snapshot file format version [" + buffer.getInt(4) + "]: " + file));
+         }
+
+         long bodyLength = buffer.getLong(24);
+         if(bodyLength != buffer.capacity() - HEADER_LENGTH)
+         {
+            throw (new QException("Authorization snapshot file has the wrong length (expected " + (HEADER_LENGTH + bodyLength) + " bytes, found " + buffer.capacity() + "): " + file));
+         }
+
+         ///////////////////////////////////////////////////////////////
+         // CRC the body straight from the mapping (no copy to a heap //
+         // array - CRC32 reads a direct buffer's memory in place)    //
+         ///////////////////////////////////////////////////////////////
+         ByteBuffer body = buffer.slice(HEADER_LENGTH, (int) bodyLength);
+         CRC32      crc  = new CRC32();
+         crc.update(body.duplicate());
+         if((int) crc.getValue() != buffer.getInt(32))
+         {
+            throw (new QException("Authorization snapshot file failed its CRC check: " + file));
+         }
+
+         int permissionCount = buffer.getInt(36);
+         int roleCount       = buffer.getInt(40);
+         int roleWordCount   = buffer.getInt(44);
+         int userCount       = buffer.getInt(48);
+         int userRoleCount   = buffer.getInt(52);
+         int userDirectCount = buffer.getInt(56);
+         int holderRoleCount = buffer.getInt(60);
+
+         ///////////////////////////////////////////////////////////////////
+         // the header isn't covered by the CRC - so check its counts fit //
+         // in the body, before slicing it up by them                     //
+         ///////////////////////////////////////////////////////////////////
+         long countedLength = 8L * roleWordCount + 4L * (2L * roleCount + 1) + 4L * (3L * userCount + 2 + userRoleCount + userDirectCount) + 4L * (2L * holderRoleCount + 1 + userRoleCount) + 8L * permissionCount;
+         if(permissionCount < 0 || roleCount < 0 || roleWordCount < 0 || userCount < 0 || userRoleCount < 0 || userDirectCount < 0 || holderRoleCount < 0 || countedLength > bodyLength)
+         {
+            throw (new QException("Authorization snapshot file has an invalid header: " + file));
+         }
+
+         int    position = 8 * roleWordCount;
+         long[] words    = new long[roleWordCount];
+         body.asLongBuffer().get(words);
+
+         int[] roleIds = new int[roleCount];
+         body.slice(position, 4 * roleCount).asIntBuffer().get(roleIds);
+         position += 4 * roleCount;
+
+         int[] roleWordOffsets = new int[roleCount + 1];
+         body.slice(position, 4 * (roleCount + 1)).asIntBuffer().get(roleWordOffsets);
+         position += 4 * (roleCount + 1);
+
+         //////////////////////////////////////////////////////////////
+         // the user & role holder arrays - which the snapshot reads //
+         // through, in place                                        //
+         //////////////////////////////////////////////////////////////
+         IntBuffer userIds = body.slice(position, 4 * userCount).asIntBuffer();
+         position += 4 * userCount;
+         IntBuffer userRoleOffsets = body.slice(position, 4 * (userCount + 1)).asIntBuffer();
+         position += 4 * (userCount + 1);
+         IntBuffer userRoleIds = body.slice(position, 4 * userRoleCount).asIntBuffer();
+         position += 4 * userRoleCount;
+         IntBuffer userDirectOffsets = body.slice(position, 4 * (userCount + 1)).asIntBuffer();
+         position += 4 * (userCount + 1);
+         IntBuffer userDirectIndexes = body.slice(position, 4 * userDirectCount).asIntBuffer();
+         position += 4 * userDirectCount;
+         IntBuffer roleHolderRoleIds = body.slice(position, 4 * holderRoleCount).asIntBuffer();
+         position += 4 * holderRoleCount;
+         IntBuffer roleHolderOffsets = body.slice(position, 4 * (holderRoleCount + 1)).asIntBuffer();
+         position += 4 * (holderRoleCount + 1);
+         IntBuffer roleHolderUserIndexes = body.slice(position, 4 * userRoleCount).asIntBuffer();
+         position += 4 * userRoleCount;
+
+         ////////////////////////////////////////////////////////////////////////
+         // register the file's permissions in the dictionary - noting whether //
+         // every file index maps to the same dictionary index                 //
+         ////////////////////////////////////////////////////////////////////////
+         int[]   indexMap = new int[permissionCount];
+         boolean identity = true;
+         for(int i = 0; i < permissionCount; i++)
+         {
+            int    id   = body.getInt(position);
+            byte[] name = new byte[body.getInt(position + 4)];
+            body.get(position + 8, name);
+            position += 8 + name.length;
+
+            String nameString = new String(name, StandardCharsets.UTF_8);
+            indexMap[i] = (id >= 0) ? dictionary.register(id, nameString) : dictionary.intern(nameString);
+            identity &= (indexMap[i] == i);
+         }
+
+         PermissionSet[] rolePermissions = new PermissionSet[roleCount];
+         for(int i = 0; i < roleCount; i++)
+         {
+            long[] roleWords = Arrays.copyOfRange(words, roleWordOffsets[i], roleWordOffsets[i + 1]);
+            rolePermissions[i] = identity ? PermissionSet.fromWords(dictionary, roleWords) : remap(dictionary, roleWords, indexMap);
+         }
+
+         //////////////////////////////////////////////////////////////////
+         // the mapping is read-only - so remapped direct indexes need a //
+         // copy (only needed if the dictionary was populated first)     //
+         //////////////////////////////////////////////////////////////////
+         if(!identity)
+         {
+            int[] remapped = new int[userDirectCount];
+            for(int i = 0; i < userDirectCount; i++)
+            {
+               remapped[i] = indexMap[userDirectIndexes.get(i)];
+            }
+            userDirectIndexes = IntBuffer.wrap(remapped);
+         }
+
+         return (new AuthorizationSnapshot(dictionary, snapshotVersion, roleIds, rolePermissions, userIds, userRoleOffsets, userRoleIds, userDirectOffsets, userDirectIndexes, roleHolderRoleIds, roleHolderOffsets, roleHolderUserIndexes));
+      }
+      catch(IOException | RuntimeException e)
+      {
+         throw (new QException("Error reading authorization snapshot file: " + file, e));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** build a set from a file's bitmap words, mapping each of its indexes to
+    ** the dictionary's.
+    ***************************************************************************/
+   private static PermissionSet remap(PermissionDictionary dictionary, long[] words, int[] indexMap)
+   {
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(int w = 0; w < words.length; w++)
+      {
+         long word = words[w];
+         while(word != 0)
+         {
+            builder.add(indexMap[(w << 6) + Long.numberOfTrailingZeros(word)]);
+            word &= word - 1;
+         }
+      }
+      return (builder.build());
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void writeInts(DataOutputStream stream, IntBuffer values) throws IOException
+   {
+      for(int i = 0; i < values.limit(); i++)
+      {
+         stream.writeInt(values.get(i));
+      }
+   }
+
+}
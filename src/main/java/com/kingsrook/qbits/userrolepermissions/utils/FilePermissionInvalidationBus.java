@@ -0,0 +1,347 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+
+
+/*******************************************************************************
+ ** PermissionInvalidationBusInterface over a shared, append-only file - each
+ ** message is one line, appended under a file lock, and each bus instance
+ ** polls for lines added after the last one it read.  Meant for tests, and
+ ** for nodes that share a filesystem (or several JVMs on one host) - it
+ ** delivers each node's own messages back to it (which the manager ignores).
+ **
+ ** Polling is done on a daemon thread if a pollInterval is given; poll can
+ ** also be called directly (e.g., by tests, for deterministic delivery).
+ ** The file is never truncated by the bus - rotate it externally, if needed
+ ** (a bus that finds the file shorter than its position starts over).
+ *******************************************************************************/
+public class FilePermissionInvalidationBus implements PermissionInvalidationBusInterface
+{
+   private static final QLogger LOG = QLogger.getLogger(FilePermissionInvalidationBus.class);
+
+   ///////////////////////////////////////////////////////////////////////
+   // file locks are held by the whole JVM - so a second thread (or bus //
+   // instance) asking for one while it's held fails, rather than       //
+   // waiting.  publishes in this JVM take turns on this lock first.    //
+   ///////////////////////////////////////////////////////////////////////
+   private static final ReentrantLock PUBLISH_LOCK = new ReentrantLock();
+
+   private final Path                                          file;
+   private final List<Consumer<PermissionInvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+   private final ReentrantLock                                 pollLock    = new ReentrantLock();
+
+   private long                     position;
+   private ScheduledExecutorService poller;
+
+
+
+   /*******************************************************************************
+    ** Constructor - only messages appended after this point are received.
+    **
+    ** @param file         the shared file (created on first publish, if needed)
+    ** @param pollInterval how often to check for new messages - or null, to
+    **                     only receive them when poll is called.
+    *******************************************************************************/
+   public FilePermissionInvalidationBus(Path file, Duration pollInterval) throws QException
+   {
+      this.file = file;
+
+      try
+      {
+         this.position = Files.exists(file) ? Files.size(file) : 0;
+      }
+      catch(IOException e)
+      {
+         throw (new QException("Error reading permission invalidation file: " + file, e));
+      }
+
+      if(pollInterval != null)
+      {
+         long intervalMillis = pollInterval.toMillis();
+         this.poller = Executors.newSingleThreadScheduledExecutor(runnable ->
+         {
+            Thread thread = new Thread(runnable, "permission-invalidation-poller");
+            thread.setDaemon(true);
+            return (thread);
+         });
+         this.poller.scheduleWithFixedDelay(this::pollQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void publish(PermissionInvalidationMessage message) throws QException
+   {
+      byte[] bytes = (format(message) + "\n").getBytes(StandardCharsets.UTF_8);
+      PUBLISH_LOCK.lock();
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+         FileLock ignored = channel.lock())
+      {
+         ByteBuffer buffer = ByteBuffer.wrap(bytes);
+         while(buffer.hasRemaining())
+         {
+            channel.write(buffer);
+         }
+      }
+      catch(IOException e)
+      {
+         throw (new QException("Error writing permission invalidation file: " + file, e));
+      }
+      finally
+      {
+         PUBLISH_LOCK.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Read any complete messages appended since the last poll, and deliver
+    ** them to the subscribers.  Returns the number of messages read.
+    *******************************************************************************/
+   public int poll() throws QException
+   {
+      pollLock.lock();
+      try
+      {
+         if(!Files.exists(file))
+         {
+            return (0);
+         }
+
+         byte[] bytes;
+         try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+         {
+            long size = channel.size();
+            if(size < position)
+            {
+               position = 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size - position));
+            while(buffer.hasRemaining())
+            {
+               if(channel.read(buffer, position + buffer.position()) < 0)
+               {
+                  break;
+               }
+            }
+            bytes = Arrays.copyOf(buffer.array(), buffer.position());
+         }
+
+         //////////////////////////////////////////////////////////////////
+         // only consume up to the last newline - a line after it may be //
+         // mid-write by another node.                                   //
+         //////////////////////////////////////////////////////////////////
+         int end = bytes.length;
+         while(end > 0 && bytes[end - 1] != '\n')
+         {
+            end--;
+         }
+         position += end;
+
+         int count = 0;
+         for(String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n"))
+         {
+            if(!line.isBlank())
+            {
+               PermissionInvalidationMessage message = parse(line);
+               if(message != null)
+               {
+                  deliver(message);
+                  count++;
+               }
+            }
+         }
+         return (count);
+      }
+      catch(IOException e)
+      {
+         throw (new QException("Error reading permission invalidation file: " + file, e));
+      }
+      finally
+      {
+         pollLock.unlock();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** poll from the background thread - not letting an exception cancel the
+    ** scheduled task.
+    ***************************************************************************/
+   private void pollQuietly()
+   {
+      try
+      {
+         poll();
+      }
+      catch(Exception e)
+      {
+         LOG.warn("Error polling permission invalidation file", e, logPair("file", file));
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void deliver(PermissionInvalidationMessage message)
+   {
+      for(Consumer<PermissionInvalidationMessage> subscriber : subscribers)
+      {
+         try
+         {
+            subscriber.accept(message);
+         }
+         catch(Exception e)
+         {
+            LOG.warn("Error delivering permission invalidation message", e, logPair("message", message));
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a message as a line:  node id, flush-all flag, user ids, and role ids,
+    ** tab-separated (ids comma-separated).
+    ***************************************************************************/
+   private static String format(PermissionInvalidationMessage message)
+   {
+      return (String.join("\t",
+         String.valueOf(message.getSourceNodeId()).replaceAll("[\t\n]", " "),
+         message.getFlushAll() ? "1" : "0",
+         message.getUserIds().stream().map(String::valueOf).collect(Collectors.joining(",")),
+         message.getRoleIds().stream().map(String::valueOf).collect(Collectors.joining(","))));
+   }
+
+
+
+   /***************************************************************************
+    ** parse a line written by format - or return null (and log) if it can't.
+    ***************************************************************************/
+   private PermissionInvalidationMessage parse(String line)
+   {
+      try
+      {
+         String[] parts = line.split("\t", -1);
+         return (new PermissionInvalidationMessage()
+            .withSourceNodeId(parts[0])
+            .withFlushAll("1".equals(parts[1]))
+            .withUserIds(parseIds(parts[2]))
+            .withRoleIds(parseIds(parts[3])));
+      }
+      catch(RuntimeException e)
+      {
+         LOG.warn("Skipping unparseable permission invalidation message", logPair("file", file), logPair("line", line));
+         return (null);
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static Set<Integer> parseIds(String ids)
+   {
+      Set<Integer> rs = new HashSet<>();
+      for(String id : ids.split(","))
+      {
+         if(!id.isBlank())
+         {
+            rs.add(Integer.parseInt(id.trim()));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void subscribe(Consumer<PermissionInvalidationMessage> subscriber)
+   {
+      subscribers.add(subscriber);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void unsubscribe(Consumer<PermissionInvalidationMessage> subscriber)
+   {
+      subscribers.remove(subscriber);
+   }
+
+
+
+   /*******************************************************************************
+    ** Stop the background poller (if any).
+    *******************************************************************************/
+   @Override
+   public void close()
+   {
+      if(poller != null)
+      {
+         poller.shutdownNow();
+         poller = null;
+      }
+   }
+
+}
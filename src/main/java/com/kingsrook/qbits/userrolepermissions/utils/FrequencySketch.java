@@ -0,0 +1,169 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/*******************************************************************************
+ ** Approximate access-frequency counter (a count-min sketch with 4-bit-style
+ ** saturating counters), used by PermissionCache to decide whether a new
+ ** entry is "hotter" than the entry it would evict (the TinyLFU admission
+ ** policy).
+ **
+ ** Counters are periodically halved, so that keys which were hot a long time
+ ** ago age out.  Updates are intentionally not atomic - a lost increment only
+ ** makes the estimate slightly lower, which is fine for an admission heuristic.
+ **
+ ** Since every cache read records an access, increments are sampled, to keep
+ ** readers from all writing to the shared table:  a key's counters are read
+ ** first, and only written if they're below EXACT_COUNT (so rarely-seen keys
+ ** - the ones admission decisions turn on - are counted exactly), or else
+ ** for one access in SAMPLE_RATE (picked with the thread's own random).
+ ** Saturated counters are never written.  Counts above EXACT_COUNT so grow
+ ** more slowly, but keep their order - all that admission compares.
+ *******************************************************************************/
+class FrequencySketch
+{
+   private static final int   DEPTH       = 4;
+   private static final int   MAX_COUNT   = 15;
+   private static final int   EXACT_COUNT = 4;
+   private static final int   SAMPLE_RATE = 8;
+   private static final int[] SEEDS       = { 0x97cb3127, 0xb4b82e39, 0x9e3779b9, 0x6a09e667 };
+
+   private final int[] table;
+   private final int   widthMask;
+   private final int   width;
+   private final int   sampleSize;
+
+   private int additions = 0;
+
+
+
+   /*******************************************************************************
+    ** Constructor - sized for roughly the given number of distinct entries.
+    *******************************************************************************/
+   FrequencySketch(long expectedEntries)
+   {
+      long clamped = Math.max(64, Math.min(expectedEntries, 1 << 24));
+      this.width = Integer.highestOneBit((int) (clamped - 1)) << 1;
+      this.widthMask = width - 1;
+      this.table = new int[width * DEPTH];
+      this.sampleSize = 10 * width;
+   }
+
+
+
+   /*******************************************************************************
+    ** record an access to the given key (sampled - see the class comment).
+    *******************************************************************************/
+   void increment(Object key)
+   {
+      int hash = spread(key.hashCode());
+      int min  = minCount(hash);
+      if(min >= MAX_COUNT || (min >= EXACT_COUNT && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0))
+      {
+         return;
+      }
+
+      boolean added = false;
+      for(int i = 0; i < DEPTH; i++)
+      {
+         int index = indexOf(hash, i);
+         if(table[index] < MAX_COUNT)
+         {
+            table[index]++;
+            added = true;
+         }
+      }
+
+      if(added && ++additions >= sampleSize)
+      {
+         reset();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** get the estimated number of (recent) accesses to the given key.
+    *******************************************************************************/
+   int frequency(Object key)
+   {
+      return (minCount(spread(key.hashCode())));
+   }
+
+
+
+   /***************************************************************************
+    ** the smallest of a (spread) hash's counters.
+    ***************************************************************************/
+   private int minCount(int hash)
+   {
+      int min = MAX_COUNT;
+      for(int i = 0; i < DEPTH; i++)
+      {
+         min = Math.min(min, table[indexOf(hash, i)]);
+      }
+      return (min);
+   }
+
+
+
+   /***************************************************************************
+    ** halve all counters, so that old history decays.
+    ***************************************************************************/
+   private void reset()
+   {
+      for(int i = 0; i < table.length; i++)
+      {
+         table[i] = table[i] >>> 1;
+      }
+      additions = additions >>> 1;
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private int indexOf(int hash, int row)
+   {
+      int h = (hash + SEEDS[row]) * SEEDS[row];
+      h ^= h >>> 17;
+      return ((row * width) + (h & widthMask));
+   }
+
+
+
+   /***************************************************************************
+    ** apply a supplemental hash, to protect against poor hashCodes (such as
+    ** Integer's identity hash of small sequential ids).
+    ***************************************************************************/
+   private static int spread(int hash)
+   {
+      int h = hash * 0x9e3779b9;
+      return (h ^ (h >>> 16));
+   }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+
+
+/*******************************************************************************
+ ** PermissionInvalidationBusInterface that delivers messages, synchronously,
+ ** to subscribers in the same JVM - e.g., for a single node that still wants
+ ** to observe invalidations, or for tests that share one bus between several
+ ** subscribers standing in for nodes.
+ *******************************************************************************/
+public class InProcessPermissionInvalidationBus implements PermissionInvalidationBusInterface
+{
+   private static final QLogger LOG = QLogger.getLogger(InProcessPermissionInvalidationBus.class);
+
+   private final List<Consumer<PermissionInvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void publish(PermissionInvalidationMessage message)
+   {
+      for(Consumer<PermissionInvalidationMessage> subscriber : subscribers)
+      {
+         try
+         {
+            subscriber.accept(message);
+         }
+         catch(Exception e)
+         {
+            LOG.warn("Error delivering permission invalidation message", e, logPair("message", message));
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void subscribe(Consumer<PermissionInvalidationMessage> subscriber)
+   {
+      subscribers.add(subscriber);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public void unsubscribe(Consumer<PermissionInvalidationMessage> subscriber)
+   {
+      subscribers.remove(subscriber);
+   }
+
+}
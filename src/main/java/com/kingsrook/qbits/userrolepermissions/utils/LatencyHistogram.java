@@ -0,0 +1,305 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/*******************************************************************************
+ ** Lock-free, fixed-size histogram of latencies (in nanoseconds), for
+ ** percentiles of the PermissionManager's load paths and the customizers'
+ ** hooks.
+ **
+ ** Buckets are log-linear:  values under 16ns get a bucket each, and each
+ ** power of two above that is split into 16 equal sub-buckets - so any value
+ ** is reported to within 1/16th (6.25%), from 960 counters, however long the
+ ** histogram runs.  Recording is a few bit operations and one atomic add (plus
+ ** LongAdder / max updates) - no locks.
+ **
+ ** reset isn't atomic with concurrent records - a record that races with it
+ ** may land on either side.
+ *******************************************************************************/
+public class LatencyHistogram
+{
+   private static final int SUB_BUCKET_BITS = 4;
+   private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+   static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+   private final String          name;
+   private final AtomicLongArray counts     = new AtomicLongArray(BUCKET_COUNT);
+   private final LongAdder       totalNanos = new LongAdder();
+   private final AtomicLong      maxNanos   = new AtomicLong(0);
+
+
+
+   /*******************************************************************************
+    ** Constructor
+    **
+    *******************************************************************************/
+   public LatencyHistogram(String name)
+   {
+      this.name = name;
+   }
+
+
+
+   /*******************************************************************************
+    ** Record one latency (negative values count as 0).
+    *******************************************************************************/
+   public void record(long nanos)
+   {
+      long value = Math.max(0, nanos);
+      counts.incrementAndGet(bucketIndex(value));
+      totalNanos.add(value);
+
+      long max = maxNanos.get();
+      while(value > max && !maxNanos.compareAndSet(max, value))
+      {
+         max = maxNanos.get();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Take a snapshot of the histogram's counts.
+    *******************************************************************************/
+   public Snapshot snapshot()
+   {
+      long[] snapshotCounts = new long[BUCKET_COUNT];
+      for(int i = 0; i < BUCKET_COUNT; i++)
+      {
+         snapshotCounts[i] = counts.get(i);
+      }
+      return (new Snapshot(name, snapshotCounts, totalNanos.sum(), maxNanos.get()));
+   }
+
+
+
+   /*******************************************************************************
+    ** Set all counts back to zero.
+    *******************************************************************************/
+   public void reset()
+   {
+      for(int i = 0; i < BUCKET_COUNT; i++)
+      {
+         counts.set(i, 0);
+      }
+      totalNanos.reset();
+      maxNanos.set(0);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for name
+    *******************************************************************************/
+   public String getName()
+   {
+      return (this.name);
+   }
+
+
+
+   /***************************************************************************
+    ** bucket for a (non-negative) value:  the value itself, if it's under
+    ** SUB_BUCKETS - else, by its highest set bit, and the SUB_BUCKET_BITS
+    ** bits below that.
+    ***************************************************************************/
+   static int bucketIndex(long value)
+   {
+      if(value < SUB_BUCKETS)
+      {
+         return ((int) value);
+      }
+
+      int exponent  = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket);
+   }
+
+
+
+   /***************************************************************************
+    ** the largest value that falls in a bucket.
+    ***************************************************************************/
+   static long bucketUpperBound(int index)
+   {
+      if(index < SUB_BUCKETS)
+      {
+         return (index);
+      }
+
+      int  exponent  = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+      int  subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+      long width     = 1L << (exponent - SUB_BUCKET_BITS);
+      return (((SUB_BUCKETS + subBucket) * width) + width - 1);
+   }
+
+
+
+   /*******************************************************************************
+    ** Point-in-time copy of a histogram's counts - for percentiles, etc.
+    *******************************************************************************/
+   public static class Snapshot
+   {
+      private final String name;
+      private final long[] counts;
+      private final long   count;
+      private final long   totalNanos;
+      private final long   maxNanos;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      Snapshot(String name, long[] counts, long totalNanos, long maxNanos)
+      {
+         this.name = name;
+         this.counts = counts;
+         this.totalNanos = totalNanos;
+         this.maxNanos = maxNanos;
+
+         long sum = 0;
+         for(long bucketCount : counts)
+         {
+            sum += bucketCount;
+         }
+         this.count = sum;
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the latency at a percentile (0-100), in nanoseconds - the top of the
+       ** bucket it falls in (but no more than the max).  0 if the histogram is
+       ** empty.
+       *******************************************************************************/
+      public long getPercentileNanos(double percentile)
+      {
+         if(count == 0)
+         {
+            return (0);
+         }
+
+         long rank       = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+         long cumulative = 0;
+         for(int i = 0; i < counts.length; i++)
+         {
+            cumulative += counts[i];
+            if(cumulative >= rank)
+            {
+               return (Math.min(bucketUpperBound(i), maxNanos));
+            }
+         }
+         return (maxNanos);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the median latency, in milliseconds.
+       *******************************************************************************/
+      public double getP50Millis()
+      {
+         return (getPercentileNanos(50) / 1_000_000.0);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the 99th percentile latency, in milliseconds.
+       *******************************************************************************/
+      public double getP99Millis()
+      {
+         return (getPercentileNanos(99) / 1_000_000.0);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the 99.9th percentile latency, in milliseconds.
+       *******************************************************************************/
+      public double getP999Millis()
+      {
+         return (getPercentileNanos(99.9) / 1_000_000.0);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the mean latency, in milliseconds.
+       *******************************************************************************/
+      public double getMeanMillis()
+      {
+         return (count == 0 ? 0 : totalNanos / 1_000_000.0 / count);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the max latency, in milliseconds.
+       *******************************************************************************/
+      public double getMaxMillis()
+      {
+         return (maxNanos / 1_000_000.0);
+      }
+
+
+
+      /*******************************************************************************
+       ** Getter for name
+       *******************************************************************************/
+      public String getName()
+      {
+         return (this.name);
+      }
+
+
+
+      /*******************************************************************************
+       ** Getter for count
+       *******************************************************************************/
+      public long getCount()
+      {
+         return (this.count);
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public String toString()
+      {
+         return (String.format("%s: count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, p999=%.3fms, max=%.3fms", name, count, getMeanMillis(), getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis()));
+      }
+   }
+
+}
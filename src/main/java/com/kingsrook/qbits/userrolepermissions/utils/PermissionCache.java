@@ -0,0 +1,1188 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
+import com.kingsrook.qbits.userrolepermissions.PermissionCacheConfig;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import com.kingsrook.qqq.backend.core.utils.lambdas.UnsafeFunction;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+
+
+/*******************************************************************************
+ ** Size-bounded, expiring cache used by the PermissionManager in place of
+ ** (unbounded) Memoization objects.
+ **
+ ** When the cache is configured with a maxEntries and/or maxWeight, it uses a
+ ** W-TinyLFU-style policy:  entries are kept in insertion (FIFO) order as
+ ** eviction candidates, and when the cache is over its limit, the newly added
+ ** entry is only admitted if its estimated access frequency (from a
+ ** FrequencySketch) beats that of the eviction victim.  That keeps one-off
+ ** keys (e.g., a user who logs in once) from pushing hot keys (e.g., service
+ ** accounts checked millions of times) out of the cache.  Keys can also be
+ ** pinned, to exempt them from size-based eviction entirely (they still
+ ** expire).
+ **
+ ** Loads are single-flight:  if several threads miss on the same key at once,
+ ** only the first runs the lookup function - the others wait for, and share,
+ ** its result (or its exception).
+ **
+ ** Optionally (per PermissionCacheConfig), entries are refreshed ahead of
+ ** expiry, and/or served stale for a while after expiry - in both cases,
+ ** re-loaded on a small, bounded background executor (with the reading
+ ** thread's QContext).  Timeouts can also be jittered, so entries loaded
+ ** together don't all expire together.
+ **
+ ** A generation function can also be registered:  each entry records the
+ ** generation of its key when its load started, and is treated as a miss
+ ** once that generation changes.  So, callers can invalidate any number of
+ ** entries by bumping a counter (O(1)), with stale entries re-loaded lazily,
+ ** when they are next read (or dropped by the sweeper).  A key whose
+ ** generation can't be told (NO_GENERATION) is never served from the cache.
+ ** If a cache's values carry what their generation depends on, an entry
+ ** generation function (of the key & value) can be registered too - then,
+ ** cached entries are checked with that, and only loads use the key's.
+ **
+ ** Each cache counts its hits, misses, loads, refreshes, and removals, in a
+ ** PermissionCacheStats (see getStats, and the PermissionMetricsRegistry).
+ *******************************************************************************/
+public class PermissionCache<K, V>
+{
+   private static final QLogger LOG = QLogger.getLogger(PermissionCache.class);
+
+   ////////////////////////////////////////////////////////////////////
+   // generation for keys whose generation isn't known - entries for //
+   // such keys are neither cached nor served.                       //
+   ////////////////////////////////////////////////////////////////////
+   public static final long NO_GENERATION = Long.MIN_VALUE;
+
+   private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable ->
+   {
+      Thread thread = new Thread(runnable, "permission-cache-sweeper");
+      thread.setDaemon(true);
+      return (thread);
+   });
+
+   /////////////////////////////////////////////////////////////////////////
+   // background refreshes - if the queue is full, refreshes are skipped, //
+   // and entries are just loaded by a reader after they expire.          //
+   /////////////////////////////////////////////////////////////////////////
+   private static final ThreadPoolExecutor REFRESHER = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000), runnable ->
+   {
+      Thread thread = new Thread(runnable, "permission-cache-refresher");
+      thread.setDaemon(true);
+      return (thread);
+   });
+
+   static
+   {
+      REFRESHER.allowCoreThreadTimeOut(true);
+   }
+
+   private final String            name;
+   private final long              timeoutNanos;
+   private final Integer           maxEntries;
+   private final Long              maxWeight;
+   private final ToLongFunction<V> weigher;
+   private final Double            refreshAheadFraction;
+   private final long              staleWhileRevalidateNanos;
+   private final long              expiryJitterNanos;
+
+   private final ConcurrentHashMap<K, Entry<K, V>>  map           = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<K, Load<V>>      inFlight      = new ConcurrentHashMap<>();
+   private final ConcurrentLinkedQueue<Entry<K, V>> evictionQueue = new ConcurrentLinkedQueue<>();
+   private final Set<K>                             pinnedKeys    = ConcurrentHashMap.newKeySet();
+   private final AtomicLong                         totalWeight   = new AtomicLong(0);
+   private final ReentrantLock                      evictionLock  = new ReentrantLock();
+   private final FrequencySketch                    sketch;
+   private final PermissionCacheStats               stats         = new PermissionCacheStats();
+
+   /////////////////////////////////////////////////////////////////////
+   // length of the eviction queue (whose size() is O(n)) - including //
+   // nodes for entries that have since been replaced or removed.     //
+   // nodes are only taken off the queue under the evictionLock.      //
+   /////////////////////////////////////////////////////////////////////
+   private final AtomicInteger evictionQueueLength = new AtomicInteger(0);
+
+   private ScheduledFuture<?> sweeperFuture;
+
+   private volatile UnsafeFunction<K, V, ? extends Exception> loader;
+   private volatile ToLongFunction<K>                          generationFunction;
+   private volatile ToLongBiFunction<K, V>                     entryGenerationFunction;
+
+
+
+   /*******************************************************************************
+    ** Constructor
+    **
+    ** @param name    used in logging
+    ** @param config  timeout, size limits, etc.
+    ** @param weigher function to estimate the number of bytes used by a value -
+    **                only used if the config has a maxWeight.
+    *******************************************************************************/
+   public PermissionCache(String name, PermissionCacheConfig config, ToLongFunction<V> weigher)
+   {
+      this.name = name;
+      this.timeoutNanos = config.getTimeout().toNanos();
+      this.maxEntries = config.getMaxEntries();
+      this.maxWeight = config.getMaxWeight();
+      this.weigher = weigher;
+      this.refreshAheadFraction = config.getRefreshAheadFraction();
+      this.staleWhileRevalidateNanos = config.getStaleWhileRevalidate() == null ? 0 : config.getStaleWhileRevalidate().toNanos();
+      this.expiryJitterNanos = config.getExpiryJitter() == null ? 0 : config.getExpiryJitter().toNanos();
+
+      if(isBounded())
+      {
+         long expectedEntries = maxEntries != null ? maxEntries : Math.max(1024, maxWeight / 256);
+         this.sketch = new FrequencySketch(expectedEntries);
+      }
+      else
+      {
+         this.sketch = null;
+      }
+
+      if(config.getSweepInterval() != null)
+      {
+         long intervalMillis = config.getSweepInterval().toMillis();
+         this.sweeperFuture = SWEEPER.scheduleWithFixedDelay(this::sweepExpired, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the value for a key - either from the cache, or, if it isn't cached
+    ** (or has expired), by running the lookupFunction and caching its result.
+    **
+    ** Mirrors the signature of Memoization.getResultThrowing, which this class
+    ** replaced.
+    *******************************************************************************/
+   public <E extends Exception> Optional<V> getResultThrowing(K key, UnsafeFunction<K, V, E> lookupFunction) throws E
+   {
+      recordAccess(key);
+
+      Entry<K, V> entry = map.get(key);
+      if(entry != null && isUsable(entry, lookupFunction))
+      {
+         stats.recordHit();
+         return (Optional.ofNullable(entry.value));
+      }
+
+      stats.recordMiss();
+      return (Optional.ofNullable(load(key, lookupFunction)));
+   }
+
+
+
+   /***************************************************************************
+    ** run the lookup function for a key - unless another thread is already
+    ** doing so (for the key's current generation), in which case, wait for
+    ** its result.
+    ***************************************************************************/
+   private <E extends Exception> V load(K key, UnsafeFunction<K, V, E> lookupFunction) throws E
+   {
+      long    generation = getGeneration(key);
+      Load<V> future     = new Load<>(generation);
+      while(true)
+      {
+         Load<V> existing = inFlight.putIfAbsent(key, future);
+         if(existing == null)
+         {
+            break;
+         }
+
+         if(generation == NO_GENERATION)
+         {
+            ///////////////////////////////////////////////////////////////
+            // we can't tell if the in-flight load is current - so don't //
+            // share its result (nor cache ours).                        //
+            ///////////////////////////////////////////////////////////////
+            return (timedLoad(key, lookupFunction));
+         }
+
+         if(existing.generation == generation)
+         {
+            return (awaitLoad(key, existing, lookupFunction));
+         }
+
+         //////////////////////////////////////////////////////////////////////
+         // the in-flight load started before the key's generation changed   //
+         // (so, may have read stale data) - so don't share its result, but  //
+         // take its place, so that the callers after us (e.g., the rest of  //
+         // a burst of misses right after a flush) share our load instead of //
+         // each running their own.  if another caller took its place first  //
+         // (or the generation moved again), look again.                     //
+         //////////////////////////////////////////////////////////////////////
+         long currentGeneration = getGeneration(key);
+         if(currentGeneration != generation)
+         {
+            generation = currentGeneration;
+            future = new Load<>(generation);
+         }
+         else if(inFlight.replace(key, existing, future))
+         {
+            break;
+         }
+      }
+
+      try
+      {
+         V value = timedLoad(key, lookupFunction);
+
+         /////////////////////////////////////////////////////////////////////
+         // if the key was cleared while we were loading (e.g., because its //
+         // data was written), our value may be stale - so return it to our //
+         // callers, but don't cache it.                                    //
+         /////////////////////////////////////////////////////////////////////
+         if(value != null)
+         {
+            put(key, value, generation, future);
+         }
+
+         future.complete(value);
+         return (value);
+      }
+      catch(Throwable t)
+      {
+         future.completeExceptionally(t);
+         throw (t);
+      }
+      finally
+      {
+         inFlight.remove(key, future);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** wait for another thread's load of a key, re-throwing its exception if
+    ** it failed.  If we're interrupted while waiting (or the load was a
+    ** refresh that was cancelled), just load it ourselves.
+    ***************************************************************************/
+   @SuppressWarnings("unchecked")
+   private <E extends Exception> V awaitLoad(K key, CompletableFuture<V> future, UnsafeFunction<K, V, E> lookupFunction) throws E
+   {
+      try
+      {
+         return (future.get());
+      }
+      catch(InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return (timedLoad(key, lookupFunction));
+      }
+      catch(CancellationException e)
+      {
+         ///////////////////////////////////////////////////////////
+         // a background refresh that couldn't be run - load here //
+         ///////////////////////////////////////////////////////////
+         return (timedLoad(key, lookupFunction));
+      }
+      catch(ExecutionException e)
+      {
+         Throwable cause = e.getCause();
+         if(cause instanceof RuntimeException runtimeException)
+         {
+            throw (runtimeException);
+         }
+         if(cause instanceof Error error)
+         {
+            throw (error);
+         }
+
+         //////////////////////////////////////////////////////////////
+         // the loading thread ran the same lookup function, so, its //
+         // checked exception can only be an E.                      //
+         //////////////////////////////////////////////////////////////
+         throw ((E) cause);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** run the lookup function for a key, recording the load (and its time) in
+    ** the stats, and as a JFR event.
+    ***************************************************************************/
+   private <E extends Exception> V timedLoad(K key, UnsafeFunction<K, V, E> lookupFunction) throws E
+   {
+      PermissionCacheLoadEvent event     = PermissionCacheLoadEvent.start(name);
+      boolean                  succeeded = false;
+      try
+      {
+         V value = lookupFunction.apply(key);
+         succeeded = true;
+         return (value);
+      }
+      finally
+      {
+         stats.recordLoad(event.finish(key, succeeded), succeeded);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the cached value for a key, or null if it isn't cached (or has
+    ** expired).  Unlike getResultThrowing, this takes no loader lambda and
+    ** returns no Optional, so it is meant for very hot paths.
+    **
+    ** Refresh-ahead & stale-while-revalidate only apply here if the cache has
+    ** a loader (see withLoader).
+    *******************************************************************************/
+   public V getIfPresent(K key)
+   {
+      recordAccess(key);
+
+      Entry<K, V> entry = map.get(key);
+      if(entry != null && isUsable(entry, loader))
+      {
+         stats.recordHit();
+         return (entry.value);
+      }
+
+      stats.recordMiss();
+      return (null);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the cached value for a key, or null if it isn't cached (or has
+    ** expired) - without counting a hit or miss, recording an access (for
+    ** eviction), or starting a refresh.  For looking at an entry on behalf of
+    ** another (e.g., to tell its generation), rather than to use it.
+    *******************************************************************************/
+   public V peek(K key)
+   {
+      Entry<K, V> entry = map.get(key);
+      if(entry == null || isStaleGeneration(entry))
+      {
+         return (null);
+      }
+
+      long now = System.nanoTime();
+      if(!isExpired(entry, now) || (loader != null && now - entry.staleUntilNanos < 0))
+      {
+         return (entry.value);
+      }
+
+      return (null);
+   }
+
+
+
+   /***************************************************************************
+    ** check if an entry can be returned to a reader - i.e., it hasn't expired,
+    ** or it's in its stale-while-revalidate window - starting a background
+    ** refresh if the entry is near (or past) its expiry.
+    ***************************************************************************/
+   private boolean isUsable(Entry<K, V> entry, UnsafeFunction<K, V, ? extends Exception> refreshFunction)
+   {
+      if(isStaleGeneration(entry))
+      {
+         return (false);
+      }
+
+      long now = System.nanoTime();
+      if(!isExpired(entry, now))
+      {
+         if(refreshAheadFraction != null && refreshFunction != null && now - entry.refreshAtNanos >= 0)
+         {
+            scheduleRefresh(entry.key, refreshFunction);
+         }
+         return (true);
+      }
+
+      if(refreshFunction != null && now - entry.staleUntilNanos < 0)
+      {
+         scheduleRefresh(entry.key, refreshFunction);
+         return (true);
+      }
+
+      return (false);
+   }
+
+
+
+   /***************************************************************************
+    ** start re-loading a key on the background executor - unless a load of it
+    ** is already in flight (which, if it's a refresh, synchronous loads of the
+    ** key will also wait for).
+    ***************************************************************************/
+   private void scheduleRefresh(K key, UnsafeFunction<K, V, ? extends Exception> refreshFunction)
+   {
+      if(inFlight.containsKey(key))
+      {
+         return;
+      }
+
+      Load<V> future = new Load<>(getGeneration(key));
+      if(inFlight.putIfAbsent(key, future) != null)
+      {
+         return;
+      }
+
+      QInstance qInstance = QContext.getQInstance();
+      QSession  qSession  = QContext.getQSession();
+      try
+      {
+         REFRESHER.execute(() -> refresh(key, refreshFunction, future, qInstance, qSession));
+      }
+      catch(RejectedExecutionException e)
+      {
+         //////////////////////////////////////////////////////////////
+         // cancelling makes any waiters on this future do their own //
+         // load, and the entry will be loaded by a reader when it   //
+         // expires.                                                 //
+         //////////////////////////////////////////////////////////////
+         inFlight.remove(key, future);
+         future.cancel(false);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** background refresh of a key - run with the QContext of the thread that
+    ** scheduled it.
+    ***************************************************************************/
+   private void refresh(K key, UnsafeFunction<K, V, ? extends Exception> refreshFunction, Load<V> future, QInstance qInstance, QSession qSession)
+   {
+      try
+      {
+         if(qInstance != null)
+         {
+            QContext.init(qInstance, qSession);
+         }
+
+         V value = refreshFunction.apply(key);
+         if(value != null)
+         {
+            put(key, value, future.generation, future);
+         }
+         stats.recordRefresh(true);
+         future.complete(value);
+      }
+      catch(Throwable t)
+      {
+         stats.recordRefresh(false);
+         LOG.info("Error refreshing permission cache entry", t, logPair("cache", name), logPair("key", key));
+         future.completeExceptionally(t);
+      }
+      finally
+      {
+         inFlight.remove(key, future);
+         if(qInstance != null)
+         {
+            QContext.clear();
+         }
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Put a value into the cache (replacing any existing value for the key).
+    ** The value is taken to be current for the key's current generation - so,
+    ** like clearKey, this forgets any in-progress load of the key, whose
+    ** (possibly older) result then isn't cached over this value.
+    *******************************************************************************/
+   public void put(K key, V value)
+   {
+      long generation = getGeneration(key, value);
+      inFlight.remove(key);
+      put(key, value, generation, null);
+   }
+
+
+
+   /*******************************************************************************
+    ** Put a value that was loaded as of a generation of its key (per the
+    ** generationFunction) - unless the generation has since changed, in which
+    ** case the value may be stale, so it isn't cached.  For callers that load
+    ** values themselves (e.g., in bulk):  take the generation before reading
+    ** the data.
+    *******************************************************************************/
+   public void put(K key, V value, long generation)
+   {
+      put(key, value, generation, null);
+   }
+
+
+
+   /***************************************************************************
+    ** put a value that was loaded as of a generation of its key - unless the
+    ** generation has since changed - and, if the value came from a load (in
+    ** the inFlight map), unless that load has since been forgotten (by
+    ** clearKey or put).
+    ***************************************************************************/
+   private void put(K key, V value, long generation, Load<V> load)
+   {
+      if(generation == NO_GENERATION || generation != getGeneration(key, value))
+      {
+         return;
+      }
+
+      Entry<K, V> newEntry = newEntry(key, value, generation);
+      if(!putEntry(key, newEntry, load))
+      {
+         return;
+      }
+
+      enqueueForEviction(newEntry);
+   }
+
+
+
+   /*******************************************************************************
+    ** Replace a key's cached value - only if it is still (the very same object
+    ** as) the expected value, and the given generation is still current for
+    ** the new value.  Checked and swapped under the map's lock on the key, so
+    ** concurrent writers can't overwrite each other's changes.  The caller
+    ** takes the generation after invalidating the key itself, and before
+    ** reading anything the new value is built from.  Like put, this forgets
+    ** any in-progress load of the key.  Returns whether the value was
+    ** replaced (if not, callers should clearKey).
+    *******************************************************************************/
+   public boolean replace(K key, V expectedValue, V newValue, long generation)
+   {
+      if(expectedValue == null || generation == NO_GENERATION)
+      {
+         return (false);
+      }
+
+      Entry<K, V> newEntry = newEntry(key, newValue, generation);
+      Entry<K, V> current  = map.computeIfPresent(key, (k, oldEntry) ->
+      {
+         if(oldEntry.value != expectedValue || generation != getGeneration(k, newValue))
+         {
+            return (oldEntry);
+         }
+
+         inFlight.remove(k);
+         totalWeight.addAndGet(newEntry.weight - oldEntry.weight);
+         return (newEntry);
+      });
+
+      /////////////////////////////////////////////////////////////////////
+      // newEntry is only ever mapped by the lambda above - so, it being //
+      // the key's entry afterward means the lambda swapped it in        //
+      /////////////////////////////////////////////////////////////////////
+      if(current != newEntry)
+      {
+         return (false);
+      }
+
+      enqueueForEviction(newEntry);
+      return (true);
+   }
+
+
+
+   /***************************************************************************
+    ** build an entry for a value loaded as of a generation - with its expiry
+    ** (jittered), refresh time, and weight.
+    ***************************************************************************/
+   private Entry<K, V> newEntry(K key, V value, long generation)
+   {
+      long now       = System.nanoTime();
+      long lifetime  = timeoutNanos + (expiryJitterNanos > 0 ? ThreadLocalRandom.current().nextLong(expiryJitterNanos + 1) : 0);
+      long refreshAt = refreshAheadFraction == null ? now + lifetime : now + (long) (lifetime * refreshAheadFraction);
+      long weight    = (maxWeight != null && weigher != null) ? weigher.applyAsLong(value) : 0;
+
+      return (new Entry<>(key, value, generation, now + lifetime, refreshAt, now + lifetime + staleWhileRevalidateNanos, weight));
+   }
+
+
+
+   /***************************************************************************
+    ** add a newly put entry to the eviction queue (if the cache is bounded),
+    ** and evict, if that put the cache over its limits.
+    ***************************************************************************/
+   private void enqueueForEviction(Entry<K, V> newEntry)
+   {
+      if(isBounded())
+      {
+         evictionQueue.offer(newEntry);
+         evictionQueueLength.incrementAndGet();
+         evictIfNeeded(newEntry);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Remove one key from the cache.
+    *******************************************************************************/
+   public void clearKey(K key)
+   {
+      ////////////////////////////////////////////////////////////////////
+      // also forget any in-progress load, so that its (possibly stale) //
+      // result isn't cached, and later callers start a fresh load.     //
+      ////////////////////////////////////////////////////////////////////
+      inFlight.remove(key);
+
+      if(removeEntry(key, null) != null)
+      {
+         stats.recordInvalidation();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Remove all entries from the cache.
+    *******************************************************************************/
+   public void clear()
+   {
+      for(K key : map.keySet())
+      {
+         clearKey(key);
+      }
+
+      evictionLock.lock();
+      try
+      {
+         while(evictionQueue.poll() != null)
+         {
+            evictionQueueLength.decrementAndGet();
+         }
+      }
+      finally
+      {
+         evictionLock.unlock();
+      }
+      inFlight.clear();
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for the loader - the function used to refresh entries in
+    ** the background when they're read through getIfPresent (reads through
+    ** getResultThrowing use the lookup function they are given).
+    *******************************************************************************/
+   public PermissionCache<K, V> withLoader(UnsafeFunction<K, V, ? extends Exception> loader)
+   {
+      this.loader = loader;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for the generationFunction - which gives the current
+    ** generation of a key.  Entries are only used while their key's
+    ** generation is the same as when they were loaded.  Must be quick (it's
+    ** called on every read), and each key's generation must only ever grow.
+    *******************************************************************************/
+   public PermissionCache<K, V> withGenerationFunction(ToLongFunction<K> generationFunction)
+   {
+      this.generationFunction = generationFunction;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for the entryGenerationFunction - which gives the current
+    ** generation of a cached value (for caches whose values carry what their
+    ** generation depends on).  If set, cached entries are checked with this,
+    ** rather than the generationFunction - which still stamps loads, so, for a
+    ** value loaded from current data, the two must agree.
+    *******************************************************************************/
+   public PermissionCache<K, V> withEntryGenerationFunction(ToLongBiFunction<K, V> entryGenerationFunction)
+   {
+      this.entryGenerationFunction = entryGenerationFunction;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Exempt a key from size-based eviction.
+    *******************************************************************************/
+   public void pin(K key)
+   {
+      pinnedKeys.add(key);
+   }
+
+
+
+   /*******************************************************************************
+    ** Exempt a collection of keys from size-based eviction.
+    *******************************************************************************/
+   public void pinAll(Collection<K> keys)
+   {
+      pinnedKeys.addAll(keys);
+   }
+
+
+
+   /*******************************************************************************
+    ** Make a previously pinned key subject to eviction again.
+    *******************************************************************************/
+   public void unpin(K key)
+   {
+      pinnedKeys.remove(key);
+   }
+
+
+
+   /*******************************************************************************
+    ** Remove all expired entries (that are also past any stale-while-revalidate
+    ** window), and entries from an old generation.  Called periodically by the
+    ** sweeper thread, if the cache was configured with a sweepInterval.
+    *******************************************************************************/
+   public void sweepExpired()
+   {
+      try
+      {
+         long now     = System.nanoTime();
+         int  removed = 0;
+         for(Entry<K, V> entry : map.values())
+         {
+            if((now - entry.staleUntilNanos >= 0 || isStaleGeneration(entry)) && removeEntry(entry.key, entry) != null)
+            {
+               stats.recordExpiration();
+               removed++;
+            }
+         }
+
+         if(removed > 0)
+         {
+            evictionLock.lock();
+            try
+            {
+               purgeEvictionQueue();
+            }
+            finally
+            {
+               evictionLock.unlock();
+            }
+            LOG.debug("Swept expired permission cache entries", logPair("cache", name), logPair("count", removed));
+         }
+      }
+      catch(Exception e)
+      {
+         ////////////////////////////////////////////////////////////////////////
+         // don't let an exception cancel the scheduled sweeper (which is what //
+         // the ScheduledExecutorService does with tasks that throw).          //
+         ////////////////////////////////////////////////////////////////////////
+         LOG.warn("Error sweeping permission cache", e, logPair("cache", name));
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Stop the background sweeper (if any).  Used when a cache is being
+    ** replaced, e.g., because the qbit was re-configured.
+    *******************************************************************************/
+   public void shutdown()
+   {
+      if(sweeperFuture != null)
+      {
+         sweeperFuture.cancel(false);
+         sweeperFuture = null;
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of entries in the cache (including any that have expired
+    ** but not yet been removed).
+    *******************************************************************************/
+   public int size()
+   {
+      return (map.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the estimated total weight (bytes) of the entries in the cache.  Only
+    ** tracked if the cache has a maxWeight.
+    *******************************************************************************/
+   public long getTotalWeight()
+   {
+      return (totalWeight.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the length of the eviction queue (including nodes for entries that
+    ** have been replaced or removed, but not yet purged).  Only used if the
+    ** cache has a maxEntries or maxWeight.
+    *******************************************************************************/
+   int getEvictionQueueLength()
+   {
+      return (evictionQueueLength.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the cache's counters - hits, misses, loads, etc.
+    *******************************************************************************/
+   public PermissionCacheStats getStats()
+   {
+      return (this.stats);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for name
+    *******************************************************************************/
+   public String getName()
+   {
+      return (this.name);
+   }
+
+
+
+   /***************************************************************************
+    ** put an entry in the map - if a load is given, only if it is still the
+    ** key's in-flight load (checked under the map's lock on the key, so that a
+    ** clearKey or put that forgets the load can't be overwritten by it) -
+    ** adjusting the total weight.  Returns whether the entry was put.
+    ***************************************************************************/
+   private boolean putEntry(K key, Entry<K, V> newEntry, Load<V> load)
+   {
+      Entry<K, V> current = map.compute(key, (k, oldEntry) ->
+      {
+         if(load != null && inFlight.get(k) != load)
+         {
+            return (oldEntry);
+         }
+
+         totalWeight.addAndGet(newEntry.weight - (oldEntry == null ? 0 : oldEntry.weight));
+         return (newEntry);
+      });
+      return (current == newEntry);
+   }
+
+
+
+   /***************************************************************************
+    ** remove a key's entry from the map - if expected is given, only if it is
+    ** the key's current entry - adjusting the total weight.  Returns the
+    ** removed entry, or null.
+    ***************************************************************************/
+   private Entry<K, V> removeEntry(K key, Entry<K, V> expected)
+   {
+      ///////////////////////////////////////////////////////////////
+      // Entry doesn't override equals - so the conditional remove //
+      // only removes the very same entry                          //
+      ///////////////////////////////////////////////////////////////
+      Entry<K, V> removed = (expected == null) ? map.remove(key) : (map.remove(key, expected) ? expected : null);
+      if(removed == null)
+      {
+         return (null);
+      }
+
+      totalWeight.addAndGet(-removed.weight);
+      return (removed);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private boolean isBounded()
+   {
+      return (maxEntries != null || maxWeight != null);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private boolean isOverLimit()
+   {
+      return ((maxEntries != null && map.size() > maxEntries) || (maxWeight != null && totalWeight.get() > maxWeight));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private boolean isExpired(Entry<K, V> entry, long now)
+   {
+      return (now - entry.expiresAtNanos > 0);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private long getGeneration(K key)
+   {
+      ToLongFunction<K> function = generationFunction;
+      return (function == null ? 0 : function.applyAsLong(key));
+   }
+
+
+
+   /***************************************************************************
+    ** the current generation of a value for a key - per the
+    ** entryGenerationFunction, if there is one, else, the key's.
+    ***************************************************************************/
+   private long getGeneration(K key, V value)
+   {
+      ToLongBiFunction<K, V> function = entryGenerationFunction;
+      return (function == null ? getGeneration(key) : function.applyAsLong(key, value));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private boolean isStaleGeneration(Entry<K, V> entry)
+   {
+      long generation = getGeneration(entry.key, entry.value);
+      return (generation == NO_GENERATION || entry.generation != generation);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void recordAccess(K key)
+   {
+      if(sketch != null)
+      {
+         sketch.increment(key);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** check if the eviction queue has grown well past the number of entries -
+    ** i.e., it's mostly nodes for entries that were since replaced or removed
+    ** (which, while the cache is under its limits, eviction never polls).
+    ***************************************************************************/
+   private boolean isEvictionQueueOversized()
+   {
+      return (evictionQueueLength.get() > 2 * map.size() + 64);
+   }
+
+
+
+   /***************************************************************************
+    ** remove the nodes for replaced or removed entries from the eviction
+    ** queue.  Caller must hold the evictionLock.
+    ***************************************************************************/
+   private void purgeEvictionQueue()
+   {
+      Iterator<Entry<K, V>> iterator = evictionQueue.iterator();
+      while(iterator.hasNext())
+      {
+         Entry<K, V> entry = iterator.next();
+         if(map.get(entry.key) != entry)
+         {
+            iterator.remove();
+            evictionQueueLength.decrementAndGet();
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** while the cache is over its limits, evict entries from the head of the
+    ** eviction queue - but - the first time we find a victim, compare its
+    ** frequency to the candidate (the entry just added) - and if the candidate
+    ** isn't more frequently used, evict it instead (i.e., don't admit it).
+    **
+    ** Also, if the queue is mostly replaced or removed entries' nodes, purge
+    ** them - so the queue stays proportional to the cache, however often its
+    ** keys are replaced (amortized O(1) per put).
+    **
+    ** Only one thread evicts at a time - if another thread is already
+    ** evicting, it will take care of getting us back under the limit.
+    ***************************************************************************/
+   private void evictIfNeeded(Entry<K, V> candidate)
+   {
+      if((!isOverLimit() && !isEvictionQueueOversized()) || !evictionLock.tryLock())
+      {
+         return;
+      }
+
+      try
+      {
+         if(isEvictionQueueOversized())
+         {
+            purgeEvictionQueue();
+         }
+
+         Entry<K, V> admissionCandidate = pinnedKeys.contains(candidate.key) ? null : candidate;
+         int         attemptsLeft       = evictionQueueLength.get();
+
+         while(isOverLimit() && attemptsLeft-- > 0)
+         {
+            Entry<K, V> victim = evictionQueue.poll();
+            if(victim == null)
+            {
+               break;
+            }
+            evictionQueueLength.decrementAndGet();
+
+            if(map.get(victim.key) != victim)
+            {
+               //////////////////////////////////////////////////////////////
+               // stale queue node (key was replaced or removed) - skip it //
+               //////////////////////////////////////////////////////////////
+               continue;
+            }
+
+            if(pinnedKeys.contains(victim.key) || victim == admissionCandidate)
+            {
+               evictionQueue.offer(victim);
+               evictionQueueLength.incrementAndGet();
+               continue;
+            }
+
+            if(admissionCandidate != null)
+            {
+               Entry<K, V> rejected = admissionCandidate;
+               admissionCandidate = null;
+
+               if(sketch.frequency(rejected.key) <= sketch.frequency(victim.key))
+               {
+                  //////////////////////////////////////////////////////////////
+                  // victim is at least as popular as the new entry - so keep //
+                  // the victim (giving it a second trip through the queue),  //
+                  // and drop the new entry instead.                          //
+                  //////////////////////////////////////////////////////////////
+                  evictionQueue.offer(victim);
+                  evictionQueueLength.incrementAndGet();
+                  victim = rejected;
+               }
+            }
+
+            if(removeEntry(victim.key, victim) != null)
+            {
+               stats.recordEviction();
+            }
+         }
+      }
+      finally
+      {
+         evictionLock.unlock();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** an in-flight load of a key, and the generation of the key when it
+    ** started.
+    ***************************************************************************/
+   private static class Load<V> extends CompletableFuture<V>
+   {
+      private final long generation;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      Load(long generation)
+      {
+         this.generation = generation;
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a value in the cache, along with the generation it was loaded in, its
+    ** refresh & expiration times, and its weight.
+    ***************************************************************************/
+   private static class Entry<K, V>
+   {
+      private final K    key;
+      private final V    value;
+      private final long generation;
+      private final long expiresAtNanos;
+      private final long refreshAtNanos;
+      private final long staleUntilNanos;
+      private final long weight;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      Entry(K key, V value, long generation, long expiresAtNanos, long refreshAtNanos, long staleUntilNanos, long weight)
+      {
+         this.key = key;
+         this.value = value;
+         this.generation = generation;
+         this.expiresAtNanos = expiresAtNanos;
+         this.refreshAtNanos = refreshAtNanos;
+         this.staleUntilNanos = staleUntilNanos;
+         this.weight = weight;
+      }
+   }
+
+}
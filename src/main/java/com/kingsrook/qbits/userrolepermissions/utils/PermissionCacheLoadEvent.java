@@ -0,0 +1,93 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/*******************************************************************************
+ ** JFR event for a PermissionCache miss - i.e., a reader running the cache's
+ ** lookup function (a background refresh isn't a miss, so isn't included).
+ **
+ ** Like PermissionLoadEvent, fields are only filled in when the event is
+ ** enabled, and will be committed.
+ *******************************************************************************/
+@Name(PermissionCacheLoadEvent.NAME)
+@Label("Permission Cache Load")
+@Category({ "QQQ", "User Role Permissions" })
+@Description("A permission cache miss, and the load that filled it")
+@StackTrace(false)
+public class PermissionCacheLoadEvent extends Event
+{
+   public static final String NAME = "com.kingsrook.qbits.userrolepermissions.PermissionCacheLoad";
+
+   @Label("Cache")
+   private String cache;
+
+   @Label("Key")
+   private String key;
+
+   @Label("Succeeded")
+   private boolean succeeded;
+
+   private transient long startNanos;
+
+
+
+   /*******************************************************************************
+    ** Begin an event for a cache's load.
+    *******************************************************************************/
+   public static PermissionCacheLoadEvent start(String cache)
+   {
+      PermissionCacheLoadEvent event = new PermissionCacheLoadEvent();
+      event.cache = cache;
+      event.startNanos = System.nanoTime();
+      event.begin();
+      return (event);
+   }
+
+
+
+   /*******************************************************************************
+    ** End the event - committing it if it's enabled.  Returns the load's
+    ** elapsed nanoseconds.
+    *******************************************************************************/
+   public long finish(Object key, boolean succeeded)
+   {
+      long nanos = System.nanoTime() - startNanos;
+      end();
+      if(shouldCommit())
+      {
+         this.key = String.valueOf(key);
+         this.succeeded = succeeded;
+         commit();
+      }
+      return (nanos);
+   }
+
+}
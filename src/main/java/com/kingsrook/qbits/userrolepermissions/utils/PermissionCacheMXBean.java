@@ -0,0 +1,145 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+/*******************************************************************************
+ ** Management interface for one of the qbit's permission caches - published
+ ** over JMX by the PermissionMetricsRegistry (as
+ ** com.kingsrook.qbits.userrolepermissions:type=PermissionCache,name=...),
+ ** and usable directly from Java, through the same registry.
+ *******************************************************************************/
+public interface PermissionCacheMXBean
+{
+
+   /*******************************************************************************
+    ** Get the cache's name.
+    *******************************************************************************/
+   String getName();
+
+
+
+   /*******************************************************************************
+    ** Get the number of entries in the cache.
+    *******************************************************************************/
+   int getSize();
+
+
+
+   /*******************************************************************************
+    ** Get the estimated total weight (bytes) of the entries in the cache (only
+    ** tracked if the cache has a maxWeight).
+    *******************************************************************************/
+   long getTotalWeight();
+
+
+
+   /*******************************************************************************
+    ** Get the number of reads answered from the cache.
+    *******************************************************************************/
+   long getHitCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of reads not answered from the cache.
+    *******************************************************************************/
+   long getMissCount();
+
+
+
+   /*******************************************************************************
+    ** Get the fraction of reads answered from the cache.
+    *******************************************************************************/
+   double getHitRate();
+
+
+
+   /*******************************************************************************
+    ** Get the number of successful loads.
+    *******************************************************************************/
+   long getLoadCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of loads that threw.
+    *******************************************************************************/
+   long getLoadFailureCount();
+
+
+
+   /*******************************************************************************
+    ** Get the average time of a load, in milliseconds.
+    *******************************************************************************/
+   double getAverageLoadMillis();
+
+
+
+   /*******************************************************************************
+    ** Get the number of successful background refreshes.
+    *******************************************************************************/
+   long getRefreshCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of background refreshes that threw.
+    *******************************************************************************/
+   long getRefreshFailureCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of entries evicted for size.
+    *******************************************************************************/
+   long getEvictionCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of entries removed by the sweeper.
+    *******************************************************************************/
+   long getExpirationCount();
+
+
+
+   /*******************************************************************************
+    ** Get the number of entries removed by clearing.
+    *******************************************************************************/
+   long getInvalidationCount();
+
+
+
+   /*******************************************************************************
+    ** Remove all entries from the cache.
+    *******************************************************************************/
+   void flush();
+
+
+
+   /*******************************************************************************
+    ** Set the cache's counters back to zero.
+    *******************************************************************************/
+   void resetStatistics();
+
+}
@@ -0,0 +1,265 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/*******************************************************************************
+ ** Counters for one PermissionCache - hits, misses, loads (with their time),
+ ** background refreshes, and entries removed by eviction, expiry, or
+ ** invalidation.
+ **
+ ** Counters are LongAdders, so recording from many threads at once doesn't
+ ** contend on a single memory location; reads sum the adders' cells, so a
+ ** read taken while others are recording is approximate (but never lost).
+ *******************************************************************************/
+public class PermissionCacheStats
+{
+   private final LongAdder hits            = new LongAdder();
+   private final LongAdder misses          = new LongAdder();
+   private final LongAdder loads           = new LongAdder();
+   private final LongAdder loadFailures    = new LongAdder();
+   private final LongAdder loadNanos       = new LongAdder();
+   private final LongAdder refreshes       = new LongAdder();
+   private final LongAdder refreshFailures = new LongAdder();
+   private final LongAdder evictions       = new LongAdder();
+   private final LongAdder expirations     = new LongAdder();
+   private final LongAdder invalidations   = new LongAdder();
+
+
+
+   /*******************************************************************************
+    ** Record a read that was answered from the cache.
+    *******************************************************************************/
+   void recordHit()
+   {
+      hits.increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Record a read that wasn't answered from the cache.
+    *******************************************************************************/
+   void recordMiss()
+   {
+      misses.increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Record a (reader's) load, and how long it took.
+    *******************************************************************************/
+   void recordLoad(long nanos, boolean succeeded)
+   {
+      (succeeded ? loads : loadFailures).increment();
+      loadNanos.add(nanos);
+   }
+
+
+
+   /*******************************************************************************
+    ** Record a background refresh.
+    *******************************************************************************/
+   void recordRefresh(boolean succeeded)
+   {
+      (succeeded ? refreshes : refreshFailures).increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Record an entry removed to get the cache back under its size limits.
+    *******************************************************************************/
+   void recordEviction()
+   {
+      evictions.increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Record an entry removed by the sweeper (expired, or from an old
+    ** generation).
+    *******************************************************************************/
+   void recordExpiration()
+   {
+      expirations.increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Record an entry removed by clearing its key (or the whole cache).
+    *******************************************************************************/
+   void recordInvalidation()
+   {
+      invalidations.increment();
+   }
+
+
+
+   /*******************************************************************************
+    ** Set all counters back to zero.
+    *******************************************************************************/
+   public void reset()
+   {
+      hits.reset();
+      misses.reset();
+      loads.reset();
+      loadFailures.reset();
+      loadNanos.reset();
+      refreshes.reset();
+      refreshFailures.reset();
+      evictions.reset();
+      expirations.reset();
+      invalidations.reset();
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the fraction of reads answered from the cache (0, if there have been
+    ** no reads).
+    *******************************************************************************/
+   public double getHitRate()
+   {
+      long hitCount = hits.sum();
+      long total    = hitCount + misses.sum();
+      return (total == 0 ? 0 : (double) hitCount / total);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the average time of a load (successful or not), in milliseconds.
+    *******************************************************************************/
+   public double getAverageLoadMillis()
+   {
+      long count = loads.sum() + loadFailures.sum();
+      return (count == 0 ? 0 : loadNanos.sum() / 1_000_000.0 / count);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for hitCount
+    *******************************************************************************/
+   public long getHitCount()
+   {
+      return (hits.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for missCount
+    *******************************************************************************/
+   public long getMissCount()
+   {
+      return (misses.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for loadCount (successful loads)
+    *******************************************************************************/
+   public long getLoadCount()
+   {
+      return (loads.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for loadFailureCount
+    *******************************************************************************/
+   public long getLoadFailureCount()
+   {
+      return (loadFailures.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for totalLoadNanos
+    *******************************************************************************/
+   public long getTotalLoadNanos()
+   {
+      return (loadNanos.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for refreshCount (successful background refreshes)
+    *******************************************************************************/
+   public long getRefreshCount()
+   {
+      return (refreshes.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for refreshFailureCount
+    *******************************************************************************/
+   public long getRefreshFailureCount()
+   {
+      return (refreshFailures.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for evictionCount
+    *******************************************************************************/
+   public long getEvictionCount()
+   {
+      return (evictions.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for expirationCount
+    *******************************************************************************/
+   public long getExpirationCount()
+   {
+      return (expirations.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for invalidationCount
+    *******************************************************************************/
+   public long getInvalidationCount()
+   {
+      return (invalidations.sum());
+   }
+
+}
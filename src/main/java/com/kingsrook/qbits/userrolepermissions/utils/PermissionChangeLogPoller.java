@@ -0,0 +1,307 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionVersion;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterOrderBy;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+
+
+/*******************************************************************************
+ ** Reads new PermissionChangeLog entries, and delivers them (as
+ ** PermissionInvalidationMessages) to a subscriber - normally the
+ ** PermissionManager, which flushes the users and roles they name.
+ **
+ ** Each poll reads the PermissionVersion row - the id of the newest committed
+ ** entry - and only when that's past the newest entry seen (the high-water
+ ** mark) queries for the entries after it.  Writers take turns on the version
+ ** row (see PermissionChangeLogWriter), so no entry below the version can
+ ** still commit later:  ids skipped over belong to rolled back transactions,
+ ** and there are no gaps to track.
+ **
+ ** The first poll only records where the log ends, and delivers a flush-all
+ ** message - anything cached before then wasn't covered by the log.
+ *******************************************************************************/
+public class PermissionChangeLogPoller
+{
+   private static final QLogger LOG = QLogger.getLogger(PermissionChangeLogPoller.class);
+
+   static final int PAGE_SIZE = 1000;
+
+   private final Consumer<PermissionInvalidationMessage> subscriber;
+   private final ReentrantLock                           pollLock = new ReentrantLock();
+
+   private Integer                  newestSeenId;
+   private ScheduledExecutorService poller;
+
+
+
+   /*******************************************************************************
+    ** Constructor
+    *******************************************************************************/
+   public PermissionChangeLogPoller(Consumer<PermissionInvalidationMessage> subscriber)
+   {
+      this.subscriber = subscriber;
+   }
+
+
+
+   /*******************************************************************************
+    ** Start polling on a daemon thread, every pollInterval - running the queries
+    ** with the given QInstance (and a new, system-level QSession).
+    *******************************************************************************/
+   public void start(QInstance qInstance, Duration pollInterval)
+   {
+      stop();
+
+      long intervalMillis = pollInterval.toMillis();
+      poller = Executors.newSingleThreadScheduledExecutor(runnable ->
+      {
+         Thread thread = new Thread(runnable, "permission-change-log-poller");
+         thread.setDaemon(true);
+         return (thread);
+      });
+      poller.scheduleWithFixedDelay(() -> pollQuietly(qInstance), 0, intervalMillis, TimeUnit.MILLISECONDS);
+   }
+
+
+
+   /*******************************************************************************
+    ** Stop the background poller (if any).
+    *******************************************************************************/
+   public void stop()
+   {
+      if(poller != null)
+      {
+         poller.shutdownNow();
+         poller = null;
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Read and deliver any new change log entries (in the current QContext).
+    ** Returns the number of entries delivered.
+    *******************************************************************************/
+   public int poll() throws QException
+   {
+      pollLock.lock();
+      try
+      {
+         ///////////////////////////////////////////////////////////////////
+         // a version below the newest entry seen means the row was reset //
+         // (e.g., a restored database) - so start over from there, too   //
+         ///////////////////////////////////////////////////////////////////
+         int version = readVersion();
+         if(newestSeenId == null || version < newestSeenId)
+         {
+            newestSeenId = version;
+            subscriber.accept(new PermissionInvalidationMessage().withFlushAll(true));
+            return (0);
+         }
+
+         if(version == newestSeenId)
+         {
+            return (0);
+         }
+
+         return (readNewEntries());
+      }
+      finally
+      {
+         pollLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** If nothing has been polled yet, and the database is still at the given
+    ** version (the one that data cached by the caller was read at - from
+    ** readDatabaseVersion), start from there - instead of with the first
+    ** poll's flush-all message.
+    *******************************************************************************/
+   public void baseline(long version) throws QException
+   {
+      pollLock.lock();
+      try
+      {
+         if(newestSeenId == null && readVersion() == version)
+         {
+            newestSeenId = (int) version;
+         }
+      }
+      finally
+      {
+         pollLock.unlock();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** read (and deliver) the entries after the newest one seen, a page at a
+    ** time.
+    ***************************************************************************/
+   private int readNewEntries() throws QException
+   {
+      int count = 0;
+      while(true)
+      {
+         List<QRecord> records = new QueryAction().execute(new QueryInput(PermissionChangeLog.TABLE_NAME)
+            .withFilter(new QQueryFilter()
+               .withCriteria("id", QCriteriaOperator.GREATER_THAN, newestSeenId)
+               .withOrderBy(new QFilterOrderBy("id"))
+               .withLimit(PAGE_SIZE))).getRecords();
+
+         for(QRecord record : records)
+         {
+            PermissionChangeLog entry = new PermissionChangeLog(record);
+            newestSeenId = entry.getId();
+            subscriber.accept(toMessage(entry));
+            count++;
+         }
+
+         if(records.size() < PAGE_SIZE)
+         {
+            return (count);
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** poll from the background thread - not letting an exception cancel the
+    ** scheduled task.
+    ***************************************************************************/
+   private void pollQuietly(QInstance qInstance)
+   {
+      try
+      {
+         QContext.init(qInstance, new QSession());
+         poll();
+      }
+      catch(Exception e)
+      {
+         LOG.warn("Error polling permission change log", e, logPair("newestSeenId", newestSeenId));
+      }
+      finally
+      {
+         QContext.clear();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Read the database's permission version:  the id of the newest committed
+    ** change log entry, from the version row (0 if there isn't one yet).
+    *******************************************************************************/
+   public static long readDatabaseVersion() throws QException
+   {
+      return (readVersion());
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if a change log entry is visible (i.e., its write committed - and
+    ** it hasn't been purged since).
+    *******************************************************************************/
+   public static boolean readEntryExists(int id) throws QException
+   {
+      return (!QueryAction.execute(PermissionChangeLog.TABLE_NAME, new QQueryFilter()
+         .withCriteria("id", QCriteriaOperator.EQUALS, id)).isEmpty());
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static int readVersion() throws QException
+   {
+      List<QRecord> records = QueryAction.execute(PermissionVersion.TABLE_NAME, new QQueryFilter()
+         .withCriteria("id", QCriteriaOperator.EQUALS, PermissionVersion.SINGLETON_ID));
+      Integer version = records.isEmpty() ? null : records.get(0).getValueInteger("version");
+      return (version == null ? 0 : version);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static PermissionInvalidationMessage toMessage(PermissionChangeLog entry)
+   {
+      return (new PermissionInvalidationMessage()
+         .withSourceNodeId(entry.getSourceNodeId())
+         .withFlushAll(Boolean.TRUE.equals(entry.getFlushAll()))
+         .withUserIds(parseIds(entry.getUserIds()))
+         .withRoleIds(parseIds(entry.getRoleIds())));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static Set<Integer> parseIds(String ids)
+   {
+      Set<Integer> rs = new HashSet<>();
+      if(ids != null)
+      {
+         for(String id : ids.split(","))
+         {
+            if(!id.isBlank())
+            {
+               rs.add(Integer.parseInt(id.trim()));
+            }
+         }
+      }
+      return (rs);
+   }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionVersion;
+import com.kingsrook.qqq.backend.core.actions.QBackendTransaction;
+import com.kingsrook.qqq.backend.core.actions.tables.DeleteAction;
+import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
+import com.kingsrook.qqq.backend.core.actions.tables.UpdateAction;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+
+
+/*******************************************************************************
+ ** Writes PermissionChangeLog entries, and moves the PermissionVersion row to
+ ** the newest one - in the caller's transaction, if it has one, so both
+ ** commit (or roll back) with the write that made them.
+ **
+ ** The version row is locked (by an update) before the entries are inserted,
+ ** and stays locked until the transaction ends - so writers take turns, and
+ ** each one's entries get ids above every entry committed before it.  The
+ ** version a poller reads is then the newest committed entry, with nothing
+ ** below it still to commit (see PermissionChangeLogPoller).  The cost is
+ ** that writers to the int tables wait on each other, across all nodes,
+ ** while their transactions are open.
+ **
+ ** Id lists longer than a column holds are split across several entries.
+ *******************************************************************************/
+public class PermissionChangeLogWriter
+{
+   private static final QLogger LOG = QLogger.getLogger(PermissionChangeLogWriter.class);
+
+
+
+   /*******************************************************************************
+    ** Write the entries for a message, and move the version row to the last
+    ** one (in the transaction, if one is given - else in one of its own) -
+    ** returning the last one's id (or null, if the message was empty).
+    *******************************************************************************/
+   public static Integer write(PermissionInvalidationMessage message, QBackendTransaction transaction) throws QException
+   {
+      if(message == null || message.isEmpty())
+      {
+         return (null);
+      }
+
+      if(transaction != null)
+      {
+         return (writeInTransaction(message, transaction));
+      }
+
+      QBackendTransaction ownTransaction = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+      try
+      {
+         Integer lastId = writeInTransaction(message, ownTransaction);
+         ownTransaction.commit();
+         return (lastId);
+      }
+      catch(Exception e)
+      {
+         ownTransaction.rollback();
+         throw (e);
+      }
+      finally
+      {
+         ownTransaction.close();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** lock the version row, insert the entries, and move the version row to
+    ** the last one - all in the given transaction.
+    ***************************************************************************/
+   private static Integer writeInTransaction(PermissionInvalidationMessage message, QBackendTransaction transaction) throws QException
+   {
+      lockVersion(transaction);
+
+      List<PermissionChangeLog> entries = new ArrayList<>();
+      if(message.getFlushAll())
+      {
+         entries.add(new PermissionChangeLog().withSourceNodeId(message.getSourceNodeId()).withFlushAll(true));
+      }
+      else
+      {
+         List<String> userIdChunks = joinInChunks(message.getUserIds());
+         List<String> roleIdChunks = joinInChunks(message.getRoleIds());
+         for(int i = 0; i < Math.max(userIdChunks.size(), roleIdChunks.size()); i++)
+         {
+            entries.add(new PermissionChangeLog()
+               .withSourceNodeId(message.getSourceNodeId())
+               .withFlushAll(false)
+               .withUserIds(i < userIdChunks.size() ? userIdChunks.get(i) : null)
+               .withRoleIds(i < roleIdChunks.size() ? roleIdChunks.get(i) : null));
+         }
+      }
+
+      Integer lastId = null;
+      for(QRecord record : new InsertAction().execute(new InsertInput(PermissionChangeLog.TABLE_NAME).withRecordEntities(entries).withTransaction(transaction)).getRecords())
+      {
+         Integer id = record.getValueInteger("id");
+         if(id == null)
+         {
+            throw (new QException("Error writing permission change log entry"));
+         }
+         lastId = (lastId == null) ? id : Math.max(lastId, id);
+      }
+
+      new UpdateAction().execute(new UpdateInput(PermissionVersion.TABLE_NAME)
+         .withRecord(new QRecord().withValue("id", PermissionVersion.SINGLETON_ID).withValue("version", lastId))
+         .withTransaction(transaction));
+      return (lastId);
+   }
+
+
+
+   /***************************************************************************
+    ** lock the version row for the rest of the transaction, by updating its
+    ** modifyDate in it.  The row is inserted first (outside the transaction,
+    ** so other writers see it right away) if it isn't there yet - unless it
+    ** was seeded, e.g., in the table's DDL.
+    ***************************************************************************/
+   private static void lockVersion(QBackendTransaction transaction) throws QException
+   {
+      if(!versionExists(transaction))
+      {
+         try
+         {
+            new InsertAction().execute(new InsertInput(PermissionVersion.TABLE_NAME)
+               .withRecordEntities(List.of(new PermissionVersion().withId(PermissionVersion.SINGLETON_ID).withVersion(0))));
+         }
+         catch(QException e)
+         {
+            //////////////////////////////////////////////////////////////
+            // another writer may have inserted it meanwhile - fine, as //
+            // long as it's there when re-read below.                   //
+            //////////////////////////////////////////////////////////////
+            LOG.debug("Error inserting permission version row", e);
+         }
+
+         if(!versionExists(transaction))
+         {
+            throw (new QException("Could not insert permission version row"));
+         }
+      }
+
+      new UpdateAction().execute(new UpdateInput(PermissionVersion.TABLE_NAME)
+         .withRecord(new QRecord().withValue("id", PermissionVersion.SINGLETON_ID).withValue("modifyDate", Instant.now()))
+         .withTransaction(transaction));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static boolean versionExists(QBackendTransaction transaction) throws QException
+   {
+      return (!new QueryAction().execute(new QueryInput(PermissionVersion.TABLE_NAME)
+         .withFilter(new QQueryFilter().withCriteria("id", QCriteriaOperator.EQUALS, PermissionVersion.SINGLETON_ID))
+         .withTransaction(transaction)).getRecords().isEmpty());
+   }
+
+
+
+   /*******************************************************************************
+    ** Delete change log entries created before a cutoff - nodes only read
+    ** entries newer than the last one they saw, so old ones can be purged on
+    ** whatever schedule an application likes (the version row is left as is).
+    *******************************************************************************/
+   public static void deleteEntriesBefore(Instant cutoff) throws QException
+   {
+      new DeleteAction().execute(new DeleteInput(PermissionChangeLog.TABLE_NAME)
+         .withQueryFilter(new QQueryFilter().withCriteria("createDate", QCriteriaOperator.LESS_THAN, cutoff)));
+   }
+
+
+
+   /***************************************************************************
+    ** join ids with commas, in (sorted) chunks that fit the change log's
+    ** id columns.
+    ***************************************************************************/
+   static List<String> joinInChunks(Collection<Integer> ids)
+   {
+      List<String>  chunks = new ArrayList<>();
+      StringBuilder chunk  = new StringBuilder();
+      for(Integer id : new TreeSet<>(ids.stream().filter(Objects::nonNull).toList()))
+      {
+         String idString = String.valueOf(id);
+         if(chunk.length() > 0 && chunk.length() + 1 + idString.length() > PermissionChangeLog.MAX_IDS_LENGTH)
+         {
+            chunks.add(chunk.toString());
+            chunk.setLength(0);
+         }
+
+         if(chunk.length() > 0)
+         {
+            chunk.append(',');
+         }
+         chunk.append(idString);
+      }
+
+      if(chunk.length() > 0)
+      {
+         chunks.add(chunk.toString());
+      }
+      return (chunks);
+   }
+
+}
@@ -0,0 +1,482 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
+
+
+/*******************************************************************************
+ ** The exact changes made by a write to one of the int tables:  user-role,
+ ** role-permission, and user-permission pairs that were added or removed.
+ ** Built by the table customizers, then given to PermissionManager.applyDelta,
+ ** which patches cached entries in place (instead of flushing them).
+ **
+ ** Role-permission changes don't need to know which users have the role:
+ ** cached users are stamped with their roles' versions, which applying the
+ ** delta bumps (see getRoleIdsWithPermissionChanges).
+ **
+ ** Records that the write reported errors for are skipped.
+ **
+ ** For any part of a write that can't be described exactly (e.g., a pair with
+ ** a null id), ids are instead added to the userIdsToFlush/roleIdsToFlush
+ ** sets, and those entries are just flushed.  An update for which the old
+ ** record isn't available can't even say whose entries to flush (the old ids
+ ** are gone, and a partial update may not have the new ones) - so it sets
+ ** flushAll, and everything is flushed.  (The customizers fetch old records
+ ** before updates when QQQ doesn't give them any, so that's rare.)
+ *******************************************************************************/
+public class PermissionDelta
+{
+   private final Map<Integer, Set<Integer>> addedRoleIdsByUserId         = new HashMap<>();
+   private final Map<Integer, Set<Integer>> removedRoleIdsByUserId       = new HashMap<>();
+   private final Map<Integer, Set<Integer>> addedPermissionIdsByRoleId   = new HashMap<>();
+   private final Map<Integer, Set<Integer>> removedPermissionIdsByRoleId = new HashMap<>();
+   private final Map<Integer, Set<Integer>> addedPermissionIdsByUserId   = new HashMap<>();
+   private final Map<Integer, Set<Integer>> removedPermissionIdsByUserId = new HashMap<>();
+
+   private final Set<Integer> userIdsToFlush = new HashSet<>();
+   private final Set<Integer> roleIdsToFlush = new HashSet<>();
+
+   private boolean flushAll = false;
+
+
+
+   /*******************************************************************************
+    ** Build the delta for records inserted into one of the int tables.
+    *******************************************************************************/
+   public static PermissionDelta forInsertedRecords(String tableName, List<QRecord> records)
+   {
+      PermissionDelta delta      = new PermissionDelta();
+      String[]        fieldNames = getPairFieldNames(tableName);
+      for(QRecord record : CollectionUtils.nonNullList(records))
+      {
+         if(hasErrors(record))
+         {
+            continue;
+         }
+         delta.addPair(tableName, true, record.getValueInteger(fieldNames[0]), record.getValueInteger(fieldNames[1]));
+      }
+      return (delta);
+   }
+
+
+
+   /*******************************************************************************
+    ** Build the delta for records deleted from one of the int tables.
+    *******************************************************************************/
+   public static PermissionDelta forDeletedRecords(String tableName, List<QRecord> records)
+   {
+      PermissionDelta delta      = new PermissionDelta();
+      String[]        fieldNames = getPairFieldNames(tableName);
+      for(QRecord record : CollectionUtils.nonNullList(records))
+      {
+         if(hasErrors(record))
+         {
+            continue;
+         }
+         delta.addPair(tableName, false, record.getValueInteger(fieldNames[0]), record.getValueInteger(fieldNames[1]));
+      }
+      return (delta);
+   }
+
+
+
+   /*******************************************************************************
+    ** Build the delta for records updated in one of the int tables - each
+    ** changed record removes its old pair, and adds its new one (taking any
+    ** values not in the updated record from the old record).
+    *******************************************************************************/
+   public static PermissionDelta forUpdatedRecords(String tableName, List<QRecord> records, Optional<List<QRecord>> oldRecordList)
+   {
+      PermissionDelta delta      = new PermissionDelta();
+      String[]        fieldNames = getPairFieldNames(tableName);
+
+      Map<Integer, QRecord> oldRecordMap = new HashMap<>();
+      for(QRecord oldRecord : CollectionUtils.nonNullList(oldRecordList == null ? null : oldRecordList.orElse(null)))
+      {
+         oldRecordMap.put(oldRecord.getValueInteger("id"), oldRecord);
+      }
+
+      for(QRecord record : CollectionUtils.nonNullList(records))
+      {
+         if(hasErrors(record))
+         {
+            continue;
+         }
+
+         QRecord oldRecord = oldRecordMap.get(record.getValueInteger("id"));
+         if(oldRecord == null)
+         {
+            ///////////////////////////////////////////////////////////////////
+            // without the old record, we can't know what was removed, or    //
+            // (for a partial update) whose pair it was - so, unless neither //
+            // id field was updated, everything has to be flushed.  the new  //
+            // pair's owner (if the update set it) is flushed too, so the    //
+            // materialized table can at least rebuild that.                 //
+            ///////////////////////////////////////////////////////////////////
+            if(record.getValues().containsKey(fieldNames[0]) || record.getValues().containsKey(fieldNames[1]))
+            {
+               delta.flushAll = true;
+               delta.addIdsToFlush(tableName, record.getValueInteger(fieldNames[0]), null);
+            }
+            continue;
+         }
+
+         Integer oldLeft  = oldRecord.getValueInteger(fieldNames[0]);
+         Integer oldRight = oldRecord.getValueInteger(fieldNames[1]);
+         Integer newLeft  = record.getValues().containsKey(fieldNames[0]) ? record.getValueInteger(fieldNames[0]) : oldLeft;
+         Integer newRight = record.getValues().containsKey(fieldNames[1]) ? record.getValueInteger(fieldNames[1]) : oldRight;
+
+         if(!Objects.equals(oldLeft, newLeft) || !Objects.equals(oldRight, newRight))
+         {
+            delta.addPair(tableName, false, oldLeft, oldRight);
+            delta.addPair(tableName, true, newLeft, newRight);
+         }
+      }
+      return (delta);
+   }
+
+
+
+   /***************************************************************************
+    ** records the write reported errors for weren't stored (or, for deletes,
+    ** weren't removed) - so they don't change anyone's permissions.
+    ***************************************************************************/
+   private static boolean hasErrors(QRecord record)
+   {
+      return (CollectionUtils.nullSafeHasContents(record.getErrors()));
+   }
+
+
+
+   /***************************************************************************
+    ** get the names of the 2 id fields in an int table.
+    ***************************************************************************/
+   private static String[] getPairFieldNames(String tableName)
+   {
+      return switch(tableName)
+      {
+         case UserRoleInt.TABLE_NAME -> new String[] { "userId", "roleId" };
+         case RolePermissionInt.TABLE_NAME -> new String[] { "roleId", "permissionId" };
+         case UserPermissionInt.TABLE_NAME -> new String[] { "userId", "permissionId" };
+         default -> throw (new IllegalArgumentException("Not a permission int table: " + tableName));
+      };
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void addPair(String tableName, boolean added, Integer left, Integer right)
+   {
+      if(left == null || right == null)
+      {
+         addIdsToFlush(tableName, left, right);
+         return;
+      }
+
+      switch(tableName)
+      {
+         case UserRoleInt.TABLE_NAME -> add(added ? addedRoleIdsByUserId : removedRoleIdsByUserId, left, right);
+         case RolePermissionInt.TABLE_NAME -> add(added ? addedPermissionIdsByRoleId : removedPermissionIdsByRoleId, left, right);
+         case UserPermissionInt.TABLE_NAME -> add(added ? addedPermissionIdsByUserId : removedPermissionIdsByUserId, left, right);
+         default -> throw (new IllegalArgumentException("Not a permission int table: " + tableName));
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void addIdsToFlush(String tableName, Integer left, Integer right)
+   {
+      if(left == null)
+      {
+         return;
+      }
+
+      if(RolePermissionInt.TABLE_NAME.equals(tableName))
+      {
+         roleIdsToFlush.add(left);
+      }
+      else
+      {
+         userIdsToFlush.add(left);
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void add(Map<Integer, Set<Integer>> map, Integer key, Integer value)
+   {
+      map.computeIfAbsent(key, k -> new HashSet<>()).add(value);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a user-role pair that was added.
+    *******************************************************************************/
+   public PermissionDelta withAddedUserRole(Integer userId, Integer roleId)
+   {
+      addPair(UserRoleInt.TABLE_NAME, true, userId, roleId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a user-role pair that was removed.
+    *******************************************************************************/
+   public PermissionDelta withRemovedUserRole(Integer userId, Integer roleId)
+   {
+      addPair(UserRoleInt.TABLE_NAME, false, userId, roleId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a role-permission pair that was added.
+    *******************************************************************************/
+   public PermissionDelta withAddedRolePermission(Integer roleId, Integer permissionId)
+   {
+      addPair(RolePermissionInt.TABLE_NAME, true, roleId, permissionId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a role-permission pair that was removed.
+    *******************************************************************************/
+   public PermissionDelta withRemovedRolePermission(Integer roleId, Integer permissionId)
+   {
+      addPair(RolePermissionInt.TABLE_NAME, false, roleId, permissionId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a user-permission pair that was added.
+    *******************************************************************************/
+   public PermissionDelta withAddedUserPermission(Integer userId, Integer permissionId)
+   {
+      addPair(UserPermissionInt.TABLE_NAME, true, userId, permissionId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent method to add a user-permission pair that was removed.
+    *******************************************************************************/
+   public PermissionDelta withRemovedUserPermission(Integer userId, Integer permissionId)
+   {
+      addPair(UserPermissionInt.TABLE_NAME, false, userId, permissionId);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the ids of roles whose permissions changed (or are to be flushed) -
+    ** i.e., the roles whose versions are bumped, to invalidate their holders.
+    *******************************************************************************/
+   public Set<Integer> getRoleIdsWithPermissionChanges()
+   {
+      Set<Integer> rs = new HashSet<>(addedPermissionIdsByRoleId.keySet());
+      rs.addAll(removedPermissionIdsByRoleId.keySet());
+      rs.addAll(roleIdsToFlush);
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the ids of users whose roles or direct permissions changed (or are
+    ** to be flushed).
+    *******************************************************************************/
+   public Set<Integer> getUserIdsWithChanges()
+   {
+      Set<Integer> rs = new HashSet<>(addedRoleIdsByUserId.keySet());
+      rs.addAll(removedRoleIdsByUserId.keySet());
+      rs.addAll(addedPermissionIdsByUserId.keySet());
+      rs.addAll(removedPermissionIdsByUserId.keySet());
+      rs.addAll(userIdsToFlush);
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get all permission ids referenced by this delta.
+    *******************************************************************************/
+   public Set<Integer> getPermissionIds()
+   {
+      Set<Integer> rs = new HashSet<>();
+      addedPermissionIdsByRoleId.values().forEach(rs::addAll);
+      removedPermissionIdsByRoleId.values().forEach(rs::addAll);
+      addedPermissionIdsByUserId.values().forEach(rs::addAll);
+      removedPermissionIdsByUserId.values().forEach(rs::addAll);
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if this delta has no changes at all.
+    *******************************************************************************/
+   public boolean isEmpty()
+   {
+      return (addedRoleIdsByUserId.isEmpty()
+         && removedRoleIdsByUserId.isEmpty()
+         && addedPermissionIdsByRoleId.isEmpty()
+         && removedPermissionIdsByRoleId.isEmpty()
+         && addedPermissionIdsByUserId.isEmpty()
+         && removedPermissionIdsByUserId.isEmpty()
+         && userIdsToFlush.isEmpty()
+         && roleIdsToFlush.isEmpty()
+         && !flushAll);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for addedRoleIdsByUserId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getAddedRoleIdsByUserId()
+   {
+      return (this.addedRoleIdsByUserId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for removedRoleIdsByUserId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getRemovedRoleIdsByUserId()
+   {
+      return (this.removedRoleIdsByUserId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for addedPermissionIdsByRoleId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getAddedPermissionIdsByRoleId()
+   {
+      return (this.addedPermissionIdsByRoleId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for removedPermissionIdsByRoleId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getRemovedPermissionIdsByRoleId()
+   {
+      return (this.removedPermissionIdsByRoleId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for addedPermissionIdsByUserId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getAddedPermissionIdsByUserId()
+   {
+      return (this.addedPermissionIdsByUserId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for removedPermissionIdsByUserId
+    *******************************************************************************/
+   public Map<Integer, Set<Integer>> getRemovedPermissionIdsByUserId()
+   {
+      return (this.removedPermissionIdsByUserId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for flushAll - true if the delta couldn't say whose entries it
+    ** changes, so everything should be flushed.
+    *******************************************************************************/
+   public boolean getFlushAll()
+   {
+      return (this.flushAll);
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for flushAll
+    *******************************************************************************/
+   public PermissionDelta withFlushAll(boolean flushAll)
+   {
+      this.flushAll = flushAll;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userIdsToFlush
+    *******************************************************************************/
+   public Set<Integer> getUserIdsToFlush()
+   {
+      return (this.userIdsToFlush);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for roleIdsToFlush
+    *******************************************************************************/
+   public Set<Integer> getRoleIdsToFlush()
+   {
+      return (this.roleIdsToFlush);
+   }
+
+}
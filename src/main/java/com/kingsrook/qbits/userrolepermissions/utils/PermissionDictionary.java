@@ -0,0 +1,249 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/*******************************************************************************
+ ** Maps permission names (and permission ids) to small, dense int indexes,
+ ** so that sets of permissions can be stored as bitmaps (see PermissionSet).
+ **
+ ** The dictionary is append-only - once a name has an index, it keeps it for
+ ** the life of the dictionary, so indexes held in PermissionSets never go
+ ** stale.  A name can be interned before any permission record with that name
+ ** exists (e.g., so a caller can resolve a permission it will check often).
+ **
+ ** The mapping from permission ids to names is not permanent, though - a
+ ** permission record can be renamed.  refreshIds marks every registered id
+ ** as needing to be re-registered (in O(1), by moving an epoch); until it is,
+ ** an id keeps its old index, so concurrent readers never lose it.
+ **
+ ** Lookups are lock-free; only assigning a new index takes a lock (a
+ ** ReentrantLock rather than a monitor, so virtual threads aren't pinned).
+ *******************************************************************************/
+public class PermissionDictionary
+{
+   private final ConcurrentHashMap<String, Integer>  nameToIndex = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<Integer, Integer> idToIndex   = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<Integer, Long>    idToEpoch   = new ConcurrentHashMap<>();
+
+   private volatile String[] indexToName = new String[64];
+   private volatile int      size        = 0;
+   private volatile long     idEpoch     = 0;
+
+   private final ReentrantLock internLock = new ReentrantLock();
+
+   /////////////////////////////////////////////////////////////////////
+   // the one empty set over this dictionary - returned by every read //
+   // that finds nothing, rather than allocating one each time.  it's //
+   // good across refreshIds epochs, since indexes never change.      //
+   /////////////////////////////////////////////////////////////////////
+   private final PermissionSet emptySet = PermissionSet.newEmpty(this);
+
+
+
+   /*******************************************************************************
+    ** Get the index for a permission name - assigning a new index if the name
+    ** is not yet known.
+    *******************************************************************************/
+   public int intern(String name)
+   {
+      Integer index = nameToIndex.get(name);
+      if(index != null)
+      {
+         return (index);
+      }
+
+      internLock.lock();
+      try
+      {
+         index = nameToIndex.get(name);
+         if(index != null)
+         {
+            return (index);
+         }
+
+         int newIndex = size;
+         if(newIndex == indexToName.length)
+         {
+            indexToName = Arrays.copyOf(indexToName, indexToName.length * 2);
+         }
+         indexToName[newIndex] = name;
+         size = newIndex + 1;
+
+         ///////////////////////////////////////////////////////////////////////
+         // publish in the map last - so any thread that finds the index will //
+         // also (via the volatile write of size above) see the name array.   //
+         ///////////////////////////////////////////////////////////////////////
+         nameToIndex.put(name, newIndex);
+         return (newIndex);
+      }
+      finally
+      {
+         internLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Register a permission record's id & name, returning the name's index.
+    *******************************************************************************/
+   public int register(Integer permissionId, String name)
+   {
+      int index = intern(name);
+      if(permissionId != null)
+      {
+         idToIndex.put(permissionId, index);
+         idToEpoch.put(permissionId, idEpoch);
+      }
+      return (index);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if a permission id has been registered since the last refreshIds -
+    ** i.e., if its name doesn't need to be re-read.
+    *******************************************************************************/
+   public boolean isIdCurrent(Integer permissionId)
+   {
+      if(permissionId == null)
+      {
+         return (false);
+      }
+
+      Long epoch = idToEpoch.get(permissionId);
+      return (epoch != null && epoch == idEpoch);
+   }
+
+
+
+   /*******************************************************************************
+    ** Mark every registered permission id as no longer current - so callers
+    ** re-register them (with their names as of then) before trusting them.
+    ** The ids keep their indexes meanwhile.
+    *******************************************************************************/
+   public void refreshIds()
+   {
+      internLock.lock();
+      try
+      {
+         idEpoch = idEpoch + 1;
+      }
+      finally
+      {
+         internLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the index for a permission name, or -1 if it has not been interned.
+    *******************************************************************************/
+   public int indexOf(String name)
+   {
+      if(name == null)
+      {
+         return (-1);
+      }
+
+      Integer index = nameToIndex.get(name);
+      return (index == null ? -1 : index);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the index for a permission id, or -1 if it has not been registered.
+    *******************************************************************************/
+   public int indexOfId(Integer permissionId)
+   {
+      if(permissionId == null)
+      {
+         return (-1);
+      }
+
+      Integer index = idToIndex.get(permissionId);
+      return (index == null ? -1 : index);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the permission name for an index.
+    *******************************************************************************/
+   public String getName(int index)
+   {
+      if(index < 0 || index >= size)
+      {
+         throw (new IndexOutOfBoundsException("Unknown permission index: " + index));
+      }
+      return (indexToName[index]);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the permission id registered for each index (or -1, for names that
+    ** were only interned) - as an array, indexed by dictionary index.
+    *******************************************************************************/
+   int[] getIdsByIndex()
+   {
+      int[] rs = new int[size];
+      Arrays.fill(rs, -1);
+      idToIndex.forEach((id, index) ->
+      {
+         if(index < rs.length)
+         {
+            rs[index] = id;
+         }
+      });
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the (shared) empty set over this dictionary - see PermissionSet.empty.
+    *******************************************************************************/
+   PermissionSet getEmptySet()
+   {
+      return (emptySet);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of names in the dictionary.
+    *******************************************************************************/
+   public int size()
+   {
+      return (size);
+   }
+
+}
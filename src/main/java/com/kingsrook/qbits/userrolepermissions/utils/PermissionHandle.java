@@ -0,0 +1,79 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+/*******************************************************************************
+ ** A permission name that has been resolved to its PermissionDictionary index,
+ ** so that checks against it skip the name lookup.  Get one from
+ ** PermissionManager.resolvePermission, and hold onto it (e.g., in a static
+ ** final field) - handles stay valid for the life of the manager.
+ *******************************************************************************/
+public final class PermissionHandle
+{
+   private final int    index;
+   private final String name;
+
+
+
+   /*******************************************************************************
+    ** Constructor
+    **
+    *******************************************************************************/
+   PermissionHandle(int index, String name)
+   {
+      this.index = index;
+      this.name = name;
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for index
+    *******************************************************************************/
+   public int getIndex()
+   {
+      return (this.index);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for name
+    *******************************************************************************/
+   public String getName()
+   {
+      return (this.name);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public String toString()
+   {
+      return ("PermissionHandle{" + name + "}");
+   }
+
+}
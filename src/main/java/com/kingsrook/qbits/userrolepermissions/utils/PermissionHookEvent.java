@@ -0,0 +1,92 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/*******************************************************************************
+ ** JFR event for an int-table customizer hook's permission work (building
+ ** its PermissionDelta, and applying it - including any change log,
+ ** materialized table, and invalidation bus writes) - so the time permission
+ ** upkeep adds to writes can be told apart from the writes themselves.
+ *******************************************************************************/
+@Name(PermissionHookEvent.NAME)
+@Label("Permission Customizer Hook")
+@Category({ "QQQ", "User Role Permissions" })
+@Description("An int-table customizer hook's permission cache upkeep, with the number of records written")
+@StackTrace(false)
+public class PermissionHookEvent extends Event
+{
+   public static final String NAME = "com.kingsrook.qbits.userrolepermissions.PermissionHook";
+
+   @Label("Table")
+   private String table;
+
+   @Label("Hook")
+   private String hook;
+
+   @Label("Record Count")
+   private int recordCount;
+
+   private transient long startNanos;
+
+
+
+   /*******************************************************************************
+    ** Begin an event for a hook.
+    *******************************************************************************/
+   public static PermissionHookEvent start(String table, String hook, int recordCount)
+   {
+      PermissionHookEvent event = new PermissionHookEvent();
+      event.table = table;
+      event.hook = hook;
+      event.recordCount = recordCount;
+      event.startNanos = System.nanoTime();
+      event.begin();
+      return (event);
+   }
+
+
+
+   /*******************************************************************************
+    ** End the event - committing it if it's enabled.  Returns the hook's
+    ** elapsed nanoseconds.
+    *******************************************************************************/
+   public long finish()
+   {
+      long nanos = System.nanoTime() - startNanos;
+      end();
+      if(shouldCommit())
+      {
+         commit();
+      }
+      return (nanos);
+   }
+
+}
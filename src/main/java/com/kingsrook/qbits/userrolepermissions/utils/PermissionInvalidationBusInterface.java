@@ -0,0 +1,74 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.function.Consumer;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+
+
+/*******************************************************************************
+ ** SPI for sending cache invalidations between the nodes of a cluster - so a
+ ** write to the int tables on one node flushes the other nodes' caches too
+ ** (rather than them serving stale permissions until their entries expire).
+ **
+ ** The PermissionManager publishes one message per write (i.e., per call to
+ ** applyDelta - so, per batch of records), and subscribes to receive
+ ** messages from other nodes.  Implementations may deliver a node's own
+ ** messages back to it; the manager ignores those (by sourceNodeId).
+ **
+ ** Provided implementations are InProcessPermissionInvalidationBus and
+ ** FilePermissionInvalidationBus; others (e.g., over a message broker) can be
+ ** given to the qbit in UserRolePermissionsQBitConfig.withInvalidationBus.
+ *******************************************************************************/
+public interface PermissionInvalidationBusInterface
+{
+
+   /*******************************************************************************
+    ** Send a message to the (other) nodes' subscribers.
+    *******************************************************************************/
+   void publish(PermissionInvalidationMessage message) throws QException;
+
+
+
+   /*******************************************************************************
+    ** Add a subscriber, to be called with each message received.
+    *******************************************************************************/
+   void subscribe(Consumer<PermissionInvalidationMessage> subscriber);
+
+
+
+   /*******************************************************************************
+    ** Remove a subscriber.
+    *******************************************************************************/
+   void unsubscribe(Consumer<PermissionInvalidationMessage> subscriber);
+
+
+
+   /*******************************************************************************
+    ** Release any resources (threads, connections) used by the bus.
+    *******************************************************************************/
+   default void close()
+   {
+   }
+
+}
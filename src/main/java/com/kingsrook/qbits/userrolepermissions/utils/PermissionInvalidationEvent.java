@@ -0,0 +1,82 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/*******************************************************************************
+ ** JFR event for an invalidation of the PermissionManager's cached entries -
+ ** from a write on this node ("delta"), a message from another node
+ ** ("remote"), or a flush of everything ("flushAll") - with the number of
+ ** users and roles it named.
+ *******************************************************************************/
+@Name(PermissionInvalidationEvent.NAME)
+@Label("Permission Invalidation")
+@Category({ "QQQ", "User Role Permissions" })
+@Description("An invalidation of cached permissions, with the number of users and roles flushed")
+@StackTrace(false)
+public class PermissionInvalidationEvent extends Event
+{
+   public static final String NAME = "com.kingsrook.qbits.userrolepermissions.PermissionInvalidation";
+
+   @Label("Source")
+   private String source;
+
+   @Label("Source Node Id")
+   private String sourceNodeId;
+
+   @Label("Flush All")
+   private boolean flushAll;
+
+   @Label("User Count")
+   private int userCount;
+
+   @Label("Role Count")
+   private int roleCount;
+
+
+
+   /*******************************************************************************
+    ** Commit an (instant) event for an invalidation - if the event is enabled.
+    *******************************************************************************/
+   public static void emit(String source, String sourceNodeId, boolean flushAll, int userCount, int roleCount)
+   {
+      PermissionInvalidationEvent event = new PermissionInvalidationEvent();
+      if(event.shouldCommit())
+      {
+         event.source = source;
+         event.sourceNodeId = sourceNodeId;
+         event.flushAll = flushAll;
+         event.userCount = userCount;
+         event.roleCount = roleCount;
+         event.commit();
+      }
+   }
+
+}
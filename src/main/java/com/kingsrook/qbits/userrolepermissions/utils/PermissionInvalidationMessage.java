@@ -0,0 +1,203 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/*******************************************************************************
+ ** A batch of cache invalidations, sent between nodes over a
+ ** PermissionInvalidationBusInterface - the users and roles whose cached
+ ** permissions a write changed (or, everything).  Receiving nodes flush those
+ ** entries; the node the message came from (sourceNodeId) ignores it, since
+ ** it already applied the change.
+ *******************************************************************************/
+public class PermissionInvalidationMessage
+{
+   private String       sourceNodeId;
+   private boolean      flushAll = false;
+   private Set<Integer> userIds  = new HashSet<>();
+   private Set<Integer> roleIds  = new HashSet<>();
+
+
+
+   /*******************************************************************************
+    ** Build the message for a delta - i.e., the users and roles it changed.
+    *******************************************************************************/
+   public static PermissionInvalidationMessage forDelta(String sourceNodeId, PermissionDelta delta)
+   {
+      return (new PermissionInvalidationMessage()
+         .withSourceNodeId(sourceNodeId)
+         .withFlushAll(delta.getFlushAll())
+         .withUserIds(delta.getUserIdsWithChanges())
+         .withRoleIds(delta.getRoleIdsWithPermissionChanges()));
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the message has nothing to invalidate.
+    *******************************************************************************/
+   public boolean isEmpty()
+   {
+      return (!flushAll && userIds.isEmpty() && roleIds.isEmpty());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for sourceNodeId
+    *******************************************************************************/
+   public String getSourceNodeId()
+   {
+      return (this.sourceNodeId);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for sourceNodeId
+    *******************************************************************************/
+   public void setSourceNodeId(String sourceNodeId)
+   {
+      this.sourceNodeId = sourceNodeId;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for sourceNodeId
+    *******************************************************************************/
+   public PermissionInvalidationMessage withSourceNodeId(String sourceNodeId)
+   {
+      this.sourceNodeId = sourceNodeId;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for flushAll
+    *******************************************************************************/
+   public boolean getFlushAll()
+   {
+      return (this.flushAll);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for flushAll
+    *******************************************************************************/
+   public void setFlushAll(boolean flushAll)
+   {
+      this.flushAll = flushAll;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for flushAll
+    *******************************************************************************/
+   public PermissionInvalidationMessage withFlushAll(boolean flushAll)
+   {
+      this.flushAll = flushAll;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userIds
+    *******************************************************************************/
+   public Set<Integer> getUserIds()
+   {
+      return (this.userIds);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userIds
+    *******************************************************************************/
+   public void setUserIds(Set<Integer> userIds)
+   {
+      this.userIds = userIds;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userIds (copies the given ids)
+    *******************************************************************************/
+   public PermissionInvalidationMessage withUserIds(Collection<Integer> userIds)
+   {
+      this.userIds = new HashSet<>(userIds);
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for roleIds
+    *******************************************************************************/
+   public Set<Integer> getRoleIds()
+   {
+      return (this.roleIds);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for roleIds
+    *******************************************************************************/
+   public void setRoleIds(Set<Integer> roleIds)
+   {
+      this.roleIds = roleIds;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for roleIds (copies the given ids)
+    *******************************************************************************/
+   public PermissionInvalidationMessage withRoleIds(Collection<Integer> roleIds)
+   {
+      this.roleIds = new HashSet<>(roleIds);
+      return (this);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public String toString()
+   {
+      return ("PermissionInvalidationMessage{sourceNodeId=" + sourceNodeId + ", flushAll=" + flushAll + ", userIds=" + userIds + ", roleIds=" + roleIds + "}");
+   }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/*******************************************************************************
+ ** JFR event for one of the PermissionManager's loads from the database (per
+ ** load path - see the "load.*" latency histograms) - so permission loads
+ ** show up by name in a recording, instead of as anonymous QueryAction time.
+ **
+ ** start begins the event; finish ends it, and only fills in & commits it if
+ ** the event is enabled in the recording (and over its threshold) - so, when
+ ** it isn't, a load costs just the (usually scalar-replaced) allocation.
+ *******************************************************************************/
+@Name(PermissionLoadEvent.NAME)
+@Label("Permission Load")
+@Category({ "QQQ", "User Role Permissions" })
+@Description("A PermissionManager load from the database, with the rows it read and the roles involved")
+@StackTrace(false)
+public class PermissionLoadEvent extends Event
+{
+   public static final String NAME = "com.kingsrook.qbits.userrolepermissions.PermissionLoad";
+
+   @Label("Load")
+   private String load;
+
+   @Label("Key")
+   private String key;
+
+   @Label("Rows")
+   private int rows;
+
+   @Label("Roles")
+   private int roles;
+
+   private transient long startNanos;
+
+
+
+   /*******************************************************************************
+    ** Begin an event for a load.
+    *******************************************************************************/
+   public static PermissionLoadEvent start(String load)
+   {
+      PermissionLoadEvent event = new PermissionLoadEvent();
+      event.load = load;
+      event.startNanos = System.nanoTime();
+      event.begin();
+      return (event);
+   }
+
+
+
+   /*******************************************************************************
+    ** End the event - committing it (with the load's key, and row & role counts
+    ** - roles is -1 if not known) if it's enabled.  Returns the load's elapsed
+    ** nanoseconds.
+    *******************************************************************************/
+   public long finish(Integer key, int rows, Integer roles)
+   {
+      long nanos = System.nanoTime() - startNanos;
+      end();
+      if(shouldCommit())
+      {
+         this.key = key == null ? null : String.valueOf(key);
+         this.rows = rows;
+         this.roles = roles == null ? -1 : roles;
+         commit();
+      }
+      return (nanos);
+   }
+
+
+}
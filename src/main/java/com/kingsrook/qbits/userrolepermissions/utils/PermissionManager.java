@@ -22,20 +22,35 @@
 package com.kingsrook.qbits.userrolepermissions.utils;
 
 
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import com.kingsrook.qbits.userrolepermissions.UserRolePermissionsQBitConfig;
 import com.kingsrook.qbits.userrolepermissions.model.Permission;
-import com.kingsrook.qbits.userrolepermissions.model.Role;
 import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
 import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
 import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.QBackendTransaction;
 import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
 import com.kingsrook.qqq.backend.core.context.QContext;
 import com.kingsrook.qqq.backend.core.exceptions.QException;
@@ -44,13 +59,13 @@ import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperat
 import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterCriteria;
 import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
 import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryInput;
-import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryJoin;
-import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryOutput;
 import com.kingsrook.qqq.backend.core.model.data.QRecord;
 import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
-import com.kingsrook.qqq.backend.core.model.metadata.joins.QJoinMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.qbits.QBitMetaData;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
 import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
-import com.kingsrook.qqq.backend.core.utils.memoization.Memoization;
+import com.kingsrook.qqq.backend.core.utils.lambdas.UnsafeVoidVoidMethod;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
 
 
 /*******************************************************************************
@@ -60,27 +75,149 @@ public class PermissionManager
 {
    private static final QLogger LOG = QLogger.getLogger(PermissionManager.class);
 
-   private static PermissionManager singletonReference = null;
+   //////////////////////////////////////////////////////////////////
+   // max number of values to put in a single IN-list query filter //
+   //////////////////////////////////////////////////////////////////
+   private static final int IN_LIST_PAGE_SIZE = 1000;
 
-   private Memoization<Integer, Set<String>> getEffectivePermissionsForUserMemoization = new Memoization<Integer, Set<String>>()
-      .withTimeout(Duration.ofMinutes(5));
+   /////////////////////////////////////////////////////////////////////
+   // number of per-role generation counters - roles share a counter  //
+   // (so, a flush of one also re-loads the others) by id modulo this //
+   /////////////////////////////////////////////////////////////////////
+   private static final int ROLE_GENERATION_STRIPES = 1024;
 
-   private Memoization<Set<Integer>, Set<String>> getEffectivePermissionsForRolesMemoization = new Memoization<Set<Integer>, Set<String>>()
-      .withTimeout(Duration.ofMinutes(5));
+   ///////////////////////////////////////////////////////////////////
+   // likewise, per-user generation counters - bumped when a user's //
+   // entries are flushed, so that loads which read the user's data //
+   // before the flush can tell, and don't cache what they read.    //
+   ///////////////////////////////////////////////////////////////////
+   private static final int USER_GENERATION_STRIPES = 1024;
 
-   private Memoization<Integer, Set<Integer>> getRoleIdsForUserMemoization = new Memoization<Integer, Set<Integer>>()
-      .withTimeout(Duration.ofMinutes(5));
+   //////////////////////////////////////////////////////////////////////
+   // max number of users patched into an authorization snapshot over  //
+   // its arrays (each patch copies the map of them) before rebuilding //
+   //////////////////////////////////////////////////////////////////////
+   private static final int MAX_AUTHORIZATION_SNAPSHOT_USER_OVERRIDES = 4096;
 
-   private Map<Integer, Set<Set<Integer>>> roleIdToRoleSetIds = Collections.synchronizedMap(new HashMap<>());
+   ///////////////////////////////////////////////////////////////////////
+   // settles writes from transactions whose commit (or rollback) isn't //
+   // reported (see settleTransaction).  daemon, so it never holds the  //
+   // JVM open.                                                         //
+   ///////////////////////////////////////////////////////////////////////
+   private static final ScheduledExecutorService TRANSACTION_SETTLER = Executors.newSingleThreadScheduledExecutor(runnable ->
+   {
+      Thread thread = new Thread(runnable, "permission-transaction-settler");
+      thread.setDaemon(true);
+      return (thread);
+   });
+
+   private final PermissionDictionary      dictionary      = new PermissionDictionary();
+   private final PermissionMetricsRegistry metricsRegistry = new PermissionMetricsRegistry();
+
+   /////////////////////////////////////////////////////////////////////
+   // latency of each load path - loads slower than the threshold are //
+   // also logged, with their row & role counts.                      //
+   /////////////////////////////////////////////////////////////////////
+   private final LatencyHistogram userLoadLatency     = metricsRegistry.getLatencyHistogram("load.effectivePermissionsForUser");
+   private final LatencyHistogram usersLoadLatency    = metricsRegistry.getLatencyHistogram("load.effectivePermissionsForUsers");
+   private final LatencyHistogram rolesLoadLatency    = metricsRegistry.getLatencyHistogram("load.permissionsForRoles");
+   private final LatencyHistogram roleIdsLoadLatency  = metricsRegistry.getLatencyHistogram("load.roleIdsForUser");
+   private final LatencyHistogram snapshotLoadLatency = metricsRegistry.getLatencyHistogram("load.authorizationSnapshot");
+   private volatile long          slowLoadThresholdNanos;
+
+   //////////////////////////////////////////////////////////////////////
+   // caches are replaced (not mutated) by configure - so they're      //
+   // volatile, for readers on other threads to see the new instances. //
+   //////////////////////////////////////////////////////////////////////
+   private volatile PermissionCache<Integer, UserPermissionSet> getEffectivePermissionsForUserCache;
+   private volatile PermissionCache<Integer, PermissionSet>     getPermissionsForRoleCache;
+   private volatile PermissionCache<Integer, UserRoleIds>       getRoleIdsForUserCache;
+
+   //////////////////////////////////////////////////////////////////////
+   // cache entries are stamped with these generations, and treated as //
+   // misses once they change - so flushing everything, or a role, is  //
+   // just an increment; stale entries are re-loaded lazily.           //
+   //////////////////////////////////////////////////////////////////////
+   private final AtomicLong      globalGeneration = new AtomicLong(0);
+   private final AtomicLongArray roleGenerations  = new AtomicLongArray(ROLE_GENERATION_STRIPES);
+   private final AtomicLongArray userGenerations  = new AtomicLongArray(USER_GENERATION_STRIPES);
+
+   ///////////////////////////////////////////////////////////////////////////
+   // when enabled, lookups are answered from an immutable snapshot, which  //
+   // writes patch into new versions.  flushes of users & roles queue their //
+   // rows to be re-read; flushing everything marks it stale, to rebuild.   //
+   ///////////////////////////////////////////////////////////////////////////
+   private volatile boolean               useAuthorizationSnapshot             = false;
+   private volatile AuthorizationSnapshot authorizationSnapshot                = null;
+   private volatile boolean               authorizationSnapshotStale           = false;
+   private volatile boolean               authorizationSnapshotRowsToReload    = false;
+   private final Set<Integer>             authorizationSnapshotUserIdsToReload = ConcurrentHashMap.newKeySet();
+   private final Set<Integer>             authorizationSnapshotRoleIdsToReload = ConcurrentHashMap.newKeySet();
+   private final ReentrantLock            authorizationSnapshotLock            = new ReentrantLock();
+   private final AtomicLong               authorizationSnapshotVersion         = new AtomicLong(0);
+
+   //////////////////////////////////////////////////////////////////////
+   // cross-node invalidation - writes on this node are published, and //
+   // messages from other nodes flush the entries they name.           //
+   //////////////////////////////////////////////////////////////////////
+   private volatile PermissionInvalidationBusInterface    invalidationBus;
+   private volatile String                                nodeId;
+   private final Consumer<PermissionInvalidationMessage> invalidationSubscriber = this::onInvalidationMessage;
+
+   /////////////////////////////////////////////////////////////////////
+   // database change log - written with each write, polled for other //
+   // nodes' entries (which go to the same subscriber as the bus's).  //
+   /////////////////////////////////////////////////////////////////////
+   private volatile boolean                   useChangeLog = false;
+   private volatile PermissionChangeLogPoller changeLogPoller;
+   private volatile Duration                  changeLogPollInterval;
+
+   ////////////////////////////////////////////////////////////////////
+   // materialized table - written with each write whenever it's on, //
+   // but only read once it's known to be complete (see start).      //
+   ////////////////////////////////////////////////////////////////////
+   private volatile boolean useMaterializedUserPermissions      = false;
+   private volatile boolean materializedUserPermissionsComplete = false;
+
+   ///////////////////////////////////////////////////////////////////
+   // deltas from writes in callers' transactions, held until they  //
+   // commit (see afterCommit), or are settled.  weak keys, so that //
+   // transactions that are never reported don't leak - and so that //
+   // settling can tell when one can no longer commit.              //
+   ///////////////////////////////////////////////////////////////////
+   private final Map<QBackendTransaction, PendingTransaction> pendingTransactions = Collections.synchronizedMap(new WeakHashMap<>());
+   private volatile Duration                                  transactionSettleDelay;
+
+   ////////////////////////////////////////////////////////////////////
+   // the last instance whose qbit config was checked against this   //
+   // manager's (see warnIfFeaturesNotStarted) - reset by configure. //
+   ////////////////////////////////////////////////////////////////////
+   private volatile QInstance checkedQInstance;
+
+   ////////////////////////////////////////////////////////////////////////
+   // snapshot file - read for a warm start, and rewritten periodically. //
+   // the database version is the change log's version the current       //
+   // snapshot was loaded at (null if unknown - e.g., once deltas have   //
+   // been applied)                                                      //
+   ////////////////////////////////////////////////////////////////////////
+   private volatile Path                     authorizationSnapshotFile;
+   private volatile Duration                 authorizationSnapshotFileWriteInterval;
+   private volatile Long                     authorizationSnapshotDatabaseVersion;
+   private volatile ScheduledExecutorService authorizationSnapshotFileWriter;
+   private volatile Thread                   authorizationSnapshotFileShutdownHook;
 
 
 
    /*******************************************************************************
-    ** Singleton constructor
+    ** Singleton constructor - package-private, so tests can make a second
+    ** manager, to stand in for another node.
     *******************************************************************************/
-   private PermissionManager()
+   PermissionManager()
    {
-
+      UserRolePermissionsQBitConfig config = new UserRolePermissionsQBitConfig();
+      createCaches(config);
+      slowLoadThresholdNanos = toNanosOrMax(config.getSlowLoadThreshold());
+      transactionSettleDelay = config.getTransactionSettleDelay();
    }
 
 
@@ -90,125 +227,417 @@ public class PermissionManager
     *******************************************************************************/
    public static PermissionManager getInstance()
    {
-      if(singletonReference == null)
+      return (InstanceHolder.INSTANCE);
+   }
+
+
+
+   /***************************************************************************
+    ** lazy, thread-safe singleton holder - the JVM initializes (and safely
+    ** publishes) INSTANCE the first time getInstance is called, without any
+    ** locking after that.
+    ***************************************************************************/
+   private static class InstanceHolder
+   {
+      private static final PermissionManager INSTANCE = new PermissionManager();
+   }
+
+
+
+   /*******************************************************************************
+    ** Apply the cache settings from a qbit config - replacing the existing
+    ** caches (so, effectively flushing them too, and dropping any deltas held
+    ** for transactions).
+    *******************************************************************************/
+   public void configure(UserRolePermissionsQBitConfig config)
+   {
+      getEffectivePermissionsForUserCache.shutdown();
+      getPermissionsForRoleCache.shutdown();
+      getRoleIdsForUserCache.shutdown();
+
+      createCaches(config);
+      dropPendingTransactions();
+      checkedQInstance = null;
+      metricsRegistry.setPublishToJmx(config.getPublishJmxMetrics());
+      slowLoadThresholdNanos = toNanosOrMax(config.getSlowLoadThreshold());
+
+      useAuthorizationSnapshot = config.getUseAuthorizationSnapshot();
+      authorizationSnapshot = null;
+      clearAuthorizationSnapshotRowsToReload();
+
+      PermissionInvalidationBusInterface oldInvalidationBus = invalidationBus;
+      if(oldInvalidationBus != null)
+      {
+         oldInvalidationBus.unsubscribe(invalidationSubscriber);
+      }
+
+      nodeId = config.getNodeId();
+      transactionSettleDelay = config.getTransactionSettleDelay();
+      invalidationBus = config.getInvalidationBus();
+      if(invalidationBus != null)
+      {
+         invalidationBus.subscribe(invalidationSubscriber);
+      }
+
+      PermissionChangeLogPoller oldChangeLogPoller = changeLogPoller;
+      if(oldChangeLogPoller != null)
+      {
+         oldChangeLogPoller.stop();
+      }
+
+      useChangeLog = config.getUseChangeLog();
+      changeLogPollInterval = config.getChangeLogPollInterval();
+      changeLogPoller = useChangeLog ? new PermissionChangeLogPoller(invalidationSubscriber) : null;
+
+      useMaterializedUserPermissions = config.getUseMaterializedUserPermissions();
+      materializedUserPermissionsComplete = false;
+
+      stopAuthorizationSnapshotFileTasks();
+
+      authorizationSnapshotFile = config.getAuthorizationSnapshotFile();
+      authorizationSnapshotFileWriteInterval = config.getAuthorizationSnapshotFileWriteInterval();
+      authorizationSnapshotDatabaseVersion = null;
+   }
+
+
+
+   /*******************************************************************************
+    ** Start the manager for a (produced) instance:  apply the qbit's config
+    ** from it (see configure), and start its background work - polling the
+    ** change log, and the authorization snapshot file's tasks - for whichever
+    ** of those are on.  If the materialized table is on, it's populated first
+    ** if it isn't complete (see startMaterializedUserPermissions).  Producing
+    ** the qbit doesn't start anything, so an application calls this once its
+    ** instance is ready (and stop, when it shuts down).
+    *******************************************************************************/
+   public void start(QInstance qInstance)
+   {
+      UserRolePermissionsQBitConfig config = getQBitConfig(qInstance);
+      if(config == null)
       {
-         singletonReference = new PermissionManager();
+         LOG.warn("No user role permissions qbit in instance - starting with the default config");
+         config = new UserRolePermissionsQBitConfig();
       }
-      return (singletonReference);
+
+      configure(config);
+      startMaterializedUserPermissions();
+      startChangeLogPolling(qInstance);
+      startAuthorizationSnapshotFileTasks(qInstance);
    }
 
 
 
    /***************************************************************************
-    **
+    ** the qbit's config in an instance (or null, if it has none).
     ***************************************************************************/
-   public void flushCacheForUpdatedUserIds(Collection<Integer> userIds)
+   private static UserRolePermissionsQBitConfig getQBitConfig(QInstance qInstance)
    {
-      for(Integer userId : CollectionUtils.nonNullCollection(userIds))
+      return (CollectionUtils.nonNullMap(qInstance.getQBits()).values().stream()
+         .map(QBitMetaData::getConfig)
+         .filter(UserRolePermissionsQBitConfig.class::isInstance)
+         .map(UserRolePermissionsQBitConfig.class::cast)
+         .findFirst()
+         .orElse(null));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the optional features that the qbit's config in an instance turns on
+    ** (so their tables were produced, and its int-table customizers run), but
+    ** that this manager wasn't configured with - i.e., start wasn't called
+    ** with that instance.  Writes then skip those features' work (e.g., no
+    ** change log entries are written for other nodes to read).
+    *******************************************************************************/
+   public List<String> getFeaturesNotStarted(QInstance qInstance)
+   {
+      List<String>                  rs     = new ArrayList<>();
+      UserRolePermissionsQBitConfig config = qInstance == null ? null : getQBitConfig(qInstance);
+      if(config == null)
+      {
+         return (rs);
+      }
+
+      if(config.getUseChangeLog() && !useChangeLog)
+      {
+         rs.add("useChangeLog");
+      }
+      if(config.getUseMaterializedUserPermissions() && !useMaterializedUserPermissions)
+      {
+         rs.add("useMaterializedUserPermissions");
+      }
+      if(config.getUseAuthorizationSnapshot() && !useAuthorizationSnapshot)
       {
-         getEffectivePermissionsForUserMemoization.clearKey(userId);
-         getRoleIdsForUserMemoization.clearKey(userId);
+         rs.add("useAuthorizationSnapshot");
       }
+      return (rs);
    }
 
 
 
    /***************************************************************************
-    **
+    ** log an error (once per instance, per configure) if the current
+    ** instance's qbit config turns on features this manager wasn't started
+    ** with - since writes then silently skip them.
     ***************************************************************************/
-   public void flushCacheForUpdatedRoleIds(Collection<Integer> roleIds)
+   private void warnIfFeaturesNotStarted()
    {
-      if(CollectionUtils.nullSafeIsEmpty(roleIds))
+      QInstance qInstance = QContext.getQInstance();
+      if(qInstance == null || qInstance == checkedQInstance)
       {
          return;
       }
 
-      Set<Set<Integer>> roleIdsSetsToClear = new HashSet<>();
-      for(Integer roleId : roleIds)
+      checkedQInstance = qInstance;
+      List<String> featuresNotStarted = getFeaturesNotStarted(qInstance);
+      if(!featuresNotStarted.isEmpty())
+      {
+         LOG.error("The user role permissions qbit turns on features that PermissionManager wasn't started with - call PermissionManager.getInstance().start(qInstance) once the instance is ready", logPair("features", featuresNotStarted));
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** If the materialized table is on, make sure it's complete - rebuilding it
+    ** from the int tables if it isn't (e.g., it was just turned on) - and then
+    ** start reading user permissions from it.  Until this succeeds, they're
+    ** composed from the int tables (while writes keep the table up to date).
+    *******************************************************************************/
+   public void startMaterializedUserPermissions()
+   {
+      if(!useMaterializedUserPermissions)
+      {
+         return;
+      }
+
+      try
       {
-         if(roleIdToRoleSetIds.containsKey(roleId))
+         if(UserEffectivePermissionMaintainer.rebuildAllIfIncomplete())
          {
-            roleIdsSetsToClear.addAll(roleIdToRoleSetIds.get(roleId));
+            LOG.info("Rebuilt the incomplete user effective permission table");
          }
+         materializedUserPermissionsComplete = true;
+      }
+      catch(Exception e)
+      {
+         LOG.warn("Error populating the user effective permission table - user permissions will be composed from the int tables", e);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Stop the background work started by start:  the change log poller, and
+    ** the authorization snapshot file's tasks (including its shutdown hook -
+    ** so call writeAuthorizationSnapshotFile first, for a final write).  The
+    ** caches are left as they are.
+    *******************************************************************************/
+   public void stop()
+   {
+      PermissionChangeLogPoller poller = changeLogPoller;
+      if(poller != null)
+      {
+         poller.stop();
       }
 
-      for(Set<Integer> roleIdsSet : roleIdsSetsToClear)
+      stopAuthorizationSnapshotFileTasks();
+   }
+
+
+
+   /*******************************************************************************
+    ** Start polling the change log on a background thread (if the change log
+    ** is on, and has a poll interval) - with queries run against the given
+    ** instance.
+    *******************************************************************************/
+   public void startChangeLogPolling(QInstance qInstance)
+   {
+      PermissionChangeLogPoller poller = changeLogPoller;
+      if(poller != null && changeLogPollInterval != null)
+      {
+         poller.start(qInstance, changeLogPollInterval);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Poll the change log now (in the current QContext), flushing entries that
+    ** other nodes' writes changed.  Returns the number of change log entries
+    ** read (0 if the change log isn't on).
+    *******************************************************************************/
+   public int pollChangeLog() throws QException
+   {
+      PermissionChangeLogPoller poller = changeLogPoller;
+      return (poller == null ? 0 : poller.poll());
+   }
+
+
+
+   /*******************************************************************************
+    ** Start the authorization snapshot file's background tasks (if there is a
+    ** file):  on a daemon thread, load it (to warm up), and then rewrite it
+    ** every write interval (if there is one) - and, rewrite it at shutdown.
+    ** Any tasks from an earlier start (including its shutdown hook) are
+    ** stopped first.
+    *******************************************************************************/
+   public void startAuthorizationSnapshotFileTasks(QInstance qInstance)
+   {
+      stopAuthorizationSnapshotFileTasks();
+      if(authorizationSnapshotFile == null || !useAuthorizationSnapshot)
+      {
+         return;
+      }
+
+      ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+      {
+         Thread thread = new Thread(runnable, "authorization-snapshot-file-writer");
+         thread.setDaemon(true);
+         return (thread);
+      });
+      authorizationSnapshotFileWriter = writer;
+
+      writer.execute(() -> runAuthorizationSnapshotFileTask(qInstance, this::getAuthorizationSnapshot));
+      if(authorizationSnapshotFileWriteInterval != null)
       {
-         getEffectivePermissionsForRolesMemoization.clearKey(roleIdsSet);
+         long intervalMillis = authorizationSnapshotFileWriteInterval.toMillis();
+         writer.scheduleWithFixedDelay(() -> runAuthorizationSnapshotFileTask(qInstance, this::writeAuthorizationSnapshotFile), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
       }
+
+      Thread shutdownHook = new Thread(() -> runAuthorizationSnapshotFileTask(qInstance, this::writeAuthorizationSnapshotFile), "authorization-snapshot-file-shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+      authorizationSnapshotFileShutdownHook = shutdownHook;
    }
 
 
 
    /***************************************************************************
-    **
+    ** stop the snapshot file's background tasks (if started), and remove its
+    ** shutdown hook - so re-starts (e.g., after re-configuring) don't pile up
+    ** writers, or hooks (each holding an old QInstance).
     ***************************************************************************/
-   public void flushAllCache()
+   private void stopAuthorizationSnapshotFileTasks()
    {
-      getEffectivePermissionsForUserMemoization.clear();
-      getEffectivePermissionsForRolesMemoization.clear();
+      ScheduledExecutorService oldAuthorizationSnapshotFileWriter = authorizationSnapshotFileWriter;
+      if(oldAuthorizationSnapshotFileWriter != null)
+      {
+         oldAuthorizationSnapshotFileWriter.shutdownNow();
+         authorizationSnapshotFileWriter = null;
+      }
+
+      Thread oldShutdownHook = authorizationSnapshotFileShutdownHook;
+      if(oldShutdownHook != null)
+      {
+         try
+         {
+            Runtime.getRuntime().removeShutdownHook(oldShutdownHook);
+         }
+         catch(IllegalStateException e)
+         {
+            //////////////////////////////////////////////////////////
+            // the JVM is already shutting down - the hook will run //
+            //////////////////////////////////////////////////////////
+         }
+         authorizationSnapshotFileShutdownHook = null;
+      }
    }
 
 
 
    /***************************************************************************
-    **
+    ** run a snapshot file task in a new, system-level QContext - logging (not
+    ** throwing) any errors, so scheduled runs keep going.
     ***************************************************************************/
-   public Set<String> getEffectivePermissionsForUser(Integer userId) throws QException
+   private void runAuthorizationSnapshotFileTask(QInstance qInstance, UnsafeVoidVoidMethod<QException> task)
    {
-      if(userId == null)
+      try
       {
-         return (Collections.emptySet());
+         QContext.init(qInstance, new QSession());
+         task.run();
+      }
+      catch(Exception e)
+      {
+         LOG.warn("Error in authorization snapshot file task", e, logPair("file", String.valueOf(authorizationSnapshotFile)));
+      }
+      finally
+      {
+         QContext.clear();
       }
+   }
 
-      return (getEffectivePermissionsForUserMemoization.getResultThrowing(userId, u ->
-         doGetEffectivePermissionsForUser(u)))
-         .orElseThrow(() -> new QException("Could not get effective permissions for user with id: " + userId));
+
+
+   /***************************************************************************
+    ** create the caches per a config - giving each its loader (for background
+    ** refreshes), pinning any pinned users, and registering them for metrics.
+    ***************************************************************************/
+   private void createCaches(UserRolePermissionsQBitConfig config)
+   {
+      getEffectivePermissionsForUserCache = new PermissionCache<Integer, UserPermissionSet>("effectivePermissionsForUser", config.getUserPermissionsCacheConfig(), PermissionManager::estimateWeight)
+         .withLoader(this::doGetEffectivePermissionsForUser)
+         .withGenerationFunction(this::getUserGeneration)
+         .withEntryGenerationFunction(this::getUserEntryGeneration);
+      getPermissionsForRoleCache = new PermissionCache<Integer, PermissionSet>("permissionsForRole", config.getRolePermissionsCacheConfig(), PermissionSet::estimateWeight)
+         .withLoader(this::doGetPermissionsForRole)
+         .withGenerationFunction(this::getRoleGeneration);
+      getRoleIdsForUserCache = new PermissionCache<Integer, UserRoleIds>("roleIdsForUser", config.getUserRoleIdsCacheConfig(), PermissionManager::estimateWeight)
+         .withLoader(this::doGetRoleIdsForUser)
+         .withGenerationFunction(this::getRoleIdsGeneration);
+
+      Collection<Integer> pinnedUserIds = CollectionUtils.nonNullCollection(config.getPinnedUserIds());
+      getEffectivePermissionsForUserCache.pinAll(pinnedUserIds);
+      getRoleIdsForUserCache.pinAll(pinnedUserIds);
+
+      metricsRegistry.register(getEffectivePermissionsForUserCache);
+      metricsRegistry.register(getPermissionsForRoleCache);
+      metricsRegistry.register(getRoleIdsForUserCache);
    }
 
 
 
    /***************************************************************************
-    **
+    ** rough estimate of the bytes used by a user's cached role ids - the set
+    ** & its nodes, plus the elements, and their stripes.
     ***************************************************************************/
-   private Set<String> doGetEffectivePermissionsForUser(Integer userId) throws QException
+   private static long estimateWeight(UserRoleIds userRoleIds)
    {
-      QInstance qInstance = QContext.getQInstance();
+      return (80L + 52L * userRoleIds.roleIds.size());
+   }
 
-      ////////////////////////////////
-      // query for role permissions //
-      ////////////////////////////////
-      QueryOutput roleQueryOutput = new QueryAction().execute(new QueryInput(Permission.TABLE_NAME)
-         .withQueryJoin(new QueryJoin(RolePermissionInt.TABLE_NAME)
-            .withBaseTableOrAlias(Permission.TABLE_NAME)
-            .withJoinMetaData(qInstance.getJoin(QJoinMetaData.makeInferredJoinName(Permission.TABLE_NAME, RolePermissionInt.TABLE_NAME))))
 
-         .withQueryJoin(new QueryJoin(Role.TABLE_NAME)
-            .withBaseTableOrAlias(RolePermissionInt.TABLE_NAME)
-            .withJoinMetaData(qInstance.getJoin(QJoinMetaData.makeInferredJoinName(Role.TABLE_NAME, RolePermissionInt.TABLE_NAME))))
 
-         .withQueryJoin(new QueryJoin(UserRoleInt.TABLE_NAME)
-            .withBaseTableOrAlias(Role.TABLE_NAME)
-            .withJoinMetaData(qInstance.getJoin(QJoinMetaData.makeInferredJoinName(Role.TABLE_NAME, UserRoleInt.TABLE_NAME))))
+   /***************************************************************************
+    ** rough estimate of the bytes used by a user's cached permission set -
+    ** the set and their direct grants, plus its holder and its roles' stripes
+    ** (the role id set is shared with the user's role ids entry).
+    ***************************************************************************/
+   private static long estimateWeight(UserPermissionSet userPermissionSet)
+   {
+      long directWeight = userPermissionSet.directPermissionSet == null ? 0 : userPermissionSet.directPermissionSet.estimateWeight();
+      return (userPermissionSet.permissionSet.estimateWeight() + directWeight + 40L + 4L * userPermissionSet.userRoleIds.roleGenerationStripes.length);
+   }
+
 
-         .withFilter(new QQueryFilter().withCriteria(UserRoleInt.TABLE_NAME + ".userId", QCriteriaOperator.EQUALS, userId)));
 
-      List<QRecord> rolePermissions     = roleQueryOutput.getRecords();
-      Set<String>   permissionsFromRole = rolePermissions.stream().map(r -> r.getValueString("name")).collect(Collectors.toSet());
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   public void flushCacheForUpdatedUserIds(Collection<Integer> userIds)
+   {
+      reloadAuthorizationSnapshotRowsLater(userIds, null);
 
-      ////////////////////////////////
-      // query for user permissions //
-      ////////////////////////////////
-      QueryOutput userQueryOutput = new QueryAction().execute(new QueryInput(Permission.TABLE_NAME)
-         .withFilter(new QQueryFilter().withCriteria(UserPermissionInt.TABLE_NAME + ".userId", QCriteriaOperator.EQUALS, userId)));
-      List<QRecord> userPermissions     = userQueryOutput.getRecords();
-      Set<String>   permissionsFromUser = userPermissions.stream().map(r -> r.getValueString("name")).collect(Collectors.toSet());
+      for(Integer userId : CollectionUtils.nonNullCollection(userIds))
+      {
+         if(userId == null)
+         {
+            continue;
+         }
 
-      //////////////////////
-      // union and return //
-      //////////////////////
-      permissionsFromRole.addAll(permissionsFromUser);
-      return (permissionsFromRole);
+         bumpUserGeneration(userId);
+         getEffectivePermissionsForUserCache.clearKey(userId);
+         getRoleIdsForUserCache.clearKey(userId);
+      }
    }
 
 
@@ -216,50 +645,118 @@ public class PermissionManager
    /***************************************************************************
     **
     ***************************************************************************/
-   public Set<String> getEffectivePermissionsForRoles(Set<Integer> roleIds) throws QException
+   public void flushCacheForUpdatedRoleIds(Collection<Integer> roleIds)
    {
       if(CollectionUtils.nullSafeIsEmpty(roleIds))
       {
-         return (Collections.emptySet());
+         return;
       }
 
-      return (getEffectivePermissionsForRolesMemoization.getResultThrowing(roleIds, rs ->
-         doGetEffectivePermissionsForRoles(rs)))
-         .orElseThrow(() -> new QException("Could not get effective permissions for role ids: " + roleIds));
+      reloadAuthorizationSnapshotRowsLater(null, roleIds);
+
+      for(Integer roleId : roleIds)
+      {
+         if(roleId != null)
+         {
+            bumpRoleGeneration(roleId);
+         }
+      }
    }
 
 
 
    /***************************************************************************
-    **
+    ** bump a role's generation - invalidating its cached entry, and the cached
+    ** entries of all the users who hold it.
     ***************************************************************************/
-   private Set<String> doGetEffectivePermissionsForRoles(Set<Integer> roleIds) throws QException
+   private void bumpRoleGeneration(Integer roleId)
    {
-      for(Integer roleId : roleIds)
+      roleGenerations.incrementAndGet(getRoleGenerationStripe(roleId));
+   }
+
+
+
+   /***************************************************************************
+    ** bump a user's generation - invalidating their cached entries, and any
+    ** loads of them in progress.
+    ***************************************************************************/
+   private void bumpUserGeneration(Integer userId)
+   {
+      userGenerations.incrementAndGet(getUserGenerationStripe(userId));
+   }
+
+
+
+   /***************************************************************************
+    ** the generation of a user, for stamping a load of their cache entry -
+    ** the generation of their role ids, plus the generations of their roles,
+    ** so that a change to any of those roles invalidates it (without needing
+    ** to know which users hold them).  If the user's role ids aren't cached,
+    ** their generation can't be told.  Peeks at the role ids entry, so this
+    ** doesn't count as a read of it.
+    ***************************************************************************/
+   private long getUserGeneration(Integer userId)
+   {
+      UserRoleIds userRoleIds = getRoleIdsForUserCache.peek(userId);
+      if(userRoleIds == null)
       {
-         roleIdToRoleSetIds.computeIfAbsent(roleId, k -> new HashSet<>());
-         roleIdToRoleSetIds.get(roleId).add(roleIds);
+         return (PermissionCache.NO_GENERATION);
       }
 
-      QInstance qInstance = QContext.getQInstance();
+      return (getUserGeneration(getRoleIdsGeneration(userId), userRoleIds));
+   }
+
+
+
+   /***************************************************************************
+    ** the generation of a user's cached entry - as getUserGeneration, but with
+    ** the role ids the entry was built from, so it stays usable if the user's
+    ** role ids entry is evicted.
+    ***************************************************************************/
+   private long getUserEntryGeneration(Integer userId, UserPermissionSet userPermissionSet)
+   {
+      return (getUserGeneration(getRoleIdsGeneration(userId), userPermissionSet.userRoleIds));
+   }
 
-      ////////////////////////////////
-      // query for role permissions //
-      ////////////////////////////////
-      QueryOutput roleQueryOutput = new QueryAction().execute(new QueryInput(Permission.TABLE_NAME)
-         .withQueryJoin(new QueryJoin(RolePermissionInt.TABLE_NAME)
-            .withBaseTableOrAlias(Permission.TABLE_NAME)
-            .withJoinMetaData(qInstance.getJoin(QJoinMetaData.makeInferredJoinName(Permission.TABLE_NAME, RolePermissionInt.TABLE_NAME))))
 
-         .withFilter(new QQueryFilter().withCriteria(RolePermissionInt.TABLE_NAME + ".roleId", QCriteriaOperator.IN, roleIds)));
 
-      List<QRecord> rolePermissions     = roleQueryOutput.getRecords();
-      Set<String>   permissionsFromRole = rolePermissions.stream().map(r -> r.getValueString("name")).collect(Collectors.toSet());
+   /***************************************************************************
+    ** the generation of a user's cache entry, given the generation of their
+    ** role ids, and the role ids.  Called on every read of a user's entry -
+    ** so, it sums over the roles' (pre-computed) stripes, rather than
+    ** iterating the set.
+    ***************************************************************************/
+   private long getUserGeneration(long roleIdsGeneration, UserRoleIds userRoleIds)
+   {
+      long generation = roleIdsGeneration;
+      for(int stripe : userRoleIds.roleGenerationStripes)
+      {
+         generation += roleGenerations.get(stripe);
+      }
+      return (generation);
+   }
+
+
 
-      //////////////////////
-      // union and return //
-      //////////////////////
-      return (permissionsFromRole);
+   /***************************************************************************
+    ** the generation of a user's role ids (and direct grants) - which changes
+    ** when the user (or another in its stripe) is flushed, or everything is.
+    ***************************************************************************/
+   private long getRoleIdsGeneration(Integer userId)
+   {
+      return (globalGeneration.get() + userGenerations.get(getUserGenerationStripe(userId)));
+   }
+
+
+
+   /***************************************************************************
+    ** the generation of a role's cache entry - which changes when either the
+    ** role (or another in its stripe) is flushed, or everything is.  Both
+    ** counters only grow, so their sum changes whenever either does.
+    ***************************************************************************/
+   private long getRoleGeneration(Integer roleId)
+   {
+      return (globalGeneration.get() + roleGenerations.get(getRoleGenerationStripe(roleId)));
    }
 
 
@@ -267,11 +764,9 @@ public class PermissionManager
    /***************************************************************************
     **
     ***************************************************************************/
-   public Set<Integer> getRoleIdsForUser(Integer userId) throws QException
+   private static int getRoleGenerationStripe(Integer roleId)
    {
-      return (getRoleIdsForUserMemoization.getResultThrowing(userId, id ->
-         doGetRoleIdsForUser(id)))
-         .orElseThrow(() -> new QException("Could not get roles id for user " + userId));
+      return (Math.floorMod(roleId, ROLE_GENERATION_STRIPES));
    }
 
 
@@ -279,10 +774,2032 @@ public class PermissionManager
    /***************************************************************************
     **
     ***************************************************************************/
-   private Set<Integer> doGetRoleIdsForUser(Integer userId) throws QException
+   private static int getUserGenerationStripe(Integer userId)
+   {
+      return (Math.floorMod(userId, USER_GENERATION_STRIPES));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the dictionary that maps permission names to the indexes used in
+    ** PermissionSets from this manager.
+    *******************************************************************************/
+   public PermissionDictionary getDictionary()
+   {
+      return (dictionary);
+   }
+
+
+
+   /***************************************************************************
+    ** Flush all cached entries - by bumping the global generation, so this
+    ** costs the same however many entries are cached.
+    ***************************************************************************/
+   public void flushAllCache()
+   {
+      PermissionInvalidationEvent.emit("flushAll", nodeId, true, 0, 0);
+      invalidateAll();
+   }
+
+
+
+   /***************************************************************************
+    ** bump the global generation (and mark any snapshot stale) - invalidating
+    ** every cached entry.  The dictionary's ids are refreshed first, so the
+    ** loads after the bump re-read permission names (e.g., after a rename).
+    ***************************************************************************/
+   private void invalidateAll()
    {
-      List<QRecord> records = QueryAction.execute(UserRoleInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.EQUALS, userId)));
-      return records.stream().map(r -> r.getValueInteger("roleId")).collect(Collectors.toSet());
+      dictionary.refreshIds();
+      globalGeneration.incrementAndGet();
+      authorizationSnapshotStale = true;
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the registry of this manager's caches - for their sizes & counters,
+    ** and to flush them one at a time.
+    *******************************************************************************/
+   public PermissionMetricsRegistry getMetricsRegistry()
+   {
+      return (metricsRegistry);
+   }
+
+
+
+   /*******************************************************************************
+    ** Flush all cached entries on this node, and (if there's an invalidation
+    ** bus or change log) on all the other nodes too.
+    *******************************************************************************/
+   public void flushAllCacheOnAllNodes() throws QException
+   {
+      flushAllCache();
+
+      PermissionInvalidationMessage message = new PermissionInvalidationMessage().withSourceNodeId(nodeId).withFlushAll(true);
+      if(useChangeLog)
+      {
+         PermissionChangeLogWriter.write(message, null);
+      }
+      publishInvalidation(message);
+   }
+
+
+
+   /***************************************************************************
+    ** send a message to the other nodes (if there's an invalidation bus) -
+    ** logging, rather than throwing, if that fails:  this node's write has
+    ** already happened, and the other nodes' entries will still expire.
+    ***************************************************************************/
+   private void publishInvalidation(PermissionInvalidationMessage message)
+   {
+      PermissionInvalidationBusInterface bus = invalidationBus;
+      if(bus == null || message.isEmpty())
+      {
+         return;
+      }
+
+      try
+      {
+         bus.publish(message);
+      }
+      catch(Exception e)
+      {
+         LOG.warn("Error publishing permission invalidation message", e, logPair("message", message));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** handle a message from the invalidation bus - flushing the entries it
+    ** names, unless it came from this node (which already applied it).
+    ***************************************************************************/
+   private void onInvalidationMessage(PermissionInvalidationMessage message)
+   {
+      if(message == null || Objects.equals(nodeId, message.getSourceNodeId()))
+      {
+         return;
+      }
+
+      PermissionInvalidationEvent.emit("remote", message.getSourceNodeId(), message.getFlushAll(), sizeOf(message.getUserIds()), sizeOf(message.getRoleIds()));
+      if(message.getFlushAll())
+      {
+         invalidateAll();
+      }
+      else
+      {
+         flushCacheForUpdatedUserIds(message.getUserIds());
+         flushCacheForUpdatedRoleIds(message.getRoleIds());
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static int sizeOf(Collection<Integer> ids)
+   {
+      return (ids == null ? 0 : ids.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** Apply the changes from a write to the int tables to cached entries, in
+    ** place - so caches stay warm after writes, rather than being flushed and
+    ** re-queried.  A role's cached set is patched; a user's role ids and
+    ** direct grants are patched, and their set re-composed from those and
+    ** their roles' cached sets.  Patched entries are swapped in only if no
+    ** other write changed them meanwhile - otherwise (or if a role's set
+    ** isn't cached) they're flushed instead.
+    *******************************************************************************/
+   public void applyDelta(PermissionDelta delta) throws QException
+   {
+      applyDelta(delta, null);
+   }
+
+
+
+   /*******************************************************************************
+    ** Apply a delta, as above, for a write made in the given transaction.  Its
+    ** change log entries (if the change log is on) and materialized rows (if
+    ** that table is on) are written in the transaction, so they commit (or
+    ** roll back) with the write they describe.
+    **
+    ** Cached entries are only patched once the write has committed.  Without
+    ** a transaction, it already has.  With one, the entries the delta touches
+    ** are just flushed here (and on the other nodes), and the delta is held
+    ** until the transaction's owner calls afterCommit (or afterRollback, to
+    ** drop it).  QBackendTransaction has no commit callback, so the
+    ** customizers can't see the commit - callers that commit their own
+    ** transactions should call afterCommit.  Until one of those calls comes,
+    ** the transaction is settled every transactionSettleDelay:  with the
+    ** change log on, its entries show when it has committed (and the delta is
+    ** then applied, once) or rolled back (see settleTransaction).
+    *******************************************************************************/
+   public void applyDelta(PermissionDelta delta, QBackendTransaction transaction) throws QException
+   {
+      if(delta == null || delta.isEmpty())
+      {
+         return;
+      }
+
+      warnIfFeaturesNotStarted();
+
+      if(useMaterializedUserPermissions)
+      {
+         UserEffectivePermissionMaintainer.apply(delta, transaction);
+         if(delta.getFlushAll())
+         {
+            ///////////////////////////////////////////////////////////////
+            // that marked the table incomplete - so stop reading it (on //
+            // this node) until it's rebuilt.                            //
+            ///////////////////////////////////////////////////////////////
+            materializedUserPermissionsComplete = false;
+         }
+      }
+
+      PermissionInvalidationMessage message = PermissionInvalidationMessage.forDelta(nodeId, delta);
+      PermissionInvalidationEvent.emit("delta", nodeId, delta.getFlushAll(), sizeOf(message.getUserIds()), sizeOf(message.getRoleIds()));
+      Integer changeLogEntryId = useChangeLog ? PermissionChangeLogWriter.write(message, transaction) : null;
+
+      if(transaction == null)
+      {
+         applyCommittedDelta(delta, message);
+         return;
+      }
+
+      ///////////////////////////////////////////////////////////////////////
+      // the write may yet roll back - so nothing is written through until //
+      // afterCommit.  flushing now (on every node) means that, even if    //
+      // that call never comes, no node keeps serving entries from before  //
+      // it.  entries re-loaded before the commit are replaced when it's   //
+      // applied, by afterCommit or by settleTransaction.                  //
+      ///////////////////////////////////////////////////////////////////////
+      flushCacheForDelta(delta);
+      publishInvalidation(message);
+
+      PendingDelta       pendingDelta       = new PendingDelta(delta, message, changeLogEntryId);
+      PendingTransaction pendingTransaction = pendingTransactions.computeIfAbsent(transaction, t ->
+      {
+         PendingTransaction rs = new PendingTransaction(t, QContext.getQInstance());
+         scheduleSettle(rs);
+         return (rs);
+      });
+      pendingTransaction.add(pendingDelta);
+   }
+
+
+
+   /***************************************************************************
+    ** forget the deltas held for all transactions - marking them reported, so
+    ** their scheduled settling stops too.
+    ***************************************************************************/
+   private void dropPendingTransactions()
+   {
+      synchronized(pendingTransactions)
+      {
+         pendingTransactions.values().forEach(PendingTransaction::report);
+         pendingTransactions.clear();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** schedule the next settling of a transaction, after the settle delay (if
+    ** there is one) - in a system-level QContext, for the queries it runs.
+    ** The task only holds the transaction weakly.
+    ***************************************************************************/
+   private void scheduleSettle(PendingTransaction pendingTransaction)
+   {
+      Duration settleDelay = transactionSettleDelay;
+      if(settleDelay != null)
+      {
+         TRANSACTION_SETTLER.schedule(() ->
+         {
+            try
+            {
+               QContext.init(pendingTransaction.qInstance, new QSession());
+               settle(pendingTransaction);
+            }
+            finally
+            {
+               QContext.clear();
+            }
+         }, settleDelay.toMillis(), TimeUnit.MILLISECONDS);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Tell the manager that a transaction, which writes to the int tables were
+    ** made in, has committed - so the deltas from those writes (until now,
+    ** only flushed) are applied to cached entries, and published to the
+    ** invalidation bus (if any).  Callers that commit their own transactions
+    ** should call this after each commit.
+    *******************************************************************************/
+   public void afterCommit(QBackendTransaction transaction) throws QException
+   {
+      if(transaction == null)
+      {
+         return;
+      }
+
+      PendingTransaction pendingTransaction = pendingTransactions.remove(transaction);
+      if(pendingTransaction == null)
+      {
+         return;
+      }
+
+      for(PendingDelta pendingDelta : pendingTransaction.report())
+      {
+         applyCommittedDelta(pendingDelta.delta, pendingDelta.message);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Tell the manager that a transaction, which writes to the int tables were
+    ** made in, has rolled back - so the deltas from those writes are dropped.
+    *******************************************************************************/
+   public void afterRollback(QBackendTransaction transaction)
+   {
+      if(transaction == null)
+      {
+         return;
+      }
+
+      PendingTransaction pendingTransaction = pendingTransactions.remove(transaction);
+      if(pendingTransaction != null)
+      {
+         pendingTransaction.report();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Settle a transaction whose commit (or rollback) hasn't been reported
+    ** (by afterCommit or afterRollback) - see settle.  Runs one round now, for
+    ** tests; settling is otherwise scheduled by applyDelta.
+    *******************************************************************************/
+   void settleTransaction(QBackendTransaction transaction)
+   {
+      PendingTransaction pendingTransaction = pendingTransactions.get(transaction);
+      if(pendingTransaction != null)
+      {
+         settle(pendingTransaction);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** one round of settling a transaction whose commit (or rollback) hasn't
+    ** been reported - run every transactionSettleDelay after its first write.
+    **
+    ** With the change log on, the transaction's newest entry tells how it
+    ** ended:  once that's visible, the transaction committed, and its deltas
+    ** are applied (once - as by afterCommit).  If it isn't, but the version
+    ** row has moved past it (or the transaction was garbage collected), the
+    ** transaction rolled back, and they're dropped.  Until then, it's still
+    ** open, and nothing is done.
+    **
+    ** Without the change log, there's nothing to tell a commit by - so the
+    ** entries the deltas touch are flushed again (here and on the other
+    ** nodes), dropping anything re-loaded from before the commit, each round
+    ** until the commit is reported, or the transaction has been garbage
+    ** collected (so it's certainly over).
+    ***************************************************************************/
+   private void settle(PendingTransaction pendingTransaction)
+   {
+      List<PendingDelta> pendingDeltas = pendingTransaction.getUnreportedDeltas();
+      if(pendingDeltas == null)
+      {
+         return;
+      }
+
+      ///////////////////////////////////////////////////////////////////
+      // checked before the change log is read - so if the transaction //
+      // was already collected, whatever that read finds is final.     //
+      ///////////////////////////////////////////////////////////////////
+      boolean transactionEnded = !pendingTransaction.isTransactionInUse();
+      boolean hasEntries       = pendingDeltas.stream().allMatch(pendingDelta -> pendingDelta.changeLogEntryId != null);
+      if(hasEntries)
+      {
+         Boolean committed = null;
+         try
+         {
+            committed = readCommitted(pendingDeltas, transactionEnded);
+         }
+         catch(Exception e)
+         {
+            LOG.warn("Error reading whether an unreported transaction committed", e);
+         }
+
+         if(committed != null)
+         {
+            List<PendingDelta> settledDeltas = reportSettled(pendingTransaction);
+            if(committed)
+            {
+               applySettledDeltas(settledDeltas);
+            }
+            return;
+         }
+
+         if(!transactionEnded)
+         {
+            scheduleSettle(pendingTransaction);
+            return;
+         }
+      }
+
+      for(PendingDelta pendingDelta : pendingDeltas)
+      {
+         try
+         {
+            flushCacheForDelta(pendingDelta.delta);
+            publishInvalidation(pendingDelta.message);
+         }
+         catch(Exception e)
+         {
+            LOG.warn("Error settling permission delta from an unreported transaction", e, logPair("message", pendingDelta.message));
+         }
+      }
+
+      if(transactionEnded)
+      {
+         reportSettled(pendingTransaction);
+      }
+      else
+      {
+         scheduleSettle(pendingTransaction);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** read whether a transaction committed, from its newest change log entry:
+    ** true if that's visible; false if it isn't, but the transaction has ended
+    ** (per the version row, or because it was collected); else null.
+    ***************************************************************************/
+   private static Boolean readCommitted(List<PendingDelta> pendingDeltas, boolean transactionEnded) throws QException
+   {
+      ///////////////////////////////////////////////////////////////////
+      // the version row is read first:  writers take turns on it, so  //
+      // once it's at (or past) the entry, the transaction has ended - //
+      // and the entry is visible now if (and only if) it committed.   //
+      ///////////////////////////////////////////////////////////////////
+      int newestEntryId = pendingDeltas.stream().mapToInt(pendingDelta -> pendingDelta.changeLogEntryId).max().orElse(0);
+      if(!transactionEnded && PermissionChangeLogPoller.readDatabaseVersion() < newestEntryId)
+      {
+         return (null);
+      }
+
+      return (PermissionChangeLogPoller.readEntryExists(newestEntryId));
+   }
+
+
+
+   /***************************************************************************
+    ** apply the deltas from a transaction that settling found committed -
+    ** logging, rather than throwing, if one fails (its entries still expire).
+    ***************************************************************************/
+   private void applySettledDeltas(List<PendingDelta> pendingDeltas)
+   {
+      for(PendingDelta pendingDelta : pendingDeltas)
+      {
+         try
+         {
+            applyCommittedDelta(pendingDelta.delta, pendingDelta.message);
+         }
+         catch(Exception e)
+         {
+            LOG.warn("Error applying permission delta from a settled transaction", e, logPair("message", pendingDelta.message));
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** mark a transaction whose end settling found as reported (so it's
+    ** forgotten) - returning its deltas.
+    ***************************************************************************/
+   private List<PendingDelta> reportSettled(PendingTransaction pendingTransaction)
+   {
+      QBackendTransaction transaction = pendingTransaction.transaction.get();
+      if(transaction != null)
+      {
+         pendingTransactions.remove(transaction, pendingTransaction);
+      }
+      return (pendingTransaction.report());
+   }
+
+
+
+   /***************************************************************************
+    ** flush the entries a delta touches (or everything, if it couldn't say
+    ** which entries those are).
+    ***************************************************************************/
+   private void flushCacheForDelta(PermissionDelta delta)
+   {
+      if(delta.getFlushAll())
+      {
+         invalidateAll();
+         return;
+      }
+
+      flushCacheForUpdatedUserIds(delta.getUserIdsWithChanges());
+      flushCacheForUpdatedRoleIds(delta.getRoleIdsWithPermissionChanges());
+   }
+
+
+
+   /***************************************************************************
+    ** apply a delta from a committed write to the cached entries (or the
+    ** authorization snapshot), and tell the other nodes.  For a write in a
+    ** transaction, they were also told before the commit - and may since have
+    ** re-loaded (and cached) the data from before the write, so this tells
+    ** them again.
+    ***************************************************************************/
+   private void applyCommittedDelta(PermissionDelta delta, PermissionInvalidationMessage message) throws QException
+   {
+      publishInvalidation(message);
+
+      if(delta.getFlushAll())
+      {
+         invalidateAll();
+         return;
+      }
+
+      ///////////////////////////////////////////////////////////////////
+      // make sure all the permission ids have dictionary indexes - at //
+      // most, one query per permission, for the life of the manager.  //
+      ///////////////////////////////////////////////////////////////////
+      registerPermissionIds(delta.getPermissionIds());
+
+      if(useAuthorizationSnapshot)
+      {
+         applyDeltaToAuthorizationSnapshot(delta);
+         return;
+      }
+
+      /////////////////////////////////////////////////////////////////////
+      // roles first - so users are re-composed from their new sets.     //
+      // each cached entry is swapped (not overwritten) - so of two      //
+      // deltas patching the same entry at once, the second's swap fails //
+      // (and it flushes the entry), rather than undoing the first's.    //
+      /////////////////////////////////////////////////////////////////////
+      Set<Integer> roleIds = new HashSet<>(delta.getAddedPermissionIdsByRoleId().keySet());
+      roleIds.addAll(delta.getRemovedPermissionIdsByRoleId().keySet());
+      for(Integer roleId : roleIds)
+      {
+         applyDeltaToCachedRole(roleId, delta);
+      }
+
+      Set<Integer> userIds = new HashSet<>(delta.getAddedRoleIdsByUserId().keySet());
+      userIds.addAll(delta.getRemovedRoleIdsByUserId().keySet());
+      userIds.addAll(delta.getAddedPermissionIdsByUserId().keySet());
+      userIds.addAll(delta.getRemovedPermissionIdsByUserId().keySet());
+      for(Integer userId : userIds)
+      {
+         applyDeltaToCachedUser(userId, delta);
+      }
+
+      ///////////////////////////////////////////////////////////////
+      // finally, flush whatever the delta couldn't describe - for //
+      // roles, that also invalidates the users who hold them.     //
+      ///////////////////////////////////////////////////////////////
+      flushCacheForUpdatedUserIds(delta.getUserIdsToFlush());
+      flushCacheForUpdatedRoleIds(delta.getRoleIdsToFlush());
+   }
+
+
+
+   /***************************************************************************
+    ** apply a delta's changes to a role's cached permission set.  The role's
+    ** generation is bumped first (invalidating its holders' entries, and any
+    ** load of it that may have read the rows from before the write), and the
+    ** patched set is swapped in stamped with the new generation - only if the
+    ** entry is still the one it was patched from.  (role, permission) pairs
+    ** are unique, so both additions & removals are certain.
+    ***************************************************************************/
+   private void applyDeltaToCachedRole(Integer roleId, PermissionDelta delta)
+   {
+      PermissionSet permissionSet = getPermissionsForRoleCache.peek(roleId);
+      bumpRoleGeneration(roleId);
+      long generation = getRoleGeneration(roleId);
+
+      if(permissionSet != null)
+      {
+         PermissionSet.Builder builder = PermissionSet.builder(dictionary).addAll(permissionSet);
+         delta.getRemovedPermissionIdsByRoleId().getOrDefault(roleId, Collections.emptySet()).forEach(permissionId -> builder.remove(dictionary.indexOfId(permissionId)));
+         builder.addAll(buildPermissionSetFromIds(delta.getAddedPermissionIdsByRoleId().getOrDefault(roleId, Collections.emptySet())));
+         if(getPermissionsForRoleCache.replace(roleId, permissionSet, builder.build(), generation))
+         {
+            return;
+         }
+      }
+
+      getPermissionsForRoleCache.clearKey(roleId);
+   }
+
+
+
+   /***************************************************************************
+    ** apply a delta's changes to a user's cached role ids and permission set.
+    ** The user's generation is bumped first (invalidating their entries, and
+    ** any load - single or bulk - that may have read the rows from before the
+    ** write).  Then, their role ids & direct grants are patched (pairs are
+    ** unique, so that's certain), and their permission set is re-composed
+    ** from those and their roles' current sets - never patched from the old
+    ** set, which may hold a permission a role has since lost.  Each entry is
+    ** swapped in stamped with the generation from before the roles' sets were
+    ** read, only if it's still the one it was patched from - otherwise (or if
+    ** a role's set isn't cached), it's flushed, to be re-loaded.
+    ***************************************************************************/
+   private void applyDeltaToCachedUser(Integer userId, PermissionDelta delta)
+   {
+      UserRoleIds       userRoleIds       = getRoleIdsForUserCache.peek(userId);
+      UserPermissionSet userPermissionSet = getEffectivePermissionsForUserCache.peek(userId);
+      bumpUserGeneration(userId);
+
+      Set<Integer> addedRoleIds   = delta.getAddedRoleIdsByUserId().getOrDefault(userId, Collections.emptySet());
+      Set<Integer> removedRoleIds = delta.getRemovedRoleIdsByUserId().getOrDefault(userId, Collections.emptySet());
+
+      if(userRoleIds == null || !getRoleIdsForUserCache.replace(userId, userRoleIds, patchRoleIds(userRoleIds, removedRoleIds, addedRoleIds), getRoleIdsGeneration(userId)))
+      {
+         getRoleIdsForUserCache.clearKey(userId);
+      }
+
+      if(userPermissionSet == null || userPermissionSet.directPermissionSet == null)
+      {
+         getEffectivePermissionsForUserCache.clearKey(userId);
+         return;
+      }
+
+      UserRoleIds newUserRoleIds = patchRoleIds(userPermissionSet.userRoleIds, removedRoleIds, addedRoleIds);
+      long        generation     = getUserGeneration(getRoleIdsGeneration(userId), newUserRoleIds);
+
+      PermissionSet.Builder directBuilder = PermissionSet.builder(dictionary).addAll(userPermissionSet.directPermissionSet);
+      delta.getRemovedPermissionIdsByUserId().getOrDefault(userId, Collections.emptySet()).forEach(permissionId -> directBuilder.remove(dictionary.indexOfId(permissionId)));
+      directBuilder.addAll(buildPermissionSetFromIds(delta.getAddedPermissionIdsByUserId().getOrDefault(userId, Collections.emptySet())));
+      PermissionSet directPermissionSet = directBuilder.build();
+
+      ///////////////////////////////////////////////////////////////////
+      // we can only re-compose if we already know all the roles' sets //
+      // - otherwise, flush (rather than query here).                  //
+      ///////////////////////////////////////////////////////////////////
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary).addAll(directPermissionSet);
+      for(Integer roleId : newUserRoleIds.roleIds)
+      {
+         PermissionSet rolePermissionSet = getPermissionsForRoleCache.peek(roleId);
+         if(rolePermissionSet == null)
+         {
+            getEffectivePermissionsForUserCache.clearKey(userId);
+            return;
+         }
+         builder.addAll(rolePermissionSet);
+      }
+
+      UserPermissionSet newUserPermissionSet = new UserPermissionSet(builder.build(), directPermissionSet, newUserRoleIds);
+      if(!getEffectivePermissionsForUserCache.replace(userId, userPermissionSet, newUserPermissionSet, generation))
+      {
+         getEffectivePermissionsForUserCache.clearKey(userId);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a copy of a user's role ids, less some removed, plus some added.
+    ***************************************************************************/
+   private static UserRoleIds patchRoleIds(UserRoleIds userRoleIds, Set<Integer> removedRoleIds, Set<Integer> addedRoleIds)
+   {
+      Set<Integer> roleIds = new HashSet<>(userRoleIds.roleIds);
+      roleIds.removeAll(removedRoleIds);
+      roleIds.addAll(addedRoleIds);
+      return (new UserRoleIds(roleIds));
+   }
+
+
+
+   /***************************************************************************
+    ** apply a delta to the authorization snapshot - patching its changes into
+    ** a new version (see AuthorizationSnapshot.withChanges), and queueing its
+    ** ids to flush to be re-read.  If the patched users get too many, they're
+    ** folded into new arrays (in memory - there's no need to re-read them).
+    ** A delta that arrives while another thread has the snapshot (e.g., is
+    ** re-reading rows) has all its users & roles queued instead, rather than
+    ** waiting.  If there's no current snapshot, or it's stale, there's
+    ** nothing to do (the next read will load a fresh one).
+    ***************************************************************************/
+   private void applyDeltaToAuthorizationSnapshot(PermissionDelta delta)
+   {
+      if(!authorizationSnapshotLock.tryLock())
+      {
+         reloadAuthorizationSnapshotRowsLater(delta.getUserIdsWithChanges(), delta.getRoleIdsWithPermissionChanges());
+         return;
+      }
+
+      try
+      {
+         AuthorizationSnapshot snapshot = authorizationSnapshot;
+         if(snapshot == null || authorizationSnapshotStale)
+         {
+            return;
+         }
+
+         reloadAuthorizationSnapshotRowsLater(delta.getUserIdsToFlush(), delta.getRoleIdsToFlush());
+
+         snapshot = snapshot.withChanges(delta, authorizationSnapshotVersion.incrementAndGet());
+         if(snapshot.getUserOverrideCount() > MAX_AUTHORIZATION_SNAPSHOT_USER_OVERRIDES)
+         {
+            snapshot = snapshot.compact();
+         }
+         authorizationSnapshot = snapshot;
+         authorizationSnapshotDatabaseVersion = null;
+      }
+      finally
+      {
+         authorizationSnapshotLock.unlock();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** queue users' and roles' rows in the authorization snapshot to be
+    ** re-read, by its next reader (see getAuthorizationSnapshot) - or, if
+    ** there are too many, mark it stale, to be rebuilt.  Does nothing if the
+    ** snapshot isn't in use.
+    ***************************************************************************/
+   private void reloadAuthorizationSnapshotRowsLater(Collection<Integer> userIds, Collection<Integer> roleIds)
+   {
+      if(!useAuthorizationSnapshot || (CollectionUtils.nullSafeIsEmpty(userIds) && CollectionUtils.nullSafeIsEmpty(roleIds)))
+      {
+         return;
+      }
+
+      CollectionUtils.nonNullCollection(userIds).stream().filter(Objects::nonNull).forEach(authorizationSnapshotUserIdsToReload::add);
+      CollectionUtils.nonNullCollection(roleIds).stream().filter(Objects::nonNull).forEach(authorizationSnapshotRoleIdsToReload::add);
+      if(authorizationSnapshotUserIdsToReload.size() + authorizationSnapshotRoleIdsToReload.size() > MAX_AUTHORIZATION_SNAPSHOT_USER_OVERRIDES)
+      {
+         authorizationSnapshotStale = true;
+      }
+      authorizationSnapshotRowsToReload = true;
+   }
+
+
+
+   /***************************************************************************
+    ** forget any queued rows to re-read - e.g., as a whole new snapshot is
+    ** about to be loaded.  Called before reading, so ids queued during the
+    ** load are kept.
+    ***************************************************************************/
+   private void clearAuthorizationSnapshotRowsToReload()
+   {
+      authorizationSnapshotRowsToReload = false;
+      authorizationSnapshotUserIdsToReload.clear();
+      authorizationSnapshotRoleIdsToReload.clear();
+   }
+
+
+
+   /***************************************************************************
+    ** re-read the queued users' and roles' rows (a few narrow IN-list queries)
+    ** and swap in a new version of the snapshot with them.  Must hold the
+    ** authorizationSnapshotLock.  If the reads fail, the ids are queued again.
+    ***************************************************************************/
+   private void reloadAuthorizationSnapshotRows() throws QException
+   {
+      ///////////////////////////////////////////////////////////////////
+      // clear the flag before taking the ids - so ids queued after we //
+      // take them set it again, for the next reader.                  //
+      ///////////////////////////////////////////////////////////////////
+      authorizationSnapshotRowsToReload = false;
+      Set<Integer> userIds = new HashSet<>();
+      Set<Integer> roleIds = new HashSet<>();
+      for(Integer userId : authorizationSnapshotUserIdsToReload)
+      {
+         authorizationSnapshotUserIdsToReload.remove(userId);
+         userIds.add(userId);
+      }
+      for(Integer roleId : authorizationSnapshotRoleIdsToReload)
+      {
+         authorizationSnapshotRoleIdsToReload.remove(roleId);
+         roleIds.add(roleId);
+      }
+
+      try
+      {
+         Map<Integer, Set<Integer>> roleIdsByUserId       = new HashMap<>();
+         Map<Integer, Set<Integer>> permissionIdsByUserId = new HashMap<>();
+         Map<Integer, Set<Integer>> permissionIdsByRoleId = new HashMap<>();
+         Set<Integer>               allPermissionIds      = new HashSet<>();
+         for(Integer userId : userIds)
+         {
+            roleIdsByUserId.put(userId, new HashSet<>());
+         }
+         for(Integer roleId : roleIds)
+         {
+            permissionIdsByRoleId.put(roleId, new HashSet<>());
+         }
+
+         for(List<Integer> userIdPage : CollectionUtils.getPages(userIds, IN_LIST_PAGE_SIZE))
+         {
+            for(QRecord userRoleInt : QueryAction.execute(UserRoleInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage))))
+            {
+               roleIdsByUserId.get(userRoleInt.getValueInteger("userId")).add(userRoleInt.getValueInteger("roleId"));
+            }
+            for(QRecord userPermissionInt : QueryAction.execute(UserPermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage))))
+            {
+               permissionIdsByUserId.computeIfAbsent(userPermissionInt.getValueInteger("userId"), k -> new HashSet<>()).add(userPermissionInt.getValueInteger("permissionId"));
+               allPermissionIds.add(userPermissionInt.getValueInteger("permissionId"));
+            }
+         }
+
+         for(List<Integer> roleIdPage : CollectionUtils.getPages(roleIds, IN_LIST_PAGE_SIZE))
+         {
+            for(QRecord rolePermissionInt : QueryAction.execute(RolePermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("roleId", QCriteriaOperator.IN, roleIdPage))))
+            {
+               permissionIdsByRoleId.get(rolePermissionInt.getValueInteger("roleId")).add(rolePermissionInt.getValueInteger("permissionId"));
+               allPermissionIds.add(rolePermissionInt.getValueInteger("permissionId"));
+            }
+         }
+
+         registerPermissionIds(allPermissionIds);
+
+         AuthorizationSnapshot snapshot = authorizationSnapshot.withReloadedRows(roleIdsByUserId, permissionIdsByUserId, permissionIdsByRoleId, authorizationSnapshotVersion.incrementAndGet());
+         if(snapshot.getUserOverrideCount() > MAX_AUTHORIZATION_SNAPSHOT_USER_OVERRIDES)
+         {
+            snapshot = snapshot.compact();
+         }
+         authorizationSnapshot = snapshot;
+         authorizationSnapshotDatabaseVersion = null;
+      }
+      catch(QException e)
+      {
+         reloadAuthorizationSnapshotRowsLater(userIds, roleIds);
+         throw (e);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the current authorization snapshot - loading it if there isn't one
+    ** yet, or if it has been marked stale by a flush of everything, or first
+    ** re-reading the rows of any users & roles that have been flushed.
+    **
+    ** Only one thread rebuilds a stale snapshot (or re-reads rows); while it
+    ** does, other threads keep reading the previous one (rather than waiting).  Callers that need
+    ** several lookups to agree with each other can get the snapshot once and
+    ** use it for all of them.
+    *******************************************************************************/
+   public AuthorizationSnapshot getAuthorizationSnapshot() throws QException
+   {
+      AuthorizationSnapshot snapshot = authorizationSnapshot;
+      if(snapshot != null && !authorizationSnapshotStale && !authorizationSnapshotRowsToReload)
+      {
+         return (snapshot);
+      }
+
+      if(snapshot == null)
+      {
+         ///////////////////////////////////////////////////////////////////
+         // nothing to serve yet - so wait for the (first) load to finish //
+         ///////////////////////////////////////////////////////////////////
+         authorizationSnapshotLock.lock();
+      }
+      else if(!authorizationSnapshotLock.tryLock())
+      {
+         return (snapshot);
+      }
+
+      try
+      {
+         if(authorizationSnapshot == null && authorizationSnapshotFile != null)
+         {
+            loadAuthorizationSnapshotFile();
+         }
+
+         if(authorizationSnapshot == null || authorizationSnapshotStale)
+         {
+            reloadAuthorizationSnapshot();
+         }
+         else if(authorizationSnapshotRowsToReload)
+         {
+            reloadAuthorizationSnapshotRows();
+         }
+         return (authorizationSnapshot);
+      }
+      finally
+      {
+         authorizationSnapshotLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Build a new authorization snapshot from the database, and swap it in.
+    *******************************************************************************/
+   public void reloadAuthorizationSnapshot() throws QException
+   {
+      authorizationSnapshotLock.lock();
+      try
+      {
+         ///////////////////////////////////////////////////////////////////
+         // clear the stale flag before loading - so a flush that happens //
+         // during the load marks the new snapshot as stale again.        //
+         ///////////////////////////////////////////////////////////////////
+         authorizationSnapshotStale = false;
+         clearAuthorizationSnapshotRowsToReload();
+
+         ////////////////////////////////////////////////////////////////////
+         // read the database version before the data - so, if a write     //
+         // lands in between, the snapshot is newer than its version says, //
+         // and never gets mistaken for current when written to a file.    //
+         ////////////////////////////////////////////////////////////////////
+         long                start           = System.currentTimeMillis();
+         PermissionLoadEvent event           = PermissionLoadEvent.start(snapshotLoadLatency.getName());
+         Long                databaseVersion = useChangeLog ? readDatabasePermissionVersion() : null;
+         authorizationSnapshot = AuthorizationSnapshot.load(dictionary, authorizationSnapshotVersion.incrementAndGet());
+         authorizationSnapshotDatabaseVersion = databaseVersion;
+         recordLoad(snapshotLoadLatency, event, null, authorizationSnapshot.getUserCount(), authorizationSnapshot.getRoleCount());
+
+         LOG.info("Loaded authorization snapshot",
+            logPair("version", authorizationSnapshot.getVersion()),
+            logPair("users", authorizationSnapshot.getUserCount()),
+            logPair("roles", authorizationSnapshot.getRoleCount()),
+            logPair("millis", System.currentTimeMillis() - start));
+      }
+      catch(QException e)
+      {
+         authorizationSnapshotStale = true;
+         throw (e);
+      }
+      finally
+      {
+         authorizationSnapshotLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Swap in the snapshot from the authorization snapshot file - if there is
+    ** one, and it was written at the database's current permission version (so
+    ** has the same data a load would).  Returns whether it was used.
+    *******************************************************************************/
+   public boolean loadAuthorizationSnapshotFile() throws QException
+   {
+      Path file = authorizationSnapshotFile;
+      if(file == null || !useAuthorizationSnapshot || !useChangeLog)
+      {
+         return (false);
+      }
+
+      authorizationSnapshotLock.lock();
+      try
+      {
+         long databaseVersion = readDatabasePermissionVersion();
+         Long fileVersion     = AuthorizationSnapshotFile.readDatabaseVersion(file);
+         if(fileVersion == null || fileVersion != databaseVersion)
+         {
+            LOG.info("Not using authorization snapshot file, as it is missing or out of date", logPair("file", file.toString()), logPair("fileVersion", fileVersion), logPair("databaseVersion", databaseVersion));
+            return (false);
+         }
+
+         authorizationSnapshotStale = false;
+         clearAuthorizationSnapshotRowsToReload();
+         long start = System.currentTimeMillis();
+         authorizationSnapshot = AuthorizationSnapshotFile.read(file, dictionary, authorizationSnapshotVersion.incrementAndGet());
+         authorizationSnapshotDatabaseVersion = databaseVersion;
+
+         ////////////////////////////////////////////////////////////////////
+         // start the change log from this version, so its first poll only //
+         // flushes what changed since the file was written (if anything)  //
+         ////////////////////////////////////////////////////////////////////
+         PermissionChangeLogPoller poller = changeLogPoller;
+         if(poller != null)
+         {
+            poller.baseline(databaseVersion);
+         }
+
+         LOG.info("Loaded authorization snapshot from file",
+            logPair("file", file.toString()),
+            logPair("databaseVersion", databaseVersion),
+            logPair("users", authorizationSnapshot.getUserCount()),
+            logPair("roles", authorizationSnapshot.getRoleCount()),
+            logPair("millis", System.currentTimeMillis() - start));
+         return (true);
+      }
+      catch(QException e)
+      {
+         LOG.warn("Error loading authorization snapshot file", e, logPair("file", file.toString()));
+         return (false);
+      }
+      finally
+      {
+         authorizationSnapshotLock.unlock();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Write the current authorization snapshot to the authorization snapshot
+    ** file (if there is one) - first reloading it, if it's stale, or its
+    ** database version isn't known.
+    *******************************************************************************/
+   public void writeAuthorizationSnapshotFile() throws QException
+   {
+      Path file = authorizationSnapshotFile;
+      if(file == null || !useAuthorizationSnapshot || !useChangeLog)
+      {
+         return;
+      }
+
+      authorizationSnapshotLock.lock();
+      try
+      {
+         if(authorizationSnapshot == null || authorizationSnapshotStale || authorizationSnapshotRowsToReload || authorizationSnapshotDatabaseVersion == null)
+         {
+            reloadAuthorizationSnapshot();
+         }
+
+         long start = System.currentTimeMillis();
+         AuthorizationSnapshotFile.write(file, authorizationSnapshot, authorizationSnapshotDatabaseVersion);
+
+         LOG.info("Wrote authorization snapshot file",
+            logPair("file", file.toString()),
+            logPair("databaseVersion", authorizationSnapshotDatabaseVersion),
+            logPair("millis", System.currentTimeMillis() - start));
+      }
+      finally
+      {
+         authorizationSnapshotLock.unlock();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** the database's current permission version (the change log's version
+    ** row - see PermissionChangeLogPoller.readDatabaseVersion).
+    ***************************************************************************/
+   private static long readDatabasePermissionVersion() throws QException
+   {
+      return (PermissionChangeLogPoller.readDatabaseVersion());
+   }
+
+
+
+   /***************************************************************************
+    ** Get the names of the permissions a user has (from their roles, and given
+    ** directly to the user).  The returned set is an unmodifiable view.
+    ***************************************************************************/
+   public Set<String> getEffectivePermissionsForUser(Integer userId) throws QException
+   {
+      if(userId == null)
+      {
+         return (Collections.emptySet());
+      }
+
+      return (getEffectivePermissionSetForUser(userId).asNameSet());
+   }
+
+
+
+   /***************************************************************************
+    ** Get the permissions a user has (from their roles, and given directly to
+    ** the user), as a PermissionSet.
+    ***************************************************************************/
+   public PermissionSet getEffectivePermissionSetForUser(Integer userId) throws QException
+   {
+      if(userId == null)
+      {
+         return (PermissionSet.empty(dictionary));
+      }
+
+      if(useAuthorizationSnapshot)
+      {
+         return (getAuthorizationSnapshot().getEffectivePermissionSetForUser(userId));
+      }
+
+      UserPermissionSet userPermissionSet = getEffectivePermissionsForUserCache.getIfPresent(userId);
+      if(userPermissionSet != null)
+      {
+         return (userPermissionSet.permissionSet);
+      }
+
+      //////////////////////////////////////////////////////////////////
+      // the user's entry is stamped with their roles' generations -  //
+      // so, their role ids must be cached before their entry's load. //
+      //////////////////////////////////////////////////////////////////
+      getUserRoleIds(userId);
+
+      return (getEffectivePermissionsForUserCache.getResultThrowing(userId, u ->
+         doGetEffectivePermissionsForUser(u)))
+         .map(u -> u.permissionSet)
+         .orElseThrow(() -> new QException("Could not get effective permissions for user with id: " + userId));
+   }
+
+
+
+   /***************************************************************************
+    ** a user's permissions are the union of their roles' sets (using the
+    ** cached role ids & per-role sets, where available) and the permissions
+    ** given directly to them - which take one narrow query by user id.  Or,
+    ** if the materialized table is on, one query of that, by user id.
+    ***************************************************************************/
+   private UserPermissionSet doGetEffectivePermissionsForUser(Integer userId) throws QException
+   {
+      PermissionLoadEvent event       = PermissionLoadEvent.start(userLoadLatency.getName());
+      UserRoleIds         userRoleIds = getUserRoleIds(userId);
+      if(isReadingMaterializedUserPermissions())
+      {
+         PermissionSet permissionSet = loadMaterializedPermissionSetsForUsers(List.of(userId)).get(userId);
+         recordLoad(userLoadLatency, event, userId, permissionSet.size(), null);
+         return (new UserPermissionSet(permissionSet, null, userRoleIds));
+      }
+
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(PermissionSet rolePermissionSet : getPermissionSetsForRoles(userRoleIds.roleIds).values())
+      {
+         builder.addAll(rolePermissionSet);
+      }
+
+      PermissionSet directPermissionSet = doGetDirectPermissionsForUser(userId);
+      builder.addAll(directPermissionSet);
+      PermissionSet permissionSet = builder.build();
+      recordLoad(userLoadLatency, event, userId, permissionSet.size(), userRoleIds.roleIds.size());
+      return (new UserPermissionSet(permissionSet, directPermissionSet, userRoleIds));
+   }
+
+
+
+   /***************************************************************************
+    ** query for the permissions given directly to a user.
+    ***************************************************************************/
+   private PermissionSet doGetDirectPermissionsForUser(Integer userId) throws QException
+   {
+      List<Integer> permissionIds = QueryAction.execute(UserPermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.EQUALS, userId)))
+         .stream().map(r -> r.getValueInteger("permissionId")).toList();
+
+      registerPermissionIds(permissionIds);
+      return (buildPermissionSetFromIds(permissionIds));
+   }
+
+
+
+   /*******************************************************************************
+    ** Resolve a permission name to a handle, for use with the hasPermission
+    ** family of methods.  Handles can be resolved before the permission exists,
+    ** and stay valid for the life of this manager - so resolve once and reuse.
+    *******************************************************************************/
+   public PermissionHandle resolvePermission(String permissionName)
+   {
+      return (new PermissionHandle(dictionary.intern(permissionName), permissionName));
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has a permission.
+    ***************************************************************************/
+   public boolean hasPermission(Integer userId, String permissionName) throws QException
+   {
+      if(userId == null || permissionName == null)
+      {
+         return (false);
+      }
+
+      return (getPermissionSetForCheck(userId).contains(permissionName));
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has a (pre-resolved) permission.
+    ***************************************************************************/
+   public boolean hasPermission(Integer userId, PermissionHandle permission) throws QException
+   {
+      if(userId == null || permission == null)
+      {
+         return (false);
+      }
+
+      return (getPermissionSetForCheck(userId).contains(permission.getIndex()));
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has at least one of the given permissions.
+    ***************************************************************************/
+   public boolean hasAnyPermission(Integer userId, String... permissionNames) throws QException
+   {
+      if(userId == null || permissionNames == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(String permissionName : permissionNames)
+      {
+         if(permissionSet.contains(permissionName))
+         {
+            return (true);
+         }
+      }
+      return (false);
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has at least one of the given permissions.
+    ***************************************************************************/
+   public boolean hasAnyPermission(Integer userId, Collection<String> permissionNames) throws QException
+   {
+      if(userId == null || permissionNames == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(String permissionName : permissionNames)
+      {
+         if(permissionSet.contains(permissionName))
+         {
+            return (true);
+         }
+      }
+      return (false);
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has at least one of the given (pre-resolved) permissions.
+    ***************************************************************************/
+   public boolean hasAnyPermission(Integer userId, PermissionHandle... permissions) throws QException
+   {
+      if(userId == null || permissions == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(PermissionHandle permission : permissions)
+      {
+         if(permission != null && permissionSet.contains(permission.getIndex()))
+         {
+            return (true);
+         }
+      }
+      return (false);
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has all the given permissions.
+    ***************************************************************************/
+   public boolean hasAllPermissions(Integer userId, String... permissionNames) throws QException
+   {
+      if(userId == null || permissionNames == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(String permissionName : permissionNames)
+      {
+         if(!permissionSet.contains(permissionName))
+         {
+            return (false);
+         }
+      }
+      return (true);
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has all the given permissions.
+    ***************************************************************************/
+   public boolean hasAllPermissions(Integer userId, Collection<String> permissionNames) throws QException
+   {
+      if(userId == null || permissionNames == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(String permissionName : permissionNames)
+      {
+         if(!permissionSet.contains(permissionName))
+         {
+            return (false);
+         }
+      }
+      return (true);
+   }
+
+
+
+   /***************************************************************************
+    ** Check if a user has all the given (pre-resolved) permissions.
+    ***************************************************************************/
+   public boolean hasAllPermissions(Integer userId, PermissionHandle... permissions) throws QException
+   {
+      if(userId == null || permissions == null)
+      {
+         return (false);
+      }
+
+      PermissionSet permissionSet = getPermissionSetForCheck(userId);
+      for(PermissionHandle permission : permissions)
+      {
+         if(permission == null || !permissionSet.contains(permission.getIndex()))
+         {
+            return (false);
+         }
+      }
+      return (true);
+   }
+
+
+
+   /***************************************************************************
+    ** fast path for the hasPermission methods:  a cache hit here goes through
+    ** getIfPresent - no Optional, and no capturing lambda.
+    ***************************************************************************/
+   private PermissionSet getPermissionSetForCheck(Integer userId) throws QException
+   {
+      if(useAuthorizationSnapshot)
+      {
+         return (getAuthorizationSnapshot().getEffectivePermissionSetForUser(userId));
+      }
+
+      UserPermissionSet userPermissionSet = getEffectivePermissionsForUserCache.getIfPresent(userId);
+      if(userPermissionSet != null)
+      {
+         return (userPermissionSet.permissionSet);
+      }
+
+      return (getEffectivePermissionSetForUser(userId));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the effective permissions for many users at once - e.g., for admin
+    ** screens or batch jobs.  Users already in the cache are served from it,
+    ** and all others are loaded with a few paged IN-list queries (rather than
+    ** 2 queries per user), then added to the cache.
+    **
+    ** Returned map has an entry for every non-null input user id; its values
+    ** are unmodifiable views.
+    *******************************************************************************/
+   public Map<Integer, Set<String>> getEffectivePermissionsForUsers(Collection<Integer> userIds) throws QException
+   {
+      Map<Integer, Set<String>> rs = new HashMap<>();
+      for(Map.Entry<Integer, PermissionSet> entry : getEffectivePermissionSetsForUsers(userIds).entrySet())
+      {
+         rs.put(entry.getKey(), entry.getValue().asNameSet());
+      }
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the effective permissions for many users at once, as PermissionSets.
+    ** See getEffectivePermissionsForUsers.
+    *******************************************************************************/
+   public Map<Integer, PermissionSet> getEffectivePermissionSetsForUsers(Collection<Integer> userIds) throws QException
+   {
+      Map<Integer, PermissionSet> rs          = new HashMap<>();
+      Set<Integer>                missUserIds = new HashSet<>();
+
+      if(useAuthorizationSnapshot)
+      {
+         AuthorizationSnapshot snapshot = getAuthorizationSnapshot();
+         for(Integer userId : CollectionUtils.nonNullCollection(userIds))
+         {
+            if(userId != null)
+            {
+               rs.put(userId, snapshot.getEffectivePermissionSetForUser(userId));
+            }
+         }
+         return (rs);
+      }
+
+      for(Integer userId : CollectionUtils.nonNullCollection(userIds))
+      {
+         if(userId == null)
+         {
+            continue;
+         }
+
+         UserPermissionSet cached = getEffectivePermissionsForUserCache.getIfPresent(userId);
+         if(cached != null)
+         {
+            rs.put(userId, cached.permissionSet);
+         }
+         else
+         {
+            missUserIds.add(userId);
+         }
+      }
+
+      if(!missUserIds.isEmpty())
+      {
+         rs.putAll(doGetEffectivePermissionsForUsers(missUserIds));
+      }
+
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** bulk-load effective permissions for a set of users, using narrow,
+    ** single-table queries against the int tables (paged by IN_LIST_PAGE_SIZE),
+    ** and put the results into the user caches - stamped with the generations
+    ** from before their data was read, so that, if they're flushed during the
+    ** load, what it read isn't cached.
+    ***************************************************************************/
+   private Map<Integer, PermissionSet> doGetEffectivePermissionsForUsers(Set<Integer> userIds) throws QException
+   {
+      PermissionLoadEvent event = PermissionLoadEvent.start(usersLoadLatency.getName());
+      int                 rows  = 0;
+
+      /////////////////////////////////
+      // look up the users' role ids //
+      /////////////////////////////////
+      Map<Integer, Set<Integer>> roleIdsByUserId           = new HashMap<>();
+      Map<Integer, Long>         roleIdsGenerationByUserId = new HashMap<>();
+      for(Integer userId : userIds)
+      {
+         roleIdsByUserId.put(userId, new HashSet<>());
+         roleIdsGenerationByUserId.put(userId, getRoleIdsGeneration(userId));
+      }
+
+      for(List<Integer> userIdPage : CollectionUtils.getPages(userIds, IN_LIST_PAGE_SIZE))
+      {
+         for(QRecord userRoleInt : QueryAction.execute(UserRoleInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage))))
+         {
+            roleIdsByUserId.get(userRoleInt.getValueInteger("userId")).add(userRoleInt.getValueInteger("roleId"));
+            rows++;
+         }
+      }
+
+      ////////////////////////////////////////////////////////////////////
+      // the roles' generations, before their permissions are read (the //
+      // users' entries are only good if those haven't changed either)  //
+      ////////////////////////////////////////////////////////////////////
+      Map<Integer, UserRoleIds> userRoleIdsByUserId    = new HashMap<>();
+      Map<Integer, Long>        userGenerationByUserId = new HashMap<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : roleIdsByUserId.entrySet())
+      {
+         UserRoleIds userRoleIds = new UserRoleIds(entry.getValue());
+         userRoleIdsByUserId.put(entry.getKey(), userRoleIds);
+         userGenerationByUserId.put(entry.getKey(), getUserGeneration(roleIdsGenerationByUserId.get(entry.getKey()), userRoleIds));
+      }
+
+      if(isReadingMaterializedUserPermissions())
+      {
+         Map<Integer, PermissionSet> rs = loadMaterializedPermissionSetsForUsers(userIds);
+         for(Map.Entry<Integer, Set<Integer>> entry : roleIdsByUserId.entrySet())
+         {
+            getRoleIdsForUserCache.put(entry.getKey(), userRoleIdsByUserId.get(entry.getKey()), roleIdsGenerationByUserId.get(entry.getKey()));
+            getEffectivePermissionsForUserCache.put(entry.getKey(), new UserPermissionSet(rs.get(entry.getKey()), null, userRoleIdsByUserId.get(entry.getKey())), userGenerationByUserId.get(entry.getKey()));
+         }
+         recordLoad(usersLoadLatency, event, null, rows, null);
+         return (rs);
+      }
+
+      ///////////////////////////////////////////////////////////////
+      // get those roles' permission sets (cached, or bulk-loaded) //
+      ///////////////////////////////////////////////////////////////
+      Set<Integer>                allRoleIds                = roleIdsByUserId.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+      Map<Integer, PermissionSet> permissionSetByRoleId     = getPermissionSetsForRoles(allRoleIds);
+      Map<Integer, Set<Integer>>  directPermissionIdsByUser = new HashMap<>();
+      Set<Integer>                allPermissionIds          = new HashSet<>();
+
+      /////////////////////////////////////////////////////
+      // look up permissions given directly to the users //
+      /////////////////////////////////////////////////////
+      for(List<Integer> userIdPage : CollectionUtils.getPages(userIds, IN_LIST_PAGE_SIZE))
+      {
+         for(QRecord userPermissionInt : QueryAction.execute(UserPermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage))))
+         {
+            Integer permissionId = userPermissionInt.getValueInteger("permissionId");
+            directPermissionIdsByUser.computeIfAbsent(userPermissionInt.getValueInteger("userId"), k -> new HashSet<>()).add(permissionId);
+            allPermissionIds.add(permissionId);
+            rows++;
+         }
+      }
+
+      registerPermissionIds(allPermissionIds);
+
+      /////////////////////////////////////////////////////////////////
+      // combine the roles' sets (plus direct grants) into a set per //
+      // user - caching the users' sets and role ids.                //
+      /////////////////////////////////////////////////////////////////
+      Map<Integer, PermissionSet> rs = new HashMap<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : roleIdsByUserId.entrySet())
+      {
+         Integer               userId  = entry.getKey();
+         PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+         for(Integer roleId : entry.getValue())
+         {
+            PermissionSet rolePermissionSet = permissionSetByRoleId.get(roleId);
+            if(rolePermissionSet != null)
+            {
+               builder.addAll(rolePermissionSet);
+            }
+         }
+         PermissionSet directPermissionSet = buildPermissionSetFromIds(directPermissionIdsByUser.getOrDefault(userId, Collections.emptySet()));
+         builder.addAll(directPermissionSet);
+
+         PermissionSet permissionSet = builder.build();
+         rs.put(userId, permissionSet);
+         getRoleIdsForUserCache.put(userId, userRoleIdsByUserId.get(userId), roleIdsGenerationByUserId.get(userId));
+         getEffectivePermissionsForUserCache.put(userId, new UserPermissionSet(permissionSet, directPermissionSet, userRoleIdsByUserId.get(userId)), userGenerationByUserId.get(userId));
+      }
+
+      recordLoad(usersLoadLatency, event, null, rows, allRoleIds.size());
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if user permissions are being read from the materialized table -
+    ** i.e., it's on, and known to be complete.
+    *******************************************************************************/
+   public boolean isReadingMaterializedUserPermissions()
+   {
+      return (useMaterializedUserPermissions && materializedUserPermissionsComplete);
+   }
+
+
+
+   /***************************************************************************
+    ** load users' permission sets from the materialized UserEffectivePermission
+    ** table (paged by IN_LIST_PAGE_SIZE) - giving every user a set, empty if
+    ** they have no rows.
+    ***************************************************************************/
+   private Map<Integer, PermissionSet> loadMaterializedPermissionSetsForUsers(Collection<Integer> userIds) throws QException
+   {
+      Map<Integer, Set<Integer>> permissionIdsByUserId = new HashMap<>();
+      Set<Integer>               allPermissionIds      = new HashSet<>();
+      for(List<Integer> userIdPage : CollectionUtils.getPages(userIds, IN_LIST_PAGE_SIZE))
+      {
+         //////////////////////////////////////////////////////////////////
+         // only the two columns of the (userId, permissionId) index, so //
+         // the backend can answer from the index alone.                 //
+         //////////////////////////////////////////////////////////////////
+         List<QRecord> records = new QueryAction().execute(new QueryInput(UserEffectivePermission.TABLE_NAME)
+            .withFilter(new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage)))
+            .withFieldsToQuery(Set.of("userId", "permissionId"))).getRecords();
+         for(QRecord userEffectivePermission : records)
+         {
+            Integer permissionId = userEffectivePermission.getValueInteger("permissionId");
+            permissionIdsByUserId.computeIfAbsent(userEffectivePermission.getValueInteger("userId"), k -> new HashSet<>()).add(permissionId);
+            allPermissionIds.add(permissionId);
+         }
+      }
+
+      registerPermissionIds(allPermissionIds);
+
+      Map<Integer, PermissionSet> rs = new HashMap<>();
+      for(Integer userId : userIds)
+      {
+         rs.put(userId, buildPermissionSetFromIds(permissionIdsByUserId.getOrDefault(userId, Collections.emptySet())));
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** make sure the dictionary knows the names for all the given permission
+    ** ids - querying the permission table for any it doesn't know yet, or
+    ** hasn't re-read since the last flush of all caches.
+    ***************************************************************************/
+   private void registerPermissionIds(Collection<Integer> permissionIds) throws QException
+   {
+      List<Integer> unknownPermissionIds = permissionIds.stream().filter(id -> !dictionary.isIdCurrent(id)).toList();
+      for(List<Integer> permissionIdPage : CollectionUtils.getPages(unknownPermissionIds, IN_LIST_PAGE_SIZE))
+      {
+         for(QRecord permission : QueryAction.execute(Permission.TABLE_NAME, new QQueryFilter(new QFilterCriteria("id", QCriteriaOperator.IN, permissionIdPage))))
+         {
+            dictionary.register(permission.getValueInteger("id"), permission.getValueString("name"));
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** build a permission set from permission ids (which must already have
+    ** been registered in the dictionary - any that aren't, e.g., because they
+    ** reference a permission that doesn't exist, are skipped).
+    ***************************************************************************/
+   private PermissionSet buildPermissionSetFromIds(Collection<Integer> permissionIds)
+   {
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(Integer permissionId : permissionIds)
+      {
+         int index = dictionary.indexOfId(permissionId);
+         if(index >= 0)
+         {
+            builder.add(index);
+         }
+      }
+      return (builder.build());
+   }
+
+
+
+   /***************************************************************************
+    ** Get the names of the permissions granted by a set of roles.  The
+    ** returned set is an unmodifiable view.
+    ***************************************************************************/
+   public Set<String> getEffectivePermissionsForRoles(Set<Integer> roleIds) throws QException
+   {
+      if(CollectionUtils.nullSafeIsEmpty(roleIds))
+      {
+         return (Collections.emptySet());
+      }
+
+      return (getEffectivePermissionSetForRoles(roleIds).asNameSet());
+   }
+
+
+
+   /***************************************************************************
+    ** Get the permissions granted by a set of roles, as a PermissionSet.
+    ***************************************************************************/
+   public PermissionSet getEffectivePermissionSetForRoles(Set<Integer> roleIds) throws QException
+   {
+      if(CollectionUtils.nullSafeIsEmpty(roleIds))
+      {
+         return (PermissionSet.empty(dictionary));
+      }
+
+      return (getEffectivePermissionSetForRoles(RoleSetKey.of(roleIds)));
+   }
+
+
+
+   /***************************************************************************
+    ** Get the permissions granted by a set of roles, given as a RoleSetKey -
+    ** which callers that ask about the same roles repeatedly can build once,
+    ** and reuse.
+    ***************************************************************************/
+   public PermissionSet getEffectivePermissionSetForRoles(RoleSetKey roleSetKey) throws QException
+   {
+      if(roleSetKey == null || roleSetKey.isEmpty())
+      {
+         return (PermissionSet.empty(dictionary));
+      }
+
+      if(useAuthorizationSnapshot)
+      {
+         return (getAuthorizationSnapshot().getEffectivePermissionSetForRoles(roleSetKey.toList()));
+      }
+
+      if(roleSetKey.size() == 1)
+      {
+         return (getPermissionSetForRole(roleSetKey.get(0)));
+      }
+
+      ///////////////////////////////////////////////////////////////////
+      // OR together the roles' own sets - so any combination of roles //
+      // whose sets are cached is answered without a query.            //
+      ///////////////////////////////////////////////////////////////////
+      PermissionSet.Builder builder = PermissionSet.builder(dictionary);
+      for(PermissionSet rolePermissionSet : getPermissionSetsForRoles(roleSetKey.toList()).values())
+      {
+         builder.addAll(rolePermissionSet);
+      }
+      return (builder.build());
+   }
+
+
+
+   /***************************************************************************
+    ** Get the permissions granted by a single role, as a PermissionSet.
+    ***************************************************************************/
+   public PermissionSet getPermissionSetForRole(Integer roleId) throws QException
+   {
+      if(roleId == null)
+      {
+         return (PermissionSet.empty(dictionary));
+      }
+
+      PermissionSet permissionSet = getPermissionsForRoleCache.getIfPresent(roleId);
+      if(permissionSet != null)
+      {
+         return (permissionSet);
+      }
+
+      return (getPermissionsForRoleCache.getResultThrowing(roleId, id ->
+         doGetPermissionsForRole(id)))
+         .orElseThrow(() -> new QException("Could not get permissions for role id: " + roleId));
+   }
+
+
+
+   /***************************************************************************
+    ** get the permission sets for some roles - from the cache where possible,
+    ** loading (and caching) the rest with one paged query.
+    ***************************************************************************/
+   private Map<Integer, PermissionSet> getPermissionSetsForRoles(Collection<Integer> roleIds) throws QException
+   {
+      Map<Integer, PermissionSet> rs          = new HashMap<>();
+      List<Integer>               missRoleIds = new ArrayList<>();
+      for(Integer roleId : roleIds)
+      {
+         PermissionSet permissionSet = getPermissionsForRoleCache.getIfPresent(roleId);
+         if(permissionSet != null)
+         {
+            rs.put(roleId, permissionSet);
+         }
+         else
+         {
+            missRoleIds.add(roleId);
+         }
+      }
+
+      if(missRoleIds.size() == 1)
+      {
+         /////////////////////////////////////////////////////////////
+         // go through the cache's loader, so a concurrent miss for //
+         // the same role shares this query                         //
+         /////////////////////////////////////////////////////////////
+         rs.put(missRoleIds.get(0), getPermissionSetForRole(missRoleIds.get(0)));
+      }
+      else if(!missRoleIds.isEmpty())
+      {
+         /////////////////////////////////////////////////////////////////
+         // stamp the entries with the roles' generations from before   //
+         // the query - so a role flushed during it isn't cached stale. //
+         /////////////////////////////////////////////////////////////////
+         Map<Integer, Long> generationByRoleId = new HashMap<>();
+         for(Integer roleId : missRoleIds)
+         {
+            generationByRoleId.put(roleId, getRoleGeneration(roleId));
+         }
+
+         for(Map.Entry<Integer, PermissionSet> entry : loadPermissionSetsForRoles(missRoleIds).entrySet())
+         {
+            rs.put(entry.getKey(), entry.getValue());
+            getPermissionsForRoleCache.put(entry.getKey(), entry.getValue(), generationByRoleId.get(entry.getKey()));
+         }
+      }
+
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private PermissionSet doGetPermissionsForRole(Integer roleId) throws QException
+   {
+      return (loadPermissionSetsForRoles(List.of(roleId)).get(roleId));
+   }
+
+
+
+   /***************************************************************************
+    ** query for the permissions of some roles - with a narrow query against
+    ** the role-permission int table (paged by IN_LIST_PAGE_SIZE).  Returned
+    ** map has a set for every input role (empty, if it has no permissions).
+    ***************************************************************************/
+   private Map<Integer, PermissionSet> loadPermissionSetsForRoles(Collection<Integer> roleIds) throws QException
+   {
+      PermissionLoadEvent        event                 = PermissionLoadEvent.start(rolesLoadLatency.getName());
+      int                        rows                  = 0;
+      Map<Integer, Set<Integer>> permissionIdsByRoleId = new HashMap<>();
+      Set<Integer>               allPermissionIds      = new HashSet<>();
+      for(Integer roleId : roleIds)
+      {
+         permissionIdsByRoleId.put(roleId, new HashSet<>());
+      }
+
+      for(List<Integer> roleIdPage : CollectionUtils.getPages(roleIds, IN_LIST_PAGE_SIZE))
+      {
+         for(QRecord rolePermissionInt : QueryAction.execute(RolePermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("roleId", QCriteriaOperator.IN, roleIdPage))))
+         {
+            Integer permissionId = rolePermissionInt.getValueInteger("permissionId");
+            permissionIdsByRoleId.get(rolePermissionInt.getValueInteger("roleId")).add(permissionId);
+            allPermissionIds.add(permissionId);
+            rows++;
+         }
+      }
+
+      registerPermissionIds(allPermissionIds);
+
+      Map<Integer, PermissionSet> rs = new HashMap<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : permissionIdsByRoleId.entrySet())
+      {
+         rs.put(entry.getKey(), buildPermissionSetFromIds(entry.getValue()));
+      }
+
+      recordLoad(rolesLoadLatency, event, roleIds.size() == 1 ? roleIds.iterator().next() : null, rows, roleIds.size());
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** get a user's role ids, as a read-only set (it may be the cached one) -
+    ** empty for a null user.
+    ***************************************************************************/
+   public Set<Integer> getRoleIdsForUser(Integer userId) throws QException
+   {
+      if(userId == null)
+      {
+         return (Collections.emptySet());
+      }
+
+      if(useAuthorizationSnapshot)
+      {
+         return (Collections.unmodifiableSet(getAuthorizationSnapshot().getRoleIdsForUser(userId)));
+      }
+
+      return (getUserRoleIds(userId).roleIds);
+   }
+
+
+
+   /***************************************************************************
+    ** get a user's role ids (and their stripes) - from the cache, or loaded.
+    ***************************************************************************/
+   private UserRoleIds getUserRoleIds(Integer userId) throws QException
+   {
+      return (getRoleIdsForUserCache.getResultThrowing(userId, id ->
+         doGetRoleIdsForUser(id)))
+         .orElseThrow(() -> new QException("Could not get roles id for user " + userId));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private UserRoleIds doGetRoleIdsForUser(Integer userId) throws QException
+   {
+      PermissionLoadEvent event   = PermissionLoadEvent.start(roleIdsLoadLatency.getName());
+      List<QRecord>       records = QueryAction.execute(UserRoleInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("userId", QCriteriaOperator.EQUALS, userId)));
+      Set<Integer>        roleIds = records.stream().map(r -> r.getValueInteger("roleId")).collect(Collectors.toSet());
+      recordLoad(roleIdsLoadLatency, event, userId, records.size(), roleIds.size());
+      return (new UserRoleIds(roleIds));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static long toNanosOrMax(Duration duration)
+   {
+      return (duration == null ? Long.MAX_VALUE : duration.toNanos());
+   }
+
+
+
+   /***************************************************************************
+    ** finish a load's JFR event, and record its latency - logging it, if it
+    ** took longer than the slow load threshold.  rows is the number of rows
+    ** the load read (for loads composed from other loads, the number of
+    ** entries they produced); roles, the number of roles involved (if known).
+    ***************************************************************************/
+   private void recordLoad(LatencyHistogram histogram, PermissionLoadEvent event, Integer key, int rows, Integer roles)
+   {
+      long nanos = event.finish(key, rows, roles);
+      histogram.record(nanos);
+
+      if(nanos > slowLoadThresholdNanos)
+      {
+         LOG.warn("Slow permission load",
+            logPair("load", histogram.getName()),
+            logPair("key", key),
+            logPair("millis", nanos / 1_000_000),
+            logPair("rows", rows),
+            logPair("roles", roles));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a user's role ids (the set returned to callers), along with the
+    ** generation stripes of those roles - computed once, when the entry is
+    ** cached, rather than on every read of the user's permissions.
+    ***************************************************************************/
+   private static class UserRoleIds
+   {
+      private final Set<Integer> roleIds;
+      private final int[]        roleGenerationStripes;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      UserRoleIds(Set<Integer> roleIds)
+      {
+         this.roleIds = Collections.unmodifiableSet(roleIds);
+         this.roleGenerationStripes = roleIds.stream().filter(Objects::nonNull).mapToInt(PermissionManager::getRoleGenerationStripe).toArray();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a user's permission set (as returned to callers), along with the role
+    ** ids it was built from - whose stripes give the entry's generation, so
+    ** it doesn't depend on the user's role ids entry still being cached - and
+    ** the permissions given directly to the user (null if not known, e.g.,
+    ** when loaded from the materialized table), for re-composing the set.
+    ***************************************************************************/
+   private static class UserPermissionSet
+   {
+      private final PermissionSet permissionSet;
+      private final PermissionSet directPermissionSet;
+      private final UserRoleIds   userRoleIds;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      UserPermissionSet(PermissionSet permissionSet, PermissionSet directPermissionSet, UserRoleIds userRoleIds)
+      {
+         this.permissionSet = permissionSet;
+         this.directPermissionSet = directPermissionSet;
+         this.userRoleIds = userRoleIds;
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** the deltas from writes in a transaction, until its commit (or rollback)
+    ** is reported - holding the transaction only weakly, so settling can tell
+    ** once it's been garbage collected.
+    ***************************************************************************/
+   private static class PendingTransaction
+   {
+      private final WeakReference<QBackendTransaction> transaction;
+      private final QInstance                          qInstance;
+      private final List<PendingDelta>                 pendingDeltas = new ArrayList<>();
+      private boolean                                  reported      = false;
+
+
+
+      /*******************************************************************************
+       ** Constructor - with the QInstance to settle the transaction in.
+       **
+       *******************************************************************************/
+      PendingTransaction(QBackendTransaction transaction, QInstance qInstance)
+      {
+         this.transaction = new WeakReference<>(transaction);
+         this.qInstance = qInstance;
+      }
+
+
+
+      /*******************************************************************************
+       ** add a delta from a write in the transaction.
+       *******************************************************************************/
+      synchronized void add(PendingDelta pendingDelta)
+      {
+         pendingDeltas.add(pendingDelta);
+      }
+
+
+
+      /*******************************************************************************
+       ** mark the transaction's commit (or rollback) as reported - stopping
+       ** its settling - and return its deltas.
+       *******************************************************************************/
+      synchronized List<PendingDelta> report()
+      {
+         reported = true;
+         return (new ArrayList<>(pendingDeltas));
+      }
+
+
+
+      /*******************************************************************************
+       ** the transaction's deltas - or null, if its commit has been reported.
+       *******************************************************************************/
+      synchronized List<PendingDelta> getUnreportedDeltas()
+      {
+         return (reported ? null : new ArrayList<>(pendingDeltas));
+      }
+
+
+
+      /*******************************************************************************
+       ** check if the transaction may still commit - i.e., it hasn't been
+       ** reported, or garbage collected.
+       *******************************************************************************/
+      synchronized boolean isTransactionInUse()
+      {
+         return (!reported && transaction.get() != null);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a delta from a write in a transaction, the message to publish for it,
+    ** and the id of its change log entry (if any) - for once the transaction
+    ** commits.
+    ***************************************************************************/
+   private static class PendingDelta
+   {
+      private final PermissionDelta               delta;
+      private final PermissionInvalidationMessage message;
+      private final Integer                       changeLogEntryId;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      PendingDelta(PermissionDelta delta, PermissionInvalidationMessage message, Integer changeLogEntryId)
+      {
+         this.delta = delta;
+         this.message = message;
+         this.changeLogEntryId = changeLogEntryId;
+      }
    }
 
 }
@@ -0,0 +1,444 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+
+
+/*******************************************************************************
+ ** Central registry of the caches the qbit owns - giving each one's size and
+ ** counters (see PermissionCacheStats), and a per-cache flush, through one
+ ** PermissionCacheMXBean per cache:  both from Java (getCaches, getCache) and,
+ ** if enabled, over JMX, as
+ ** com.kingsrook.qbits.userrolepermissions:type=PermissionCache,name=...
+ **
+ ** The PermissionManager registers its caches each time it creates them (so,
+ ** when it's configured), replacing the ones of the same name.
+ **
+ ** Also holds named LatencyHistograms - for the manager's load paths, and
+ ** the customizers' hooks - which, unlike the caches, live as long as the
+ ** registry.
+ *******************************************************************************/
+public class PermissionMetricsRegistry
+{
+   private static final QLogger LOG = QLogger.getLogger(PermissionMetricsRegistry.class);
+
+   public static final String JMX_DOMAIN = "com.kingsrook.qbits.userrolepermissions";
+
+   private final Map<String, PermissionCacheMXBean> caches            = new ConcurrentSkipListMap<>();
+   private final Map<String, LatencyHistogram>      latencyHistograms = new ConcurrentSkipListMap<>();
+
+   private volatile boolean publishToJmx = false;
+
+
+
+   /*******************************************************************************
+    ** Add a cache to the registry (replacing any of the same name) - and, if
+    ** publishing to JMX, register its MXBean.
+    *******************************************************************************/
+   public void register(PermissionCache<?, ?> cache)
+   {
+      CacheMXBean mxBean = new CacheMXBean(cache);
+      caches.put(cache.getName(), mxBean);
+
+      if(publishToJmx)
+      {
+         registerMXBean(mxBean);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Set whether caches are published to JMX - registering (or unregistering)
+    ** the MXBeans of the caches already in the registry.
+    *******************************************************************************/
+   public void setPublishToJmx(boolean publishToJmx)
+   {
+      this.publishToJmx = publishToJmx;
+      for(PermissionCacheMXBean mxBean : caches.values())
+      {
+         if(publishToJmx)
+         {
+            registerMXBean(mxBean);
+         }
+         else
+         {
+            unregisterMXBean(mxBean.getName());
+         }
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the names of the registered caches (sorted).
+    *******************************************************************************/
+   public List<String> getCacheNames()
+   {
+      return (new ArrayList<>(caches.keySet()));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the registered caches (sorted by name).
+    *******************************************************************************/
+   public List<PermissionCacheMXBean> getCaches()
+   {
+      return (new ArrayList<>(caches.values()));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a cache by name - or null, if there isn't one by that name.
+    *******************************************************************************/
+   public PermissionCacheMXBean getCache(String name)
+   {
+      return (caches.get(name));
+   }
+
+
+
+   /*******************************************************************************
+    ** Remove all entries from one cache.  Returns false if there isn't a cache
+    ** by that name.
+    *******************************************************************************/
+   public boolean flushCache(String name)
+   {
+      PermissionCacheMXBean cache = caches.get(name);
+      if(cache == null)
+      {
+         return (false);
+      }
+
+      cache.flush();
+      return (true);
+   }
+
+
+
+   /*******************************************************************************
+    ** Set the counters of all of the caches back to zero.
+    *******************************************************************************/
+   public void resetStatistics()
+   {
+      caches.values().forEach(PermissionCacheMXBean::resetStatistics);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the latency histogram by a name - creating it, if it doesn't exist.
+    *******************************************************************************/
+   public LatencyHistogram getLatencyHistogram(String name)
+   {
+      return (latencyHistograms.computeIfAbsent(name, LatencyHistogram::new));
+   }
+
+
+
+   /*******************************************************************************
+    ** Take snapshots of all of the latency histograms (sorted by name).
+    *******************************************************************************/
+   public List<LatencyHistogram.Snapshot> getLatencySnapshots()
+   {
+      return (latencyHistograms.values().stream().map(LatencyHistogram::snapshot).toList());
+   }
+
+
+
+   /*******************************************************************************
+    ** Set all of the latency histograms back to zero.
+    *******************************************************************************/
+   public void resetLatencyHistograms()
+   {
+      latencyHistograms.values().forEach(LatencyHistogram::reset);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the JMX ObjectName for a cache.
+    *******************************************************************************/
+   public static ObjectName getObjectName(String cacheName) throws JMException
+   {
+      return (new ObjectName(JMX_DOMAIN + ":type=PermissionCache,name=" + ObjectName.quote(cacheName)));
+   }
+
+
+
+   /***************************************************************************
+    ** register a cache's MXBean with the platform MBean server - replacing any
+    ** already registered under its name (e.g., by an earlier configuration).
+    ***************************************************************************/
+   private void registerMXBean(PermissionCacheMXBean mxBean)
+   {
+      try
+      {
+         MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+         ObjectName  objectName  = getObjectName(mxBean.getName());
+         if(mBeanServer.isRegistered(objectName))
+         {
+            mBeanServer.unregisterMBean(objectName);
+         }
+         mBeanServer.registerMBean(mxBean, objectName);
+      }
+      catch(JMException e)
+      {
+         LOG.warn("Error registering permission cache MXBean", e, logPair("cache", mxBean.getName()));
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void unregisterMXBean(String cacheName)
+   {
+      try
+      {
+         MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+         ObjectName  objectName  = getObjectName(cacheName);
+         if(mBeanServer.isRegistered(objectName))
+         {
+            mBeanServer.unregisterMBean(objectName);
+         }
+      }
+      catch(JMException e)
+      {
+         LOG.warn("Error unregistering permission cache MXBean", e, logPair("cache", cacheName));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** MXBean view of a cache - its size & weight, and its stats' counters.
+    ***************************************************************************/
+   private static class CacheMXBean implements PermissionCacheMXBean
+   {
+      private final PermissionCache<?, ?> cache;
+      private final PermissionCacheStats  stats;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      CacheMXBean(PermissionCache<?, ?> cache)
+      {
+         this.cache = cache;
+         this.stats = cache.getStats();
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public String getName()
+      {
+         return (cache.getName());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public int getSize()
+      {
+         return (cache.size());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getTotalWeight()
+      {
+         return (cache.getTotalWeight());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getHitCount()
+      {
+         return (stats.getHitCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getMissCount()
+      {
+         return (stats.getMissCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public double getHitRate()
+      {
+         return (stats.getHitRate());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getLoadCount()
+      {
+         return (stats.getLoadCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getLoadFailureCount()
+      {
+         return (stats.getLoadFailureCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public double getAverageLoadMillis()
+      {
+         return (stats.getAverageLoadMillis());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getRefreshCount()
+      {
+         return (stats.getRefreshCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getRefreshFailureCount()
+      {
+         return (stats.getRefreshFailureCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getEvictionCount()
+      {
+         return (stats.getEvictionCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getExpirationCount()
+      {
+         return (stats.getExpirationCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public long getInvalidationCount()
+      {
+         return (stats.getInvalidationCount());
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public void flush()
+      {
+         cache.clear();
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public void resetStatistics()
+      {
+         stats.reset();
+      }
+   }
+
+}
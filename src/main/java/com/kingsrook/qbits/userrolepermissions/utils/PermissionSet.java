@@ -0,0 +1,535 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+
+/*******************************************************************************
+ ** Immutable set of permissions, stored as a bitmap over the indexes assigned
+ ** by a PermissionDictionary.
+ **
+ ** Membership checks are a single bit test, and union/intersect are word-wise
+ ** ORs/ANDs.  For callers that want permission names, asNameSet() gives an
+ ** unmodifiable Set<String> view.
+ *******************************************************************************/
+public final class PermissionSet
+{
+   private static final long[] NO_WORDS = new long[0];
+
+   private final PermissionDictionary dictionary;
+   private final long[]               words;
+   private final int                  cardinality;
+
+   private Set<String> nameSetView;
+
+
+
+   /*******************************************************************************
+    ** Constructor - takes ownership of the words array (so callers must not
+    ** modify it afterward).
+    *******************************************************************************/
+   private PermissionSet(PermissionDictionary dictionary, long[] words)
+   {
+      this.dictionary = dictionary;
+      this.words = trim(words);
+
+      int count = 0;
+      for(long word : this.words)
+      {
+         count += Long.bitCount(word);
+      }
+      this.cardinality = count;
+   }
+
+
+
+   /*******************************************************************************
+    ** Get an empty set - the dictionary's shared one, so this doesn't allocate.
+    *******************************************************************************/
+   public static PermissionSet empty(PermissionDictionary dictionary)
+   {
+      return (dictionary.getEmptySet());
+   }
+
+
+
+   /*******************************************************************************
+    ** Make a new empty set - for the dictionary to share (see empty).
+    *******************************************************************************/
+   static PermissionSet newEmpty(PermissionDictionary dictionary)
+   {
+      return (new PermissionSet(dictionary, NO_WORDS));
+   }
+
+
+
+   /*******************************************************************************
+    ** Make a set from bitmap words (e.g., read from an AuthorizationSnapshotFile)
+    ** - the set takes ownership of the array.
+    *******************************************************************************/
+   static PermissionSet fromWords(PermissionDictionary dictionary, long[] words)
+   {
+      return (new PermissionSet(dictionary, words));
+   }
+
+
+
+   /*******************************************************************************
+    ** Start building a set.
+    *******************************************************************************/
+   public static Builder builder(PermissionDictionary dictionary)
+   {
+      return (new Builder(dictionary));
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the set contains the permission with the given dictionary index.
+    *******************************************************************************/
+   public boolean contains(int index)
+   {
+      if(index < 0)
+      {
+         return (false);
+      }
+
+      int wordIndex = index >>> 6;
+      return (wordIndex < words.length && (words[wordIndex] & (1L << index)) != 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the set contains the permission with the given name.
+    *******************************************************************************/
+   public boolean contains(String name)
+   {
+      return (contains(dictionary.indexOf(name)));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the union of this set and another.
+    *******************************************************************************/
+   public PermissionSet union(PermissionSet other)
+   {
+      assertSameDictionary(other);
+      if(other.cardinality == 0)
+      {
+         return (this);
+      }
+      if(this.cardinality == 0)
+      {
+         return (other);
+      }
+
+      long[] longer  = this.words.length >= other.words.length ? this.words : other.words;
+      long[] shorter = this.words.length >= other.words.length ? other.words : this.words;
+      long[] result  = Arrays.copyOf(longer, longer.length);
+      for(int i = 0; i < shorter.length; i++)
+      {
+         result[i] |= shorter[i];
+      }
+      return (new PermissionSet(dictionary, result));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the intersection of this set and another.
+    *******************************************************************************/
+   public PermissionSet intersect(PermissionSet other)
+   {
+      assertSameDictionary(other);
+
+      long[] result = new long[Math.min(this.words.length, other.words.length)];
+      for(int i = 0; i < result.length; i++)
+      {
+         result[i] = this.words[i] & other.words[i];
+      }
+      return (new PermissionSet(dictionary, result));
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of permissions in the set.
+    *******************************************************************************/
+   public int size()
+   {
+      return (cardinality);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the set is empty.
+    *******************************************************************************/
+   public boolean isEmpty()
+   {
+      return (cardinality == 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get an unmodifiable view of this set as permission names.
+    *******************************************************************************/
+   public Set<String> asNameSet()
+   {
+      //////////////////////////////////////////////////////////////////////////
+      // racy lazy-init is fine - the view is stateless, so two threads       //
+      // creating one each just means one of them is garbage-collected.       //
+      //////////////////////////////////////////////////////////////////////////
+      Set<String> view = nameSetView;
+      if(view == null)
+      {
+         view = new NameSetView();
+         nameSetView = view;
+      }
+      return (view);
+   }
+
+
+
+   /*******************************************************************************
+    ** Call a consumer with the dictionary index of each permission in the set.
+    *******************************************************************************/
+   public void forEachIndex(IntConsumer consumer)
+   {
+      for(int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1))
+      {
+         consumer.accept(i);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Estimate the number of bytes used by this object.
+    *******************************************************************************/
+   public long estimateWeight()
+   {
+      return (48L + 8L * words.length);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get a copy of the set's bitmap words (e.g., to write to an
+    ** AuthorizationSnapshotFile).
+    *******************************************************************************/
+   long[] toWords()
+   {
+      return (words.clone());
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for dictionary
+    *******************************************************************************/
+   public PermissionDictionary getDictionary()
+   {
+      return (this.dictionary);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public boolean equals(Object o)
+   {
+      if(this == o)
+      {
+         return (true);
+      }
+      if(!(o instanceof PermissionSet that))
+      {
+         return (false);
+      }
+      return (dictionary == that.dictionary && Arrays.equals(words, that.words));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public int hashCode()
+   {
+      return (Arrays.hashCode(words));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public String toString()
+   {
+      return (asNameSet().toString());
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void assertSameDictionary(PermissionSet other)
+   {
+      if(other.dictionary != dictionary)
+      {
+         throw (new IllegalArgumentException("Cannot combine PermissionSets from different dictionaries"));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** drop trailing zero words, so that equal sets have equal arrays.
+    ***************************************************************************/
+   private static long[] trim(long[] words)
+   {
+      int length = words.length;
+      while(length > 0 && words[length - 1] == 0)
+      {
+         length--;
+      }
+      return (length == words.length ? words : Arrays.copyOf(words, length));
+   }
+
+
+
+   /***************************************************************************
+    ** get the next set bit at or after the given index, or -1 if none.
+    ***************************************************************************/
+   private int nextSetBit(int fromIndex)
+   {
+      int wordIndex = fromIndex >>> 6;
+      if(wordIndex >= words.length)
+      {
+         return (-1);
+      }
+
+      long word = words[wordIndex] & (-1L << fromIndex);
+      while(true)
+      {
+         if(word != 0)
+         {
+            return ((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+         }
+         if(++wordIndex == words.length)
+         {
+            return (-1);
+         }
+         word = words[wordIndex];
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** Set<String> view over the bitmap.  AbstractSet gives us equals/hashCode
+    ** compatible with other Sets, and rejects modification.
+    ***************************************************************************/
+   private class NameSetView extends AbstractSet<String>
+   {
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public boolean contains(Object o)
+      {
+         return (o instanceof String name && PermissionSet.this.contains(name));
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public int size()
+      {
+         return (cardinality);
+      }
+
+
+
+      /***************************************************************************
+       **
+       ***************************************************************************/
+      @Override
+      public Iterator<String> iterator()
+      {
+         return (new Iterator<>()
+         {
+            private int next = nextSetBit(0);
+
+
+
+            /***************************************************************************
+             **
+             ***************************************************************************/
+            @Override
+            public boolean hasNext()
+            {
+               return (next >= 0);
+            }
+
+
+
+            /***************************************************************************
+             **
+             ***************************************************************************/
+            @Override
+            public String next()
+            {
+               if(next < 0)
+               {
+                  throw (new NoSuchElementException());
+               }
+               String name = dictionary.getName(next);
+               next = nextSetBit(next + 1);
+               return (name);
+            }
+         });
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Mutable builder for PermissionSets.
+    *******************************************************************************/
+   public static class Builder
+   {
+      private final PermissionDictionary dictionary;
+      private long[]                     words = new long[1];
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      private Builder(PermissionDictionary dictionary)
+      {
+         this.dictionary = dictionary;
+      }
+
+
+
+      /*******************************************************************************
+       ** Add a permission by dictionary index.
+       *******************************************************************************/
+      public Builder add(int index)
+      {
+         if(index < 0)
+         {
+            throw (new IllegalArgumentException("Invalid permission index: " + index));
+         }
+
+         int wordIndex = index >>> 6;
+         if(wordIndex >= words.length)
+         {
+            words = Arrays.copyOf(words, Math.max(wordIndex + 1, words.length * 2));
+         }
+         words[wordIndex] |= (1L << index);
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Remove a permission by dictionary index.
+       *******************************************************************************/
+      public Builder remove(int index)
+      {
+         int wordIndex = index >>> 6;
+         if(index >= 0 && wordIndex < words.length)
+         {
+            words[wordIndex] &= ~(1L << index);
+         }
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Add a permission by name (interning it in the dictionary if needed).
+       *******************************************************************************/
+      public Builder add(String name)
+      {
+         return (add(dictionary.intern(name)));
+      }
+
+
+
+      /*******************************************************************************
+       ** Add all the permissions in another set.
+       *******************************************************************************/
+      public Builder addAll(PermissionSet other)
+      {
+         if(other.dictionary != dictionary)
+         {
+            throw (new IllegalArgumentException("Cannot combine PermissionSets from different dictionaries"));
+         }
+
+         if(other.words.length > words.length)
+         {
+            words = Arrays.copyOf(words, other.words.length);
+         }
+         for(int i = 0; i < other.words.length; i++)
+         {
+            words[i] |= other.words[i];
+         }
+         return (this);
+      }
+
+
+
+      /*******************************************************************************
+       ** Build the immutable set.
+       *******************************************************************************/
+      public PermissionSet build()
+      {
+         return (new PermissionSet(dictionary, Arrays.copyOf(words, words.length)));
+      }
+   }
+
+}
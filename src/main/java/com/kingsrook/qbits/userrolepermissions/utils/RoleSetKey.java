@@ -0,0 +1,234 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+
+/*******************************************************************************
+ ** Immutable, canonical key for a set of role ids:  the distinct ids, sorted,
+ ** in an int[], with a 64-bit hash computed once, up front.
+ **
+ ** Unlike a caller's Set<Integer>, a key can't be changed after it's used in
+ ** a cache, and hashing/equality don't need to walk (or unbox) a HashSet -
+ ** equals compares the 64-bit hashes before the arrays.  Any two collections
+ ** with the same role ids (in any order, with or without duplicates) give
+ ** equal keys, so they share one cache entry.
+ *******************************************************************************/
+public final class RoleSetKey
+{
+   private static final int[] NO_ROLES = new int[0];
+
+   private final int[] roleIds;
+   private final long  hash64;
+
+
+
+   /*******************************************************************************
+    ** Constructor - roleIds must already be sorted & distinct.
+    *******************************************************************************/
+   private RoleSetKey(int[] roleIds)
+   {
+      this.roleIds = roleIds;
+
+      long hash = 0x9e3779b97f4a7c15L;
+      for(int roleId : roleIds)
+      {
+         hash = mix(hash ^ roleId);
+      }
+      this.hash64 = mix(hash ^ roleIds.length);
+   }
+
+
+
+   /*******************************************************************************
+    ** Make a key from a collection of role ids (nulls are ignored).
+    *******************************************************************************/
+   public static RoleSetKey of(Collection<Integer> roleIds)
+   {
+      if(roleIds == null || roleIds.isEmpty())
+      {
+         return (new RoleSetKey(NO_ROLES));
+      }
+
+      int[] ids   = new int[roleIds.size()];
+      int   count = 0;
+      for(Integer roleId : roleIds)
+      {
+         if(roleId != null)
+         {
+            ids[count++] = roleId;
+         }
+      }
+      return (of(Arrays.copyOf(ids, count)));
+   }
+
+
+
+   /*******************************************************************************
+    ** Make a key from role ids.
+    *******************************************************************************/
+   public static RoleSetKey of(int... roleIds)
+   {
+      int[] ids = roleIds.clone();
+      Arrays.sort(ids);
+
+      ///////////////////////
+      // remove duplicates //
+      ///////////////////////
+      int distinct = 0;
+      for(int i = 0; i < ids.length; i++)
+      {
+         if(i == 0 || ids[i] != ids[i - 1])
+         {
+            ids[distinct++] = ids[i];
+         }
+      }
+      return (new RoleSetKey(distinct == ids.length ? ids : Arrays.copyOf(ids, distinct)));
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the set includes a role.
+    *******************************************************************************/
+   public boolean contains(int roleId)
+   {
+      return (Arrays.binarySearch(roleIds, roleId) >= 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of roles in the set.
+    *******************************************************************************/
+   public int size()
+   {
+      return (roleIds.length);
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the set is empty.
+    *******************************************************************************/
+   public boolean isEmpty()
+   {
+      return (roleIds.length == 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the role id at a position (in sorted order).
+    *******************************************************************************/
+   public int get(int index)
+   {
+      return (roleIds[index]);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the role ids as a (new, sorted) list - e.g., for a query's IN-list.
+    *******************************************************************************/
+   public List<Integer> toList()
+   {
+      List<Integer> rs = new ArrayList<>(roleIds.length);
+      for(int roleId : roleIds)
+      {
+         rs.add(roleId);
+      }
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for hash64
+    *******************************************************************************/
+   public long getHash64()
+   {
+      return (this.hash64);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public boolean equals(Object o)
+   {
+      if(this == o)
+      {
+         return (true);
+      }
+      if(!(o instanceof RoleSetKey that))
+      {
+         return (false);
+      }
+      return (hash64 == that.hash64 && Arrays.equals(roleIds, that.roleIds));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public int hashCode()
+   {
+      return ((int) (hash64 ^ (hash64 >>> 32)));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public String toString()
+   {
+      return (Arrays.toString(roleIds));
+   }
+
+
+
+   /***************************************************************************
+    ** 64-bit finalizer (from murmur3), to spread the bits of the hash.
+    ***************************************************************************/
+   private static long mix(long h)
+   {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return (h);
+   }
+
+}
@@ -0,0 +1,627 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermissionLock;
+import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.QBackendTransaction;
+import com.kingsrook.qqq.backend.core.actions.tables.DeleteAction;
+import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
+import com.kingsrook.qqq.backend.core.actions.tables.UpdateAction;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterCriteria;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterOrderBy;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QueryInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
+import com.kingsrook.qqq.backend.core.utils.lambdas.UnsafeConsumer;
+
+
+/*******************************************************************************
+ ** Keeps the UserEffectivePermission table in sync with writes to the int
+ ** tables - applying each PermissionDelta's pairs as row deletes & inserts
+ ** (in the write's transaction), rather than recomputing whole users:
+ **
+ ** - user gains/loses a role:  insert/delete that user's rows from that role.
+ ** - role gains/loses a permission:  insert (for each holder of the role) /
+ **   delete the rows for that role & permission.
+ ** - user gains/loses a direct permission:  insert/delete that direct row.
+ **
+ ** Additions delete any existing matching rows first, so re-applying a delta
+ ** doesn't duplicate rows (and the table's unique key backs that up).  Users &
+ ** roles in the delta's flush sets (whose exact changes aren't known) are
+ ** rebuilt from the int tables.  A delta that says to flush everything can't
+ ** say which rows it changed - so, past its flush sets, the table is marked
+ ** incomplete, until the next rebuildAll (rather than rebuilding the whole
+ ** table in the writer's transaction).  PermissionManager only reads the
+ ** table once it's complete - see rebuildAllIfIncomplete.
+ **
+ ** A role change reads the role's holders (and a user-role change, the role's
+ ** permissions) - so under READ COMMITTED, two writers touching the same role
+ ** (e.g., one taking the role from a user while another adds a permission to
+ ** it) could each miss the other's write, and leave a row behind forever.  To
+ ** stop that, each delta first locks the roles it involves (by their rows in
+ ** the qbit's own UserEffectivePermissionLock table - not the Role table's),
+ ** so such writers take turns, and the second one reads what the first one
+ ** committed.  That relies on the backend holding row locks until commit;
+ ** one without transactions has nothing to serialize anyway.
+ *******************************************************************************/
+public class UserEffectivePermissionMaintainer
+{
+   private static final QLogger LOG = QLogger.getLogger(UserEffectivePermissionMaintainer.class);
+
+   private static final int    PAGE_SIZE            = 1000;
+   private static final String ROLE_LOCK_KEY_PREFIX = "role:";
+   private static final String TABLE_LOCK_KEY       = "table";
+
+
+
+   /*******************************************************************************
+    ** Apply a delta to the table, in the given transaction - or, if that's null,
+    ** in a transaction of its own (so the role locks are held until the rows
+    ** are written).
+    *******************************************************************************/
+   public static void apply(PermissionDelta delta, QBackendTransaction transaction) throws QException
+   {
+      if(delta == null || delta.isEmpty())
+      {
+         return;
+      }
+
+      inTransaction(transaction, t -> applyInTransaction(delta, t));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void applyInTransaction(PermissionDelta delta, QBackendTransaction transaction) throws QException
+   {
+      Set<Integer> roleIds = new HashSet<>(delta.getAddedPermissionIdsByRoleId().keySet());
+      roleIds.addAll(delta.getRemovedPermissionIdsByRoleId().keySet());
+      delta.getAddedRoleIdsByUserId().values().forEach(roleIds::addAll);
+      delta.getRemovedRoleIdsByUserId().values().forEach(roleIds::addAll);
+      roleIds.addAll(CollectionUtils.nonNullCollection(delta.getRoleIdsToFlush()));
+
+      Set<String> lockKeys = getRoleLockKeys(roleIds);
+      if(delta.getFlushAll())
+      {
+         lockKeys.add(TABLE_LOCK_KEY);
+      }
+      lock(lockKeys, transaction);
+
+      //////////////
+      // removals //
+      //////////////
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getRemovedRoleIdsByUserId().entrySet())
+      {
+         delete(transaction, new QFilterCriteria("userId", QCriteriaOperator.EQUALS, entry.getKey()), new QFilterCriteria("sourceRoleId", QCriteriaOperator.IN, entry.getValue()));
+      }
+
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getRemovedPermissionIdsByRoleId().entrySet())
+      {
+         delete(transaction, new QFilterCriteria("sourceRoleId", QCriteriaOperator.EQUALS, entry.getKey()), new QFilterCriteria("permissionId", QCriteriaOperator.IN, entry.getValue()));
+      }
+
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getRemovedPermissionIdsByUserId().entrySet())
+      {
+         deleteDirect(transaction, entry.getKey(), entry.getValue());
+      }
+
+      ///////////////
+      // additions //
+      ///////////////
+      List<UserEffectivePermission> inserts = new ArrayList<>();
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getAddedRoleIdsByUserId().entrySet())
+      {
+         Integer userId = entry.getKey();
+         delete(transaction, new QFilterCriteria("userId", QCriteriaOperator.EQUALS, userId), new QFilterCriteria("sourceRoleId", QCriteriaOperator.IN, entry.getValue()));
+
+         for(Map.Entry<Integer, Set<Integer>> rolePermissions : getPermissionIdsByRoleId(entry.getValue(), transaction).entrySet())
+         {
+            addRows(inserts, Set.of(userId), rolePermissions.getValue(), rolePermissions.getKey());
+         }
+      }
+
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getAddedPermissionIdsByRoleId().entrySet())
+      {
+         Integer roleId = entry.getKey();
+         delete(transaction, new QFilterCriteria("sourceRoleId", QCriteriaOperator.EQUALS, roleId), new QFilterCriteria("permissionId", QCriteriaOperator.IN, entry.getValue()));
+         addRows(inserts, getUserIdsByRoleId(Set.of(roleId), transaction).getOrDefault(roleId, Set.of()), entry.getValue(), roleId);
+      }
+
+      for(Map.Entry<Integer, Set<Integer>> entry : delta.getAddedPermissionIdsByUserId().entrySet())
+      {
+         deleteDirect(transaction, entry.getKey(), entry.getValue());
+         addRows(inserts, Set.of(entry.getKey()), entry.getValue(), null);
+      }
+
+      insert(inserts, transaction);
+
+      //////////////////////////////////////////////////////////////////
+      // rebuild whatever the delta couldn't describe exactly - roles //
+      // first, since a user rebuild also covers their role rows.     //
+      //////////////////////////////////////////////////////////////////
+      rebuildRoles(delta.getRoleIdsToFlush(), transaction);
+      rebuildUsers(delta.getUserIdsToFlush(), transaction);
+
+      if(delta.getFlushAll())
+      {
+         ///////////////////////////////////////////////////////////////
+         // whatever else the delta changed is unknown - so the table //
+         // can't be trusted as complete, until it's rebuilt in full. //
+         ///////////////////////////////////////////////////////////////
+         LOG.warn("Applied a flush-all permission delta - the user effective permission table is incomplete until rebuilt");
+         setCompleteDate(null, transaction);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Re-compute all the rows for some users, from the int tables.
+    *******************************************************************************/
+   public static void rebuildUsers(Collection<Integer> userIds, QBackendTransaction transaction) throws QException
+   {
+      for(List<Integer> userIdPage : CollectionUtils.getPages(nonNullIds(userIds), PAGE_SIZE))
+      {
+         delete(transaction, new QFilterCriteria("userId", QCriteriaOperator.IN, userIdPage));
+
+         List<UserEffectivePermission> inserts         = new ArrayList<>();
+         Map<Integer, Set<Integer>>    roleIdsByUserId = new HashMap<>();
+         for(QRecord userRoleInt : query(UserRoleInt.TABLE_NAME, "userId", userIdPage, "roleId", transaction))
+         {
+            roleIdsByUserId.computeIfAbsent(userRoleInt.getValueInteger("userId"), k -> new HashSet<>()).add(userRoleInt.getValueInteger("roleId"));
+         }
+
+         Set<Integer> allRoleIds = new HashSet<>();
+         roleIdsByUserId.values().forEach(allRoleIds::addAll);
+
+         Map<Integer, Set<Integer>> permissionIdsByRoleId = getPermissionIdsByRoleId(allRoleIds, transaction);
+         for(Map.Entry<Integer, Set<Integer>> entry : roleIdsByUserId.entrySet())
+         {
+            for(Integer roleId : entry.getValue())
+            {
+               addRows(inserts, Set.of(entry.getKey()), permissionIdsByRoleId.getOrDefault(roleId, Set.of()), roleId);
+            }
+         }
+
+         for(QRecord userPermissionInt : query(UserPermissionInt.TABLE_NAME, "userId", userIdPage, "permissionId", transaction))
+         {
+            addRows(inserts, Set.of(userPermissionInt.getValueInteger("userId")), Set.of(userPermissionInt.getValueInteger("permissionId")), null);
+         }
+
+         insert(inserts, transaction);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Re-compute all the rows that come from some roles, from the int tables.
+    *******************************************************************************/
+   public static void rebuildRoles(Collection<Integer> roleIds, QBackendTransaction transaction) throws QException
+   {
+      for(List<Integer> roleIdPage : CollectionUtils.getPages(nonNullIds(roleIds), PAGE_SIZE))
+      {
+         delete(transaction, new QFilterCriteria("sourceRoleId", QCriteriaOperator.IN, roleIdPage));
+
+         List<UserEffectivePermission> inserts               = new ArrayList<>();
+         Map<Integer, Set<Integer>>    permissionIdsByRoleId = getPermissionIdsByRoleId(roleIdPage, transaction);
+         for(Map.Entry<Integer, Set<Integer>> entry : getUserIdsByRoleId(roleIdPage, transaction).entrySet())
+         {
+            addRows(inserts, entry.getValue(), permissionIdsByRoleId.getOrDefault(entry.getKey(), Set.of()), entry.getKey());
+         }
+         insert(inserts, transaction);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Check if the table is complete:  fully built by rebuildAll, and not
+    ** since marked incomplete (by a delta that couldn't be applied exactly).
+    *******************************************************************************/
+   public static boolean isComplete() throws QException
+   {
+      return (isComplete(null));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static boolean isComplete(QBackendTransaction transaction) throws QException
+   {
+      List<QRecord> records = new QueryAction().execute(new QueryInput(UserEffectivePermissionLock.TABLE_NAME)
+         .withFilter(new QQueryFilter(new QFilterCriteria("lockKey", QCriteriaOperator.EQUALS, TABLE_LOCK_KEY)))
+         .withFieldsToQuery(Set.of("id", "completeDate"))
+         .withTransaction(transaction)).getRecords();
+      return (!records.isEmpty() && records.get(0).getValue("completeDate") != null);
+   }
+
+
+
+   /*******************************************************************************
+    ** Re-compute the whole table, from the int tables, unless it's already
+    ** complete - e.g., to populate it when first turned on.  Runs in a
+    ** transaction of its own, holding the table's lock, so (across nodes)
+    ** only one of several callers rebuilds it.  Returns true if it rebuilt.
+    *******************************************************************************/
+   public static boolean rebuildAllIfIncomplete() throws QException
+   {
+      if(isComplete())
+      {
+         return (false);
+      }
+
+      AtomicBoolean rebuilt = new AtomicBoolean(false);
+      inTransaction(null, transaction -> rebuilt.set(rebuildAll(transaction, false)));
+      return (rebuilt.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** Re-compute the whole table, from the int tables, in a transaction of its
+    ** own - and mark it complete.
+    *******************************************************************************/
+   public static void rebuildAll() throws QException
+   {
+      inTransaction(null, transaction -> rebuildAll(transaction, true));
+   }
+
+
+
+   /***************************************************************************
+    ** re-compute the whole table, in the given transaction - first locking it,
+    ** and the roles in the int tables (so deltas for those roles wait for it).
+    ** Unless force is set, does nothing (returning false) if, once it holds
+    ** the lock, the table is complete (e.g., another node just rebuilt it).
+    ***************************************************************************/
+   private static boolean rebuildAll(QBackendTransaction transaction, boolean force) throws QException
+   {
+      Set<Integer> roleIds = new HashSet<>();
+      forEachIntRecord(UserRoleInt.TABLE_NAME, "roleId", transaction, record -> roleIds.add(record.getValueInteger("roleId")));
+      forEachIntRecord(RolePermissionInt.TABLE_NAME, "roleId", transaction, record -> roleIds.add(record.getValueInteger("roleId")));
+
+      Set<String> lockKeys = getRoleLockKeys(roleIds);
+      lockKeys.add(TABLE_LOCK_KEY);
+      lock(lockKeys, transaction);
+
+      if(!force && isComplete(transaction))
+      {
+         return (false);
+      }
+
+      Set<Integer> userIds = new HashSet<>();
+      forEachIntRecord(UserRoleInt.TABLE_NAME, "userId", transaction, record -> userIds.add(record.getValueInteger("userId")));
+      forEachIntRecord(UserPermissionInt.TABLE_NAME, "userId", transaction, record -> userIds.add(record.getValueInteger("userId")));
+
+      delete(transaction, new QFilterCriteria("id", QCriteriaOperator.IS_NOT_BLANK));
+      rebuildUsers(userIds, transaction);
+      setCompleteDate(Instant.now(), transaction);
+      return (true);
+   }
+
+
+
+   /***************************************************************************
+    ** run a consumer over (the id & one other field of) every record in an int
+    ** table, a page at a time (by id).
+    ***************************************************************************/
+   private static void forEachIntRecord(String tableName, String fieldName, QBackendTransaction transaction, UnsafeConsumer<QRecord, QException> consumer) throws QException
+   {
+      Integer lastId = null;
+      while(true)
+      {
+         QQueryFilter filter = new QQueryFilter()
+            .withOrderBy(new QFilterOrderBy("id"))
+            .withLimit(PAGE_SIZE);
+         if(lastId != null)
+         {
+            filter.withCriteria(new QFilterCriteria("id", QCriteriaOperator.GREATER_THAN, lastId));
+         }
+
+         List<QRecord> records = new QueryAction().execute(new QueryInput(tableName)
+            .withFilter(filter)
+            .withFieldsToQuery(Set.of("id", fieldName))
+            .withTransaction(transaction)).getRecords();
+         for(QRecord record : records)
+         {
+            consumer.accept(record);
+            lastId = record.getValueInteger("id");
+         }
+
+         if(records.size() < PAGE_SIZE)
+         {
+            return;
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** set (or clear) the completeDate on the table's lock row - which the
+    ** caller has locked (so it exists).
+    ***************************************************************************/
+   private static void setCompleteDate(Instant completeDate, QBackendTransaction transaction) throws QException
+   {
+      Integer lockId = getLockIds(Set.of(TABLE_LOCK_KEY), transaction).get(TABLE_LOCK_KEY);
+      new UpdateAction().execute(new UpdateInput(UserEffectivePermissionLock.TABLE_NAME)
+         .withRecord(new QRecord().withValue("id", lockId).withValue("completeDate", completeDate))
+         .withTransaction(transaction));
+   }
+
+
+
+   /***************************************************************************
+    ** run some work in the given transaction - or, if that's null, in one of
+    ** its own, committed if the work succeeds (else rolled back).
+    ***************************************************************************/
+   private static void inTransaction(QBackendTransaction transaction, UnsafeConsumer<QBackendTransaction, QException> work) throws QException
+   {
+      if(transaction != null)
+      {
+         work.accept(transaction);
+         return;
+      }
+
+      QBackendTransaction ownTransaction = QBackendTransaction.openFor(new InsertInput(UserEffectivePermission.TABLE_NAME));
+      try
+      {
+         work.accept(ownTransaction);
+         ownTransaction.commit();
+      }
+      catch(Exception e)
+      {
+         ownTransaction.rollback();
+         throw (e);
+      }
+      finally
+      {
+         ownTransaction.close();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** the keys of some roles' rows in the UserEffectivePermissionLock table
+    ** (as a mutable set).
+    ***************************************************************************/
+   private static Set<String> getRoleLockKeys(Collection<Integer> roleIds)
+   {
+      return (nonNullIds(roleIds).stream().map(roleId -> ROLE_LOCK_KEY_PREFIX + roleId).collect(Collectors.toCollection(HashSet::new)));
+   }
+
+
+
+   /***************************************************************************
+    ** lock some keys' rows in the UserEffectivePermissionLock table for the
+    ** rest of the transaction, by updating their lockDate in it - in id order,
+    ** so two writers locking overlapping sets of keys can't deadlock.  Rows
+    ** not there yet are inserted first, outside the transaction (so they're
+    ** visible to - and lockable by - other writers right away).
+    ***************************************************************************/
+   private static void lock(Set<String> lockKeys, QBackendTransaction transaction) throws QException
+   {
+      if(lockKeys.isEmpty())
+      {
+         return;
+      }
+
+      Map<String, Integer> lockIdsByKey = getLockIds(lockKeys, transaction);
+      List<String>         missingKeys  = lockKeys.stream().filter(lockKey -> !lockIdsByKey.containsKey(lockKey)).sorted().toList();
+      if(!missingKeys.isEmpty())
+      {
+         try
+         {
+            List<UserEffectivePermissionLock> locks = missingKeys.stream().map(lockKey -> new UserEffectivePermissionLock().withLockKey(lockKey)).toList();
+            new InsertAction().execute(new InsertInput(UserEffectivePermissionLock.TABLE_NAME).withRecordEntities(locks));
+         }
+         catch(QException e)
+         {
+            ///////////////////////////////////////////////////////////////
+            // another writer may have inserted some of them meanwhile - //
+            // fine, as long as they're all there when re-read below.    //
+            ///////////////////////////////////////////////////////////////
+            LOG.debug("Error inserting user effective permission lock rows", e);
+         }
+
+         lockIdsByKey.putAll(getLockIds(new HashSet<>(missingKeys), transaction));
+         if(lockIdsByKey.size() < lockKeys.size())
+         {
+            throw (new QException("Could not insert user effective permission lock rows"));
+         }
+      }
+
+      Instant now = Instant.now();
+      for(List<Integer> lockIdPage : CollectionUtils.getPages(lockIdsByKey.values().stream().sorted().toList(), PAGE_SIZE))
+      {
+         List<QRecord> records = lockIdPage.stream().map(lockId -> new QRecord().withValue("id", lockId).withValue("lockDate", now)).toList();
+         new UpdateAction().execute(new UpdateInput(UserEffectivePermissionLock.TABLE_NAME).withRecords(records).withTransaction(transaction));
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** look up the ids of the lock rows for some keys (those that exist).
+    ***************************************************************************/
+   private static Map<String, Integer> getLockIds(Set<String> lockKeys, QBackendTransaction transaction) throws QException
+   {
+      Map<String, Integer> rs = new HashMap<>();
+      for(List<String> lockKeyPage : CollectionUtils.getPages(lockKeys.stream().sorted().toList(), PAGE_SIZE))
+      {
+         for(QRecord record : new QueryAction().execute(new QueryInput(UserEffectivePermissionLock.TABLE_NAME)
+            .withFilter(new QQueryFilter(new QFilterCriteria("lockKey", QCriteriaOperator.IN, lockKeyPage)))
+            .withFieldsToQuery(Set.of("id", "lockKey"))
+            .withTransaction(transaction)).getRecords())
+         {
+            rs.put(record.getValueString("lockKey"), record.getValueInteger("id"));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** add a row for each user & permission pair, from the given source role.
+    ***************************************************************************/
+   private static void addRows(List<UserEffectivePermission> rows, Collection<Integer> userIds, Collection<Integer> permissionIds, Integer sourceRoleId)
+   {
+      for(Integer userId : userIds)
+      {
+         for(Integer permissionId : permissionIds)
+         {
+            rows.add(new UserEffectivePermission().withUserId(userId).withPermissionId(permissionId).withSourceRoleId(sourceRoleId));
+         }
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void insert(List<UserEffectivePermission> rows, QBackendTransaction transaction) throws QException
+   {
+      for(List<UserEffectivePermission> page : CollectionUtils.getPages(rows, PAGE_SIZE))
+      {
+         new InsertAction().execute(new InsertInput(UserEffectivePermission.TABLE_NAME).withRecordEntities(page).withTransaction(transaction));
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void delete(QBackendTransaction transaction, QFilterCriteria... criteria) throws QException
+   {
+      new DeleteAction().execute(new DeleteInput(UserEffectivePermission.TABLE_NAME)
+         .withQueryFilter(new QQueryFilter(criteria))
+         .withTransaction(transaction));
+   }
+
+
+
+   /***************************************************************************
+    ** delete a user's direct (not from a role) rows for some permissions.
+    ***************************************************************************/
+   private static void deleteDirect(QBackendTransaction transaction, Integer userId, Set<Integer> permissionIds) throws QException
+   {
+      delete(transaction,
+         new QFilterCriteria("userId", QCriteriaOperator.EQUALS, userId),
+         new QFilterCriteria("sourceRoleId", QCriteriaOperator.IS_BLANK),
+         new QFilterCriteria("permissionId", QCriteriaOperator.IN, permissionIds));
+   }
+
+
+
+   /***************************************************************************
+    ** look up the permission ids of some roles (in the transaction, so the
+    ** write being applied is visible).
+    ***************************************************************************/
+   private static Map<Integer, Set<Integer>> getPermissionIdsByRoleId(Collection<Integer> roleIds, QBackendTransaction transaction) throws QException
+   {
+      Map<Integer, Set<Integer>> rs = new HashMap<>();
+      for(List<Integer> roleIdPage : CollectionUtils.getPages(nonNullIds(roleIds), PAGE_SIZE))
+      {
+         for(QRecord rolePermissionInt : query(RolePermissionInt.TABLE_NAME, "roleId", roleIdPage, "permissionId", transaction))
+         {
+            rs.computeIfAbsent(rolePermissionInt.getValueInteger("roleId"), k -> new HashSet<>()).add(rolePermissionInt.getValueInteger("permissionId"));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** look up the holders of some roles (in the transaction).
+    ***************************************************************************/
+   private static Map<Integer, Set<Integer>> getUserIdsByRoleId(Collection<Integer> roleIds, QBackendTransaction transaction) throws QException
+   {
+      Map<Integer, Set<Integer>> rs = new HashMap<>();
+      for(List<Integer> roleIdPage : CollectionUtils.getPages(nonNullIds(roleIds), PAGE_SIZE))
+      {
+         for(QRecord userRoleInt : query(UserRoleInt.TABLE_NAME, "roleId", roleIdPage, "userId", transaction))
+         {
+            rs.computeIfAbsent(userRoleInt.getValueInteger("roleId"), k -> new HashSet<>()).add(userRoleInt.getValueInteger("userId"));
+         }
+      }
+      return (rs);
+   }
+
+
+
+   /***************************************************************************
+    ** query a table by some values of one field, selecting just that field and
+    ** one other (enough to be answered from the int tables' indexes).
+    ***************************************************************************/
+   private static List<QRecord> query(String tableName, String fieldName, List<Integer> values, String otherFieldName, QBackendTransaction transaction) throws QException
+   {
+      return (new QueryAction().execute(new QueryInput(tableName)
+         .withFilter(new QQueryFilter(new QFilterCriteria(fieldName, QCriteriaOperator.IN, values)))
+         .withFieldsToQuery(Set.of(fieldName, otherFieldName))
+         .withTransaction(transaction)).getRecords());
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static List<Integer> nonNullIds(Collection<Integer> ids)
+   {
+      return (CollectionUtils.nonNullCollection(ids).stream().filter(Objects::nonNull).toList());
+   }
+
+}
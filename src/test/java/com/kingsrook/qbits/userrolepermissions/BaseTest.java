@@ -27,6 +27,7 @@ import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
 import com.kingsrook.qqq.backend.core.context.QContext;
 import com.kingsrook.qqq.backend.core.exceptions.QException;
 import com.kingsrook.qqq.backend.core.instances.QInstanceEnricher;
@@ -110,11 +111,16 @@ public class BaseTest
          .withDatabaseName("test_database")
          .withUsername("sa"));
 
-      ////////////////////////
-      // configure the qbit //
-      ////////////////////////
+      ////////////////////////////////////////////////////////////////////
+      // configure the qbit - turning on the optional features, so that //
+      // their tables are provided (for the tests that use them)        //
+      ////////////////////////////////////////////////////////////////////
       UserRolePermissionsQBitConfig config = new UserRolePermissionsQBitConfig()
          .withUserTableConfig(ProvidedOrSuppliedTableConfig.provideTableUsingBackendNamed(RDBMS_BACKEND_NAME))
+         .withUseChangeLog(true)
+         .withChangeLogPollInterval(null)
+         .withNodeId("test-node")
+         .withUseMaterializedUserPermissions(true)
          .withTableMetaDataCustomizer((i, table) ->
          {
             if(table.getBackendName() == null)
@@ -136,6 +142,12 @@ public class BaseTest
          .withUserRolePermissionsQBitConfig(config)
          .produce(qInstance);
 
+      ////////////////////////////////////////////////////////////////////
+      // but start tests with the manager's defaults (those that use an //
+      // optional feature configure it on, then back off)               //
+      ////////////////////////////////////////////////////////////////////
+      PermissionManager.getInstance().configure(new UserRolePermissionsQBitConfig());
+
       ///////////////////////////////////////////
       // turn off audits (why on by default??) //
       ///////////////////////////////////////////
@@ -0,0 +1,114 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import com.kingsrook.qqq.backend.core.actions.interfaces.CountInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.DeleteInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.InsertInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.QueryInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.UpdateInterface;
+import com.kingsrook.qqq.backend.core.modules.backend.QBackendModuleDispatcher;
+import com.kingsrook.qqq.backend.module.rdbms.RDBMSBackendModule;
+
+
+/*******************************************************************************
+ ** The RDBMS backend module, with LatencyInjector wrapped around its query,
+ ** count, insert, update & delete interfaces - for tests of permission
+ ** caching over a slow (or failing) database.
+ *******************************************************************************/
+public class LatencyInjectingRDBMSBackendModule extends RDBMSBackendModule
+{
+   public static final String BACKEND_TYPE = "latencyInjectingRdbms";
+
+   static
+   {
+      QBackendModuleDispatcher.registerBackendModule(new LatencyInjectingRDBMSBackendModule());
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public String getBackendType()
+   {
+      return (BACKEND_TYPE);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public QueryInterface getQueryInterface()
+   {
+      return (LatencyInjector.wrap(super.getQueryInterface()));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public CountInterface getCountInterface()
+   {
+      return (LatencyInjector.wrap(super.getCountInterface()));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public InsertInterface getInsertInterface()
+   {
+      return (LatencyInjector.wrap(super.getInsertInterface()));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public UpdateInterface getUpdateInterface()
+   {
+      return (LatencyInjector.wrap(super.getUpdateInterface()));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   @Override
+   public DeleteInterface getDeleteInterface()
+   {
+      return (LatencyInjector.wrap(super.getDeleteInterface()));
+   }
+
+}
@@ -0,0 +1,438 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import com.kingsrook.qbits.userrolepermissions.model.Permission;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionVersion;
+import com.kingsrook.qbits.userrolepermissions.model.Role;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
+import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.interfaces.CountInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.DeleteInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.InsertInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.QueryInterface;
+import com.kingsrook.qqq.backend.core.actions.interfaces.UpdateInterface;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteOutput;
+import com.kingsrook.qqq.backend.core.utils.lambdas.UnsafeFunction;
+
+
+/*******************************************************************************
+ ** Injects latency, jitter, and failures into the backend operations on the
+ ** permission tables - through the LatencyInjecting*BackendModules, which
+ ** wrap the Memory & RDBMS modules' action interfaces (use them with
+ ** PerformanceTestInstance.define(..., true)).
+ **
+ ** Backend modules are made by the framework, so this is a singleton:
+ ** configure it (with*) around the part of a test that should be slow, and
+ ** reset it after.  It also counts operations (by table & operation), those
+ ** in flight at once (and the most ever), and injected failures - so tests
+ ** can check that slow I/O doesn't cause stampedes.
+ *******************************************************************************/
+public class LatencyInjector
+{
+   public static final Set<String> PERMISSION_TABLE_NAMES = Set.of(Permission.TABLE_NAME, Role.TABLE_NAME, UserRoleInt.TABLE_NAME, RolePermissionInt.TABLE_NAME,
+      UserPermissionInt.TABLE_NAME, UserEffectivePermission.TABLE_NAME, PermissionChangeLog.TABLE_NAME, PermissionVersion.TABLE_NAME);
+
+   ////////////////////////////////////////////////////////////////////////
+   // after PERMISSION_TABLE_NAMES - the instance's fields default to it //
+   ////////////////////////////////////////////////////////////////////////
+   private static final LatencyInjector INSTANCE = new LatencyInjector();
+
+   private volatile Duration    latency     = Duration.ZERO;
+   private volatile Duration    jitter      = Duration.ZERO;
+   private volatile double      failureRate = 0;
+   private volatile Set<String> tableNames  = PERMISSION_TABLE_NAMES;
+
+   private final Map<String, LongAdder> operationCounts = new ConcurrentHashMap<>();
+   private final AtomicInteger          inFlight        = new AtomicInteger();
+   private final AtomicInteger          maxInFlight     = new AtomicInteger();
+   private final LongAdder              failures        = new LongAdder();
+
+
+
+   /*******************************************************************************
+    ** Singleton constructor
+    *******************************************************************************/
+   private LatencyInjector()
+   {
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the singleton instance
+    *******************************************************************************/
+   public static LatencyInjector getInstance()
+   {
+      return (INSTANCE);
+   }
+
+
+
+   /*******************************************************************************
+    ** Turn injection off (back to the defaults), and zero the counters.
+    *******************************************************************************/
+   public void reset()
+   {
+      latency = Duration.ZERO;
+      jitter = Duration.ZERO;
+      failureRate = 0;
+      tableNames = PERMISSION_TABLE_NAMES;
+      resetCounters();
+   }
+
+
+
+   /*******************************************************************************
+    ** Zero the counters (leaving the configuration).
+    *******************************************************************************/
+   public void resetCounters()
+   {
+      operationCounts.clear();
+      maxInFlight.set(inFlight.get());
+      failures.reset();
+   }
+
+
+
+   /*******************************************************************************
+    ** Run an operation on a table - first sleeping for the latency (plus up to
+    ** the jitter), then failing at the failure rate - if it's one of the
+    ** injected tables.
+    *******************************************************************************/
+   public <I, O> O apply(String tableName, String operationName, I input, UnsafeFunction<I, O, QException> operation) throws QException
+   {
+      if(tableName == null || !tableNames.contains(tableName))
+      {
+         return (operation.apply(input));
+      }
+
+      operationCounts.computeIfAbsent(tableName + "." + operationName, k -> new LongAdder()).increment();
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try
+      {
+         long sleepNanos = latency.toNanos();
+         if(!jitter.isZero())
+         {
+            sleepNanos += ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1);
+         }
+
+         if(sleepNanos > 0)
+         {
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+         }
+
+         if(failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)
+         {
+            failures.increment();
+            throw (new QException("Injected failure for " + operationName + " on table: " + tableName));
+         }
+
+         return (operation.apply(input));
+      }
+      catch(InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw (new QException("Interrupted during injected latency for " + operationName + " on table: " + tableName, e));
+      }
+      finally
+      {
+         inFlight.decrementAndGet();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** Wrap a module's query interface.
+    *******************************************************************************/
+   public static QueryInterface wrap(QueryInterface delegate)
+   {
+      return (input -> INSTANCE.apply(input.getTableName(), "query", input, delegate::execute));
+   }
+
+
+
+   /*******************************************************************************
+    ** Wrap a module's count interface.
+    *******************************************************************************/
+   public static CountInterface wrap(CountInterface delegate)
+   {
+      return (input -> INSTANCE.apply(input.getTableName(), "count", input, delegate::execute));
+   }
+
+
+
+   /*******************************************************************************
+    ** Wrap a module's insert interface.
+    *******************************************************************************/
+   public static InsertInterface wrap(InsertInterface delegate)
+   {
+      return (input -> INSTANCE.apply(input.getTableName(), "insert", input, delegate::execute));
+   }
+
+
+
+   /*******************************************************************************
+    ** Wrap a module's update interface.
+    *******************************************************************************/
+   public static UpdateInterface wrap(UpdateInterface delegate)
+   {
+      return (input -> INSTANCE.apply(input.getTableName(), "update", input, delegate::execute));
+   }
+
+
+
+   /*******************************************************************************
+    ** Wrap a module's delete interface (keeping whether it supports deleting
+    ** by query filter).
+    *******************************************************************************/
+   public static DeleteInterface wrap(DeleteInterface delegate)
+   {
+      return (new DeleteInterface()
+      {
+         /***************************************************************************
+          **
+          ***************************************************************************/
+         @Override
+         public DeleteOutput execute(DeleteInput input) throws QException
+         {
+            return (INSTANCE.apply(input.getTableName(), "delete", input, delegate::execute));
+         }
+
+
+
+         /***************************************************************************
+          **
+          ***************************************************************************/
+         @Override
+         public boolean supportsQueryFilterInput()
+         {
+            return (delegate.supportsQueryFilterInput());
+         }
+      });
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of operations on the injected tables, in all.
+    *******************************************************************************/
+   public long getOperationCount()
+   {
+      return (operationCounts.values().stream().mapToLong(LongAdder::sum).sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of one operation (query, count, insert, update, delete)
+    ** on one table.
+    *******************************************************************************/
+   public long getOperationCount(String tableName, String operationName)
+   {
+      LongAdder count = operationCounts.get(tableName + "." + operationName);
+      return (count == null ? 0 : count.sum());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the operation counts, by "table.operation" (sorted - e.g., for
+    ** logging).
+    *******************************************************************************/
+   public Map<String, Long> getOperationCounts()
+   {
+      Map<String, Long> rs = new TreeMap<>();
+      operationCounts.forEach((key, count) -> rs.put(key, count.sum()));
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the most operations that were ever in flight at once (since the
+    ** counters were reset).
+    *******************************************************************************/
+   public int getMaxInFlight()
+   {
+      return (maxInFlight.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of operations in flight now.
+    *******************************************************************************/
+   public int getInFlight()
+   {
+      return (inFlight.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** Get the number of injected failures.
+    *******************************************************************************/
+   public long getFailureCount()
+   {
+      return (failures.sum());
+   }
+
+
+   /*******************************************************************************
+    ** Getter for latency
+    *******************************************************************************/
+   public Duration getLatency()
+   {
+      return (this.latency);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for latency
+    *******************************************************************************/
+   public void setLatency(Duration latency)
+   {
+      this.latency = latency;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for latency
+    *******************************************************************************/
+   public LatencyInjector withLatency(Duration latency)
+   {
+      this.latency = latency;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for jitter
+    *******************************************************************************/
+   public Duration getJitter()
+   {
+      return (this.jitter);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for jitter
+    *******************************************************************************/
+   public void setJitter(Duration jitter)
+   {
+      this.jitter = jitter;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for jitter
+    *******************************************************************************/
+   public LatencyInjector withJitter(Duration jitter)
+   {
+      this.jitter = jitter;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for failureRate
+    *******************************************************************************/
+   public double getFailureRate()
+   {
+      return (this.failureRate);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for failureRate
+    *******************************************************************************/
+   public void setFailureRate(double failureRate)
+   {
+      this.failureRate = failureRate;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for failureRate
+    *******************************************************************************/
+   public LatencyInjector withFailureRate(double failureRate)
+   {
+      this.failureRate = failureRate;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for tableNames
+    *******************************************************************************/
+   public Set<String> getTableNames()
+   {
+      return (this.tableNames);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for tableNames
+    *******************************************************************************/
+   public void setTableNames(Set<String> tableNames)
+   {
+      this.tableNames = tableNames;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for tableNames
+    *******************************************************************************/
+   public LatencyInjector withTableNames(Set<String> tableNames)
+   {
+      this.tableNames = tableNames;
+      return (this);
+   }
+
+}
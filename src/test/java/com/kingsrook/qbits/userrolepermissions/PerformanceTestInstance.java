@@ -0,0 +1,166 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.List;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.instances.QInstanceEnricher;
+import com.kingsrook.qqq.backend.core.instances.QInstanceValidator;
+import com.kingsrook.qqq.backend.core.model.metadata.QAuthenticationType;
+import com.kingsrook.qqq.backend.core.model.metadata.QBackendMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.metadata.audits.AuditLevel;
+import com.kingsrook.qqq.backend.core.model.metadata.audits.QAuditRules;
+import com.kingsrook.qqq.backend.core.model.metadata.authentication.QAuthenticationMetaData;
+import com.kingsrook.qqq.backend.core.model.metadata.qbits.ProvidedOrSuppliedTableConfig;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import com.kingsrook.qqq.backend.core.modules.backend.implementations.memory.MemoryBackendModule;
+import com.kingsrook.qqq.backend.core.modules.backend.implementations.memory.MemoryRecordStore;
+import com.kingsrook.qqq.backend.module.rdbms.jdbc.ConnectionManager;
+import com.kingsrook.qqq.backend.module.rdbms.jdbc.QueryManager;
+import com.kingsrook.qqq.backend.module.rdbms.model.metadata.RDBMSBackendMetaData;
+import com.kingsrook.qqq.backend.module.rdbms.model.metadata.RDBMSTableBackendDetails;
+import org.apache.commons.io.IOUtils;
+
+
+/*******************************************************************************
+ ** Sets up a QInstance for benchmarks and scale tests - with the qbit's tables
+ ** in either the Memory backend or an in-memory H2 database (like BaseTest's).
+ ** Fill it with an RbacDatasetGenerator.
+ *******************************************************************************/
+public class PerformanceTestInstance
+{
+   public static final String MEMORY = "memory";
+   public static final String H2     = "h2";
+
+
+
+   /*******************************************************************************
+    ** Define (and validate) an instance with the qbit's tables in the named
+    ** backend (MEMORY or H2), produced from the given config - and init the
+    ** current thread's context with it, over an empty database.
+    *******************************************************************************/
+   public static QInstance define(String backendName, UserRolePermissionsQBitConfig config) throws Exception
+   {
+      return (define(backendName, config, false));
+   }
+
+
+
+   /*******************************************************************************
+    ** Define an instance, as above - optionally, with the backend's module
+    ** swapped for its LatencyInjecting version (so LatencyInjector can slow
+    ** down, or fail, operations on the permission tables).
+    *******************************************************************************/
+   public static QInstance define(String backendName, UserRolePermissionsQBitConfig config, boolean injectLatency) throws Exception
+   {
+      QInstance qInstance = new QInstance();
+      qInstance.setAuthentication(new QAuthenticationMetaData().withType(QAuthenticationType.FULLY_ANONYMOUS));
+
+      if(MEMORY.equals(backendName))
+      {
+         qInstance.addBackend(new QBackendMetaData()
+            .withName(MEMORY)
+            .withBackendType(injectLatency ? LatencyInjectingMemoryBackendModule.class : MemoryBackendModule.class));
+      }
+      else if(H2.equals(backendName))
+      {
+         RDBMSBackendMetaData backend = new RDBMSBackendMetaData()
+            .withName(H2)
+            .withVendor("h2")
+            .withHostName("mem")
+            .withDatabaseName("performance_database")
+            .withUsername("sa");
+         if(injectLatency)
+         {
+            backend.setBackendType(LatencyInjectingRDBMSBackendModule.class);
+         }
+         qInstance.addBackend(backend);
+      }
+      else
+      {
+         throw (new IllegalArgumentException("Unknown backend: " + backendName));
+      }
+
+      config
+         .withUserTableConfig(ProvidedOrSuppliedTableConfig.provideTableUsingBackendNamed(backendName))
+         .withTableMetaDataCustomizer((i, table) ->
+         {
+            if(table.getBackendName() == null)
+            {
+               table.setBackendName(backendName);
+            }
+
+            if(H2.equals(backendName))
+            {
+               table.setBackendDetails(new RDBMSTableBackendDetails()
+                  .withTableName(QInstanceEnricher.inferBackendName(table.getName())));
+               QInstanceEnricher.setInferredFieldBackendNames(table);
+            }
+
+            return (table);
+         });
+
+      new UserRolePermissionsQBitProducer()
+         .withUserRolePermissionsQBitConfig(config)
+         .produce(qInstance);
+      PermissionManager.getInstance().start(qInstance);
+
+      qInstance.getTables().values().forEach(t -> t.setAuditRules(new QAuditRules().withAuditLevel(AuditLevel.NONE)));
+      new QInstanceValidator().validate(qInstance);
+
+      QContext.init(qInstance, new QSession());
+      MemoryRecordStore.fullReset();
+      if(H2.equals(backendName))
+      {
+         primeDatabase(qInstance);
+      }
+
+      return (qInstance);
+   }
+
+
+
+   /***************************************************************************
+    ** create the tables in H2 - from the test schema.
+    ***************************************************************************/
+   private static void primeDatabase(QInstance qInstance) throws Exception
+   {
+      try(Connection connection = ConnectionManager.getConnection((RDBMSBackendMetaData) qInstance.getBackend(H2)))
+      {
+         InputStream  primeTestDatabaseSqlStream = PerformanceTestInstance.class.getResourceAsStream("/test-database.sql");
+         List<String> lines                      = IOUtils.readLines(primeTestDatabaseSqlStream, StandardCharsets.UTF_8);
+         lines = lines.stream().filter(line -> !line.startsWith("-- ")).toList();
+         String joinedSQL = String.join("\n", lines);
+         for(String sql : joinedSQL.split(";"))
+         {
+            QueryManager.executeUpdate(connection, sql);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,696 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import com.kingsrook.qbits.userrolepermissions.model.Permission;
+import com.kingsrook.qbits.userrolepermissions.model.Role;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.User;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.data.QRecordEntity;
+
+
+/*******************************************************************************
+ ** Generates synthetic users, roles & permissions - with realistic skew:
+ ** roles are ranked, and both a role's number of users and its number of
+ ** permissions fall off with its rank (Zipf, with exponent skew) - so there
+ ** are a few huge roles, and a long tail of small ones.  Permissions are
+ ** picked for roles by the same skew, so a few are in most roles.
+ **
+ ** generate works out the assignments (by index - no database); insert also
+ ** writes them through InsertAction, in batches, to whatever backend the
+ ** current instance has the qbit's tables in (see PerformanceTestInstance).
+ ** The same settings (including seed) always give the same dataset.
+ *******************************************************************************/
+public class RbacDatasetGenerator
+{
+   private int    userCount             = 1_000_000;
+   private int    roleCount             = 10_000;
+   private int    permissionCount       = 50_000;
+   private int    rolesPerUser          = 3;
+   private int    minPermissionsPerRole = 5;
+   private int    maxPermissionsPerRole = 2_000;
+   private double skew                  = 1.0;
+   private long   seed                  = 47;
+   private int    batchSize             = 1_000;
+
+
+
+   /*******************************************************************************
+    ** Work out the dataset's assignments - each role's permission indexes, and
+    ** each user's role indexes.
+    *******************************************************************************/
+   public Dataset generate()
+   {
+      SplittableRandom random            = new SplittableRandom(seed);
+      ZipfSampler      roleSampler       = new ZipfSampler(roleCount, skew);
+      ZipfSampler      permissionSampler = new ZipfSampler(permissionCount, skew);
+
+      int[][] permissionIndexesByRole = new int[roleCount][];
+      for(int role = 0; role < roleCount; role++)
+      {
+         int size = (int) Math.max(minPermissionsPerRole, Math.round(maxPermissionsPerRole / Math.pow(role + 1, skew)));
+         permissionIndexesByRole[role] = pickDistinct(random, permissionSampler, size);
+      }
+
+      int[][] roleIndexesByUser = new int[userCount][];
+      for(int user = 0; user < userCount; user++)
+      {
+         roleIndexesByUser[user] = pickDistinct(random, roleSampler, rolesPerUser);
+      }
+
+      return (new Dataset(permissionIndexesByRole, roleIndexesByUser, permissionCount));
+   }
+
+
+
+   /*******************************************************************************
+    ** Generate the dataset, and insert it - permissions, roles, users, then the
+    ** role-permission & user-role ints (so their customizers run, as for any
+    ** write).
+    *******************************************************************************/
+   public Dataset insert() throws QException
+   {
+      Dataset dataset = generate();
+
+      List<QRecordEntity> batch = new ArrayList<>(batchSize);
+      for(int permission = 0; permission < permissionCount; permission++)
+      {
+         batch.add(new Permission().withName(Dataset.getPermissionName(permission)));
+         flushIfFull(Permission.TABLE_NAME, batch, dataset.permissionIds, permission);
+      }
+      flush(Permission.TABLE_NAME, batch, dataset.permissionIds, permissionCount);
+
+      for(int role = 0; role < roleCount; role++)
+      {
+         batch.add(new Role().withName("role-" + role));
+         flushIfFull(Role.TABLE_NAME, batch, dataset.roleIds, role);
+      }
+      flush(Role.TABLE_NAME, batch, dataset.roleIds, roleCount);
+
+      for(int user = 0; user < userCount; user++)
+      {
+         batch.add(new User().withEmail("user-" + user + "@scale.test").withFullName("Scale User " + user));
+         flushIfFull(User.TABLE_NAME, batch, dataset.userIds, user);
+      }
+      flush(User.TABLE_NAME, batch, dataset.userIds, userCount);
+
+      for(int role = 0; role < roleCount; role++)
+      {
+         for(int permission : dataset.permissionIndexesByRole[role])
+         {
+            batch.add(new RolePermissionInt().withRoleId(dataset.roleIds[role]).withPermissionId(dataset.permissionIds[permission]));
+            flushIfFull(RolePermissionInt.TABLE_NAME, batch, null, 0);
+         }
+      }
+      flush(RolePermissionInt.TABLE_NAME, batch, null, 0);
+
+      for(int user = 0; user < userCount; user++)
+      {
+         for(int role : dataset.roleIndexesByUser[user])
+         {
+            batch.add(new UserRoleInt().withUserId(dataset.userIds[user]).withRoleId(dataset.roleIds[role]));
+            flushIfFull(UserRoleInt.TABLE_NAME, batch, null, 0);
+         }
+      }
+      flush(UserRoleInt.TABLE_NAME, batch, null, 0);
+
+      return (dataset);
+   }
+
+
+
+   /***************************************************************************
+    ** insert the batch if it's full - see flush.
+    ***************************************************************************/
+   private void flushIfFull(String tableName, List<QRecordEntity> batch, int[] ids, int lastIndex) throws QException
+   {
+      if(batch.size() >= batchSize)
+      {
+         flush(tableName, batch, ids, lastIndex + 1);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** insert (and clear) the batch - putting the new records' ids (if ids is
+    ** given) in the slots just before endIndex.
+    ***************************************************************************/
+   private void flush(String tableName, List<QRecordEntity> batch, int[] ids, int endIndex) throws QException
+   {
+      if(batch.isEmpty())
+      {
+         return;
+      }
+
+      List<QRecord> records = new InsertAction().execute(new InsertInput(tableName).withRecordEntities(batch)).getRecords();
+      if(ids != null)
+      {
+         int start = endIndex - records.size();
+         for(int i = 0; i < records.size(); i++)
+         {
+            ids[start + i] = records.get(i).getValueInteger("id");
+         }
+      }
+      batch.clear();
+   }
+
+
+
+   /***************************************************************************
+    ** pick count distinct indexes from the sampler - falling back to uniform
+    ** picks if the skew makes distinct ones too rare to find.
+    ***************************************************************************/
+   private static int[] pickDistinct(SplittableRandom random, ZipfSampler sampler, int count)
+   {
+      int          target   = Math.min(count, sampler.size());
+      Set<Integer> picked   = new HashSet<>();
+      int          attempts = 0;
+      while(picked.size() < target)
+      {
+         picked.add(attempts++ < 20 * target ? sampler.next(random) : random.nextInt(sampler.size()));
+      }
+
+      int[] rs = picked.stream().mapToInt(Integer::intValue).toArray();
+      Arrays.sort(rs);
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for userCount
+    *******************************************************************************/
+   public int getUserCount()
+   {
+      return (this.userCount);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for userCount
+    *******************************************************************************/
+   public void setUserCount(int userCount)
+   {
+      this.userCount = userCount;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for userCount
+    *******************************************************************************/
+   public RbacDatasetGenerator withUserCount(int userCount)
+   {
+      this.userCount = userCount;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for roleCount
+    *******************************************************************************/
+   public int getRoleCount()
+   {
+      return (this.roleCount);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for roleCount
+    *******************************************************************************/
+   public void setRoleCount(int roleCount)
+   {
+      this.roleCount = roleCount;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for roleCount
+    *******************************************************************************/
+   public RbacDatasetGenerator withRoleCount(int roleCount)
+   {
+      this.roleCount = roleCount;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for permissionCount
+    *******************************************************************************/
+   public int getPermissionCount()
+   {
+      return (this.permissionCount);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for permissionCount
+    *******************************************************************************/
+   public void setPermissionCount(int permissionCount)
+   {
+      this.permissionCount = permissionCount;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for permissionCount
+    *******************************************************************************/
+   public RbacDatasetGenerator withPermissionCount(int permissionCount)
+   {
+      this.permissionCount = permissionCount;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for rolesPerUser
+    *******************************************************************************/
+   public int getRolesPerUser()
+   {
+      return (this.rolesPerUser);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for rolesPerUser
+    *******************************************************************************/
+   public void setRolesPerUser(int rolesPerUser)
+   {
+      this.rolesPerUser = rolesPerUser;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for rolesPerUser
+    *******************************************************************************/
+   public RbacDatasetGenerator withRolesPerUser(int rolesPerUser)
+   {
+      this.rolesPerUser = rolesPerUser;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for minPermissionsPerRole
+    *******************************************************************************/
+   public int getMinPermissionsPerRole()
+   {
+      return (this.minPermissionsPerRole);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for minPermissionsPerRole
+    *******************************************************************************/
+   public void setMinPermissionsPerRole(int minPermissionsPerRole)
+   {
+      this.minPermissionsPerRole = minPermissionsPerRole;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for minPermissionsPerRole
+    *******************************************************************************/
+   public RbacDatasetGenerator withMinPermissionsPerRole(int minPermissionsPerRole)
+   {
+      this.minPermissionsPerRole = minPermissionsPerRole;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for maxPermissionsPerRole
+    *******************************************************************************/
+   public int getMaxPermissionsPerRole()
+   {
+      return (this.maxPermissionsPerRole);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for maxPermissionsPerRole
+    *******************************************************************************/
+   public void setMaxPermissionsPerRole(int maxPermissionsPerRole)
+   {
+      this.maxPermissionsPerRole = maxPermissionsPerRole;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for maxPermissionsPerRole
+    *******************************************************************************/
+   public RbacDatasetGenerator withMaxPermissionsPerRole(int maxPermissionsPerRole)
+   {
+      this.maxPermissionsPerRole = maxPermissionsPerRole;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for skew
+    *******************************************************************************/
+   public double getSkew()
+   {
+      return (this.skew);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for skew
+    *******************************************************************************/
+   public void setSkew(double skew)
+   {
+      this.skew = skew;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for skew
+    *******************************************************************************/
+   public RbacDatasetGenerator withSkew(double skew)
+   {
+      this.skew = skew;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for seed
+    *******************************************************************************/
+   public long getSeed()
+   {
+      return (this.seed);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for seed
+    *******************************************************************************/
+   public void setSeed(long seed)
+   {
+      this.seed = seed;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for seed
+    *******************************************************************************/
+   public RbacDatasetGenerator withSeed(long seed)
+   {
+      this.seed = seed;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Getter for batchSize
+    *******************************************************************************/
+   public int getBatchSize()
+   {
+      return (this.batchSize);
+   }
+
+
+
+   /*******************************************************************************
+    ** Setter for batchSize
+    *******************************************************************************/
+   public void setBatchSize(int batchSize)
+   {
+      this.batchSize = batchSize;
+   }
+
+
+
+   /*******************************************************************************
+    ** Fluent setter for batchSize
+    *******************************************************************************/
+   public RbacDatasetGenerator withBatchSize(int batchSize)
+   {
+      this.batchSize = batchSize;
+      return (this);
+   }
+
+
+
+   /*******************************************************************************
+    ** Samples ranks 0 (most likely) through size - 1 with Zipf probabilities
+    ** (proportional to 1 / (rank + 1) ^ exponent), by binary search of the
+    ** cumulative distribution.
+    *******************************************************************************/
+   public static class ZipfSampler
+   {
+      private final double[] cumulative;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      public ZipfSampler(int size, double exponent)
+      {
+         cumulative = new double[size];
+         double total = 0;
+         for(int rank = 0; rank < size; rank++)
+         {
+            total += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+         }
+         for(int rank = 0; rank < size; rank++)
+         {
+            cumulative[rank] /= total;
+         }
+      }
+
+
+
+      /*******************************************************************************
+       ** Sample a rank.
+       *******************************************************************************/
+      public int next(SplittableRandom random)
+      {
+         int index = Arrays.binarySearch(cumulative, random.nextDouble());
+         return (Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1));
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the number of ranks.
+       *******************************************************************************/
+      public int size()
+      {
+         return (cumulative.length);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** A generated dataset:  the assignments (by index), and - once inserted -
+    ** the records' ids.
+    *******************************************************************************/
+   public static class Dataset
+   {
+      private final int[][] permissionIndexesByRole;
+      private final int[][] roleIndexesByUser;
+      private final int[]   permissionIds;
+      private final int[]   roleIds;
+      private final int[]   userIds;
+
+
+
+      /*******************************************************************************
+       ** Constructor
+       **
+       *******************************************************************************/
+      Dataset(int[][] permissionIndexesByRole, int[][] roleIndexesByUser, int permissionCount)
+      {
+         this.permissionIndexesByRole = permissionIndexesByRole;
+         this.roleIndexesByUser = roleIndexesByUser;
+         this.permissionIds = new int[permissionCount];
+         this.roleIds = new int[permissionIndexesByRole.length];
+         this.userIds = new int[roleIndexesByUser.length];
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the name of the permission at an index.
+       *******************************************************************************/
+      public static String getPermissionName(int permissionIndex)
+      {
+         return ("permission-" + permissionIndex);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the number of users.
+       *******************************************************************************/
+      public int getUserCount()
+      {
+         return (userIds.length);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the number of roles.
+       *******************************************************************************/
+      public int getRoleCount()
+      {
+         return (roleIds.length);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the number of permissions.
+       *******************************************************************************/
+      public int getPermissionCount()
+      {
+         return (permissionIds.length);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the id of the user at an index (once inserted).
+       *******************************************************************************/
+      public Integer getUserId(int userIndex)
+      {
+         return (userIds[userIndex]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the id of the role at an index (once inserted).
+       *******************************************************************************/
+      public Integer getRoleId(int roleIndex)
+      {
+         return (roleIds[roleIndex]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the id of the permission at an index (once inserted).
+       *******************************************************************************/
+      public Integer getPermissionId(int permissionIndex)
+      {
+         return (permissionIds[permissionIndex]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the role indexes of the user at an index.
+       *******************************************************************************/
+      public int[] getRoleIndexes(int userIndex)
+      {
+         return (roleIndexesByUser[userIndex]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the permission indexes of the role at an index.
+       *******************************************************************************/
+      public int[] getPermissionIndexes(int roleIndex)
+      {
+         return (permissionIndexesByRole[roleIndex]);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the role ids of the user at an index (once inserted).
+       *******************************************************************************/
+      public Set<Integer> getRoleIds(int userIndex)
+      {
+         Set<Integer> rs = new HashSet<>();
+         for(int role : roleIndexesByUser[userIndex])
+         {
+            rs.add(roleIds[role]);
+         }
+         return (rs);
+      }
+
+
+
+      /*******************************************************************************
+       ** Get the number of users with the role at an index.
+       *******************************************************************************/
+      public int getUserCountForRole(int roleIndex)
+      {
+         int count = 0;
+         for(int[] roles : roleIndexesByUser)
+         {
+            if(Arrays.binarySearch(roles, roleIndex) >= 0)
+            {
+               count++;
+            }
+         }
+         return (count);
+      }
+   }
+
+}
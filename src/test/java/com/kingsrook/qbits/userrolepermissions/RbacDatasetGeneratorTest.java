@@ -0,0 +1,105 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for RbacDatasetGenerator
+ *******************************************************************************/
+class RbacDatasetGeneratorTest
+{
+
+   /*******************************************************************************
+    ** the same settings give the same dataset - and a different seed doesn't.
+    *******************************************************************************/
+   @Test
+   void testReproducible()
+   {
+      RbacDatasetGenerator.Dataset a = newGenerator().generate();
+      RbacDatasetGenerator.Dataset b = newGenerator().generate();
+      RbacDatasetGenerator.Dataset c = newGenerator().withSeed(48).generate();
+
+      boolean allSame = true;
+      for(int user = 0; user < a.getUserCount(); user++)
+      {
+         assertArrayEquals(a.getRoleIndexes(user), b.getRoleIndexes(user));
+         allSame &= Arrays.equals(a.getRoleIndexes(user), c.getRoleIndexes(user));
+      }
+      for(int role = 0; role < a.getRoleCount(); role++)
+      {
+         assertArrayEquals(a.getPermissionIndexes(role), b.getPermissionIndexes(role));
+      }
+      assertFalse(allSame);
+   }
+
+
+
+   /*******************************************************************************
+    ** assignments are distinct & sorted, and skewed:  the top-ranked role is
+    ** much bigger (in users and permissions) than the tail ones.
+    *******************************************************************************/
+   @Test
+   void testSkew()
+   {
+      RbacDatasetGenerator.Dataset dataset = newGenerator().generate();
+      assertEquals(10_000, dataset.getUserCount());
+      assertEquals(100, dataset.getRoleCount());
+      assertEquals(1_000, dataset.getPermissionCount());
+
+      for(int user = 0; user < dataset.getUserCount(); user++)
+      {
+         int[] roles = dataset.getRoleIndexes(user);
+         assertEquals(3, roles.length);
+         for(int i = 1; i < roles.length; i++)
+         {
+            assertTrue(roles[i] > roles[i - 1]);
+         }
+      }
+
+      assertEquals(200, dataset.getPermissionIndexes(0).length);
+      assertEquals(5, dataset.getPermissionIndexes(99).length);
+      assertTrue(dataset.getUserCountForRole(0) > 10 * dataset.getUserCountForRole(99));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static RbacDatasetGenerator newGenerator()
+   {
+      return (new RbacDatasetGenerator()
+         .withUserCount(10_000)
+         .withRoleCount(100)
+         .withPermissionCount(1_000)
+         .withMaxPermissionsPerRole(200));
+   }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions;
+
+
+import java.time.Duration;
+import java.util.List;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionVersion;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermissionLock;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qbits.userrolepermissions.utils.PermissionManager;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for UserRolePermissionsQBitProducer
+ *******************************************************************************/
+class UserRolePermissionsQBitProducerTest extends BaseTest
+{
+
+   /*******************************************************************************
+    ** the tables for the optional features are only provided when those
+    ** features are on.
+    *******************************************************************************/
+   @Test
+   void testOptionalFeatureTables() throws QException
+   {
+      QInstance qInstance = new QInstance();
+      new UserRolePermissionsQBitProducer()
+         .withUserRolePermissionsQBitConfig(new UserRolePermissionsQBitConfig())
+         .produce(qInstance);
+      assertNotNull(qInstance.getTable(UserRoleInt.TABLE_NAME));
+      assertNull(qInstance.getTable(PermissionChangeLog.TABLE_NAME));
+      assertNull(qInstance.getTable(PermissionVersion.TABLE_NAME));
+      assertNull(qInstance.getTable(UserEffectivePermission.TABLE_NAME));
+      assertNull(qInstance.getTable(UserEffectivePermissionLock.TABLE_NAME));
+
+      qInstance = new QInstance();
+      new UserRolePermissionsQBitProducer()
+         .withUserRolePermissionsQBitConfig(new UserRolePermissionsQBitConfig()
+            .withUseChangeLog(true)
+            .withChangeLogPollInterval(null)
+            .withNodeId("test-node")
+            .withUseMaterializedUserPermissions(true))
+         .produce(qInstance);
+      assertNotNull(qInstance.getTable(PermissionChangeLog.TABLE_NAME));
+      assertNotNull(qInstance.getTable(PermissionVersion.TABLE_NAME));
+      assertNotNull(qInstance.getTable(UserEffectivePermission.TABLE_NAME));
+      assertNotNull(qInstance.getTable(UserEffectivePermissionLock.TABLE_NAME));
+   }
+
+
+
+   /*******************************************************************************
+    ** producing the qbit doesn't start any threads - the manager's start does
+    ** (per the instance's config), and its stop stops them.
+    *******************************************************************************/
+   @Test
+   void testProduceStartsNothing() throws QException
+   {
+      QInstance qInstance = new QInstance();
+      new UserRolePermissionsQBitProducer()
+         .withUserRolePermissionsQBitConfig(new UserRolePermissionsQBitConfig()
+            .withUseChangeLog(true)
+            .withChangeLogPollInterval(Duration.ofHours(1))
+            .withNodeId("test-node"))
+         .produce(qInstance);
+      assertFalse(isThreadRunning("permission-change-log-poller"));
+
+      try
+      {
+         PermissionManager.getInstance().start(qInstance);
+         assertTrue(isThreadRunning("permission-change-log-poller"));
+      }
+      finally
+      {
+         PermissionManager.getInstance().stop();
+         PermissionManager.getInstance().configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** features the produced config turns on are reported as not started, until
+    ** the manager is started with that instance.
+    *******************************************************************************/
+   @Test
+   void testFeaturesNotStarted() throws QException
+   {
+      QInstance qInstance = new QInstance();
+      new UserRolePermissionsQBitProducer()
+         .withUserRolePermissionsQBitConfig(new UserRolePermissionsQBitConfig()
+            .withUseChangeLog(true)
+            .withChangeLogPollInterval(null)
+            .withNodeId("test-node")
+            .withUseMaterializedUserPermissions(true))
+         .produce(qInstance);
+
+      PermissionManager permissionManager = PermissionManager.getInstance();
+      assertEquals(List.of("useChangeLog", "useMaterializedUserPermissions"), permissionManager.getFeaturesNotStarted(qInstance));
+
+      try
+      {
+         permissionManager.start(qInstance);
+         assertEquals(List.of(), permissionManager.getFeaturesNotStarted(qInstance));
+      }
+      finally
+      {
+         permissionManager.stop();
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+
+      assertEquals(List.of(), permissionManager.getFeaturesNotStarted(new QInstance()));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static boolean isThreadRunning(String name)
+   {
+      return (Thread.getAllStackTraces().keySet().stream().anyMatch(t -> name.equals(t.getName()) && t.isAlive()));
+   }
+
+}
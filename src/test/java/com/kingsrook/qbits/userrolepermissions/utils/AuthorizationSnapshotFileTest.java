@@ -0,0 +1,325 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for AuthorizationSnapshotFile
+ *******************************************************************************/
+class AuthorizationSnapshotFileTest
+{
+
+   /*******************************************************************************
+    ** a snapshot read back (into a new dictionary) answers like the original.
+    *******************************************************************************/
+   @Test
+   void testRoundTrip() throws Exception
+   {
+      Path file = Files.createTempFile("authorization-snapshot", ".bin");
+      try
+      {
+         AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+         AuthorizationSnapshotFile.write(file, snapshot, 47);
+         assertEquals(Long.valueOf(47), AuthorizationSnapshotFile.readDatabaseVersion(file));
+
+         AuthorizationSnapshot read = AuthorizationSnapshotFile.read(file, new PermissionDictionary(), 3);
+         assertEquals(3, read.getVersion());
+         assertSameAnswers(snapshot, read);
+
+         //////////////////////////////////////////////////////////////
+         // the user arrays are read in place, from the file mapping //
+         //////////////////////////////////////////////////////////////
+         assertTrue(read.getUserIds().isDirect());
+         assertTrue(read.getUserRoleIds().isDirect());
+         assertTrue(read.getUserDirectIndexes().isDirect());
+         assertTrue(read.getRoleHolderUserIndexes().isDirect());
+
+         //////////////////////////////////////////////////////////////////
+         // role changes reach their holders through the (mapped) holder //
+         // index - including a user holding more than one changed role  //
+         //////////////////////////////////////////////////////////////////
+         AuthorizationSnapshot patched = read.withChanges(new PermissionDelta()
+            .withRemovedRolePermission(1, 101)
+            .withRemovedRolePermission(2, 103), 4);
+         assertEquals(0, patched.getUserOverrideCount());
+         assertEquals(Set.of("order.write", "report.run"), patched.getEffectivePermissionSetForUser(10).asNameSet());
+         assertEquals(Set.of("order.write"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+         assertEquals(Set.of("order.read", "order.write", "admin"), read.getEffectivePermissionSetForUser(11).asNameSet());
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** reading into a dictionary that already has other permissions (so
+    ** different indexes) remaps the bitmaps & direct grants.
+    *******************************************************************************/
+   @Test
+   void testReadIntoDifferentDictionary() throws Exception
+   {
+      Path file = Files.createTempFile("authorization-snapshot", ".bin");
+      try
+      {
+         AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+         AuthorizationSnapshotFile.write(file, snapshot, 1);
+
+         PermissionDictionary dictionary = new PermissionDictionary();
+         dictionary.intern("other.first");
+         dictionary.register(99, "other.second");
+
+         AuthorizationSnapshot read = AuthorizationSnapshotFile.read(file, dictionary, 1);
+         assertSameAnswers(snapshot, read);
+         assertEquals(1, dictionary.indexOfId(99));
+         assertTrue(dictionary.indexOfId(101) >= 2);
+
+         /////////////////////////////////////////////////////////////
+         // only the remapped direct indexes are copied to the heap //
+         /////////////////////////////////////////////////////////////
+         assertTrue(read.getUserRoleIds().isDirect());
+         assertFalse(read.getUserDirectIndexes().isDirect());
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** users patched into a snapshot (over its arrays) answer with their new
+    ** rows - without changing the original - and are written to the file.
+    *******************************************************************************/
+   @Test
+   void testPatchedUsers() throws Exception
+   {
+      Path file = Files.createTempFile("authorization-snapshot", ".bin");
+      try
+      {
+         AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+         AuthorizationSnapshot patched  = snapshot.withChanges(new PermissionDelta()
+            .withRemovedUserRole(11, 2)
+            .withAddedUserRole(12, 2)
+            .withAddedUserPermission(12, 101), 2);
+
+         assertEquals(2, patched.getUserOverrideCount());
+         assertEquals(3, patched.getUserCount());
+         assertEquals(Set.of("order.read", "order.write"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+         assertEquals(Set.of("admin", "order.read"), patched.getEffectivePermissionSetForUser(12).asNameSet());
+         assertEquals(Set.of(2), patched.getRoleIdsForUser(12));
+         assertEquals(Set.of("admin", "order.read", "order.write"), snapshot.getEffectivePermissionSetForUser(11).asNameSet());
+
+         AuthorizationSnapshotFile.write(file, patched, 1);
+         assertSameAnswers(patched, AuthorizationSnapshotFile.read(file, new PermissionDictionary(), 1));
+         assertSameAnswers(patched, patched.compact());
+         assertEquals(0, patched.compact().getUserOverrideCount());
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** role changes patched into a snapshot reach the roles' holders (in the
+    ** arrays, and patched users) - without changing the original; rows
+    ** re-read from the database replace the users' & roles' rows.
+    *******************************************************************************/
+   @Test
+   void testPatchedRoles()
+   {
+      PermissionDictionary  dictionary = new PermissionDictionary();
+      AuthorizationSnapshot snapshot   = buildSnapshot(dictionary);
+      AuthorizationSnapshot patched    = snapshot.withChanges(new PermissionDelta()
+         .withRemovedRolePermission(1, 102)
+         .withAddedRolePermission(3, 103)
+         .withAddedUserRole(12, 3), 2);
+
+      assertEquals(1, patched.getUserOverrideCount());
+      assertEquals(3, patched.getRoleCount());
+      assertEquals(Set.of("order.read", "report.run"), patched.getEffectivePermissionSetForUser(10).asNameSet());
+      assertEquals(Set.of("order.read", "admin"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("admin"), patched.getEffectivePermissionSetForUser(12).asNameSet());
+      assertEquals(Set.of("order.read", "order.write", "report.run"), snapshot.getEffectivePermissionSetForUser(10).asNameSet());
+      assertEquals(2, snapshot.getRoleCount());
+
+      AuthorizationSnapshot compacted = patched.compact();
+      for(int userId : List.of(10, 11, 12))
+      {
+         assertEquals(patched.getEffectivePermissionSetForUser(userId), compacted.getEffectivePermissionSetForUser(userId));
+      }
+
+      //////////////////////////////////////////////////////////////////
+      // role 2 re-read with no permissions is dropped - reaching its //
+      // holder (11), whose own rows were re-read too                 //
+      //////////////////////////////////////////////////////////////////
+      AuthorizationSnapshot reloaded = patched.withReloadedRows(Map.of(11, Set.of(2)), Map.of(), Map.of(2, Set.of()), 3);
+      assertEquals(2, reloaded.getRoleCount());
+      assertEquals(Set.of(2), reloaded.getRoleIdsForUser(11));
+      assertEquals(Set.of(), reloaded.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("admin"), reloaded.getEffectivePermissionSetForUser(12).asNameSet());
+      assertEquals(Set.of("order.read", "report.run"), reloaded.getEffectivePermissionSetForUser(10).asNameSet());
+   }
+
+
+
+   /*******************************************************************************
+    ** the builder takes pairs in any order, with duplicates - giving the same
+    ** snapshot as sorted, distinct pairs.
+    *******************************************************************************/
+   @Test
+   void testBuilderOrderAndDuplicates()
+   {
+      PermissionDictionary  dictionary = new PermissionDictionary();
+      AuthorizationSnapshot sorted     = buildSnapshot(dictionary);
+      AuthorizationSnapshot shuffled   = new AuthorizationSnapshot.Builder(dictionary)
+         .addUserPermission(10, dictionary.intern("report.run"))
+         .addUserRole(11, 2)
+         .addRolePermission(2, dictionary.indexOfId(103))
+         .addUserRole(11, 1)
+         .addRolePermission(1, dictionary.indexOfId(102))
+         .addUserRole(10, 1)
+         .addRolePermission(1, dictionary.indexOfId(101))
+         .addUserRole(11, 1)
+         .addRolePermission(1, dictionary.indexOfId(102))
+         .build(1);
+
+      assertSameAnswers(sorted, shuffled);
+      assertEquals(List.of(1, 2), shuffled.getRoleIdsForUser(11).stream().sorted().toList());
+   }
+
+
+
+   /*******************************************************************************
+    ** a corrupted body fails the CRC check; a file that isn't a snapshot file
+    ** has no version, and can't be read.
+    *******************************************************************************/
+   @Test
+   void testInvalidFiles() throws Exception
+   {
+      Path file = Files.createTempFile("authorization-snapshot", ".bin");
+      try
+      {
+         AuthorizationSnapshotFile.write(file, buildSnapshot(new PermissionDictionary()), 1);
+         try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+         {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), AuthorizationSnapshotFile.HEADER_LENGTH + 5);
+         }
+         assertThrows(QException.class, () -> AuthorizationSnapshotFile.read(file, new PermissionDictionary(), 1));
+
+         ///////////////////////////////////////////////////////////////////
+         // a truncated file fails, and writes leave no temp files behind //
+         ///////////////////////////////////////////////////////////////////
+         AuthorizationSnapshotFile.write(file, buildSnapshot(new PermissionDictionary()), 1);
+         try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+         {
+            channel.truncate(channel.size() - 1);
+         }
+         assertThrows(QException.class, () -> AuthorizationSnapshotFile.read(file, new PermissionDictionary(), 1));
+         try(Stream<Path> siblings = Files.list(file.getParent()))
+         {
+            assertEquals(0, siblings.filter(p -> p.getFileName().toString().startsWith(file.getFileName() + ".")).count());
+         }
+
+         Files.writeString(file, "not a snapshot");
+         assertNull(AuthorizationSnapshotFile.readDatabaseVersion(file));
+         assertThrows(QException.class, () -> AuthorizationSnapshotFile.read(file, new PermissionDictionary(), 1));
+
+         Files.delete(file);
+         assertNull(AuthorizationSnapshotFile.readDatabaseVersion(file));
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** two roles (one shared by both users), a direct grant, and a permission
+    ** only known by name.
+    ***************************************************************************/
+   private AuthorizationSnapshot buildSnapshot(PermissionDictionary dictionary)
+   {
+      int read   = dictionary.register(101, "order.read");
+      int write  = dictionary.register(102, "order.write");
+      int admin  = dictionary.register(103, "admin");
+      int byName = dictionary.intern("report.run");
+
+      return (new AuthorizationSnapshot.Builder(dictionary)
+         .addRolePermission(1, read)
+         .addRolePermission(1, write)
+         .addRolePermission(2, admin)
+         .addUserRole(10, 1)
+         .addUserRole(11, 1)
+         .addUserRole(11, 2)
+         .addUserPermission(10, byName)
+         .build(1));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void assertSameAnswers(AuthorizationSnapshot expected, AuthorizationSnapshot actual)
+   {
+      assertEquals(expected.getUserCount(), actual.getUserCount());
+      assertEquals(expected.getRoleCount(), actual.getRoleCount());
+      for(int userId : List.of(10, 11, 12))
+      {
+         assertEquals(expected.getEffectivePermissionSetForUser(userId).asNameSet(), actual.getEffectivePermissionSetForUser(userId).asNameSet());
+         assertEquals(expected.getRoleIdsForUser(userId), actual.getRoleIdsForUser(userId));
+      }
+      for(int roleId : List.of(1, 2, 3))
+      {
+         assertEquals(expected.getPermissionSetForRole(roleId).asNameSet(), actual.getPermissionSetForRole(roleId).asNameSet());
+      }
+      assertEquals(Set.of("order.read", "order.write", "report.run"), actual.getEffectivePermissionSetForUser(10).asNameSet());
+   }
+
+}
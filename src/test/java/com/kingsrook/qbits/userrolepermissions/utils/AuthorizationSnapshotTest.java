@@ -0,0 +1,226 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+/*******************************************************************************
+ ** Unit test for AuthorizationSnapshot - mostly its role-to-holders index.
+ *******************************************************************************/
+class AuthorizationSnapshotTest
+{
+   private static final List<Integer> USER_IDS = List.of(10, 11, 12, 13, 14);
+
+
+
+   /*******************************************************************************
+    ** the holder index lists, for each role held by anyone, the indexes (into
+    ** the user arrays) of its holders - roles with no holders aren't in it.
+    *******************************************************************************/
+   @Test
+   void testHolderIndex()
+   {
+      AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+
+      assertEquals(List.of(10, 11, 12, 13, 14), toList(snapshot.getUserIds()));
+      assertEquals(List.of(1, 2, 3), toList(snapshot.getRoleHolderRoleIds()));
+      assertEquals(List.of(0, 2, 4, 5), toList(snapshot.getRoleHolderOffsets()));
+      assertEquals(List.of(0, 1, 1, 2, 4), toList(snapshot.getRoleHolderUserIndexes()));
+      assertEquals(4, snapshot.getRoleCount());
+   }
+
+
+
+   /*******************************************************************************
+    ** a role change re-computes just that role's holders - everyone else keeps
+    ** the very same PermissionSet - without changing the original.
+    *******************************************************************************/
+   @Test
+   void testRoleChangeReachesOnlyItsHolders()
+   {
+      AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+      AuthorizationSnapshot patched  = snapshot.withChanges(new PermissionDelta().withAddedRolePermission(2, 104), 2);
+
+      assertEquals(0, patched.getUserOverrideCount());
+      assertEquals(Set.of("order.read", "order.write", "export"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("order.write", "export"), patched.getEffectivePermissionSetForUser(12).asNameSet());
+      assertEquals(Set.of("order.read", "order.write"), snapshot.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("order.write"), snapshot.getEffectivePermissionSetForUser(12).asNameSet());
+
+      for(int userId : List.of(10, 13, 14))
+      {
+         assertSame(snapshot.getEffectivePermissionSetForUser(userId), patched.getEffectivePermissionSetForUser(userId));
+      }
+      assertSameAnswers(patched, patched.toBuilder().build(2));
+   }
+
+
+
+   /*******************************************************************************
+    ** a user holding more than one changed role is re-computed (once) with
+    ** all of the changes - and holders left with equal sets share one.
+    *******************************************************************************/
+   @Test
+   void testUserHoldingSeveralChangedRoles()
+   {
+      AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+      AuthorizationSnapshot patched  = snapshot.withChanges(new PermissionDelta()
+         .withRemovedRolePermission(1, 101)
+         .withAddedRolePermission(2, 104), 2);
+
+      assertEquals(Set.of(), patched.getEffectivePermissionSetForUser(10).asNameSet());
+      assertEquals(Set.of("order.write", "export"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("order.write", "export"), patched.getEffectivePermissionSetForUser(12).asNameSet());
+      assertSame(patched.getEffectivePermissionSetForUser(11), patched.getEffectivePermissionSetForUser(12));
+      assertSame(snapshot.getEffectivePermissionSetForUser(14), patched.getEffectivePermissionSetForUser(14));
+
+      //////////////////////////////////////////////////////////
+      // role 1, left with no permissions, is dropped (as a   //
+      // load would drop it) - but its holders keep their row //
+      //////////////////////////////////////////////////////////
+      assertEquals(3, patched.getRoleCount());
+      assertEquals(Set.of(1, 2), patched.getRoleIdsForUser(11));
+      assertSameAnswers(patched, patched.toBuilder().build(2));
+   }
+
+
+
+   /*******************************************************************************
+    ** changes to roles no one holds (one with permissions, and a new one)
+    ** change the roles, but leave every user's PermissionSet as it was.
+    *******************************************************************************/
+   @Test
+   void testRoleWithNoHolders()
+   {
+      AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+      AuthorizationSnapshot patched  = snapshot.withChanges(new PermissionDelta()
+         .withAddedRolePermission(4, 101)
+         .withAddedRolePermission(5, 103), 2);
+
+      assertEquals(5, patched.getRoleCount());
+      assertEquals(Set.of("order.read", "export"), patched.getPermissionSetForRole(4).asNameSet());
+      assertEquals(Set.of("admin"), patched.getPermissionSetForRole(5).asNameSet());
+      for(int userId : USER_IDS)
+      {
+         assertSame(snapshot.getEffectivePermissionSetForUser(userId), patched.getEffectivePermissionSetForUser(userId));
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** after users' roles were patched (into overrides, over the arrays - so
+    ** the holder index still has their old rows), a role change reaches its
+    ** holders as they are now:  not a user who gave it up, and a user who
+    ** took it on.
+    *******************************************************************************/
+   @Test
+   void testRoleChangeAfterPatchedUsers()
+   {
+      AuthorizationSnapshot snapshot = buildSnapshot(new PermissionDictionary());
+      AuthorizationSnapshot patched  = snapshot
+         .withChanges(new PermissionDelta()
+            .withRemovedUserRole(11, 2)
+            .withAddedUserRole(13, 2), 2)
+         .withChanges(new PermissionDelta().withAddedRolePermission(2, 104), 3);
+
+      assertEquals(2, patched.getUserOverrideCount());
+      assertEquals(Set.of("order.read"), patched.getEffectivePermissionSetForUser(11).asNameSet());
+      assertEquals(Set.of("order.write", "export"), patched.getEffectivePermissionSetForUser(12).asNameSet());
+      assertEquals(Set.of("admin", "order.write", "export"), patched.getEffectivePermissionSetForUser(13).asNameSet());
+      assertSame(snapshot.getEffectivePermissionSetForUser(10), patched.getEffectivePermissionSetForUser(10));
+
+      AuthorizationSnapshot compacted = patched.compact();
+      assertEquals(0, compacted.getUserOverrideCount());
+      assertSameAnswers(patched, compacted);
+      assertEquals(List.of(1, 2, 3), toList(compacted.getRoleHolderRoleIds()));
+      assertEquals(List.of(0, 2, 4, 5), toList(compacted.getRoleHolderOffsets()));
+      assertEquals(List.of(0, 1, 2, 3, 4), toList(compacted.getRoleHolderUserIndexes()));
+   }
+
+
+
+   /***************************************************************************
+    ** four roles (role 4 held by no one), users holding one or two roles, and
+    ** a user with only a direct grant.
+    ***************************************************************************/
+   private AuthorizationSnapshot buildSnapshot(PermissionDictionary dictionary)
+   {
+      int read   = dictionary.register(101, "order.read");
+      int write  = dictionary.register(102, "order.write");
+      int admin  = dictionary.register(103, "admin");
+      int export = dictionary.register(104, "export");
+
+      return (new AuthorizationSnapshot.Builder(dictionary)
+         .addRolePermission(1, read)
+         .addRolePermission(2, write)
+         .addRolePermission(3, admin)
+         .addRolePermission(4, export)
+         .addUserRole(10, 1)
+         .addUserRole(11, 1)
+         .addUserRole(11, 2)
+         .addUserRole(12, 2)
+         .addUserPermission(13, admin)
+         .addUserRole(14, 3)
+         .build(1));
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void assertSameAnswers(AuthorizationSnapshot expected, AuthorizationSnapshot actual)
+   {
+      assertEquals(expected.getUserCount(), actual.getUserCount());
+      assertEquals(expected.getRoleCount(), actual.getRoleCount());
+      for(int userId : USER_IDS)
+      {
+         assertEquals(expected.getEffectivePermissionSetForUser(userId).asNameSet(), actual.getEffectivePermissionSetForUser(userId).asNameSet());
+         assertEquals(expected.getRoleIdsForUser(userId), actual.getRoleIdsForUser(userId));
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static List<Integer> toList(IntBuffer buffer)
+   {
+      List<Integer> rs = new ArrayList<>();
+      for(int i = 0; i < buffer.limit(); i++)
+      {
+         rs.add(buffer.get(i));
+      }
+      return (rs);
+   }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for FilePermissionInvalidationBus
+ *******************************************************************************/
+class FilePermissionInvalidationBusTest
+{
+
+   /*******************************************************************************
+    ** a message published by one bus is received by another on the same file.
+    *******************************************************************************/
+   @Test
+   void testPublishAndPoll() throws Exception
+   {
+      Path file = Files.createTempFile("permission-invalidation", ".log");
+      try
+      {
+         FilePermissionInvalidationBus       busA     = new FilePermissionInvalidationBus(file, null);
+         FilePermissionInvalidationBus       busB     = new FilePermissionInvalidationBus(file, null);
+         List<PermissionInvalidationMessage> received = new ArrayList<>();
+         busB.subscribe(received::add);
+
+         busA.publish(new PermissionInvalidationMessage().withSourceNodeId("node-a").withUserIds(Set.of(1, 2)).withRoleIds(Set.of(3)));
+         busA.publish(new PermissionInvalidationMessage().withSourceNodeId("node-a").withFlushAll(true));
+
+         assertEquals(2, busB.poll());
+         assertEquals(2, received.size());
+         assertEquals("node-a", received.get(0).getSourceNodeId());
+         assertFalse(received.get(0).getFlushAll());
+         assertEquals(Set.of(1, 2), received.get(0).getUserIds());
+         assertEquals(Set.of(3), received.get(0).getRoleIds());
+         assertTrue(received.get(1).getFlushAll());
+         assertTrue(received.get(1).getUserIds().isEmpty());
+
+         //////////////////////////////////////////////
+         // already-read messages aren't read again, //
+         // and a bus created later doesn't see them //
+         //////////////////////////////////////////////
+         assertEquals(0, busB.poll());
+         assertEquals(0, new FilePermissionInvalidationBus(file, null).poll());
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a partially-written line isn't consumed until it's complete - and a bad
+    ** line is skipped, without stopping the ones after it.
+    *******************************************************************************/
+   @Test
+   void testPartialAndBadLines() throws Exception
+   {
+      Path file = Files.createTempFile("permission-invalidation", ".log");
+      try
+      {
+         FilePermissionInvalidationBus       bus      = new FilePermissionInvalidationBus(file, null);
+         List<PermissionInvalidationMessage> received = new ArrayList<>();
+         bus.subscribe(received::add);
+
+         append(file, "node-a\t0\t1");
+         assertEquals(0, bus.poll());
+
+         append(file, ",2\t\nnot a message\n");
+         bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-b").withRoleIds(Set.of(4)));
+         assertEquals(2, bus.poll());
+         assertEquals(Set.of(1, 2), received.get(0).getUserIds());
+         assertEquals(Set.of(4), received.get(1).getRoleIds());
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a bus with a poll interval delivers messages on its own.
+    *******************************************************************************/
+   @Test
+   void testBackgroundPolling() throws Exception
+   {
+      Path file = Files.createTempFile("permission-invalidation", ".log");
+      FilePermissionInvalidationBus bus = new FilePermissionInvalidationBus(file, Duration.ofMillis(10));
+      try
+      {
+         List<PermissionInvalidationMessage> received = new CopyOnWriteArrayList<>();
+         bus.subscribe(received::add);
+         bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-a").withUserIds(Set.of(1)));
+
+         long deadline = System.currentTimeMillis() + 5000;
+         while(received.isEmpty() && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+         assertEquals(1, received.size());
+      }
+      finally
+      {
+         bus.close();
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** many threads publishing at once (through 2 buses on the same file, in
+    ** this one JVM) all get their messages written - none are dropped.
+    *******************************************************************************/
+   @Test
+   void testConcurrentPublishes() throws Exception
+   {
+      Path            file     = Files.createTempFile("permission-invalidation", ".log");
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try
+      {
+         FilePermissionInvalidationBus       busA     = new FilePermissionInvalidationBus(file, null);
+         FilePermissionInvalidationBus       busB     = new FilePermissionInvalidationBus(file, null);
+         FilePermissionInvalidationBus       reader   = new FilePermissionInvalidationBus(file, null);
+         List<PermissionInvalidationMessage> received = new ArrayList<>();
+         reader.subscribe(received::add);
+
+         CountDownLatch  start   = new CountDownLatch(1);
+         List<Future<?>> futures = new ArrayList<>();
+         for(int i = 0; i < 200; i++)
+         {
+            FilePermissionInvalidationBus bus    = i % 2 == 0 ? busA : busB;
+            int                           userId = i;
+            futures.add(executor.submit(() ->
+            {
+               start.await();
+               bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-a").withUserIds(Set.of(userId)));
+               return (null);
+            }));
+         }
+
+         start.countDown();
+         for(Future<?> future : futures)
+         {
+            future.get();
+         }
+
+         assertEquals(200, reader.poll());
+         assertEquals(200, received.stream().flatMap(m -> m.getUserIds().stream()).distinct().count());
+      }
+      finally
+      {
+         executor.shutdownNow();
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void append(Path file, String text) throws QException
+   {
+      try
+      {
+         Files.writeString(file, text, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+      }
+      catch(Exception e)
+      {
+         throw (new QException("Error appending to test file", e));
+      }
+   }
+
+}
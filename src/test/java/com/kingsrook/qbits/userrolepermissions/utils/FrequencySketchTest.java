@@ -0,0 +1,65 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/*******************************************************************************
+ ** Unit test for FrequencySketch
+ *******************************************************************************/
+class FrequencySketchTest
+{
+
+   /*******************************************************************************
+    ** low counts are exact; past them, increments are sampled - but a key read
+    ** often still saturates.
+    *******************************************************************************/
+   @Test
+   void testSampledIncrements()
+   {
+      FrequencySketch sketch = new FrequencySketch(1024);
+      assertEquals(0, sketch.frequency(1));
+
+      sketch.increment(2);
+      assertEquals(1, sketch.frequency(2));
+
+      for(int i = 0; i < 4; i++)
+      {
+         sketch.increment(1);
+      }
+      assertEquals(4, sketch.frequency(1));
+
+      /////////////////////////////////////////////////////////////////
+      // one in 8 of these is counted - so ~50, well past the 15 cap //
+      /////////////////////////////////////////////////////////////////
+      for(int i = 0; i < 400; i++)
+      {
+         sketch.increment(1);
+      }
+      assertEquals(15, sketch.frequency(1));
+      assertEquals(1, sketch.frequency(2));
+   }
+
+}
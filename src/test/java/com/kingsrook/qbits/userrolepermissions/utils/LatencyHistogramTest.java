@@ -0,0 +1,126 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for LatencyHistogram
+ *******************************************************************************/
+class LatencyHistogramTest
+{
+
+   /*******************************************************************************
+    ** every value lands in a bucket whose range holds it - and buckets are
+    ** no wider than 1/16th of their values.
+    *******************************************************************************/
+   @Test
+   void testBuckets()
+   {
+      for(long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 1_000_000, 123_456_789, Long.MAX_VALUE / 3, Long.MAX_VALUE })
+      {
+         int index = LatencyHistogram.bucketIndex(value);
+         assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+         assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+         assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+         assertTrue(LatencyHistogram.bucketUpperBound(index) - value <= value / 16);
+      }
+      assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.BUCKET_COUNT - 1));
+   }
+
+
+
+   /*******************************************************************************
+    ** percentiles, mean & max from recorded values - and reset.
+    *******************************************************************************/
+   @Test
+   void testPercentiles()
+   {
+      LatencyHistogram histogram = new LatencyHistogram("test");
+      assertEquals(0, histogram.snapshot().getPercentileNanos(50));
+
+      for(int i = 1; i <= 1000; i++)
+      {
+         histogram.record(i * 1_000_000L);
+      }
+
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+      assertEquals("test", snapshot.getName());
+      assertEquals(1000, snapshot.getCount());
+      assertEquals(500.5, snapshot.getMeanMillis(), 0.001);
+      assertEquals(1000, snapshot.getMaxMillis(), 0.001);
+      assertEquals(500, snapshot.getP50Millis(), 500 / 16.0);
+      assertEquals(990, snapshot.getP99Millis(), 990 / 16.0);
+      assertEquals(1000, snapshot.getP999Millis(), 0.001);
+
+      histogram.reset();
+      assertEquals(0, histogram.snapshot().getCount());
+      assertEquals(0, histogram.snapshot().getMaxMillis());
+   }
+
+
+
+   /*******************************************************************************
+    ** records from many threads at once are all counted.
+    *******************************************************************************/
+   @Test
+   void testConcurrentRecords() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram("test");
+      ExecutorService  executor  = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<?>> futures = new ArrayList<>();
+         for(int t = 0; t < 8; t++)
+         {
+            futures.add(executor.submit(() ->
+            {
+               for(int i = 0; i < 10_000; i++)
+               {
+                  histogram.record(i);
+               }
+            }));
+         }
+         for(Future<?> future : futures)
+         {
+            future.get();
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+
+      assertEquals(80_000, histogram.snapshot().getCount());
+      assertEquals(9_999, histogram.snapshot().getMaxMillis() * 1_000_000, 0.001);
+   }
+
+}
@@ -0,0 +1,714 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import com.kingsrook.qbits.userrolepermissions.PermissionCacheConfig;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for PermissionCache
+ *******************************************************************************/
+class PermissionCacheTest
+{
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testUnboundedCacheMemoizes()
+   {
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", new PermissionCacheConfig(), v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+
+      for(int i = 0; i < 3; i++)
+      {
+         assertEquals("1", cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow());
+      }
+      assertEquals(1, loadCount.get());
+
+      cache.clearKey(1);
+      assertEquals("2", cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow());
+
+      cache.clear();
+      assertEquals(0, cache.size());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testGetIfPresent()
+   {
+      PermissionCache<Integer, String> cache = new PermissionCache<>("test", new PermissionCacheConfig(), v -> 1);
+      assertNull(cache.getIfPresent(1));
+
+      cache.put(1, "one");
+      assertEquals("one", cache.getIfPresent(1));
+
+      cache.clearKey(1);
+      assertNull(cache.getIfPresent(1));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testTimeout() throws InterruptedException
+   {
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", new PermissionCacheConfig().withTimeout(Duration.ofMillis(5)), v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+
+      cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet()));
+      Thread.sleep(10);
+      cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet()));
+      assertEquals(2, loadCount.get());
+
+      Thread.sleep(10);
+      cache.sweepExpired();
+      assertEquals(0, cache.size());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testMaxEntries()
+   {
+      PermissionCache<Integer, String> cache = new PermissionCache<>("test", new PermissionCacheConfig().withMaxEntries(10), v -> 1);
+      for(int i = 0; i < 1000; i++)
+      {
+         cache.getResultThrowing(i, String::valueOf);
+      }
+      assertTrue(cache.size() <= 10, "Size should be bounded, but was " + cache.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** replacing the same keys over and over, while under the limit, shouldn't
+    ** grow the eviction queue without bound.
+    *******************************************************************************/
+   @Test
+   void testEvictionQueueStaysBounded()
+   {
+      PermissionCache<Integer, String> cache = new PermissionCache<>("test", new PermissionCacheConfig().withMaxEntries(100), v -> 1);
+      for(int i = 0; i < 100_000; i++)
+      {
+         cache.put(i % 10, String.valueOf(i));
+      }
+      assertEquals(10, cache.size());
+      assertTrue(cache.getEvictionQueueLength() <= 2 * 10 + 64 + 1, "Queue should be bounded, but was " + cache.getEvictionQueueLength());
+
+      cache.clear();
+      assertEquals(0, cache.getEvictionQueueLength());
+   }
+
+
+
+   /*******************************************************************************
+    ** a key that is read often should survive a flood of one-time keys.
+    *******************************************************************************/
+   @Test
+   void testFrequentKeySurvivesScan()
+   {
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", new PermissionCacheConfig().withMaxEntries(10), v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+
+      for(int i = 0; i < 1000; i++)
+      {
+         cache.getResultThrowing(-1, k -> String.valueOf(loadCount.incrementAndGet()));
+         cache.getResultThrowing(i, String::valueOf);
+      }
+      assertEquals(1, loadCount.get());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testPinnedKey()
+   {
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", new PermissionCacheConfig().withMaxEntries(5), v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+      cache.pin(-1);
+
+      cache.getResultThrowing(-1, k -> String.valueOf(loadCount.incrementAndGet()));
+      for(int i = 0; i < 1000; i++)
+      {
+         /////////////////////////////////////////////////////////////////////
+         // read these several times, to make them "hotter" than the pinned //
+         /////////////////////////////////////////////////////////////////////
+         for(int j = 0; j < 3; j++)
+         {
+            cache.getResultThrowing(i, String::valueOf);
+         }
+      }
+
+      cache.getResultThrowing(-1, k -> String.valueOf(loadCount.incrementAndGet()));
+      assertEquals(1, loadCount.get());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testMaxWeight()
+   {
+      PermissionCache<Integer, String> cache = new PermissionCache<>("test", new PermissionCacheConfig().withMaxWeight(100L), v -> v.length());
+      for(int i = 0; i < 1000; i++)
+      {
+         cache.getResultThrowing(i, k -> "0123456789");
+      }
+      assertTrue(cache.getTotalWeight() <= 100, "Weight should be bounded, but was " + cache.getTotalWeight());
+      assertTrue(cache.size() <= 10, "Size should be bounded, but was " + cache.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** concurrent misses for one key should run the lookup once, and all get
+    ** its result.
+    *******************************************************************************/
+   @Test
+   void testSingleFlightLoading() throws Exception
+   {
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", new PermissionCacheConfig(), v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+      CountDownLatch                   started   = new CountDownLatch(1);
+      CountDownLatch                   release   = new CountDownLatch(1);
+      ExecutorService                  executor  = Executors.newFixedThreadPool(20);
+
+      try
+      {
+         List<Future<String>> futures = new ArrayList<>();
+         futures.add(executor.submit(() -> cache.getResultThrowing(1, k ->
+         {
+            started.countDown();
+            release.await();
+            return (String.valueOf(loadCount.incrementAndGet()));
+         }).orElseThrow()));
+
+         started.await();
+         for(int i = 0; i < 19; i++)
+         {
+            futures.add(executor.submit(() -> cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow()));
+         }
+
+         //////////////////////////////////////////////////////////
+         // give the waiters a moment to find the in-flight load //
+         //////////////////////////////////////////////////////////
+         Thread.sleep(50);
+         release.countDown();
+
+         for(Future<String> future : futures)
+         {
+            assertEquals("1", future.get());
+         }
+         assertEquals(1, loadCount.get());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** concurrent misses right after a generation change, while a load from the
+    ** old generation is still in flight, should share one new load - and not
+    ** the old one's result.
+    *******************************************************************************/
+   @Test
+   void testSingleFlightLoadingAfterGenerationChange() throws Exception
+   {
+      AtomicInteger                    generation = new AtomicInteger(0);
+      PermissionCache<Integer, String> cache      = new PermissionCache<Integer, String>("test", new PermissionCacheConfig(), v -> 1)
+         .withGenerationFunction(k -> generation.get());
+      AtomicInteger                    loadCount  = new AtomicInteger(0);
+      CountDownLatch                   oldStarted = new CountDownLatch(1);
+      CountDownLatch                   newStarted = new CountDownLatch(1);
+      CountDownLatch                   release    = new CountDownLatch(1);
+      ExecutorService                  executor   = Executors.newFixedThreadPool(20);
+
+      try
+      {
+         Future<String> oldLoad = executor.submit(() -> cache.getResultThrowing(1, k ->
+         {
+            loadCount.incrementAndGet();
+            oldStarted.countDown();
+            release.await();
+            return ("old");
+         }).orElseThrow());
+         oldStarted.await();
+
+         generation.incrementAndGet();
+         List<Future<String>> futures = new ArrayList<>();
+         futures.add(executor.submit(() -> cache.getResultThrowing(1, k ->
+         {
+            loadCount.incrementAndGet();
+            newStarted.countDown();
+            release.await();
+            return ("new");
+         }).orElseThrow()));
+         newStarted.await();
+
+         for(int i = 0; i < 18; i++)
+         {
+            futures.add(executor.submit(() -> cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow()));
+         }
+
+         //////////////////////////////////////////////////////////
+         // give the waiters a moment to find the in-flight load //
+         //////////////////////////////////////////////////////////
+         Thread.sleep(50);
+         release.countDown();
+
+         assertEquals("old", oldLoad.get());
+         for(Future<String> future : futures)
+         {
+            assertEquals("new", future.get());
+         }
+         assertEquals(2, loadCount.get());
+         assertEquals("new", cache.getIfPresent(1));
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a failed load should throw for its waiters too - and not be cached.
+    *******************************************************************************/
+   @Test
+   void testSingleFlightLoadFailure() throws Exception
+   {
+      PermissionCache<Integer, String> cache    = new PermissionCache<>("test", new PermissionCacheConfig(), v -> 1);
+      CountDownLatch                   started  = new CountDownLatch(1);
+      CountDownLatch                   release  = new CountDownLatch(1);
+      ExecutorService                  executor = Executors.newFixedThreadPool(2);
+
+      try
+      {
+         Future<Optional<String>> loader = executor.submit(() -> cache.getResultThrowing(1, k ->
+         {
+            started.countDown();
+            release.await();
+            throw (new IllegalStateException("boom"));
+         }));
+
+         started.await();
+         Future<Optional<String>> waiter = executor.submit(() -> cache.getResultThrowing(1, k -> "not used"));
+         Thread.sleep(50);
+         release.countDown();
+
+         assertThrows(ExecutionException.class, loader::get);
+         ExecutionException waiterException = assertThrows(ExecutionException.class, waiter::get);
+         assertInstanceOf(IllegalStateException.class, waiterException.getCause());
+
+         assertEquals("ok", cache.getResultThrowing(1, k -> "ok").orElseThrow());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a put while a load of the key is in flight should win - the load's
+    ** (older) result goes to its callers, but isn't cached over the put.
+    *******************************************************************************/
+   @Test
+   void testPutDuringLoad() throws Exception
+   {
+      PermissionCache<Integer, String> cache    = new PermissionCache<>("test", new PermissionCacheConfig(), v -> 1);
+      CountDownLatch                   started  = new CountDownLatch(1);
+      CountDownLatch                   release  = new CountDownLatch(1);
+      ExecutorService                  executor = Executors.newFixedThreadPool(1);
+
+      try
+      {
+         Future<Optional<String>> loader = executor.submit(() -> cache.getResultThrowing(1, k ->
+         {
+            started.countDown();
+            release.await();
+            return ("loaded");
+         }));
+
+         started.await();
+         cache.put(1, "put");
+         release.countDown();
+
+         assertEquals("loaded", loader.get().orElseThrow());
+         assertEquals("put", cache.getIfPresent(1));
+         assertEquals("put", cache.getResultThrowing(1, k -> "not used").orElseThrow());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** an entry read late in its life should be refreshed in the background,
+    ** while the current value is returned.
+    *******************************************************************************/
+   @Test
+   void testRefreshAhead() throws InterruptedException
+   {
+      PermissionCacheConfig            config    = new PermissionCacheConfig().withTimeout(Duration.ofMillis(500)).withRefreshAheadFraction(0.2);
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", config, v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+
+      assertEquals("1", cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow());
+      Thread.sleep(150);
+      assertEquals("1", cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow());
+
+      waitFor(() -> "2".equals(cache.getIfPresent(1)));
+      assertEquals(2, loadCount.get());
+   }
+
+
+
+   /*******************************************************************************
+    ** an expired entry, in its stale-while-revalidate window, should be
+    ** returned while it's re-loaded in the background.
+    *******************************************************************************/
+   @Test
+   void testStaleWhileRevalidate() throws InterruptedException
+   {
+      PermissionCacheConfig            config    = new PermissionCacheConfig().withTimeout(Duration.ofMillis(10)).withStaleWhileRevalidate(Duration.ofMinutes(1));
+      PermissionCache<Integer, String> cache     = new PermissionCache<>("test", config, v -> 1);
+      AtomicInteger                    loadCount = new AtomicInteger(0);
+
+      cache.withLoader(k -> String.valueOf(loadCount.incrementAndGet()));
+      assertEquals("1", cache.getResultThrowing(1, k -> String.valueOf(loadCount.incrementAndGet())).orElseThrow());
+      Thread.sleep(20);
+
+      ////////////////////////////////////////////////////////////////
+      // getIfPresent uses the cache's loader to revalidate the key //
+      ////////////////////////////////////////////////////////////////
+      assertEquals("1", cache.getIfPresent(1));
+      waitFor(() -> loadCount.get() == 2);
+
+      ///////////////////////////////////////////////////////
+      // without a loader, getIfPresent can't revalidate - //
+      // so it doesn't return expired entries              //
+      ///////////////////////////////////////////////////////
+      PermissionCache<Integer, String> noLoaderCache = new PermissionCache<>("test", config, v -> 1);
+      noLoaderCache.put(1, "one");
+      Thread.sleep(20);
+      assertNull(noLoaderCache.getIfPresent(1));
+   }
+
+
+
+   /*******************************************************************************
+    ** entries loaded together shouldn't all expire together.
+    *******************************************************************************/
+   @Test
+   void testExpiryJitter() throws InterruptedException
+   {
+      PermissionCacheConfig            config = new PermissionCacheConfig().withTimeout(Duration.ofMillis(10)).withExpiryJitter(Duration.ofMinutes(1));
+      PermissionCache<Integer, String> cache  = new PermissionCache<>("test", config, v -> 1);
+      for(int i = 0; i < 100; i++)
+      {
+         cache.put(i, String.valueOf(i));
+      }
+
+      Thread.sleep(50);
+      int present = 0;
+      for(int i = 0; i < 100; i++)
+      {
+         present += cache.getIfPresent(i) == null ? 0 : 1;
+      }
+      assertTrue(present > 90, "Most entries should still be present, but only " + present + " were");
+   }
+
+
+
+   /*******************************************************************************
+    ** entries from an old generation are misses - and a value that was loaded
+    ** while the generation changed isn't cached.
+    *******************************************************************************/
+   @Test
+   void testGenerationFunction()
+   {
+      AtomicInteger                    generation = new AtomicInteger(0);
+      AtomicInteger                    loads      = new AtomicInteger(0);
+      PermissionCache<Integer, String> cache      = new PermissionCache<Integer, String>("test", new PermissionCacheConfig(), v -> 1)
+         .withGenerationFunction(key -> key == 3 ? PermissionCache.NO_GENERATION : key == 2 ? 100 + generation.get() : generation.get());
+
+      assertEquals(Optional.of("1"), cache.getResultThrowing(1, k -> String.valueOf(loads.incrementAndGet())));
+      assertEquals(Optional.of("1"), cache.getResultThrowing(1, k -> String.valueOf(loads.incrementAndGet())));
+      assertEquals("1", cache.getIfPresent(1));
+
+      generation.incrementAndGet();
+      assertNull(cache.getIfPresent(1));
+      assertEquals(Optional.of("2"), cache.getResultThrowing(1, k -> String.valueOf(loads.incrementAndGet())));
+      assertEquals("2", cache.getIfPresent(1));
+
+      /////////////////////////////////////////////////////////////
+      // bump the generation during a load - its result is still //
+      // returned, but not cached                                //
+      /////////////////////////////////////////////////////////////
+      assertEquals(Optional.of("x"), cache.getResultThrowing(2, k ->
+      {
+         generation.incrementAndGet();
+         return ("x");
+      }));
+      assertNull(cache.getIfPresent(2));
+
+      cache.put(2, "y");
+      assertEquals("y", cache.getIfPresent(2));
+
+      //////////////////////////////////////////////////////////////////
+      // a put as of an old generation (e.g., from a bulk load that a //
+      // flush landed in the middle of) is ignored                    //
+      //////////////////////////////////////////////////////////////////
+      long oldGeneration = 100 + generation.get();
+      generation.incrementAndGet();
+      cache.put(2, "stale", oldGeneration);
+      assertNull(cache.getIfPresent(2));
+      cache.put(2, "y", 100 + generation.get());
+      assertEquals("y", cache.getIfPresent(2));
+
+      ////////////////////////////////////////////////////////
+      // a key whose generation isn't known is never cached //
+      ////////////////////////////////////////////////////////
+      assertEquals(Optional.of("z"), cache.getResultThrowing(3, k -> "z"));
+      cache.put(3, "z");
+      assertNull(cache.getIfPresent(3));
+
+      //////////////////////////////////////////////////////
+      // the sweeper drops entries from an old generation //
+      //////////////////////////////////////////////////////
+      generation.incrementAndGet();
+      cache.sweepExpired();
+      assertEquals(0, cache.size());
+   }
+
+
+
+   /***************************************************************************
+    ** wait (up to a few seconds) for a condition to become true.
+    ***************************************************************************/
+   private static void waitFor(BooleanSupplier condition) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 5000;
+      while(!condition.getAsBoolean())
+      {
+         assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition");
+         Thread.sleep(5);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with an entry generation function, cached entries are checked by their
+    ** value (while loads are still stamped by key).
+    *******************************************************************************/
+   @Test
+   void testEntryGenerationFunction()
+   {
+      AtomicInteger                    generation = new AtomicInteger(0);
+      AtomicInteger                    keyLookups = new AtomicInteger(0);
+      PermissionCache<Integer, String> cache      = new PermissionCache<Integer, String>("test", new PermissionCacheConfig(), v -> 1)
+         .withGenerationFunction(key ->
+         {
+            keyLookups.incrementAndGet();
+            return (generation.get());
+         })
+         .withEntryGenerationFunction((key, value) -> value.startsWith("old") ? 0 : generation.get());
+
+      assertEquals(Optional.of("a"), cache.getResultThrowing(1, k -> "a"));
+      int keyLookupsAfterLoad = keyLookups.get();
+      assertEquals("a", cache.getIfPresent(1));
+      assertEquals(keyLookupsAfterLoad, keyLookups.get());
+
+      generation.incrementAndGet();
+      assertNull(cache.getIfPresent(1));
+
+      ////////////////////////////////////////////////////////////////////
+      // a value whose own generation doesn't match its load's (stamped //
+      // by key) isn't cached - but a put of a current one is           //
+      ////////////////////////////////////////////////////////////////////
+      assertEquals(Optional.of("old-b"), cache.getResultThrowing(2, k -> "old-b"));
+      assertNull(cache.getIfPresent(2));
+      cache.put(2, "b");
+      assertEquals("b", cache.getIfPresent(2));
+   }
+
+
+
+   /*******************************************************************************
+    ** peek returns usable entries, without counting hits or misses.
+    *******************************************************************************/
+   @Test
+   void testPeek()
+   {
+      AtomicInteger                    generation = new AtomicInteger(0);
+      PermissionCache<Integer, String> cache      = new PermissionCache<Integer, String>("test", new PermissionCacheConfig(), v -> 1)
+         .withGenerationFunction(key -> generation.get());
+      PermissionCacheStats             stats      = cache.getStats();
+
+      assertNull(cache.peek(1));
+      cache.put(1, "one");
+      assertEquals("one", cache.peek(1));
+      assertEquals(0, stats.getHitCount());
+      assertEquals(0, stats.getMissCount());
+
+      generation.incrementAndGet();
+      assertNull(cache.peek(1));
+      assertEquals(0, stats.getMissCount());
+   }
+
+
+
+   /*******************************************************************************
+    ** replace only swaps in a value if the entry is still the one it was built
+    ** from, and the given generation is still current - so, of two writers
+    ** that patched the same entry, the second doesn't undo the first.
+    *******************************************************************************/
+   @Test
+   void testReplace()
+   {
+      AtomicInteger                    generation = new AtomicInteger(0);
+      PermissionCache<Integer, String> cache      = new PermissionCache<Integer, String>("test", new PermissionCacheConfig(), v -> 1)
+         .withGenerationFunction(key -> generation.get());
+
+      String one = "one";
+      assertFalse(cache.replace(1, one, "uno", generation.get()));
+      assertNull(cache.getIfPresent(1));
+
+      cache.put(1, one);
+      generation.incrementAndGet();
+      assertTrue(cache.replace(1, one, "uno", generation.get()));
+      assertEquals("uno", cache.getIfPresent(1));
+
+      ///////////////////////////////////////////////////////////////
+      // the entry was already replaced - so a second writer's swap //
+      // (from the same old value) fails                           //
+      ///////////////////////////////////////////////////////////////
+      assertFalse(cache.replace(1, one, "eins", generation.get()));
+      assertEquals("uno", cache.getIfPresent(1));
+
+      ///////////////////////////////////////////////////////////////////
+      // a generation taken before another bump isn't current any more //
+      ///////////////////////////////////////////////////////////////////
+      String uno           = cache.peek(1);
+      long   oldGeneration = generation.getAndIncrement();
+      assertFalse(cache.replace(1, uno, "un", oldGeneration));
+   }
+
+
+
+   /*******************************************************************************
+    ** hits, misses, loads (and failures), evictions, expirations, and
+    ** invalidations are counted - and can be reset.
+    *******************************************************************************/
+   @Test
+   void testStats() throws InterruptedException
+   {
+      PermissionCache<Integer, String> cache = new PermissionCache<>("test", new PermissionCacheConfig().withMaxEntries(2), v -> 1);
+      PermissionCacheStats             stats = cache.getStats();
+
+      cache.getResultThrowing(1, String::valueOf);
+      cache.getResultThrowing(1, String::valueOf);
+      assertEquals(1, stats.getHitCount());
+      assertEquals(1, stats.getMissCount());
+      assertEquals(1, stats.getLoadCount());
+      assertEquals(0.5, stats.getHitRate());
+
+      assertThrows(IllegalStateException.class, () -> cache.getResultThrowing(2, k ->
+      {
+         throw (new IllegalStateException());
+      }));
+      assertEquals(1, stats.getLoadFailureCount());
+      assertTrue(stats.getAverageLoadMillis() >= 0);
+
+      /////////////////////////////////////////////////////////////
+      // filling past the limit evicts; clearing is invalidation //
+      /////////////////////////////////////////////////////////////
+      for(int i = 10; i < 20; i++)
+      {
+         cache.put(i, "v");
+      }
+      assertTrue(stats.getEvictionCount() > 0);
+
+      int size = cache.size();
+      cache.clear();
+      assertEquals(size, stats.getInvalidationCount());
+
+      stats.reset();
+      assertEquals(0, stats.getMissCount());
+      assertEquals(0, stats.getEvictionCount());
+      assertEquals(0, stats.getHitRate());
+
+      ////////////////////////////////////////////
+      // the sweeper's removals are expirations //
+      ////////////////////////////////////////////
+      PermissionCache<Integer, String> expiringCache = new PermissionCache<>("test", new PermissionCacheConfig().withTimeout(Duration.ofMillis(1)), v -> 1);
+      expiringCache.put(1, "one");
+      Thread.sleep(5);
+      expiringCache.sweepExpired();
+      assertEquals(1, expiringCache.getStats().getExpirationCount());
+   }
+
+}
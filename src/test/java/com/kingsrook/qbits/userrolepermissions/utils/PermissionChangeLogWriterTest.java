@@ -0,0 +1,71 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for PermissionChangeLogWriter
+ *******************************************************************************/
+class PermissionChangeLogWriterTest
+{
+
+   /*******************************************************************************
+    ** ids are joined in sorted order, and split into chunks that fit the
+    ** change log's columns - without losing (or splitting) any.
+    *******************************************************************************/
+   @Test
+   void testJoinInChunks()
+   {
+      assertEquals(List.of(), PermissionChangeLogWriter.joinInChunks(Set.of()));
+      assertEquals(List.of("1,2,30"), PermissionChangeLogWriter.joinInChunks(Set.of(30, 2, 1)));
+
+      Set<Integer> ids = new HashSet<>();
+      for(int i = 0; i < 5000; i++)
+      {
+         ids.add(1_000_000 + i);
+      }
+
+      List<String> chunks = PermissionChangeLogWriter.joinInChunks(ids);
+      assertTrue(chunks.size() > 1);
+
+      Set<Integer> rejoined = new HashSet<>();
+      for(String chunk : chunks)
+      {
+         assertTrue(chunk.length() <= PermissionChangeLog.MAX_IDS_LENGTH);
+         for(String id : chunk.split(","))
+         {
+            rejoined.add(Integer.parseInt(id));
+         }
+      }
+      assertEquals(ids, rejoined);
+   }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import com.kingsrook.qbits.userrolepermissions.PermissionCacheConfig;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for the permission JFR events (PermissionLoadEvent,
+ ** PermissionCacheLoadEvent, PermissionInvalidationEvent, PermissionHookEvent)
+ *******************************************************************************/
+class PermissionEventsTest
+{
+
+   /*******************************************************************************
+    ** with the events enabled in a recording, each one is committed, with its
+    ** fields.
+    *******************************************************************************/
+   @Test
+   void testEventsRecorded() throws Exception
+   {
+      Path file = Files.createTempFile("permissionEvents", ".jfr");
+      try(Recording recording = new Recording())
+      {
+         for(String name : List.of(PermissionLoadEvent.NAME, PermissionCacheLoadEvent.NAME, PermissionInvalidationEvent.NAME, PermissionHookEvent.NAME))
+         {
+            recording.enable(name).withThreshold(Duration.ZERO);
+         }
+         recording.start();
+
+         PermissionCache<Integer, String> cache = new PermissionCache<>("eventsTest", new PermissionCacheConfig(), v -> 1);
+         assertEquals("1", cache.getResultThrowing(1, String::valueOf).orElseThrow());
+         assertEquals("1", cache.getResultThrowing(1, String::valueOf).orElseThrow());
+
+         PermissionLoadEvent loadEvent = PermissionLoadEvent.start("load.test");
+         assertTrue(loadEvent.finish(47, 3, null) >= 0);
+
+         PermissionInvalidationEvent.emit("delta", "node-1", false, 2, 5);
+
+         PermissionHookEvent hookEvent = PermissionHookEvent.start("userRoleInt", "postInsert", 4);
+         assertTrue(hookEvent.finish() >= 0);
+
+         recording.stop();
+         recording.dump(file);
+      }
+
+      try
+      {
+         List<RecordedEvent> events = new ArrayList<>(RecordingFile.readAllEvents(file));
+
+         ///////////////////////////////////////////////////////
+         // only the miss (not the hit) is a cache load event //
+         ///////////////////////////////////////////////////////
+         List<RecordedEvent> cacheLoads = eventsNamed(events, PermissionCacheLoadEvent.NAME).stream().filter(e -> "eventsTest".equals(e.getString("cache"))).toList();
+         assertEquals(1, cacheLoads.size());
+         assertEquals("1", cacheLoads.get(0).getString("key"));
+         assertTrue(cacheLoads.get(0).getBoolean("succeeded"));
+
+         List<RecordedEvent> loads = eventsNamed(events, PermissionLoadEvent.NAME);
+         assertEquals(1, loads.size());
+         assertEquals("load.test", loads.get(0).getString("load"));
+         assertEquals("47", loads.get(0).getString("key"));
+         assertEquals(3, loads.get(0).getInt("rows"));
+         assertEquals(-1, loads.get(0).getInt("roles"));
+
+         List<RecordedEvent> invalidations = eventsNamed(events, PermissionInvalidationEvent.NAME);
+         assertEquals(1, invalidations.size());
+         assertEquals("delta", invalidations.get(0).getString("source"));
+         assertEquals("node-1", invalidations.get(0).getString("sourceNodeId"));
+         assertFalse(invalidations.get(0).getBoolean("flushAll"));
+         assertEquals(2, invalidations.get(0).getInt("userCount"));
+         assertEquals(5, invalidations.get(0).getInt("roleCount"));
+
+         List<RecordedEvent> hooks = eventsNamed(events, PermissionHookEvent.NAME);
+         assertEquals(1, hooks.size());
+         assertEquals("userRoleInt", hooks.get(0).getString("table"));
+         assertEquals("postInsert", hooks.get(0).getString("hook"));
+         assertEquals(4, hooks.get(0).getInt("recordCount"));
+      }
+      finally
+      {
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with no recording, events aren't committed - but finish still times.
+    *******************************************************************************/
+   @Test
+   void testDisabled()
+   {
+      PermissionLoadEvent event = PermissionLoadEvent.start("load.test");
+      assertFalse(event.shouldCommit());
+      assertTrue(event.finish(1, 0, 0) >= 0);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static List<RecordedEvent> eventsNamed(List<RecordedEvent> events, String name)
+   {
+      return (events.stream().filter(e -> name.equals(e.getEventType().getName())).toList());
+   }
+
+}
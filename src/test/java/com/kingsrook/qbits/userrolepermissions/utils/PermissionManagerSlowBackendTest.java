@@ -0,0 +1,258 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.kingsrook.qbits.userrolepermissions.LatencyInjector;
+import com.kingsrook.qbits.userrolepermissions.PerformanceTestInstance;
+import com.kingsrook.qbits.userrolepermissions.PermissionCacheConfig;
+import com.kingsrook.qbits.userrolepermissions.RbacDatasetGenerator;
+import com.kingsrook.qbits.userrolepermissions.UserRolePermissionsQBitConfig;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.exceptions.QException;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import com.kingsrook.qqq.backend.core.modules.backend.implementations.memory.MemoryRecordStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Tests of PermissionManager over a slow (and failing) database - the Memory
+ ** backend, with LatencyInjector on the permission tables.
+ *******************************************************************************/
+class PermissionManagerSlowBackendTest
+{
+   private static final Duration LATENCY = Duration.ofMillis(100);
+
+   private final LatencyInjector latencyInjector = LatencyInjector.getInstance();
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @AfterEach
+   void afterEach()
+   {
+      latencyInjector.reset();
+      PermissionManager.getInstance().flushAllCache();
+      MemoryRecordStore.fullReset();
+      QContext.clear();
+   }
+
+
+
+   /*******************************************************************************
+    ** many threads missing on the same user at once (after a flush) make the
+    ** same queries as one thread does - one at a time, not a stampede.
+    *******************************************************************************/
+   @Test
+   void testConcurrentMissesDontStampede() throws Exception
+   {
+      QInstance                    qInstance         = PerformanceTestInstance.define(PerformanceTestInstance.MEMORY, new UserRolePermissionsQBitConfig(), true);
+      RbacDatasetGenerator.Dataset dataset           = insertDataset();
+      PermissionManager            permissionManager = PermissionManager.getInstance();
+      Integer                      userId            = dataset.getUserId(0);
+
+      permissionManager.flushAllCache();
+      latencyInjector.withLatency(LATENCY).resetCounters();
+      permissionManager.getEffectivePermissionSetForUser(userId);
+      long singleReaderOperations = latencyInjector.getOperationCount();
+      assertTrue(singleReaderOperations > 0);
+
+      permissionManager.flushAllCache();
+      latencyInjector.resetCounters();
+
+      int             threads  = 16;
+      CountDownLatch  start    = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<PermissionSet>> futures = new ArrayList<>();
+         for(int thread = 0; thread < threads; thread++)
+         {
+            futures.add(executor.submit(() ->
+            {
+               QContext.init(qInstance, new QSession());
+               try
+               {
+                  start.await();
+                  return (permissionManager.getEffectivePermissionSetForUser(userId));
+               }
+               finally
+               {
+                  QContext.clear();
+               }
+            }));
+         }
+         start.countDown();
+
+         PermissionSet first = futures.get(0).get();
+         for(Future<PermissionSet> future : futures)
+         {
+            assertEquals(first, future.get());
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+
+      assertEquals(singleReaderOperations, latencyInjector.getOperationCount());
+      assertEquals(1, latencyInjector.getMaxInFlight());
+   }
+
+
+
+   /*******************************************************************************
+    ** a failed load isn't cached - the next read, once the database is back,
+    ** loads.
+    *******************************************************************************/
+   @Test
+   void testFailedLoadsArentCached() throws Exception
+   {
+      PerformanceTestInstance.define(PerformanceTestInstance.MEMORY, new UserRolePermissionsQBitConfig(), true);
+      RbacDatasetGenerator.Dataset dataset           = insertDataset();
+      PermissionManager            permissionManager = PermissionManager.getInstance();
+      Integer                      userId            = dataset.getUserId(0);
+
+      permissionManager.flushAllCache();
+      latencyInjector.withFailureRate(1.0);
+      assertThrows(QException.class, () -> permissionManager.getEffectivePermissionSetForUser(userId));
+      assertTrue(latencyInjector.getFailureCount() > 0);
+
+      latencyInjector.withFailureRate(0);
+      assertTrue(permissionManager.getEffectivePermissionSetForUser(userId).size() > 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** with stale-while-revalidate, a read of an expired entry returns it at
+    ** once (rather than waiting on the slow database), and the entry is
+    ** refreshed in the background.
+    *******************************************************************************/
+   @Test
+   void testStaleServedWhileRevalidating() throws Exception
+   {
+      PermissionCacheConfig cacheConfig = new PermissionCacheConfig()
+         .withTimeout(Duration.ofMillis(200))
+         .withStaleWhileRevalidate(Duration.ofMinutes(1));
+      PerformanceTestInstance.define(PerformanceTestInstance.MEMORY, new UserRolePermissionsQBitConfig()
+         .withUserPermissionsCacheConfig(cacheConfig)
+         .withRolePermissionsCacheConfig(cacheConfig)
+         .withUserRoleIdsCacheConfig(cacheConfig), true);
+      RbacDatasetGenerator.Dataset dataset           = insertDataset();
+      PermissionManager            permissionManager = PermissionManager.getInstance();
+      Integer                      userId            = dataset.getUserId(0);
+
+      permissionManager.flushAllCache();
+      PermissionSet permissionSet = permissionManager.getEffectivePermissionSetForUser(userId);
+      Thread.sleep(300);
+
+      latencyInjector.withLatency(Duration.ofMillis(500)).resetCounters();
+      long start = System.nanoTime();
+      assertEquals(permissionSet, permissionManager.getEffectivePermissionSetForUser(userId));
+      assertTrue(System.nanoTime() - start < Duration.ofMillis(250).toNanos());
+
+      ////////////////////////////////////////////////////
+      // the background refresh still hits the database //
+      ////////////////////////////////////////////////////
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while(latencyInjector.getOperationCount() == 0 && System.nanoTime() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertTrue(latencyInjector.getOperationCount() > 0);
+   }
+
+
+
+   /*******************************************************************************
+    ** a write to userRoleInt, for a role whose permissions are cached, updates
+    ** the user's cached entry without any permission queries - so slow reads
+    ** don't add to writes, and the next read doesn't go to the database.
+    *******************************************************************************/
+   @Test
+   void testCustomizerWriteThroughMakesNoPermissionQueries() throws Exception
+   {
+      PerformanceTestInstance.define(PerformanceTestInstance.MEMORY, new UserRolePermissionsQBitConfig(), true);
+      RbacDatasetGenerator.Dataset dataset           = insertDataset();
+      PermissionManager            permissionManager = PermissionManager.getInstance();
+      Integer                      userId            = dataset.getUserId(0);
+
+      /////////////////////////////////////////////////////////////////
+      // a role the user doesn't have - from the tail of the ranking //
+      /////////////////////////////////////////////////////////////////
+      int roleIndex = dataset.getRoleCount() - 1;
+      while(Arrays.binarySearch(dataset.getRoleIndexes(0), roleIndex) >= 0)
+      {
+         roleIndex--;
+      }
+      Integer roleId         = dataset.getRoleId(roleIndex);
+      String  permissionName = RbacDatasetGenerator.Dataset.getPermissionName(dataset.getPermissionIndexes(roleIndex)[0]);
+
+      permissionManager.flushAllCache();
+      permissionManager.getEffectivePermissionSetForUser(userId);
+      permissionManager.getPermissionSetForRole(roleId);
+
+      latencyInjector.withLatency(LATENCY).resetCounters();
+      new InsertAction().execute(new InsertInput(UserRoleInt.TABLE_NAME).withRecordEntity(new UserRoleInt().withUserId(userId).withRoleId(roleId)));
+      assertEquals(0, latencyInjector.getOperationCount(RolePermissionInt.TABLE_NAME, "query"));
+
+      long operationsAfterWrite = latencyInjector.getOperationCount();
+      assertTrue(permissionManager.hasPermission(userId, permissionName));
+      assertEquals(operationsAfterWrite, latencyInjector.getOperationCount());
+   }
+
+
+
+   /***************************************************************************
+    ** a small, skewed dataset - inserted without injected latency.
+    ***************************************************************************/
+   private static RbacDatasetGenerator.Dataset insertDataset() throws QException
+   {
+      return (new RbacDatasetGenerator()
+         .withUserCount(100)
+         .withRoleCount(10)
+         .withPermissionCount(50)
+         .withMaxPermissionsPerRole(20)
+         .insert());
+   }
+
+}
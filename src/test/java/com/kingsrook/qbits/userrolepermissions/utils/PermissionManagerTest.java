@@ -22,29 +22,62 @@
 package com.kingsrook.qbits.userrolepermissions.utils;
 
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 import com.kingsrook.qbits.userrolepermissions.BaseTest;
+import com.kingsrook.qbits.userrolepermissions.UserRolePermissionsQBitConfig;
+import com.kingsrook.qbits.userrolepermissions.customizers.RolePermissionIntCustomizer;
 import com.kingsrook.qbits.userrolepermissions.model.Permission;
+import com.kingsrook.qbits.userrolepermissions.model.PermissionChangeLog;
 import com.kingsrook.qbits.userrolepermissions.model.Role;
 import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
 import com.kingsrook.qbits.userrolepermissions.model.User;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermission;
+import com.kingsrook.qbits.userrolepermissions.model.UserEffectivePermissionLock;
 import com.kingsrook.qbits.userrolepermissions.model.UserPermissionInt;
 import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.QBackendTransaction;
 import com.kingsrook.qqq.backend.core.actions.tables.DeleteAction;
 import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.actions.tables.QueryAction;
 import com.kingsrook.qqq.backend.core.actions.tables.UpdateAction;
+import com.kingsrook.qqq.backend.core.context.QContext;
 import com.kingsrook.qqq.backend.core.exceptions.QException;
 import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
 import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QCriteriaOperator;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QFilterCriteria;
+import com.kingsrook.qqq.backend.core.model.actions.tables.query.QQueryFilter;
 import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
 import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import com.kingsrook.qqq.backend.core.model.statusmessages.BadInputStatusMessage;
 import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /*******************************************************************************
@@ -76,6 +109,110 @@ class PermissionManagerTest extends BaseTest
       assertEquals(Set.of(), permissionManager.getEffectivePermissionsForUser(null));
       assertEquals(Set.of(), permissionManager.getEffectivePermissionsForRoles(null));
       assertEquals(Set.of(), permissionManager.getEffectivePermissionsForRoles(Collections.emptySet()));
+      assertEquals(Set.of(), permissionManager.getRoleIdsForUser(null));
+
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseAuthorizationSnapshot(true));
+      try
+      {
+         assertEquals(Set.of(), permissionManager.getRoleIdsForUser(null));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** null ids in a flush are skipped - the others are still flushed.
+    *******************************************************************************/
+   @Test
+   void testFlushWithNullIds() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+
+      ////////////////////////////////////////////////////////////////
+      // put a change in the cache that isn't in the db, then flush //
+      ////////////////////////////////////////////////////////////////
+      permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+      permissionManager.flushCacheForUpdatedUserIds(Arrays.asList(null, userId));
+      permissionManager.flushCacheForUpdatedRoleIds(Arrays.asList(null, roleIdA));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+
+      permissionManager.flushCacheForUpdatedUserIds(Collections.singletonList(null));
+   }
+
+
+
+   /*******************************************************************************
+    ** a null user id has no permissions or roles, and is skipped in bulk reads,
+    ** deltas, and flushes - with and without the authorization snapshot.
+    *******************************************************************************/
+   @Test
+   void testNullUserIds() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+      ////////////////////////////////////////////////////////////
+      // a pair with a null user id has no one to change, or to //
+      // flush - so its delta is empty                          //
+      ////////////////////////////////////////////////////////////
+      assertTrue(PermissionDelta.forInsertedRecords(UserRoleInt.TABLE_NAME, List.of(new QRecord().withValue("roleId", roleIdA))).isEmpty());
+      assertTrue(PermissionDelta.forDeletedRecords(UserPermissionInt.TABLE_NAME, List.of(new QRecord().withValue("permissionId", permissionMap.get("a")))).isEmpty());
+      assertTrue(new PermissionDelta().withAddedUserRole(null, roleIdA).withRemovedUserPermission(null, permissionMap.get("a")).isEmpty());
+
+      for(boolean useAuthorizationSnapshot : List.of(false, true))
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig().withUseAuthorizationSnapshot(useAuthorizationSnapshot));
+         try
+         {
+            PermissionHandle a = permissionManager.resolvePermission("a");
+            assertTrue(permissionManager.getEffectivePermissionSetForUser(null).isEmpty());
+            assertEquals(Set.of(), permissionManager.getEffectivePermissionsForUser(null));
+            assertEquals(Set.of(), permissionManager.getRoleIdsForUser(null));
+            assertFalse(permissionManager.hasPermission(null, a));
+            assertFalse(permissionManager.hasAnyPermission(null, "a"));
+            assertFalse(permissionManager.hasAnyPermission(null, List.of("a")));
+            assertFalse(permissionManager.hasAnyPermission(null, a));
+            assertFalse(permissionManager.hasAllPermissions(null, "a"));
+            assertFalse(permissionManager.hasAllPermissions(null, List.of("a")));
+            assertFalse(permissionManager.hasAllPermissions(null, a));
+
+            assertEquals(Map.of(userId, Set.of("a")), permissionManager.getEffectivePermissionsForUsers(Arrays.asList(null, userId)));
+            assertEquals(Map.of(), permissionManager.getEffectivePermissionSetsForUsers(Collections.singletonList(null)));
+
+            ////////////////////////////////////////////////////////////
+            // a delta mixing null & real user ids applies the real   //
+            // ones; a flush of only nulls leaves the cache as it was //
+            ////////////////////////////////////////////////////////////
+            permissionManager.applyDelta(new PermissionDelta()
+               .withAddedUserPermission(null, permissionMap.get("c"))
+               .withAddedUserPermission(userId, permissionMap.get("b")));
+            assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId));
+
+            permissionManager.flushCacheForUpdatedUserIds(Arrays.asList(null, null));
+            assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId));
+            assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+         }
+         finally
+         {
+            permissionManager.configure(new UserRolePermissionsQBitConfig());
+         }
+      }
    }
 
 
@@ -317,6 +454,1456 @@ class PermissionManagerTest extends BaseTest
 
 
 
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testHasPermission() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleId        = insertRole("Test 1");
+      insertUserRoleInt(userId, roleId);
+      insertRolePermissionInt(roleId, permissionMap.get("a"));
+      insertUserPermissionInt(userId, permissionMap.get("b"));
+
+      PermissionHandle a       = permissionManager.resolvePermission("a");
+      PermissionHandle c       = permissionManager.resolvePermission("c");
+      PermissionHandle unknown = permissionManager.resolvePermission("not-a-permission");
+
+      assertTrue(permissionManager.hasPermission(userId, "a"));
+      assertTrue(permissionManager.hasPermission(userId, "b"));
+      assertFalse(permissionManager.hasPermission(userId, "c"));
+      assertFalse(permissionManager.hasPermission(userId, "not-a-permission"));
+      assertFalse(permissionManager.hasPermission(null, "a"));
+      assertFalse(permissionManager.hasPermission(userId, (String) null));
+
+      assertTrue(permissionManager.hasPermission(userId, a));
+      assertFalse(permissionManager.hasPermission(userId, c));
+      assertFalse(permissionManager.hasPermission(userId, unknown));
+
+      assertTrue(permissionManager.hasAnyPermission(userId, "c", "b"));
+      assertFalse(permissionManager.hasAnyPermission(userId, "c", "not-a-permission"));
+      assertTrue(permissionManager.hasAnyPermission(userId, List.of("c", "a")));
+      assertTrue(permissionManager.hasAnyPermission(userId, c, a));
+      assertFalse(permissionManager.hasAnyPermission(userId, c, unknown));
+
+      assertTrue(permissionManager.hasAllPermissions(userId, "a", "b"));
+      assertFalse(permissionManager.hasAllPermissions(userId, "a", "b", "c"));
+      assertTrue(permissionManager.hasAllPermissions(userId, List.of("a", "b")));
+      assertFalse(permissionManager.hasAllPermissions(userId, a, c));
+
+      ////////////////////////////////////////////////////////////////
+      // handles resolved before a permission is granted still work //
+      ////////////////////////////////////////////////////////////////
+      insertRolePermissionInt(roleId, permissionMap.get("c"));
+      assertTrue(permissionManager.hasPermission(userId, c));
+      assertTrue(permissionManager.hasAllPermissions(userId, a, c));
+   }
+
+
+
+   /*******************************************************************************
+    ** a renamed permission is seen under its new name after a flush of all
+    ** caches (which makes the dictionary re-read the names of its ids).
+    *******************************************************************************/
+   @Test
+   void testRenamedPermission() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      insertUserPermissionInt(userId, permissionMap.get("a"));
+      assertTrue(permissionManager.hasPermission(userId, "a"));
+
+      new UpdateAction().execute(new UpdateInput(Permission.TABLE_NAME).withRecord(new Permission()
+         .withId(permissionMap.get("a")).withName("renamed").toQRecordOnlyChangedFields(true)));
+      permissionManager.flushAllCache();
+      assertFalse(permissionManager.hasPermission(userId, "a"));
+      assertTrue(permissionManager.hasPermission(userId, "renamed"));
+   }
+
+
+
+   /*******************************************************************************
+    ** with the snapshot enabled, lookups come from it - and writes (through
+    ** the customizers' flushes) get a new snapshot swapped in.
+    *******************************************************************************/
+   @Test
+   void testAuthorizationSnapshot() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseAuthorizationSnapshot(true));
+
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId1       = insertUser("test1");
+      Integer              userId2       = insertUser("test2");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+
+      insertUserRoleInt(userId1, roleIdA);
+      insertUserRoleInt(userId2, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      Integer userPermissionIntId = insertUserPermissionInt(userId2, permissionMap.get("b"));
+
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId1));
+      assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId1));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA, roleIdB)));
+      assertTrue(permissionManager.hasPermission(userId2, "b"));
+      assertFalse(permissionManager.hasPermission(userId1, "b"));
+
+      /////////////////////////////////////////////////////////////////////
+      // without writes, the same snapshot is reused.  a user's write is //
+      // patched in over the same arrays; a rebuild folds it into them - //
+      // where users with the same roles & grants share one set          //
+      /////////////////////////////////////////////////////////////////////
+      AuthorizationSnapshot snapshot = permissionManager.getAuthorizationSnapshot();
+      assertSame(snapshot, permissionManager.getAuthorizationSnapshot());
+      Integer userId3 = insertUser("test3");
+      insertUserRoleInt(userId3, roleIdA);
+      snapshot = permissionManager.getAuthorizationSnapshot();
+      assertEquals(1, snapshot.getUserOverrideCount());
+      assertEquals(3, snapshot.getUserCount());
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId3));
+
+      permissionManager.reloadAuthorizationSnapshot();
+      snapshot = permissionManager.getAuthorizationSnapshot();
+      assertEquals(0, snapshot.getUserOverrideCount());
+      assertSame(snapshot.getEffectivePermissionSetForUser(userId1), snapshot.getEffectivePermissionSetForUser(userId3));
+
+      /////////////////////////////////////////////////////////////////////
+      // writes are reflected on next reads - a role's is patched in too //
+      // (reaching its holders), without a rebuild                       //
+      /////////////////////////////////////////////////////////////////////
+      insertRolePermissionInt(roleIdB, permissionMap.get("c"));
+      insertUserRoleInt(userId1, roleIdB);
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId1));
+      assertTrue(permissionManager.getAuthorizationSnapshot().getVersion() > snapshot.getVersion());
+      assertEquals(2, permissionManager.getAuthorizationSnapshot().getRoleCount());
+
+      insertRolePermissionInt(roleIdA, permissionMap.get("c"));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId3));
+      assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertEquals(1, permissionManager.getAuthorizationSnapshot().getUserOverrideCount());
+
+      ///////////////////////////////////////////////////////////////////////
+      // a flush of a role or user (e.g., from another node) re-reads just //
+      // their rows - the patched user stays patched, so no rebuild ran    //
+      ///////////////////////////////////////////////////////////////////////
+      snapshot = permissionManager.getAuthorizationSnapshot();
+      permissionManager.flushCacheForUpdatedRoleIds(Set.of(roleIdA));
+      permissionManager.flushCacheForUpdatedUserIds(Set.of(userId2));
+      assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertTrue(permissionManager.getAuthorizationSnapshot().getVersion() > snapshot.getVersion());
+      assertEquals(2, permissionManager.getAuthorizationSnapshot().getUserOverrideCount());
+
+      permissionManager.flushAllCache();
+      assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertEquals(0, permissionManager.getAuthorizationSnapshot().getUserOverrideCount());
+
+      new DeleteAction().execute(new DeleteInput(UserPermissionInt.TABLE_NAME).withPrimaryKey(userPermissionIntId));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertEquals(Set.of(), permissionManager.getEffectivePermissionsForUser(-1));
+   }
+
+
+
+   /*******************************************************************************
+    ** deltas are written through to cached entries - so applying one that
+    ** doesn't match the database shows that no re-query happened.
+    *******************************************************************************/
+   @Test
+   void testApplyDeltaWritesThrough() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+      assertEquals(Set.of("b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdB)));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+      assertThrows(UnsupportedOperationException.class, () -> permissionManager.getRoleIdsForUser(userId).add(roleIdB));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+
+      //////////////////////////////////////////////////////////////////////
+      // additions are applied to the cached user (and role set) in place //
+      //////////////////////////////////////////////////////////////////////
+      permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+      permissionManager.applyDelta(new PermissionDelta().withAddedUserRole(userId, roleIdB));
+      assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+      assertEquals(Set.of(roleIdA, roleIdB), permissionManager.getRoleIdsForUser(userId));
+
+      permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdB, permissionMap.get("a")));
+      assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdB)));
+
+      //////////////////////////////////////////////////////////////////////
+      // removals are certain too - a role's set is patched in place, and //
+      // a user's is re-composed from their roles' sets and direct grants //
+      //////////////////////////////////////////////////////////////////////
+      permissionManager.applyDelta(new PermissionDelta().withRemovedRolePermission(roleIdB, permissionMap.get("b")));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdB)));
+
+      permissionManager.applyDelta(new PermissionDelta().withRemovedUserPermission(userId, permissionMap.get("c")));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+   }
+
+
+
+   /*******************************************************************************
+    ** deltas from writes in a transaction are only written through once it
+    ** commits - and are dropped if it rolls back.
+    *******************************************************************************/
+   @Test
+   void testDeltasInTransactionWaitForCommit() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+      ///////////////////////////////////////////////////////////////////
+      // these deltas aren't in the db - so reads show whether they've //
+      // been written through, or the entry was re-loaded.             //
+      ///////////////////////////////////////////////////////////////////
+      QBackendTransaction rolledBack = new QBackendTransaction();
+      permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("b")), rolledBack);
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+      permissionManager.afterRollback(rolledBack);
+      permissionManager.afterCommit(rolledBack);
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+      QBackendTransaction committed = new QBackendTransaction();
+      permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")), committed);
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+      permissionManager.afterCommit(committed);
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+   }
+
+
+
+   /*******************************************************************************
+    ** records a write reported errors for don't go into its delta.
+    *******************************************************************************/
+   @Test
+   void testRecordsWithErrorsAreNotInDeltas()
+   {
+      QRecord failed    = new QRecord().withValue("userId", 1).withValue("roleId", 2).withError(new BadInputStatusMessage("Duplicate"));
+      QRecord succeeded = new QRecord().withValue("userId", 1).withValue("roleId", 3);
+
+      assertTrue(PermissionDelta.forInsertedRecords(UserRoleInt.TABLE_NAME, List.of(failed)).isEmpty());
+      assertTrue(PermissionDelta.forDeletedRecords(UserRoleInt.TABLE_NAME, List.of(failed)).isEmpty());
+      assertTrue(PermissionDelta.forUpdatedRecords(UserRoleInt.TABLE_NAME, List.of(failed), Optional.empty()).isEmpty());
+      assertEquals(Map.of(1, Set.of(3)), PermissionDelta.forInsertedRecords(UserRoleInt.TABLE_NAME, List.of(failed, succeeded)).getAddedRoleIdsByUserId());
+   }
+
+
+
+   /*******************************************************************************
+    ** an update from a record with a null foreign key flushes what it can't
+    ** describe (rather than failing), and still adds its new pair.
+    *******************************************************************************/
+   @Test
+   void testUpdateFromNullForeignKey()
+   {
+      QRecord oldRecord = new QRecord().withValue("id", 5).withValue("userId", 1).withValue("roleId", null);
+      QRecord record    = new QRecord().withValue("id", 5).withValue("roleId", 3);
+
+      PermissionDelta delta = PermissionDelta.forUpdatedRecords(UserRoleInt.TABLE_NAME, List.of(record), Optional.of(List.of(oldRecord)));
+      assertEquals(Set.of(1), delta.getUserIdsToFlush());
+      assertEquals(Map.of(1, Set.of(3)), delta.getAddedRoleIdsByUserId());
+      assertTrue(PermissionDelta.forUpdatedRecords(UserRoleInt.TABLE_NAME, null, null).isEmpty());
+   }
+
+
+
+   /*******************************************************************************
+    ** a partial update without its old record can't say whose entries it
+    ** changed - so its delta flushes everything.
+    *******************************************************************************/
+   @Test
+   void testPartialUpdateWithoutOldRecord() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              roleIdA       = insertRole("Test A");
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdA, permissionMap.get("b"));
+      assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA)));
+
+      QRecord rolePermissionInt = QueryAction.execute(RolePermissionInt.TABLE_NAME, new QQueryFilter(new QFilterCriteria("permissionId", QCriteriaOperator.EQUALS, permissionMap.get("b")))).get(0);
+      QRecord record            = new QRecord().withValue("id", rolePermissionInt.getValueInteger("id")).withValue("permissionId", permissionMap.get("c"));
+      new UpdateAction().execute(new UpdateInput(RolePermissionInt.TABLE_NAME).withRecord(record));
+
+      PermissionDelta delta = PermissionDelta.forUpdatedRecords(RolePermissionInt.TABLE_NAME, List.of(record), Optional.empty());
+      assertTrue(delta.getFlushAll());
+      assertTrue(PermissionInvalidationMessage.forDelta("node", delta).getFlushAll());
+
+      permissionManager.applyDelta(delta);
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA)));
+
+      //////////////////////////////////////////////////////////////
+      // an update of neither id field doesn't change permissions //
+      //////////////////////////////////////////////////////////////
+      QRecord other = new QRecord().withValue("id", rolePermissionInt.getValueInteger("id")).withValue("modifyDate", null);
+      assertTrue(PermissionDelta.forUpdatedRecords(RolePermissionInt.TABLE_NAME, List.of(other), Optional.empty()).isEmpty());
+   }
+
+
+
+   /*******************************************************************************
+    ** if QQQ gives an update no old records, the customizer fetches them before
+    ** the update - so its delta is exact, rather than a flush of everything
+    ** (which would leave the materialized table incomplete).
+    *******************************************************************************/
+   @Test
+   void testPreUpdateFetchesOldRecords() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseMaterializedUserPermissions(true));
+      permissionManager.startMaterializedUserPermissions();
+
+      try
+      {
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         Integer rolePermissionIntId = insertRolePermissionInt(roleIdA, permissionMap.get("b"));
+
+         QRecord                     record      = new QRecord().withValue("id", rolePermissionIntId).withValue("permissionId", permissionMap.get("c"));
+         UpdateInput                 updateInput = new UpdateInput(RolePermissionInt.TABLE_NAME).withRecord(record);
+         RolePermissionIntCustomizer customizer  = new RolePermissionIntCustomizer();
+         customizer.preUpdate(updateInput, List.of(record), false, Optional.empty());
+         new UpdateAction().execute(new UpdateInput(RolePermissionInt.TABLE_NAME).withRecord(record));
+         customizer.postUpdate(updateInput, List.of(record), Optional.empty());
+
+         assertTrue(permissionManager.isReadingMaterializedUserPermissions());
+         assertEquals(Set.of(permissionMap.get("c") + ":" + roleIdA), getMaterializedRows(userId));
+         assertEquals(Set.of("c"), permissionManager.getEffectivePermissionsForUser(userId));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** many threads reading (and flushing) at once should all get correct
+    ** answers, without errors.
+    *******************************************************************************/
+   @Test
+   void testConcurrentReadsAndFlushes() throws Exception
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+
+      QInstance       qInstance = QContext.getQInstance();
+      ExecutorService executor  = Executors.newFixedThreadPool(16);
+      try
+      {
+         List<Future<?>> futures = new ArrayList<>();
+         for(int thread = 0; thread < 16; thread++)
+         {
+            futures.add(executor.submit(() ->
+            {
+               QContext.init(qInstance, new QSession());
+               try
+               {
+                  for(int i = 0; i < 100; i++)
+                  {
+                     assertTrue(permissionManager.hasPermission(userId, "a"));
+                     assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForRoles(new HashSet<>(Set.of(roleIdA, roleIdB))));
+                     assertEquals(Set.of("b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdB)));
+                     if(i % 10 == 0)
+                     {
+                        permissionManager.flushCacheForUpdatedRoleIds(Set.of(roleIdA));
+                        permissionManager.flushCacheForUpdatedUserIds(Set.of(userId));
+                     }
+                  }
+               }
+               finally
+               {
+                  QContext.clear();
+               }
+               return (null);
+            }));
+         }
+
+         for(Future<?> future : futures)
+         {
+            future.get();
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** two deltas for the same user, applied at once (one taking a role away,
+    ** the other adding one), must not undo each other - whichever order they
+    ** land in, the user ends up without the removed role, or its permission.
+    *******************************************************************************/
+   @Test
+   void testConcurrentAddAndRemoveDeltas() throws Exception
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+      Integer              roleIdC       = insertRole("Test C");
+      insertUserRoleInt(userId, roleIdA);
+      insertUserRoleInt(userId, roleIdC);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+      insertRolePermissionInt(roleIdC, permissionMap.get("c"));
+
+      QInstance       qInstance = QContext.getQInstance();
+      ExecutorService executor  = Executors.newFixedThreadPool(2);
+      try
+      {
+         for(int i = 0; i < 500; i++)
+         {
+            ///////////////////////////////////////////////////////////////////
+            // the db has the end state (roles A & C) - so, start the cached //
+            // user at roles A & B, with a (not-in-the-db) delta, and then   //
+            // race the two deltas that take them to the end state.          //
+            ///////////////////////////////////////////////////////////////////
+            assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA, roleIdB, roleIdC)));
+            assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+            permissionManager.applyDelta(new PermissionDelta().withRemovedUserRole(userId, roleIdC).withAddedUserRole(userId, roleIdB));
+            assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId));
+
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<?> removal = executor.submit(() -> applyDeltaAfterBarrier(qInstance, barrier, new PermissionDelta().withRemovedUserRole(userId, roleIdB)));
+            Future<?> addition = executor.submit(() -> applyDeltaAfterBarrier(qInstance, barrier, new PermissionDelta().withAddedUserRole(userId, roleIdC)));
+            removal.get();
+            addition.get();
+
+            assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+            assertFalse(permissionManager.hasPermission(userId, "b"));
+            assertEquals(Set.of(roleIdA, roleIdC), permissionManager.getRoleIdsForUser(userId));
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private Void applyDeltaAfterBarrier(QInstance qInstance, CyclicBarrier barrier, PermissionDelta delta) throws Exception
+   {
+      QContext.init(qInstance, new QSession());
+      try
+      {
+         barrier.await();
+         permissionManager.applyDelta(delta);
+      }
+      finally
+      {
+         QContext.clear();
+      }
+      return (null);
+   }
+
+
+
+   /*******************************************************************************
+    ** sets of roles are composed from the single roles' cached sets - so a
+    ** combination that hasn't been asked for before shows a (not-in-the-db)
+    ** change applied to one of its cached roles, without a query.
+    *******************************************************************************/
+   @Test
+   void testRoleSetsComposedFromPerRoleSets() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+      Integer              roleIdC       = insertRole("Test C");
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+
+      assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA, roleIdB, roleIdC)));
+
+      permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdC, permissionMap.get("c")));
+      assertEquals(Set.of("b", "c"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdB, roleIdC)));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA, roleIdC)));
+      assertEquals(Set.of("c"), permissionManager.getPermissionSetForRole(roleIdC).asNameSet());
+
+      /////////////////////////////////////////////////////////////
+      // flushing the role re-loads it (and only it) from the db //
+      /////////////////////////////////////////////////////////////
+      permissionManager.flushCacheForUpdatedRoleIds(Set.of(roleIdC));
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA, roleIdC)));
+      assertEquals(Set.of(), permissionManager.getPermissionSetForRole(roleIdC).asNameSet());
+   }
+
+
+
+   /*******************************************************************************
+    ** a user's permissions are built from their (cached) roles' sets - so a
+    ** not-in-the-db change applied to a cached role shows up for a user who
+    ** wasn't cached yet, while direct grants still come from the db.
+    *******************************************************************************/
+   @Test
+   void testUserPermissionsComposedFromCachedRoles() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertUserPermissionInt(userId, permissionMap.get("b"));
+
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA)));
+      permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdA, permissionMap.get("c")));
+
+      assertEquals(Set.of("a", "b", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+      assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+   }
+
+
+
+   /*******************************************************************************
+    ** a change to a role's permissions reaches the cached users who hold it,
+    ** without being told who they are (their entries carry the role's
+    ** version) - shown by applying a (not-in-the-db) delta.
+    *******************************************************************************/
+   @Test
+   void testRoleChangesReachHoldersWithoutLookup() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId1       = insertUser("test1");
+      Integer              userId2       = insertUser("test2");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+      insertUserRoleInt(userId1, roleIdA);
+      insertUserRoleInt(userId2, roleIdB);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+
+      assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId1));
+      assertEquals(Set.of("b"), permissionManager.getEffectivePermissionsForUser(userId2));
+
+      permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdA, permissionMap.get("c")));
+      assertTrue(permissionManager.hasPermission(userId1, "c"));
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId1));
+      assertEquals(Set.of("b"), permissionManager.getEffectivePermissionsForUser(userId2));
+
+      permissionManager.applyDelta(new PermissionDelta().withRemovedRolePermission(roleIdA, permissionMap.get("a")));
+      assertEquals(Set.of("c"), permissionManager.getEffectivePermissionsForUser(userId1));
+      assertFalse(permissionManager.hasPermission(userId1, "a"));
+   }
+
+
+
+   /*******************************************************************************
+    ** writes are published on the invalidation bus, and messages from other
+    ** nodes flush the entries they name (but this node's own are ignored).
+    *******************************************************************************/
+   @Test
+   void testInvalidationBus() throws QException
+   {
+      InProcessPermissionInvalidationBus  bus      = new InProcessPermissionInvalidationBus();
+      List<PermissionInvalidationMessage> received = new ArrayList<>();
+      bus.subscribe(received::add);
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withInvalidationBus(bus).withNodeId("node-a"));
+
+      try
+      {
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+         ///////////////////////////////////////////////////////////////
+         // the inserts (through the customizers) published their ids //
+         ///////////////////////////////////////////////////////////////
+         assertTrue(received.stream().anyMatch(m -> "node-a".equals(m.getSourceNodeId()) && m.getUserIds().contains(userId)));
+         assertTrue(received.stream().anyMatch(m -> "node-a".equals(m.getSourceNodeId()) && m.getRoleIds().contains(roleIdA)));
+
+         ////////////////////////////////////////////////////////////////////////
+         // put a change in the cache that isn't in the db - as if this node's //
+         // copy were out of date - then check which messages flush it         //
+         ////////////////////////////////////////////////////////////////////////
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-a").withUserIds(Set.of(userId)));
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-b").withUserIds(Set.of(userId)));
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdA, permissionMap.get("b")));
+         assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA)));
+
+         bus.publish(new PermissionInvalidationMessage().withSourceNodeId("node-b").withRoleIds(Set.of(roleIdA)));
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForRoles(Set.of(roleIdA)));
+
+         //////////////////////////////////////////////////////////////
+         // a write in a transaction is published when it's made (so //
+         // other nodes flush), and again once it's committed (to    //
+         // flush what they re-loaded meanwhile) - but not after a   //
+         // rollback.  one that's never reported is published again  //
+         // when it's settled.                                       //
+         //////////////////////////////////////////////////////////////
+         received.clear();
+         QBackendTransaction rolledBack = new QBackendTransaction();
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("b")), rolledBack);
+         assertEquals(1, received.size());
+         permissionManager.afterRollback(rolledBack);
+         permissionManager.settleTransaction(rolledBack);
+         assertEquals(1, received.size());
+
+         received.clear();
+         QBackendTransaction committed = new QBackendTransaction();
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("b")), committed);
+         assertEquals(1, received.size());
+         permissionManager.afterCommit(committed);
+         assertEquals(2, received.size());
+         assertEquals(Set.of(userId), received.get(1).getUserIds());
+
+         received.clear();
+         QBackendTransaction unreported = new QBackendTransaction();
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("b")), unreported);
+         permissionManager.settleTransaction(unreported);
+         assertEquals(2, received.size());
+         assertEquals(Set.of(userId), received.get(1).getUserIds());
+
+         ///////////////////////////////////////////
+         // flush-all goes out to the other nodes //
+         ///////////////////////////////////////////
+         received.clear();
+         permissionManager.flushAllCacheOnAllNodes();
+         assertEquals(1, received.size());
+         assertTrue(received.get(0).getFlushAll());
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+
+      ///////////////////////////////////////////////////////////////
+      // after re-configuring without the bus, nothing is received //
+      ///////////////////////////////////////////////////////////////
+      received.clear();
+      permissionManager.flushAllCacheOnAllNodes();
+      assertTrue(received.isEmpty());
+   }
+
+
+
+   /*******************************************************************************
+    ** without the change log, a transaction whose commit isn't reported keeps
+    ** being settled (its entries flushed, and published again) every settle
+    ** delay - until its commit is reported.
+    *******************************************************************************/
+   @Test
+   void testUnreportedTransactionSettledUntilReported() throws Exception
+   {
+      InProcessPermissionInvalidationBus  bus      = new InProcessPermissionInvalidationBus();
+      List<PermissionInvalidationMessage> received = Collections.synchronizedList(new ArrayList<>());
+      bus.subscribe(received::add);
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withInvalidationBus(bus).withNodeId("node-a").withTransactionSettleDelay(Duration.ofMillis(20)));
+
+      try
+      {
+         QBackendTransaction transaction = new QBackendTransaction();
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(1, 2), transaction);
+
+         Thread.sleep(200);
+         assertTrue(received.size() >= 3, "Expected repeated settles, but got " + received.size() + " message(s)");
+
+         permissionManager.afterCommit(transaction);
+         Thread.sleep(50);
+         int receivedAfterCommit = received.size();
+         Thread.sleep(100);
+         assertEquals(receivedAfterCommit, received.size());
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with the change log on, settling a transaction whose commit isn't
+    ** reported applies its deltas once its entry shows it committed - and
+    ** drops them once the version row shows it rolled back - without
+    ** flushing anything while it's open.
+    *******************************************************************************/
+   @Test
+   void testUnreportedTransactionSettledByChangeLog() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseChangeLog(true).withChangeLogPollInterval(null).withNodeId("node-a").withTransactionSettleDelay(null));
+
+      try
+      {
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         ///////////////////////////////////////////////////////////////////
+         // these deltas aren't in the db - so reads show whether they've //
+         // been written through, or the entry was re-loaded.             //
+         ///////////////////////////////////////////////////////////////////
+         QBackendTransaction committed = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+         try
+         {
+            permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")), committed);
+            assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+            permissionManager.settleTransaction(committed);
+            assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+            committed.commit();
+            permissionManager.settleTransaction(committed);
+            assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+         }
+         finally
+         {
+            committed.close();
+         }
+
+         /////////////////////////////////////////////////////////////////
+         // a rolled back one is dropped once a later write moves the   //
+         // version row - without flushing the (written through) entry. //
+         /////////////////////////////////////////////////////////////////
+         QBackendTransaction rolledBack = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+         try
+         {
+            permissionManager.applyDelta(new PermissionDelta().withAddedRolePermission(roleIdA, permissionMap.get("b")), rolledBack);
+            rolledBack.rollback();
+         }
+         finally
+         {
+            rolledBack.close();
+         }
+
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+         permissionManager.settleTransaction(rolledBack);
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         permissionManager.settleTransaction(rolledBack);
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a write committed in a caller's transaction (through the customizers,
+    ** without the commit being reported) reaches another node on the bus.
+    *******************************************************************************/
+   @Test
+   void testTransactionalWriteReachesOtherNodes() throws QException
+   {
+      InProcessPermissionInvalidationBus bus       = new InProcessPermissionInvalidationBus();
+      PermissionManager                  otherNode = new PermissionManager();
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withInvalidationBus(bus).withNodeId("node-a"));
+      otherNode.configure(new UserRolePermissionsQBitConfig().withInvalidationBus(bus).withNodeId("node-b"));
+
+      try
+      {
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+         assertEquals(Set.of("a"), otherNode.getEffectivePermissionsForUser(userId));
+
+         QBackendTransaction transaction = QBackendTransaction.openFor(new InsertInput(UserPermissionInt.TABLE_NAME));
+         try
+         {
+            new InsertAction().execute(new InsertInput(UserPermissionInt.TABLE_NAME)
+               .withRecordEntity(new UserPermissionInt().withUserId(userId).withPermissionId(permissionMap.get("b")))
+               .withTransaction(transaction));
+            transaction.commit();
+         }
+         finally
+         {
+            transaction.close();
+         }
+
+         assertEquals(Set.of("a", "b"), otherNode.getEffectivePermissionsForUser(userId));
+         assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId));
+      }
+      finally
+      {
+         otherNode.configure(new UserRolePermissionsQBitConfig());
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with the change log on, writes add entries to it (moving the database
+    ** version), and polling flushes entries named by other nodes' entries.
+    *******************************************************************************/
+   @Test
+   void testChangeLog() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseChangeLog(true).withChangeLogPollInterval(null).withNodeId("node-a"));
+
+      try
+      {
+         //////////////////////////////////////////////////////////
+         // the first poll just finds the end of the (empty) log //
+         //////////////////////////////////////////////////////////
+         assertEquals(0, permissionManager.pollChangeLog());
+
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+         List<QRecord> entries = QueryAction.execute(PermissionChangeLog.TABLE_NAME, new QQueryFilter());
+         assertEquals(2, entries.size());
+         assertTrue(entries.stream().allMatch(e -> "node-a".equals(e.getValueString("sourceNodeId"))));
+         assertTrue(entries.stream().anyMatch(e -> String.valueOf(userId).equals(e.getValueString("userIds"))));
+         assertTrue(entries.stream().anyMatch(e -> String.valueOf(roleIdA).equals(e.getValueString("roleIds"))));
+
+         Integer newestId = entries.stream().map(e -> e.getValueInteger("id")).max(Integer::compare).orElseThrow();
+         assertEquals((long) newestId, PermissionChangeLogPoller.readDatabaseVersion());
+
+         ////////////////////////////////////////////////////////////////////////
+         // put a change in the cache that isn't in the db - as if this node's //
+         // copy were out of date.  this node's own entries don't flush it...  //
+         ////////////////////////////////////////////////////////////////////////
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+         assertEquals(3, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         //////////////////////////////////////////////////////////////
+         // ... but another node's does.  polling again (with no new //
+         // entries) reads nothing.                                  //
+         //////////////////////////////////////////////////////////////
+         PermissionChangeLogWriter.write(new PermissionInvalidationMessage().withSourceNodeId("node-b").withUserIds(Set.of(userId)), null);
+         assertEquals(1, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         assertEquals(0, permissionManager.pollChangeLog());
+
+         ////////////////////////////////////////////////////////////////////
+         // a write in a transaction adds its entry (and moves the version //
+         // row) in the transaction - so the version only moves, and the   //
+         // entry is only read, when it commits.                           //
+         ////////////////////////////////////////////////////////////////////
+         long                versionBefore = PermissionChangeLogPoller.readDatabaseVersion();
+         QBackendTransaction transaction   = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+         try
+         {
+            permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("b")), transaction);
+            assertEquals(versionBefore, PermissionChangeLogPoller.readDatabaseVersion());
+            assertEquals(0, permissionManager.pollChangeLog());
+
+            transaction.commit();
+         }
+         finally
+         {
+            transaction.close();
+         }
+
+         newestId = QueryAction.execute(PermissionChangeLog.TABLE_NAME, new QQueryFilter()).stream().map(e -> e.getValueInteger("id")).max(Integer::compare).orElseThrow();
+         assertEquals((long) newestId, PermissionChangeLogPoller.readDatabaseVersion());
+         assertEquals(1, permissionManager.pollChangeLog());
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** change log writers take turns on the version row, until their
+    ** transactions end - so an entry can't commit after a newer one has been
+    ** read (and be missed).  An entry that's rolled back leaves the version
+    ** where it was, and is never read.
+    *******************************************************************************/
+   @Test
+   void testChangeLogWritersTakeTurns() throws Exception
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseChangeLog(true).withChangeLogPollInterval(null).withNodeId("node-a"));
+
+      QInstance       qInstance = QContext.getQInstance();
+      ExecutorService executor  = Executors.newSingleThreadExecutor();
+      try
+      {
+         assertEquals(0, permissionManager.pollChangeLog());
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         insertUserPermissionInt(userId, permissionMap.get("a"));
+         assertEquals(1, permissionManager.pollChangeLog());
+
+         /////////////////////////////////////////////////////////////////////
+         // put a change in the cache that isn't in the db - which only the //
+         // entry for the user (from "node-b") flushes                      //
+         /////////////////////////////////////////////////////////////////////
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+         assertEquals(1, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         long                versionBefore = PermissionChangeLogPoller.readDatabaseVersion();
+         QBackendTransaction transaction   = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+         try
+         {
+            Integer firstId = PermissionChangeLogWriter.write(new PermissionInvalidationMessage().withSourceNodeId("node-b").withUserIds(Set.of(userId)), transaction);
+
+            //////////////////////////////////////////////////////////////////
+            // a second writer waits for the first one's transaction to end //
+            // - so it can't commit an entry above the first one's, first.  //
+            //////////////////////////////////////////////////////////////////
+            Future<Integer> second = executor.submit(() ->
+            {
+               QContext.init(qInstance, new QSession());
+               try
+               {
+                  return (PermissionChangeLogWriter.write(new PermissionInvalidationMessage().withSourceNodeId("node-b").withUserIds(Set.of(100_000)), null));
+               }
+               finally
+               {
+                  QContext.clear();
+               }
+            });
+
+            Thread.sleep(200);
+            assertFalse(second.isDone());
+            assertEquals(versionBefore, PermissionChangeLogPoller.readDatabaseVersion());
+            assertEquals(0, permissionManager.pollChangeLog());
+            assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+            transaction.commit();
+            Integer secondId = second.get(10, TimeUnit.SECONDS);
+            assertTrue(secondId > firstId);
+            assertEquals((long) secondId, PermissionChangeLogPoller.readDatabaseVersion());
+         }
+         finally
+         {
+            transaction.close();
+         }
+
+         assertEquals(2, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         assertEquals(0, permissionManager.pollChangeLog());
+
+         ////////////////////////////////////////////////////////////////////
+         // a rolled back entry doesn't move the version, and isn't read - //
+         // and nothing is flushed for it.                                 //
+         ////////////////////////////////////////////////////////////////////
+         permissionManager.applyDelta(new PermissionDelta().withAddedUserPermission(userId, permissionMap.get("c")));
+         assertEquals(1, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         versionBefore = PermissionChangeLogPoller.readDatabaseVersion();
+         transaction = QBackendTransaction.openFor(new InsertInput(PermissionChangeLog.TABLE_NAME));
+         try
+         {
+            PermissionChangeLogWriter.write(new PermissionInvalidationMessage().withSourceNodeId("node-b").withUserIds(Set.of(userId)), transaction);
+            transaction.rollback();
+         }
+         finally
+         {
+            transaction.close();
+         }
+
+         assertEquals(versionBefore, PermissionChangeLogPoller.readDatabaseVersion());
+         assertEquals(0, permissionManager.pollChangeLog());
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId));
+      }
+      finally
+      {
+         executor.shutdownNow();
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** the manager's caches are in its metrics registry, with their counters -
+    ** and are only published to JMX if the config asks for it.
+    *******************************************************************************/
+   @Test
+   void testMetricsRegistry() throws Exception
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig());
+
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+      PermissionMetricsRegistry registry = permissionManager.getMetricsRegistry();
+      assertEquals(List.of("effectivePermissionsForUser", "permissionsForRole", "roleIdsForUser"), registry.getCacheNames());
+
+      permissionManager.getEffectivePermissionsForUser(userId);
+      permissionManager.getEffectivePermissionsForUser(userId);
+      PermissionCacheMXBean userCache = registry.getCache("effectivePermissionsForUser");
+      assertEquals(1, userCache.getSize());
+      assertEquals(1, userCache.getHitCount());
+      assertEquals(1, userCache.getLoadCount());
+
+      assertTrue(registry.flushCache("effectivePermissionsForUser"));
+      assertEquals(0, userCache.getSize());
+
+      /////////////////////////////////////////////////////
+      // caches are only published to JMX when asked for //
+      /////////////////////////////////////////////////////
+      ObjectName objectName = PermissionMetricsRegistry.getObjectName("effectivePermissionsForUser");
+      assertFalse(new UserRolePermissionsQBitConfig().getPublishJmxMetrics());
+      assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withPublishJmxMetrics(true));
+      try
+      {
+         assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+      assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+   }
+
+
+
+   /*******************************************************************************
+    ** reading a user's cached permissions doesn't count as a read of their
+    ** role ids entry (which only stamps loads of the user's entry).
+    *******************************************************************************/
+   @Test
+   void testUserReadsDoNotTouchRoleIdsCache() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig());
+
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId        = insertUser("test1");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId, roleIdA);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+      assertTrue(permissionManager.hasPermission(userId, "a"));
+      PermissionCacheMXBean roleIdsCache = permissionManager.getMetricsRegistry().getCache("roleIdsForUser");
+      long                  hits         = roleIdsCache.getHitCount();
+      long                  misses       = roleIdsCache.getMissCount();
+
+      for(int i = 0; i < 5; i++)
+      {
+         assertTrue(permissionManager.hasPermission(userId, "a"));
+      }
+      assertEquals(hits, roleIdsCache.getHitCount());
+      assertEquals(misses, roleIdsCache.getMissCount());
+      assertEquals(5, permissionManager.getMetricsRegistry().getCache("effectivePermissionsForUser").getHitCount());
+   }
+
+
+
+   /*******************************************************************************
+    ** loads and customizer hooks are timed in the registry's histograms (with a
+    ** zero threshold, every load is also logged as slow).
+    *******************************************************************************/
+   @Test
+   void testLatencyHistograms() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withSlowLoadThreshold(Duration.ZERO));
+
+      try
+      {
+         PermissionMetricsRegistry registry = permissionManager.getMetricsRegistry();
+         registry.resetLatencyHistograms();
+
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+
+         assertTrue(registry.getLatencyHistogram("load.effectivePermissionsForUser").snapshot().getCount() > 0);
+         assertTrue(registry.getLatencyHistogram("load.roleIdsForUser").snapshot().getCount() > 0);
+         assertTrue(registry.getLatencyHistogram("load.permissionsForRoles").snapshot().getCount() > 0);
+         assertEquals(1, registry.getLatencyHistogram("customizer." + UserRoleInt.TABLE_NAME + ".postInsert").snapshot().getCount());
+         assertEquals(1, registry.getLatencyHistogram("customizer." + RolePermissionInt.TABLE_NAME + ".postInsert").snapshot().getCount());
+         assertTrue(registry.getLatencySnapshots().stream().anyMatch(snapshot -> snapshot.getName().equals("load.effectivePermissionsForUser") && snapshot.getMaxMillis() > 0));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with a snapshot file, a written file is used at startup while it matches
+    ** the database's permission version, and ignored once that has moved.
+    *******************************************************************************/
+   @Test
+   void testAuthorizationSnapshotFile() throws Exception
+   {
+      Path                          file   = Files.createTempFile("authorization-snapshot", ".bin");
+      UserRolePermissionsQBitConfig config = new UserRolePermissionsQBitConfig()
+         .withUseAuthorizationSnapshot(true)
+         .withUseChangeLog(true)
+         .withChangeLogPollInterval(null)
+         .withNodeId("node-a")
+         .withAuthorizationSnapshotFile(file)
+         .withAuthorizationSnapshotFileWriteInterval(null);
+
+      try
+      {
+         permissionManager.configure(config);
+
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+
+         ////////////////////////////////////////////////////////////////
+         // the file is written at the version the snapshot was loaded //
+         ////////////////////////////////////////////////////////////////
+         permissionManager.writeAuthorizationSnapshotFile();
+         assertEquals(Long.valueOf(PermissionChangeLogPoller.readDatabaseVersion()), AuthorizationSnapshotFile.readDatabaseVersion(file));
+
+         ////////////////////////////////////////////////////////////////
+         // a "restarted" manager uses the file, while it's current... //
+         ////////////////////////////////////////////////////////////////
+         permissionManager.configure(config);
+         assertTrue(permissionManager.loadAuthorizationSnapshotFile());
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId));
+         assertEquals(Set.of(roleIdA), permissionManager.getRoleIdsForUser(userId));
+
+         ////////////////////////////////////////////////////////////
+         // ... but not once a write has moved the version past it //
+         ////////////////////////////////////////////////////////////
+         insertRolePermissionInt(roleIdA, permissionMap.get("b"));
+         permissionManager.configure(config);
+         assertFalse(permissionManager.loadAuthorizationSnapshotFile());
+         assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+         Files.deleteIfExists(file);
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with the materialized table on, writes to the int tables keep its rows
+    ** in step (without full re-computes), and user loads read it.
+    *******************************************************************************/
+   @Test
+   void testMaterializedUserPermissions() throws QException
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseMaterializedUserPermissions(true));
+      permissionManager.startMaterializedUserPermissions();
+
+      try
+      {
+         assertTrue(permissionManager.isReadingMaterializedUserPermissions());
+
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              a             = permissionMap.get("a");
+         Integer              b             = permissionMap.get("b");
+         Integer              c             = permissionMap.get("c");
+         Integer              userId1       = insertUser("test1");
+         Integer              userId2       = insertUser("test2");
+         Integer              roleIdA       = insertRole("Test A");
+         Integer              roleIdB       = insertRole("Test B");
+
+         insertUserRoleInt(userId1, roleIdA);
+         insertRolePermissionInt(roleIdA, a);
+         insertRolePermissionInt(roleIdB, b);
+         Integer userRoleIntId = insertUserRoleInt(userId2, roleIdB);
+         insertUserPermissionInt(userId1, c);
+
+         assertEquals(Set.of(a + ":" + roleIdA, c + ":null"), getMaterializedRows(userId1));
+         assertEquals(Set.of(b + ":" + roleIdB), getMaterializedRows(userId2));
+         assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId1));
+
+         /////////////////////////////////////////////////////////////
+         // a role gaining a permission adds rows for all its users //
+         /////////////////////////////////////////////////////////////
+         insertRolePermissionInt(roleIdB, a);
+         assertEquals(Set.of(a + ":" + roleIdB, b + ":" + roleIdB), getMaterializedRows(userId2));
+         assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId2));
+
+         ///////////////////////////////////////////////////////////////
+         // moving a user to another role swaps that role's rows only //
+         ///////////////////////////////////////////////////////////////
+         new UpdateAction().execute(new UpdateInput(UserRoleInt.TABLE_NAME).withRecord(new UserRoleInt()
+            .withId(userRoleIntId).withRoleId(roleIdA).toQRecordOnlyChangedFields(true)));
+         assertEquals(Set.of(a + ":" + roleIdA), getMaterializedRows(userId2));
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId2));
+
+         ///////////////////////////////////////////////////////////////
+         // rebuilding from scratch gives the same rows as the deltas //
+         ///////////////////////////////////////////////////////////////
+         new DeleteAction().execute(new DeleteInput(UserEffectivePermission.TABLE_NAME).withQueryFilter(new QQueryFilter().withCriteria("id", QCriteriaOperator.IS_NOT_BLANK)));
+         assertEquals(Set.of(), getMaterializedRows(userId1));
+
+         UserEffectivePermissionMaintainer.rebuildAll();
+         assertEquals(Set.of(a + ":" + roleIdA, c + ":null"), getMaterializedRows(userId1));
+         assertEquals(Set.of(a + ":" + roleIdA), getMaterializedRows(userId2));
+
+         permissionManager.flushAllCache();
+         Map<Integer, Set<String>> permissionsByUser = permissionManager.getEffectivePermissionsForUsers(List.of(userId1, userId2));
+         assertEquals(Set.of("a", "c"), permissionsByUser.get(userId1));
+         assertEquals(Set.of("a"), permissionsByUser.get(userId2));
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** a materialized table turned on after writes were made isn't read until
+    ** it's been populated (user loads compose the int tables meanwhile, rather
+    ** than finding no rows) - and a delta that says to flush everything marks
+    ** it incomplete again, applying only the changes it names.
+    *******************************************************************************/
+   @Test
+   void testMaterializedUserPermissionsPopulatedOnStart() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              a             = permissionMap.get("a");
+      Integer              userId1       = insertUser("test1");
+      Integer              userId2       = insertUser("test2");
+      Integer              roleIdA       = insertRole("Test A");
+      insertUserRoleInt(userId1, roleIdA);
+      insertRolePermissionInt(roleIdA, a);
+      assertEquals(Set.of(), getMaterializedRows(userId1));
+
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseMaterializedUserPermissions(true));
+      try
+      {
+         assertFalse(UserEffectivePermissionMaintainer.isComplete());
+         assertFalse(permissionManager.isReadingMaterializedUserPermissions());
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId1));
+
+         permissionManager.startMaterializedUserPermissions();
+         assertTrue(UserEffectivePermissionMaintainer.isComplete());
+         assertTrue(permissionManager.isReadingMaterializedUserPermissions());
+         assertEquals(Set.of(a + ":" + roleIdA), getMaterializedRows(userId1));
+
+         permissionManager.flushAllCache();
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId1));
+
+         //////////////////////////////////////////////////////////////////
+         // a flush-all delta applies the pair it names, leaves the rest //
+         // of the table alone, and marks it incomplete.                 //
+         //////////////////////////////////////////////////////////////////
+         new InsertAction().execute(new InsertInput(UserPermissionInt.TABLE_NAME).withRecordEntity(new UserPermissionInt().withUserId(userId2).withPermissionId(a)));
+         new DeleteAction().execute(new DeleteInput(UserEffectivePermission.TABLE_NAME).withQueryFilter(new QQueryFilter().withCriteria("userId", QCriteriaOperator.EQUALS, userId2)));
+         permissionManager.applyDelta(new PermissionDelta().withFlushAll(true).withAddedUserPermission(userId2, a));
+         assertEquals(Set.of(a + ":null"), getMaterializedRows(userId2));
+         assertEquals(Set.of(a + ":" + roleIdA), getMaterializedRows(userId1));
+         assertFalse(UserEffectivePermissionMaintainer.isComplete());
+         assertFalse(permissionManager.isReadingMaterializedUserPermissions());
+         assertEquals(Set.of("a"), permissionManager.getEffectivePermissionsForUser(userId1));
+
+         ////////////////////////////////////////////////////////////
+         // starting again rebuilds it - and after that, it's left //
+         ////////////////////////////////////////////////////////////
+         permissionManager.startMaterializedUserPermissions();
+         assertTrue(UserEffectivePermissionMaintainer.isComplete());
+         assertTrue(permissionManager.isReadingMaterializedUserPermissions());
+         assertFalse(UserEffectivePermissionMaintainer.rebuildAllIfIncomplete());
+      }
+      finally
+      {
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /*******************************************************************************
+    ** with the materialized table on, taking a role from a user (in an open
+    ** transaction) while another writer adds a permission to that role must
+    ** not leave a row for the user & the new permission - the second writer
+    ** waits on the role's lock, then sees that the user no longer holds it.
+    *******************************************************************************/
+   @Test
+   void testMaterializedRoleWritersTakeTurns() throws Exception
+   {
+      permissionManager.configure(new UserRolePermissionsQBitConfig().withUseMaterializedUserPermissions(true));
+
+      QInstance       qInstance = QContext.getQInstance();
+      ExecutorService executor  = Executors.newSingleThreadExecutor();
+      try
+      {
+         Map<String, Integer> permissionMap = insertPermissions();
+         Integer              userId        = insertUser("test1");
+         Integer              roleIdA       = insertRole("Test A");
+         Integer              userRoleIntId = insertUserRoleInt(userId, roleIdA);
+         insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+         assertEquals(Set.of(permissionMap.get("a") + ":" + roleIdA), getMaterializedRows(userId));
+         Instant roleModifyDate = getRoleModifyDate(roleIdA);
+
+         QBackendTransaction transaction = QBackendTransaction.openFor(new DeleteInput(UserRoleInt.TABLE_NAME));
+         try
+         {
+            new DeleteAction().execute(new DeleteInput(UserRoleInt.TABLE_NAME).withPrimaryKeys(List.of(userRoleIntId)).withTransaction(transaction));
+
+            Future<?> addition = executor.submit(() ->
+            {
+               QContext.init(qInstance, new QSession());
+               try
+               {
+                  insertRolePermissionInt(roleIdA, permissionMap.get("b"));
+               }
+               finally
+               {
+                  QContext.clear();
+               }
+               return (null);
+            });
+
+            Thread.sleep(200);
+            assertFalse(addition.isDone());
+
+            transaction.commit();
+            addition.get();
+         }
+         finally
+         {
+            transaction.close();
+         }
+
+         assertEquals(Set.of(), getMaterializedRows(userId));
+         assertEquals(Set.of(), permissionManager.getEffectivePermissionsForUser(userId));
+
+         //////////////////////////////////////////////////////////////////
+         // the turns were taken on the qbit's lock table - the role row //
+         // itself wasn't touched.                                       //
+         //////////////////////////////////////////////////////////////////
+         assertEquals(roleModifyDate, getRoleModifyDate(roleIdA));
+         assertEquals(1, QueryAction.execute(UserEffectivePermissionLock.TABLE_NAME, new QQueryFilter().withCriteria("lockKey", QCriteriaOperator.EQUALS, "role:" + roleIdA)).size());
+      }
+      finally
+      {
+         executor.shutdownNow();
+         permissionManager.configure(new UserRolePermissionsQBitConfig());
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** a role's modifyDate, as stored.
+    ***************************************************************************/
+   private static Instant getRoleModifyDate(Integer roleId) throws QException
+   {
+      return (QueryAction.execute(Role.TABLE_NAME, new QQueryFilter().withCriteria("id", QCriteriaOperator.EQUALS, roleId)).get(0).getValueInstant("modifyDate"));
+   }
+
+
+
+   /***************************************************************************
+    ** a user's materialized rows, as "permissionId:sourceRoleId" strings.
+    ***************************************************************************/
+   private static Set<String> getMaterializedRows(Integer userId) throws QException
+   {
+      Set<String> rs = new HashSet<>();
+      for(QRecord record : QueryAction.execute(UserEffectivePermission.TABLE_NAME, new QQueryFilter().withCriteria("userId", QCriteriaOperator.EQUALS, userId)))
+      {
+         rs.add(record.getValueInteger("permissionId") + ":" + record.getValueInteger("sourceRoleId"));
+      }
+      return (rs);
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testGetEffectivePermissionsForUsers() throws QException
+   {
+      Map<String, Integer> permissionMap = insertPermissions();
+      Integer              userId1       = insertUser("test1");
+      Integer              userId2       = insertUser("test2");
+      Integer              userId3       = insertUser("test3");
+      Integer              roleIdA       = insertRole("Test A");
+      Integer              roleIdB       = insertRole("Test B");
+
+      insertUserRoleInt(userId1, roleIdA);
+      insertUserRoleInt(userId2, roleIdA);
+      insertUserRoleInt(userId2, roleIdB);
+      insertRolePermissionInt(roleIdA, permissionMap.get("a"));
+      insertRolePermissionInt(roleIdB, permissionMap.get("b"));
+      insertUserPermissionInt(userId3, permissionMap.get("c"));
+      insertUserPermissionInt(userId1, permissionMap.get("c"));
+
+      /////////////////////////////////////////////////////////////
+      // put one user in the cache first, to mix hits and misses //
+      /////////////////////////////////////////////////////////////
+      assertEquals(Set.of("a", "c"), permissionManager.getEffectivePermissionsForUser(userId1));
+
+      Map<Integer, Set<String>> permissionsByUser = permissionManager.getEffectivePermissionsForUsers(Arrays.asList(userId1, userId2, userId3, -1, null));
+      assertEquals(4, permissionsByUser.size());
+      assertEquals(Set.of("a", "c"), permissionsByUser.get(userId1));
+      assertEquals(Set.of("a", "b"), permissionsByUser.get(userId2));
+      assertEquals(Set.of("c"), permissionsByUser.get(userId3));
+      assertEquals(Set.of(), permissionsByUser.get(-1));
+
+      /////////////////////////////////////////////////////////
+      // bulk load should have filled the single-user caches //
+      /////////////////////////////////////////////////////////
+      assertEquals(Set.of("a", "b"), permissionManager.getEffectivePermissionsForUser(userId2));
+      assertEquals(Set.of(roleIdA, roleIdB), permissionManager.getRoleIdsForUser(userId2));
+
+      assertEquals(Map.of(), permissionManager.getEffectivePermissionsForUsers(null));
+   }
+
+
+
    /***************************************************************************
     **
     ***************************************************************************/
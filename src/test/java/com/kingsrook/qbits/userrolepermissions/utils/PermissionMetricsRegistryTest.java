@@ -0,0 +1,101 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.kingsrook.qbits.userrolepermissions.PermissionCacheConfig;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for PermissionMetricsRegistry
+ *******************************************************************************/
+class PermissionMetricsRegistryTest
+{
+
+   /*******************************************************************************
+    ** registered caches are visible (and flushable) from java, and, when
+    ** publishing, over JMX.
+    *******************************************************************************/
+   @Test
+   void testRegistry() throws Exception
+   {
+      PermissionMetricsRegistry        registry = new PermissionMetricsRegistry();
+      PermissionCache<Integer, String> cacheB   = new PermissionCache<>("registryTestB", new PermissionCacheConfig(), v -> 1);
+      PermissionCache<Integer, String> cacheA   = new PermissionCache<>("registryTestA", new PermissionCacheConfig(), v -> 1);
+      registry.register(cacheB);
+      registry.register(cacheA);
+      assertEquals(List.of("registryTestA", "registryTestB"), registry.getCacheNames());
+      assertNull(registry.getCache("nope"));
+
+      cacheA.getResultThrowing(1, String::valueOf);
+      cacheA.getResultThrowing(1, String::valueOf);
+      PermissionCacheMXBean mxBean = registry.getCache("registryTestA");
+      assertEquals(1, mxBean.getSize());
+      assertEquals(1, mxBean.getHitCount());
+      assertEquals(1, mxBean.getMissCount());
+
+      assertTrue(registry.flushCache("registryTestA"));
+      assertFalse(registry.flushCache("nope"));
+      assertEquals(0, mxBean.getSize());
+      assertEquals(1, mxBean.getInvalidationCount());
+
+      registry.resetStatistics();
+      assertEquals(0, mxBean.getHitCount());
+
+      ////////////////////////////////////////////////////
+      // published over JMX only while publishing is on //
+      ////////////////////////////////////////////////////
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName  objectName  = PermissionMetricsRegistry.getObjectName("registryTestA");
+      assertFalse(mBeanServer.isRegistered(objectName));
+
+      registry.setPublishToJmx(true);
+      try
+      {
+         cacheA.put(2, "two");
+         assertEquals(1, mBeanServer.getAttribute(objectName, "Size"));
+
+         ///////////////////////////////////////////////////////////////
+         // registering a new cache by the same name replaces the old //
+         ///////////////////////////////////////////////////////////////
+         registry.register(new PermissionCache<>("registryTestA", new PermissionCacheConfig(), v -> 1));
+         assertEquals(0, mBeanServer.getAttribute(objectName, "Size"));
+
+         mBeanServer.invoke(PermissionMetricsRegistry.getObjectName("registryTestB"), "flush", null, null);
+      }
+      finally
+      {
+         registry.setPublishToJmx(false);
+      }
+      assertFalse(mBeanServer.isRegistered(objectName));
+   }
+
+}
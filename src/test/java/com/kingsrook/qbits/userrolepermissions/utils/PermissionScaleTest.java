@@ -0,0 +1,360 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.kingsrook.qbits.userrolepermissions.PerformanceTestInstance;
+import com.kingsrook.qbits.userrolepermissions.RbacDatasetGenerator;
+import com.kingsrook.qbits.userrolepermissions.UserRolePermissionsQBitConfig;
+import com.kingsrook.qbits.userrolepermissions.model.RolePermissionInt;
+import com.kingsrook.qbits.userrolepermissions.model.UserRoleInt;
+import com.kingsrook.qqq.backend.core.actions.tables.DeleteAction;
+import com.kingsrook.qqq.backend.core.actions.tables.InsertAction;
+import com.kingsrook.qqq.backend.core.actions.tables.UpdateAction;
+import com.kingsrook.qqq.backend.core.context.QContext;
+import com.kingsrook.qqq.backend.core.logging.QLogger;
+import com.kingsrook.qqq.backend.core.model.actions.tables.delete.DeleteInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.insert.InsertInput;
+import com.kingsrook.qqq.backend.core.model.actions.tables.update.UpdateInput;
+import com.kingsrook.qqq.backend.core.model.data.QRecord;
+import com.kingsrook.qqq.backend.core.model.metadata.QInstance;
+import com.kingsrook.qqq.backend.core.model.session.QSession;
+import com.kingsrook.qqq.backend.core.modules.backend.implementations.memory.MemoryRecordStore;
+import com.kingsrook.qqq.backend.core.utils.CollectionUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import static com.kingsrook.qqq.backend.core.logging.LogUtils.logPair;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** End-to-end scale test for PermissionManager - over an RbacDatasetGenerator
+ ** dataset (by default, 1M users, 10k roles, and 50k permissions), in the
+ ** Memory backend and in H2.  Logs:
+ ** - read QPS (skewed user picks, over several threads) - cold, then warm.
+ ** - the caches' memory footprint - entries, estimated bytes, & heap used.
+ ** - bulk insert, update & delete throughput on userRoleInt and
+ **   rolePermissionInt, and how much of it is customizer time.
+ **
+ ** Only runs with -Dpermissions.scaleTest=true (it takes minutes, and a few GB
+ ** of heap); sizes come from the permissions.scaleTest.* properties below.
+ *******************************************************************************/
+@EnabledIfSystemProperty(named = "permissions.scaleTest", matches = "true")
+class PermissionScaleTest
+{
+   private static final QLogger LOG = QLogger.getLogger(PermissionScaleTest.class);
+
+   private static final int      USER_COUNT       = Integer.getInteger("permissions.scaleTest.users", 1_000_000);
+   private static final int      ROLE_COUNT       = Integer.getInteger("permissions.scaleTest.roles", 10_000);
+   private static final int      PERMISSION_COUNT = Integer.getInteger("permissions.scaleTest.permissions", 50_000);
+   private static final int      READ_THREADS     = Integer.getInteger("permissions.scaleTest.readThreads", 8);
+   private static final Duration READ_DURATION    = Duration.ofSeconds(Integer.getInteger("permissions.scaleTest.readSeconds", 10));
+   private static final int      WRITE_COUNT      = Integer.getInteger("permissions.scaleTest.writes", 10_000);
+   private static final int      BATCH_SIZE       = Integer.getInteger("permissions.scaleTest.batchSize", 1_000);
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @AfterEach
+   void afterEach()
+   {
+      PermissionManager.getInstance().flushAllCache();
+      MemoryRecordStore.fullReset();
+      QContext.clear();
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testMemoryBackend() throws Exception
+   {
+      runScaleTest(PerformanceTestInstance.MEMORY);
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testH2Backend() throws Exception
+   {
+      runScaleTest(PerformanceTestInstance.H2);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private void runScaleTest(String backendName) throws Exception
+   {
+      QInstance qInstance = PerformanceTestInstance.define(backendName, new UserRolePermissionsQBitConfig());
+
+      long start = System.nanoTime();
+      RbacDatasetGenerator.Dataset dataset = new RbacDatasetGenerator()
+         .withUserCount(USER_COUNT)
+         .withRoleCount(ROLE_COUNT)
+         .withPermissionCount(PERMISSION_COUNT)
+         .withBatchSize(BATCH_SIZE)
+         .insert();
+      LOG.info("Scale test dataset inserted",
+         logPair("backend", backendName),
+         logPair("users", dataset.getUserCount()),
+         logPair("roles", dataset.getRoleCount()),
+         logPair("permissions", dataset.getPermissionCount()),
+         logPair("millis", (System.nanoTime() - start) / 1_000_000));
+
+      PermissionManager permissionManager = PermissionManager.getInstance();
+      permissionManager.flushAllCache();
+      permissionManager.getMetricsRegistry().resetStatistics();
+
+      //////////////////////////////////////////////////////////////////
+      // reads - the first pass starts from empty caches; the second, //
+      // from whatever the first left.                                //
+      //////////////////////////////////////////////////////////////////
+      for(String pass : List.of("cold", "warm"))
+      {
+         long reads = measureReads(qInstance, dataset);
+         LOG.info("Scale test reads",
+            logPair("backend", backendName),
+            logPair("pass", pass),
+            logPair("threads", READ_THREADS),
+            logPair("reads", reads),
+            logPair("qps", reads / Math.max(1, READ_DURATION.toSeconds())));
+         assertTrue(reads > 0);
+      }
+
+      logFootprint(backendName, permissionManager);
+
+      ////////////////////////////////////////////////////////////////////
+      // user-role writes:  give users (spread over all of them) a role //
+      // they don't have, then move it to another, then delete it.      //
+      ////////////////////////////////////////////////////////////////////
+      int                userWrites   = Math.min(WRITE_COUNT, dataset.getUserCount());
+      List<QRecord>      userRoleInts = new ArrayList<>();
+      List<Serializable> movedRoleIds = new ArrayList<>();
+      for(int i = 0; i < userWrites; i++)
+      {
+         int   userIndex = (int) ((long) i * dataset.getUserCount() / userWrites);
+         int[] held      = dataset.getRoleIndexes(userIndex);
+         userRoleInts.add(new QRecord()
+            .withValue("userId", dataset.getUserId(userIndex))
+            .withValue("roleId", dataset.getRoleId(unheldIndex(held, dataset.getRoleCount(), 0))));
+         movedRoleIds.add(dataset.getRoleId(unheldIndex(held, dataset.getRoleCount(), 1)));
+      }
+      measureWrites(backendName, UserRoleInt.TABLE_NAME, userRoleInts, "roleId", movedRoleIds);
+
+      //////////////////////////////////////////////////////////////////
+      // role-permission writes:  the same, for roles & permissions - //
+      // where changes to big roles touch many users.                 //
+      //////////////////////////////////////////////////////////////////
+      int                roleWrites         = Math.min(WRITE_COUNT, dataset.getRoleCount());
+      List<QRecord>      rolePermissionInts = new ArrayList<>();
+      List<Serializable> movedPermissionIds = new ArrayList<>();
+      for(int i = 0; i < roleWrites; i++)
+      {
+         int   roleIndex = (int) ((long) i * dataset.getRoleCount() / roleWrites);
+         int[] held      = dataset.getPermissionIndexes(roleIndex);
+         rolePermissionInts.add(new QRecord()
+            .withValue("roleId", dataset.getRoleId(roleIndex))
+            .withValue("permissionId", dataset.getPermissionId(unheldIndex(held, dataset.getPermissionCount(), 0))));
+         movedPermissionIds.add(dataset.getPermissionId(unheldIndex(held, dataset.getPermissionCount(), 1)));
+      }
+      measureWrites(backendName, RolePermissionInt.TABLE_NAME, rolePermissionInts, "permissionId", movedPermissionIds);
+   }
+
+
+
+   /***************************************************************************
+    ** read effective permissions (and check one) for skewed picks of users,
+    ** on READ_THREADS threads, for READ_DURATION - returning the number of
+    ** reads.
+    ***************************************************************************/
+   private static long measureReads(QInstance qInstance, RbacDatasetGenerator.Dataset dataset) throws Exception
+   {
+      RbacDatasetGenerator.ZipfSampler userSampler = new RbacDatasetGenerator.ZipfSampler(dataset.getUserCount(), 1.0);
+      long                             deadline    = System.nanoTime() + READ_DURATION.toNanos();
+      ExecutorService                  executor    = Executors.newFixedThreadPool(READ_THREADS);
+      try
+      {
+         List<Future<Long>> futures = new ArrayList<>();
+         for(int thread = 0; thread < READ_THREADS; thread++)
+         {
+            long seed = thread;
+            futures.add(executor.submit(() ->
+            {
+               QContext.init(qInstance, new QSession());
+               try
+               {
+                  SplittableRandom random = new SplittableRandom(seed);
+                  long             reads  = 0;
+                  while(System.nanoTime() < deadline)
+                  {
+                     Integer       userId        = dataset.getUserId(userSampler.next(random));
+                     PermissionSet permissionSet = PermissionManager.getInstance().getEffectivePermissionSetForUser(userId);
+                     permissionSet.contains(RbacDatasetGenerator.Dataset.getPermissionName(random.nextInt(dataset.getPermissionCount())));
+                     reads++;
+                  }
+                  return (reads);
+               }
+               finally
+               {
+                  QContext.clear();
+               }
+            }));
+         }
+
+         long reads = 0;
+         for(Future<Long> future : futures)
+         {
+            reads += future.get();
+         }
+         return (reads);
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+
+
+   /***************************************************************************
+    ** log the caches' entries and estimated size, and the heap in use.
+    ***************************************************************************/
+   private static void logFootprint(String backendName, PermissionManager permissionManager)
+   {
+      for(PermissionCacheMXBean cache : permissionManager.getMetricsRegistry().getCaches())
+      {
+         LOG.info("Scale test cache footprint",
+            logPair("backend", backendName),
+            logPair("cache", cache.getName()),
+            logPair("entries", cache.getSize()),
+            logPair("estimatedBytes", cache.getTotalWeight()),
+            logPair("hitRate", cache.getHitRate()));
+      }
+
+      System.gc();
+      Runtime runtime = Runtime.getRuntime();
+      LOG.info("Scale test heap", logPair("backend", backendName), logPair("usedBytes", runtime.totalMemory() - runtime.freeMemory()));
+   }
+
+
+
+   /***************************************************************************
+    ** insert records into an int table (in batches), update each one's field
+    ** to its new value, then delete them - logging each phase's throughput,
+    ** and the time its customizer hook took.
+    ***************************************************************************/
+   private static void measureWrites(String backendName, String tableName, List<QRecord> records, String fieldName, List<Serializable> newValues) throws Exception
+   {
+      PermissionManager.getInstance().getMetricsRegistry().resetLatencyHistograms();
+      long          start    = System.nanoTime();
+      List<QRecord> inserted = new ArrayList<>();
+      for(List<QRecord> page : CollectionUtils.getPages(records, BATCH_SIZE))
+      {
+         inserted.addAll(new InsertAction().execute(new InsertInput(tableName).withRecords(page)).getRecords());
+      }
+      logWrites(backendName, tableName, "postInsert", inserted.size(), start);
+
+      List<QRecord> updates = new ArrayList<>();
+      for(int i = 0; i < inserted.size(); i++)
+      {
+         updates.add(new QRecord().withValue("id", inserted.get(i).getValue("id")).withValue(fieldName, newValues.get(i)));
+      }
+      start = System.nanoTime();
+      for(List<QRecord> page : CollectionUtils.getPages(updates, BATCH_SIZE))
+      {
+         new UpdateAction().execute(new UpdateInput(tableName).withRecords(page));
+      }
+      logWrites(backendName, tableName, "postUpdate", updates.size(), start);
+
+      List<Serializable> ids = new ArrayList<>();
+      inserted.forEach(r -> ids.add(r.getValue("id")));
+      start = System.nanoTime();
+      for(List<Serializable> page : CollectionUtils.getPages(ids, BATCH_SIZE))
+      {
+         new DeleteAction().execute(new DeleteInput(tableName).withPrimaryKeys(page));
+      }
+      logWrites(backendName, tableName, "postDelete", ids.size(), start);
+   }
+
+
+
+   /***************************************************************************
+    **
+    ***************************************************************************/
+   private static void logWrites(String backendName, String tableName, String hook, int recordCount, long startNanos)
+   {
+      long                      nanos            = System.nanoTime() - startNanos;
+      LatencyHistogram.Snapshot hookSnapshot     = PermissionManager.getInstance().getMetricsRegistry().getLatencyHistogram("customizer." + tableName + "." + hook).snapshot();
+      double                    customizerMillis = hookSnapshot.getMeanMillis() * hookSnapshot.getCount();
+
+      LOG.info("Scale test writes",
+         logPair("backend", backendName),
+         logPair("table", tableName),
+         logPair("hook", hook),
+         logPair("records", recordCount),
+         logPair("millis", nanos / 1_000_000),
+         logPair("recordsPerSecond", recordCount * 1_000_000_000L / Math.max(1, nanos)),
+         logPair("customizerMillis", Math.round(customizerMillis)),
+         logPair("customizerPercent", Math.round(customizerMillis * 100_000_000 / Math.max(1, nanos))));
+
+      assertEquals((recordCount + BATCH_SIZE - 1) / BATCH_SIZE, hookSnapshot.getCount());
+   }
+
+
+
+   /***************************************************************************
+    ** the nth index (counting down from count - 1) that isn't in the (sorted)
+    ** held indexes.
+    ***************************************************************************/
+   private static int unheldIndex(int[] heldIndexes, int count, int nth)
+   {
+      for(int index = count - 1; index >= 0; index--)
+      {
+         if(Arrays.binarySearch(heldIndexes, index) < 0 && nth-- == 0)
+         {
+            return (index);
+         }
+      }
+      throw (new IllegalStateException("Fewer than " + (nth + 1) + " unheld indexes"));
+   }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for PermissionSet and PermissionDictionary
+ *******************************************************************************/
+class PermissionSetTest
+{
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testDictionary()
+   {
+      PermissionDictionary dictionary = new PermissionDictionary();
+      assertEquals(-1, dictionary.indexOf("a"));
+
+      int a = dictionary.register(100, "a");
+      assertEquals(a, dictionary.intern("a"));
+      assertEquals(a, dictionary.indexOf("a"));
+      assertEquals(a, dictionary.indexOfId(100));
+      assertEquals(-1, dictionary.indexOfId(101));
+      assertEquals("a", dictionary.getName(a));
+
+      ///////////////////////////////////////////////////
+      // make sure the dictionary grows past its start //
+      ///////////////////////////////////////////////////
+      for(int i = 0; i < 1000; i++)
+      {
+         assertEquals("p" + i, dictionary.getName(dictionary.intern("p" + i)));
+      }
+      assertEquals(1001, dictionary.size());
+   }
+
+
+
+   /*******************************************************************************
+    ** after refreshIds, ids keep their indexes until they're re-registered -
+    ** with their new names, if they were renamed.
+    *******************************************************************************/
+   @Test
+   void testDictionaryRefreshIds()
+   {
+      PermissionDictionary dictionary = new PermissionDictionary();
+      int                  a          = dictionary.register(100, "a");
+      assertTrue(dictionary.isIdCurrent(100));
+      assertFalse(dictionary.isIdCurrent(101));
+      assertFalse(dictionary.isIdCurrent(null));
+
+      dictionary.refreshIds();
+      assertFalse(dictionary.isIdCurrent(100));
+      assertEquals(a, dictionary.indexOfId(100));
+
+      int b = dictionary.register(100, "b");
+      assertTrue(dictionary.isIdCurrent(100));
+      assertEquals(b, dictionary.indexOfId(100));
+      assertEquals("b", dictionary.getName(dictionary.indexOfId(100)));
+      assertEquals(a, dictionary.indexOf("a"));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testContainsUnionIntersect()
+   {
+      PermissionDictionary dictionary = new PermissionDictionary();
+      for(int i = 0; i < 200; i++)
+      {
+         dictionary.intern("p" + i);
+      }
+
+      PermissionSet ab = PermissionSet.builder(dictionary).add("p1").add("p150").build();
+      PermissionSet bc = PermissionSet.builder(dictionary).add("p150").add("p199").build();
+
+      assertTrue(ab.contains("p1"));
+      assertTrue(ab.contains("p150"));
+      assertFalse(ab.contains("p199"));
+      assertFalse(ab.contains("not-a-permission"));
+      assertFalse(ab.contains(-1));
+
+      assertEquals(Set.of("p1", "p150", "p199"), ab.union(bc).asNameSet());
+      assertEquals(Set.of("p150"), ab.intersect(bc).asNameSet());
+      assertEquals(Set.of(), PermissionSet.builder(dictionary).add("p1").build().intersect(bc).asNameSet());
+      assertEquals(0, PermissionSet.empty(dictionary).size());
+      assertEquals(ab, ab.union(PermissionSet.empty(dictionary)));
+
+      ////////////////////////////////////////////////////////
+      // trailing zero words shouldn't affect equals & hash //
+      ////////////////////////////////////////////////////////
+      PermissionSet p150 = PermissionSet.builder(dictionary).add("p150").build();
+      PermissionSet p1   = PermissionSet.builder(dictionary).add("p1").build();
+      assertEquals(p1, p1.union(p150).intersect(p1));
+      assertEquals(p1.hashCode(), p1.union(p150).intersect(p1).hashCode());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testNameSetView()
+   {
+      PermissionDictionary dictionary = new PermissionDictionary();
+      PermissionSet        set        = PermissionSet.builder(dictionary).add("a").add("b").add("c").build();
+
+      Set<String> names = set.asNameSet();
+      assertEquals(Set.of("a", "b", "c"), names);
+      assertEquals(names, Set.of("a", "b", "c"));
+      assertEquals(3, names.size());
+      assertTrue(names.contains("b"));
+      assertFalse(names.contains(1));
+      assertEquals(Set.of("a", "b", "c"), new HashSet<>(names));
+
+      assertThrows(UnsupportedOperationException.class, () -> names.add("d"));
+      assertThrows(UnsupportedOperationException.class, () -> names.remove("a"));
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testDifferentDictionaries()
+   {
+      PermissionSet a = PermissionSet.builder(new PermissionDictionary()).add("a").build();
+      PermissionSet b = PermissionSet.builder(new PermissionDictionary()).add("a").build();
+      assertThrows(IllegalArgumentException.class, () -> a.union(b));
+   }
+
+
+
+   /*******************************************************************************
+    ** empty sets are the dictionary's one shared instance (across refreshIds
+    ** epochs, and new names) - so reads that find nothing don't allocate.
+    *******************************************************************************/
+   @Test
+   void testEmptyIsShared()
+   {
+      PermissionDictionary dictionary = new PermissionDictionary();
+      PermissionSet        empty      = PermissionSet.empty(dictionary);
+      assertEquals(0, empty.size());
+      assertTrue(empty.asNameSet().isEmpty());
+
+      dictionary.register(100, "a");
+      dictionary.refreshIds();
+      assertSame(empty, PermissionSet.empty(dictionary));
+      assertFalse(PermissionSet.empty(dictionary).contains("a"));
+      assertNotSame(empty, PermissionSet.empty(new PermissionDictionary()));
+
+      ///////////////////////////////////////////////////////////////////
+      // and, where the JVM can measure it, getting one many times     //
+      // allocates (close to) nothing - where a new set each time      //
+      // would be tens of bytes apiece.                                //
+      ///////////////////////////////////////////////////////////////////
+      if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean && threadMXBean.isThreadAllocatedMemorySupported())
+      {
+         long threadId = Thread.currentThread().getId();
+         long before   = threadMXBean.getThreadAllocatedBytes(threadId);
+         int  total    = 0;
+         for(int i = 0; i < 100_000; i++)
+         {
+            total += PermissionSet.empty(dictionary).size();
+         }
+         long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+         assertEquals(0, total);
+         assertTrue(allocated < 100_000, "Expected no allocation per empty set, but allocated " + allocated + " bytes");
+      }
+   }
+
+}
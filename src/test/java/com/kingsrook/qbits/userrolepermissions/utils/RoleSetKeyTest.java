@@ -0,0 +1,105 @@
+/*
+ * QQQ - Low-code Application Framework for Engineers.
+ * Copyright (C) 2021-2025.  Kingsrook, LLC
+ * 651 N Broad St Ste 205 # 6917 | Middletown DE 19709 | United States
+ * contact@kingsrook.com
+ * https://github.com/Kingsrook/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.kingsrook.qbits.userrolepermissions.utils;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/*******************************************************************************
+ ** Unit test for RoleSetKey
+ *******************************************************************************/
+class RoleSetKeyTest
+{
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testCanonicalForm()
+   {
+      RoleSetKey key = RoleSetKey.of(Arrays.asList(3, 1, 2, 3, null));
+      assertEquals(List.of(1, 2, 3), key.toList());
+      assertEquals(3, key.size());
+      assertEquals("[1, 2, 3]", key.toString());
+
+      RoleSetKey same = RoleSetKey.of(2, 3, 1);
+      assertEquals(key, same);
+      assertEquals(key.hashCode(), same.hashCode());
+      assertEquals(key.getHash64(), same.getHash64());
+
+      assertNotEquals(key, RoleSetKey.of(1, 2));
+      assertNotEquals(key, RoleSetKey.of(1, 2, 4));
+
+      assertTrue(RoleSetKey.of((Set<Integer>) null).isEmpty());
+      assertEquals(RoleSetKey.of(Set.of()), RoleSetKey.of());
+   }
+
+
+
+   /*******************************************************************************
+    **
+    *******************************************************************************/
+   @Test
+   void testContains()
+   {
+      RoleSetKey key = RoleSetKey.of(Set.of(10, 20, 30));
+      assertTrue(key.contains(10));
+      assertTrue(key.contains(30));
+      assertFalse(key.contains(15));
+      assertFalse(RoleSetKey.of().contains(10));
+   }
+
+
+
+   /*******************************************************************************
+    ** a key must not change when the collection (or array) it came from does.
+    *******************************************************************************/
+   @Test
+   void testImmutable()
+   {
+      Set<Integer> roleIds = new HashSet<>(Set.of(1, 2));
+      RoleSetKey   key     = RoleSetKey.of(roleIds);
+      roleIds.add(3);
+      assertEquals(RoleSetKey.of(1, 2), key);
+
+      int[] array = new int[] { 2, 1 };
+      key = RoleSetKey.of(array);
+      array[0] = 5;
+      assertEquals(List.of(1, 2), key.toList());
+
+      List<Integer> list = key.toList();
+      list.add(7);
+      assertEquals(2, key.size());
+      assertEquals(new ArrayList<>(List.of(1, 2)), key.toList());
+   }
+
+}
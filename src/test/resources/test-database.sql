@@ -83,3 +83,60 @@ CREATE TABLE user_permission_int
 
 ALTER TABLE user_permission_int ADD UNIQUE user_permission_int_u_user_id_permission_id (user_id, permission_id);
 ALTER TABLE user_permission_int ADD index user_permission_int_i_permission_id (permission_id);
+
+
+
+DROP TABLE IF EXISTS permission_change_log;
+CREATE TABLE permission_change_log
+(
+   id             INTEGER AUTO_INCREMENT PRIMARY KEY,
+   create_date    TIMESTAMP DEFAULT now(),
+   source_node_id VARCHAR(100),
+   flush_all      BOOLEAN,
+   user_ids       VARCHAR(4000),
+   role_ids       VARCHAR(4000)
+);
+
+ALTER TABLE permission_change_log ADD INDEX permission_change_log_i_create_date (create_date);
+
+
+
+DROP TABLE IF EXISTS permission_version;
+CREATE TABLE permission_version
+(
+   id          INTEGER PRIMARY KEY,
+   modify_date TIMESTAMP DEFAULT now(),
+   version     INTEGER
+);
+
+-- seed the single version row, so writers only ever update it
+INSERT INTO permission_version (id, version) VALUES (1, 0);
+
+
+
+DROP TABLE IF EXISTS user_effective_permission;
+CREATE TABLE user_effective_permission
+(
+   id             INTEGER AUTO_INCREMENT PRIMARY KEY,
+   create_date    TIMESTAMP DEFAULT now(),
+   user_id        INTEGER NOT NULL,
+   permission_id  INTEGER NOT NULL,
+   source_role_id INTEGER
+);
+
+ALTER TABLE user_effective_permission ADD UNIQUE user_effective_permission_u_user_id_permission_id_source_role_id (user_id, permission_id, source_role_id);
+ALTER TABLE user_effective_permission ADD INDEX user_effective_permission_i_source_role_id_permission_id (source_role_id, permission_id);
+
+
+
+
+DROP TABLE IF EXISTS user_effective_permission_lock;
+CREATE TABLE user_effective_permission_lock
+(
+   id            INTEGER AUTO_INCREMENT PRIMARY KEY,
+   lock_key      VARCHAR(100) NOT NULL,
+   lock_date     TIMESTAMP,
+   complete_date TIMESTAMP
+);
+
+ALTER TABLE user_effective_permission_lock ADD UNIQUE user_effective_permission_lock_u_lock_key (lock_key);